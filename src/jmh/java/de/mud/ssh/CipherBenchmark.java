@@ -0,0 +1,94 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meißner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.ssh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the ciphers on 64K buffers, encrypted and decrypted in
+ * place like the packet codec does it. One operation is one byte and the
+ * time unit is microseconds, so the scores read as MB/s. Run with
+ * "gradle jmh".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherBenchmark {
+
+    private final static int SIZE = 64 * 1024;
+
+    @Param({"DES", "DES3", "Blowfish", "IDEA", "AES128CTR"})
+    public String cipher;
+
+    private Cipher enc, dec;
+    private final byte[] buffer = new byte[SIZE];
+
+    @Setup
+    public void setup() {
+        byte[] key = new byte[32];
+        Random random = new Random(42);
+        random.nextBytes(key);
+        random.nextBytes(buffer);
+        enc = Cipher.getInstance(cipher);
+        dec = Cipher.getInstance(cipher);
+        if (enc == null || dec == null) {
+            throw new IllegalStateException("cipher " + cipher + " is not available");
+        }
+        enc.setKey(key);
+        dec.setKey(key);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public byte[] encrypt() {
+        enc.encrypt(buffer, 0, buffer, 0, SIZE);
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public byte[] decrypt() {
+        dec.decrypt(buffer, 0, buffer, 0, SIZE);
+        return buffer;
+    }
+}
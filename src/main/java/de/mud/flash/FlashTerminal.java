@@ -2,6 +2,7 @@ package de.mud.flash;
 
 import de.mud.terminal.VDUBuffer;
 import de.mud.terminal.VDUDisplay;
+import de.mud.terminal.VDUFrame;
 import de.mud.terminal.VDUInput;
 import org.jdom.Element;
 import org.jdom.JDOMException;
@@ -11,6 +12,7 @@ import org.jdom.output.XMLOutputter;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayDeque;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -123,6 +125,7 @@ public class FlashTerminal implements VDUDisplay, Runnable {
                 } else if ("start".equals(name)) {
                     terminalReady = true;
                     buffer.update[0] = true;
+                    buffer.publishFrame();
                     redraw();
                 }
             }
@@ -132,32 +135,44 @@ public class FlashTerminal implements VDUDisplay, Runnable {
         }
     }
 
-    // placeholder for the terminal element and the xml outputter
-    private final Element terminal = new Element("terminal");
+    // lines of the simple terminal waiting to be sent and the xml outputter
+    private final ArrayDeque<Element> updates = new ArrayDeque<Element>();
     private final XMLOutputter xmlOutputter = new XMLOutputter();
 
     /**
      * Redraw terminal (send new/changed terminal lines to flash frontend).
+     * The buffer is locked only while lines are taken from it, writing
+     * to the frontend happens without its lock.
      */
     public void redraw() {
         logger.fine("FlashTerminal: redraw()");
 
-        if (terminalReady && writer != null) {
-            try {
-                // remove children from terminal
-                for (Object obj : terminal.getChildren()) {
-                    Element child = (Element) obj;
-                    terminal.removeChild(child.getName());
-                    terminal.removeChild(child.getName(), child.getNamespace());
+        if (!terminalReady || writer == null) {
+            return;
+        }
+        if (simpleMode) {
+            // the simple terminal reads the live buffer, queue its lines in order
+            synchronized (buffer) {
+                Element result = redrawSimpleTerminal(new Element("terminal"));
+                if (!result.getChildren().isEmpty()) {
+                    synchronized (updates) {
+                        updates.add(result);
+                    }
                 }
-
+            }
+        }
+        synchronized (this) {
+            if (writer == null) {
+                return;
+            }
+            try {
                 if (simpleMode) {
-                    Element result = redrawSimpleTerminal(terminal);
-                    if (!result.getChildren().isEmpty()) {
+                    Element result;
+                    while ((result = nextUpdate()) != null) {
                         xmlOutputter.output(result, writer);
                     }
                 } else {
-                    xmlOutputter.output(redrawFullTerminal(terminal), writer);
+                    xmlOutputter.output(redrawFullTerminal(new Element("terminal")), writer);
                 }
                 writer.write(0);
                 writer.flush();
@@ -170,6 +185,12 @@ public class FlashTerminal implements VDUDisplay, Runnable {
         }
     }
 
+    private Element nextUpdate() {
+        synchronized (updates) {
+            return updates.poll();
+        }
+    }
+
     /**
      * The simple terminal only draws new lines and ignores
      * changes on lines aready written.
@@ -209,18 +230,28 @@ public class FlashTerminal implements VDUDisplay, Runnable {
      * @return the final terminal tag
      */
     private Element redrawFullTerminal(Element terminal) {
-        // cycle through buffer and create terminal update ...
-        for (int l = 0; l < buffer.height; l++) {
-            if (!buffer.update[0] && !buffer.update[l + 1]) {
+        VDUFrame next = buffer.swapFrame(frame);
+        if (next == null) {
+            return terminal;
+        }
+        frame = next;
+        // cycle through the frame and create terminal update, the frontend
+        // replaces complete lines so any damage sends the whole line
+        for (int l = 0; l < frame.height; l++) {
+            if (frame.damageFrom[l] >= frame.damageTo[l]) {
                 continue;
             }
-            buffer.update[l + 1] = false;
-            terminal.addContent(redrawLine(l, buffer.windowBase));
+            terminal.addContent(redrawLine(l, frame.charArray[l], frame.charAttributes[l], frame.width));
         }
-        buffer.update[0] = false;
         return terminal;
     }
 
+    // the line currently being sent to the flash frontend
+    private char[] rowChars = new char[0];
+    private int[] rowAttrs = new int[0];
+    // the screen last sent in full mode
+    private VDUFrame frame = new VDUFrame();
+
     /**
      * Redraw a sinle line by looking at chunks and formatting them.
      *
@@ -229,26 +260,44 @@ public class FlashTerminal implements VDUDisplay, Runnable {
      * @return an element with the formatted line
      */
     private Element redrawLine(int l, int base) {
+        if (rowChars.length < buffer.width) {
+            rowChars = new char[buffer.width];
+            rowAttrs = new int[buffer.width];
+        }
+        buffer.getRow(base + l, rowChars, rowAttrs);
+        return redrawLine(l, rowChars, rowAttrs, buffer.width);
+    }
+
+    /**
+     * Format a line whose contents have been copied already. Control
+     * characters in the copy are replaced by blanks.
+     *
+     * @param l     the current line
+     * @param chars the characters of the line
+     * @param attrs the attributes of the line
+     * @param width the amount of columns
+     * @return an element with the formatted line
+     */
+    private Element redrawLine(int l, char[] chars, int[] attrs, int width) {
         Element line = new Element("line");
         line.setAttribute("row", "" + l);
 
         // determine the maximum of characters we can print in one go
-        for (int c = 0; c < buffer.width; c++) {
+        for (int c = 0; c < width; c++) {
             int addr = 0;
-            int currAttr = buffer.charAttributes[base + l][c];
+            int currAttr = attrs[c];
 
-            while ((c + addr < buffer.width) && ((buffer.charArray[base + l][c + addr] < ' ') || (buffer
-                    .charAttributes[base + l][c + addr] == currAttr))) {
-                if (buffer.charArray[base + l][c + addr] < ' ') {
-                    buffer.charArray[base + l][c + addr] = ' ';
-                    buffer.charAttributes[base + l][c + addr] = 0;
+            while ((c + addr < width) && ((chars[c + addr] < ' ') || (attrs[c + addr] == currAttr))) {
+                if (chars[c + addr] < ' ') {
+                    chars[c + addr] = ' ';
+                    attrs[c + addr] = 0;
                     continue;
                 }
                 addr++;
             }
 
             if (addr > 0) {
-                String tmp = new String(buffer.charArray[base + l], c, addr);
+                String tmp = new String(chars, c, addr);
                 // create new text node and make sure we insert &nbsp; (160)
                 Text text = new Text(tmp.replace(' ', (char) 160));
                 Element chunk = null;
@@ -9,6 +9,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.Charset;
 
 /**
  * <B>Flash Terminal Server implementation</B><P>
@@ -55,6 +56,10 @@ public class FlashTerminalServer implements Runnable {
     private Socket socket;
     private InputStream is;
     private OutputStream os;
+
+    /* longest time output is held waiting for the end of a record */
+    private final static int RECORD_HOLD = 100;
+
     private boolean running;
 
     /**
@@ -88,6 +93,10 @@ public class FlashTerminalServer implements Runnable {
                 }
             }
         };
+        // decode host output like the platform does
+        emulation.setEncoding(Charset.defaultCharset().name());
+        // send prompts complete if the host marks them with EOR or GA
+        emulation.setRecordHold(RECORD_HOLD);
 
         // then we create the actual telnet protocol handler that will negotiate
         // incoming data and transpose outgoing (see above)
@@ -113,7 +122,7 @@ public class FlashTerminalServer implements Runnable {
                 if (debug > 0) {
                     System.err.println("FlashTerminalServer: EOR");
                 }
-                terminal.redraw();
+                emulation.endOfRecord();
             }
 
             /** write data to our back end */
@@ -124,6 +133,13 @@ public class FlashTerminalServer implements Runnable {
                 }
                 os.write(b);
             }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (debug > 0) {
+                    System.err.println("FlashTerminalServer: writing " + new String(b, off, len));
+                }
+                os.write(b, off, len);
+            }
         };
 
         try {
@@ -163,9 +179,9 @@ public class FlashTerminalServer implements Runnable {
         int n = 0;
         while (running && n >= 0) {
             try {
-                n = telnet.negotiate(b);    // we still have stuff buffered ...
+                n = telnet.negotiate(b, 0, b.length);    // we still have stuff buffered ...
                 if (n > 0) {
-                    emulation.putString(new String(b, 0, n));
+                    emulation.putBytes(b, 0, n);
                 }
 
                 while (true) {
@@ -177,12 +193,12 @@ public class FlashTerminalServer implements Runnable {
                         continue;
                     }
 
-                    telnet.inputfeed(b, n);
+                    telnet.inputfeed(b, 0, n);
                     n = 0;
                     while (true) {
-                        n = telnet.negotiate(b);
+                        n = telnet.negotiate(b, 0, b.length);
                         if (n > 0) {
-                            emulation.putString(new String(b, 0, n));
+                            emulation.putBytes(b, 0, n);
                         }
                         if (n == -1) // buffer empty.
                         {
@@ -196,5 +212,6 @@ public class FlashTerminalServer implements Runnable {
             }
         }
         System.err.println("FlashTerminalServer: finished reading from remote host");
+        emulation.dispose();
     }
 }
\ No newline at end of file
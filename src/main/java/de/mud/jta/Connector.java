@@ -0,0 +1,404 @@
+package de.mud.jta;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Opens the socket connections for the socket plugin and the wrappers.
+ * All addresses of a host are tried, alternating between IPv6 and IPv4,
+ * and if an attempt does not succeed within a short delay the next one is
+ * started in parallel. The first connection established wins and the other
+ * attempts are given up.
+ * <p>
+ * Resolved addresses are kept for a while and addresses that failed
+ * recently are tried last, so many sessions reconnecting at once do not
+ * all wait for the same dead address. The connect latency of each host is
+ * recorded and can be read with getStats().
+ *
+ * @see de.mud.jta.plugin.Socket
+ * @see Wrapper#connect
+ */
+public class Connector {
+    private static final Logger logger = Logger.getLogger(Connector.class.getName());
+
+    /**
+     * default time to wait for a connection in milliseconds
+     */
+    public final static int CONNECT_TIMEOUT = 10000;
+    /**
+     * default delay in milliseconds before the next address is tried
+     */
+    public final static int STAGGER = 250;
+    /**
+     * default time in milliseconds resolved addresses are kept
+     */
+    public final static int DNS_TTL = 60000;
+
+    /* how long an address that failed is tried last, in milliseconds */
+    private final static long PENALTY = 60000;
+
+    private int connectTimeout = CONNECT_TIMEOUT;
+    private int readTimeout = 0;
+    private int stagger = STAGGER;
+
+    private static volatile int dnsTtl = DNS_TTL;
+    private static final Map<String, Resolved> dns = new ConcurrentHashMap<String, Resolved>();
+    private static final Map<InetAddress, Long> failed = new ConcurrentHashMap<InetAddress, Long>();
+    private static final Map<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+
+    /* runs the connection attempts, shared by all connectors */
+    private static final ExecutorService attempts = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Connector");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Set the time to wait for a connection to be established. This limits
+     * the whole connect(), not each attempt.
+     *
+     * @param millis the timeout in milliseconds, 0 waits forever
+     */
+    public void setConnectTimeout(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("connect timeout must not be negative: " + millis);
+        }
+        connectTimeout = millis;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Set the read timeout of the sockets opened.
+     *
+     * @param millis the timeout in milliseconds, 0 waits forever
+     * @see Socket#setSoTimeout
+     */
+    public void setReadTimeout(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("read timeout must not be negative: " + millis);
+        }
+        readTimeout = millis;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Set the delay after which the next address is tried while the
+     * previous attempts are still running.
+     *
+     * @param millis the delay in milliseconds
+     */
+    public void setStagger(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("stagger must not be negative: " + millis);
+        }
+        stagger = millis;
+    }
+
+    /**
+     * Set how long resolved addresses are kept. This applies to all
+     * connectors.
+     *
+     * @param millis the time in milliseconds, 0 resolves the host every time
+     */
+    public static void setDnsTtl(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("DNS TTL must not be negative: " + millis);
+        }
+        dnsTtl = millis;
+        if (millis == 0) {
+            dns.clear();
+        }
+    }
+
+    /**
+     * Get the connect statistics of a host.
+     *
+     * @param host the host name as passed to connect()
+     * @return the statistics or null if no connect to the host was tried
+     */
+    public static Stats getStats(String host) {
+        return stats.get(host.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Connect to a host.
+     *
+     * @param host the host name or address
+     * @param port the port
+     * @return the connected socket
+     * @throws IOException the error of the last attempt, or a
+     *                     SocketTimeoutException if the connect timeout passed
+     */
+    public Socket connect(String host, int port) throws IOException {
+        String key = host.toLowerCase(Locale.ROOT);
+        Stats hs = stats.get(key);
+        if (hs == null) {
+            stats.putIfAbsent(key, new Stats());
+            hs = stats.get(key);
+        }
+        long start = System.nanoTime();
+        InetAddress[] addresses;
+        try {
+            addresses = order(resolve(key));
+        } catch (UnknownHostException e) {
+            hs.failed();
+            throw e;
+        }
+
+        BlockingQueue<Attempt> done = new LinkedBlockingQueue<Attempt>();
+        List<Attempt> running = new ArrayList<Attempt>(addresses.length);
+        Attempt winner = null;
+        IOException failure = null;
+        int next = 0, pending = 0;
+        try {
+            while (true) {
+                if (next < addresses.length) {
+                    Attempt a = new Attempt(addresses[next++], port, done);
+                    running.add(a);
+                    attempts.execute(a);
+                    pending++;
+                }
+                if (pending == 0) {
+                    break;
+                }
+                long left = connectTimeout == 0 ? Long.MAX_VALUE
+                        : connectTimeout - (System.nanoTime() - start) / 1000000;
+                if (left <= 0) {
+                    failure = new SocketTimeoutException("connect to " + host + ":" + port + " timed out");
+                    break;
+                }
+                Attempt a = done.poll(next < addresses.length ? Math.min(stagger, left) : left,
+                        TimeUnit.MILLISECONDS);
+                if (a == null) {
+                    // start the next attempt, or give up if the time is over
+                    continue;
+                }
+                pending--;
+                if (a.error == null) {
+                    winner = a;
+                    break;
+                }
+                failed.put(a.address, System.currentTimeMillis());
+                failure = a.error;
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Connector: " + a.address + " failed: " + a.error);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while connecting to " + host);
+        } finally {
+            for (Attempt a : running) {
+                if (a != winner) {
+                    a.cancel();
+                }
+            }
+        }
+
+        if (winner == null) {
+            // resolve again next time, the host may have moved
+            dns.remove(key);
+            hs.failed();
+            throw failure;
+        }
+        failed.remove(winner.address);
+        hs.connected(System.nanoTime() - start);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Connector: connected to " + winner.address + " in "
+                    + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+        winner.socket.setSoTimeout(readTimeout);
+        return winner.socket;
+    }
+
+    /**
+     * Resolve a host, using the cached addresses if they did not expire.
+     */
+    private static InetAddress[] resolve(String host) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        Resolved r = dns.get(host);
+        if (r != null && r.expires - now > 0) {
+            return r.addresses;
+        }
+        InetAddress[] addresses = InetAddress.getAllByName(host);
+        if (dnsTtl > 0) {
+            dns.put(host, new Resolved(addresses, now + dnsTtl));
+        }
+        return addresses;
+    }
+
+    /**
+     * Sort addresses in the order they are tried: alternating between the
+     * address families, starting with the first family the resolver
+     * returned, and addresses that failed recently at the end.
+     */
+    private static InetAddress[] order(InetAddress[] addresses) {
+        long now = System.currentTimeMillis();
+        List<InetAddress> first = new ArrayList<InetAddress>();
+        List<InetAddress> other = new ArrayList<InetAddress>();
+        List<InetAddress> bad = new ArrayList<InetAddress>();
+        Boolean v6 = null;
+        for (InetAddress a : addresses) {
+            Long t = failed.get(a);
+            if (t != null && now - t < PENALTY) {
+                bad.add(a);
+                continue;
+            }
+            if (v6 == null) {
+                v6 = a instanceof Inet6Address;
+            }
+            ((a instanceof Inet6Address) == v6 ? first : other).add(a);
+        }
+        InetAddress[] ordered = new InetAddress[addresses.length];
+        int n = 0;
+        for (int i = 0; i < first.size() || i < other.size(); i++) {
+            if (i < first.size()) {
+                ordered[n++] = first.get(i);
+            }
+            if (i < other.size()) {
+                ordered[n++] = other.get(i);
+            }
+        }
+        for (InetAddress a : bad) {
+            ordered[n++] = a;
+        }
+        return ordered;
+    }
+
+    /**
+     * A connection attempt to a single address.
+     */
+    private final class Attempt implements Runnable {
+        final InetAddress address;
+        final int port;
+        final BlockingQueue<Attempt> done;
+        Socket socket;
+        IOException error;
+        private boolean cancelled;
+
+        Attempt(InetAddress address, int port, BlockingQueue<Attempt> done) {
+            this.address = address;
+            this.port = port;
+            this.done = done;
+        }
+
+        public void run() {
+            Socket s = new Socket();
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                socket = s;
+            }
+            try {
+                s.connect(new InetSocketAddress(address, port), connectTimeout);
+            } catch (IOException e) {
+                error = e;
+            }
+            done.add(this);
+        }
+
+        /**
+         * Give up the attempt, closing the socket aborts a running connect.
+         */
+        void cancel() {
+            Socket s;
+            synchronized (this) {
+                cancelled = true;
+                s = socket;
+            }
+            if (s != null) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    private static final class Resolved {
+        final InetAddress[] addresses;
+        final long expires;
+
+        Resolved(InetAddress[] addresses, long expires) {
+            this.addresses = addresses;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Connect statistics of a host.
+     */
+    public static final class Stats {
+        private long connects, failures;
+        private long last;                   /* latency of the last connect */
+        private long total;                 /* latency of all connects */
+
+        synchronized void connected(long nanos) {
+            connects++;
+            last = nanos;
+            total += nanos;
+        }
+
+        synchronized void failed() {
+            failures++;
+        }
+
+        /**
+         * @return the amount of successful connects
+         */
+        public synchronized long getConnects() {
+            return connects;
+        }
+
+        /**
+         * @return the amount of connects that failed
+         */
+        public synchronized long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the time the last successful connect took in milliseconds
+         */
+        public synchronized double getLastLatency() {
+            return last / 1e6;
+        }
+
+        /**
+         * @return the average time successful connects took in milliseconds
+         */
+        public synchronized double getAverageLatency() {
+            return connects == 0 ? 0 : total / 1e6 / connects;
+        }
+
+        public synchronized String toString() {
+            return "connects=" + connects + " failures=" + failures
+                    + String.format(Locale.ROOT, " last=%.1fms avg=%.1fms", getLastLatency(), getAverageLatency());
+        }
+    }
+}
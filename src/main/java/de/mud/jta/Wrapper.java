@@ -50,6 +50,7 @@ public class Wrapper {
     protected String host;
     protected int port = 23;
     protected Vector script = new Vector();
+    protected Connector connector = new Connector();
 
     /**
      * Connect the socket and open the connection.
@@ -57,7 +58,7 @@ public class Wrapper {
     public void connect(String host, int port) throws IOException {
         logger.log(Level.WARNING, "Wrapper: connect(" + host + "," + port + ")");
         try {
-            socket = new java.net.Socket(host, port);
+            socket = connector.connect(host, port);
             in = socket.getInputStream();
             out = socket.getOutputStream();
         } catch (Exception e) {
@@ -67,6 +68,13 @@ public class Wrapper {
         }
     }
 
+    /**
+     * Get the connector used to open the connection, to change its timeouts.
+     */
+    public Connector getConnector() {
+        return connector;
+    }
+
     /**
      * Disconnect the socket and close the connection.
      */
@@ -0,0 +1,18 @@
+package de.mud.jta.event;
+
+import de.mud.jta.PluginListener;
+
+/**
+ * This interface should be used by plugins who would like to get the
+ * structured data hosts send with GMCP, instead of scanning the text.
+ */
+public interface GMCPListener extends PluginListener {
+    /**
+     * Called for each GMCP message received.
+     *
+     * @param name the package and message name, like "Char.Vitals"
+     * @param data the decoded JSON value: a Map, List, String, Long, Double
+     *             or Boolean, null if there is none
+     */
+    public void gmcpMessage(String name, Object data);
+}
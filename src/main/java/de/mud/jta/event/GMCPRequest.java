@@ -0,0 +1,33 @@
+package de.mud.jta.event;
+
+import de.mud.jta.PluginListener;
+import de.mud.jta.PluginMessage;
+
+/**
+ * Notification of a GMCP message received from the host.
+ */
+public class GMCPRequest implements PluginMessage {
+    protected String name;
+    protected Object data;
+
+    /**
+     * Create a new GMCP message notification.
+     */
+    public GMCPRequest(String name, Object data) {
+        this.name = name;
+        this.data = data;
+    }
+
+    /**
+     * Notify all listeners about the message.
+     *
+     * @param pl the list of plugin message listeners
+     * @return always null
+     */
+    public Object firePluginMessage(PluginListener pl) {
+        if (pl instanceof GMCPListener) {
+            ((GMCPListener) pl).gmcpMessage(name, data);
+        }
+        return null;
+    }
+}
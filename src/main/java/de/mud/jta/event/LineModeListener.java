@@ -0,0 +1,20 @@
+package de.mud.jta.event;
+
+import de.mud.jta.PluginListener;
+
+/**
+ * This interface should be used by plugins who would like to be notified
+ * about the telnet LINEMODE negotiated with the remote host.
+ */
+public interface LineModeListener extends PluginListener {
+    /**
+     * Called if the line mode changes.
+     *
+     * @param edit        true if lines are edited locally and sent as a whole
+     * @param trapsig     true if signal characters are sent as telnet commands
+     * @param slc         special characters indexed by SLC function, 0 if
+     *                    not supported
+     * @param forwardMask 256 bits for characters that end a line, or null
+     */
+    public void setLineMode(boolean edit, boolean trapsig, byte[] slc, byte[] forwardMask);
+}
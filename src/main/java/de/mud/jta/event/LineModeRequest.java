@@ -0,0 +1,36 @@
+package de.mud.jta.event;
+
+import de.mud.jta.PluginListener;
+import de.mud.jta.PluginMessage;
+
+/**
+ * Notification of the telnet LINEMODE. The terminal should edit lines
+ * locally and send them as a whole while edit is true.
+ */
+public class LineModeRequest implements PluginMessage {
+    protected boolean edit, trapsig;
+    protected byte[] slc, forwardMask;
+
+    /**
+     * Create a new line mode request. The arrays are copied.
+     */
+    public LineModeRequest(boolean edit, boolean trapsig, byte[] slc, byte[] forwardMask) {
+        this.edit = edit;
+        this.trapsig = trapsig;
+        this.slc = slc.clone();
+        this.forwardMask = forwardMask == null ? null : forwardMask.clone();
+    }
+
+    /**
+     * Notify all listeners about the line mode.
+     *
+     * @param pl the list of plugin message listeners
+     * @return always null
+     */
+    public Object firePluginMessage(PluginListener pl) {
+        if (pl instanceof LineModeListener) {
+            ((LineModeListener) pl).setLineMode(edit, trapsig, slc, forwardMask);
+        }
+        return null;
+    }
+}
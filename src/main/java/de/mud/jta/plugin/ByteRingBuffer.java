@@ -0,0 +1,136 @@
+package de.mud.jta.plugin;
+
+import java.io.InterruptedIOException;
+
+/**
+ * A bounded byte buffer connecting a single producer thread with a single
+ * consumer thread. The producer blocks while the buffer is full, which is
+ * how a slow consumer pushes back on the producer. Closing the buffer lets
+ * the consumer drain what is left and then see the end of the stream.
+ * The producer can also mark a position in the stream, reading stops
+ * there until the consumer took the mark.
+ *
+ * @see Terminal#run
+ */
+final class ByteRingBuffer {
+
+    private final byte[] ring;
+    private int head;                      /* index of the first byte */
+    private int count;                /* amount of bytes in the buffer */
+    private boolean closed;
+    private long written, taken;          /* bytes ever written and read */
+    private long mark = -1;             /* position of the mark, if any */
+
+    /**
+     * Create a new buffer.
+     *
+     * @param capacity the maximum amount of bytes buffered
+     */
+    ByteRingBuffer(int capacity) {
+        ring = new byte[capacity];
+    }
+
+    /**
+     * Append bytes to the buffer, waiting for room as needed.
+     *
+     * @param b   the array holding the bytes
+     * @param off index of the first byte
+     * @param len amount of bytes
+     * @throws InterruptedIOException if the thread was interrupted or the
+     *                                buffer was closed while waiting
+     */
+    synchronized void write(byte[] b, int off, int len) throws InterruptedIOException {
+        while (len > 0) {
+            while (count == ring.length && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted while waiting for the consumer");
+                }
+            }
+            if (closed) {
+                throw new InterruptedIOException("buffer closed");
+            }
+            int tail = (head + count) % ring.length;
+            int n = Math.min(len, Math.min(ring.length - count, ring.length - tail));
+            System.arraycopy(b, off, ring, tail, n);
+            if (count == 0) {
+                notifyAll();
+            }
+            count += n;
+            written += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Take bytes from the buffer, waiting until at least one is available.
+     * No bytes beyond the mark are taken, and if the mark is reached no
+     * bytes are taken at all until takeMark() was called.
+     *
+     * @param b   the array to copy the bytes into
+     * @param off index of the first byte to fill
+     * @param len maximum amount of bytes
+     * @return the amount of bytes copied or -1 if the buffer is closed and
+     * empty
+     * @throws InterruptedIOException if the thread was interrupted
+     * @see #takeMark
+     */
+    synchronized int read(byte[] b, int off, int len) throws InterruptedIOException {
+        while (count == 0 && mark != taken) {
+            if (closed) {
+                return -1;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted while waiting for the producer");
+            }
+        }
+        int n = Math.min(len, count);
+        if (mark >= taken) {
+            n = (int) Math.min(n, mark - taken);
+        }
+        int first = Math.min(n, ring.length - head);
+        System.arraycopy(ring, head, b, off, first);
+        System.arraycopy(ring, 0, b, off + first, n - first);
+        if (count == ring.length) {
+            notifyAll();
+        }
+        head = (head + n) % ring.length;
+        count -= n;
+        taken += n;
+        return n;
+    }
+
+    /**
+     * Mark the current end of the stream. An older mark the consumer did
+     * not reach yet is replaced.
+     */
+    synchronized void mark() {
+        mark = written;
+        notifyAll();
+    }
+
+    /**
+     * Check whether the consumer reached the mark and remove it if so.
+     *
+     * @return true if all bytes up to the mark were read
+     */
+    synchronized boolean takeMark() {
+        if (mark == taken) {
+            mark = -1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Mark the end of the stream. Bytes still buffered can be read.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
@@ -0,0 +1,226 @@
+package de.mud.jta.plugin;
+
+import de.mud.jta.FilterPlugin;
+import de.mud.jta.PluginBus;
+import de.mud.jta.event.TelnetCommandRequest;
+import de.mud.telnet.TelnetProtocolHandler;
+import de.mud.terminal.vt320;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Local line editing for telnet LINEMODE. While editing, typed characters
+ * are collected and echoed locally, the special characters negotiated with
+ * the remote host erase and reprint the line, and only complete lines are
+ * sent, each with a single write.
+ *
+ * @see Terminal
+ * @see TelnetProtocolHandler#notifyLineMode
+ */
+final class LineEditor {
+
+    /* telnet commands sent for the signal characters with TRAPSIG */
+    private final static byte BRK = (byte) 243, IP = (byte) 244, AO = (byte) 245, AYT = (byte) 246;
+    private final static byte ABORT = (byte) 238, SUSP = (byte) 237, EOF = (byte) 236;
+
+    private final vt320 emulation;
+    private final FilterPlugin out;
+    private final PluginBus bus;
+
+    private volatile boolean edit;
+    private boolean trapsig;
+    private byte[] slc = new byte[TelnetProtocolHandler.SLC_LNEXT + 1];
+    private byte[] forwardMask;
+
+    private byte[] line = new byte[256];
+    private int len;
+    private boolean literal;               /* next character is not special */
+    private boolean cr;                      /* last character was a CR */
+    private final StringBuilder echo = new StringBuilder();
+
+    /**
+     * Create a line editor.
+     *
+     * @param emulation the terminal to echo to
+     * @param out       where complete lines are written to
+     * @param bus       the bus to send telnet commands over
+     */
+    LineEditor(vt320 emulation, FilterPlugin out, PluginBus bus) {
+        this.emulation = emulation;
+        this.out = out;
+        this.bus = bus;
+    }
+
+    /**
+     * Change the line mode. When editing stops, what was typed so far is
+     * sent as it is.
+     */
+    synchronized void setLineMode(boolean edit, boolean trapsig, byte[] slc, byte[] forwardMask)
+            throws IOException {
+        if (this.edit && !edit) {
+            send();
+        }
+        this.edit = edit;
+        this.trapsig = trapsig;
+        this.slc = slc;
+        this.forwardMask = forwardMask;
+    }
+
+    /**
+     * @return true while lines are edited locally
+     */
+    boolean isEditing() {
+        return edit;
+    }
+
+    /**
+     * Handle typed characters. The echo is put to the terminal after the
+     * editor lock is released, the parser thread holds the terminal lock
+     * while it answers the host.
+     *
+     * @param b the bytes the terminal emulation generated for the keys
+     */
+    void type(byte[] b) throws IOException {
+        String text;
+        synchronized (this) {
+            try {
+                edit(b);
+            } finally {
+                text = echo.toString();
+                echo.setLength(0);
+            }
+        }
+        if (text.length() > 0) {
+            emulation.putString(text);
+        }
+    }
+
+    private void edit(byte[] b) throws IOException {
+        for (byte x : b) {
+            int c = x & 0xff;
+            boolean wasCR = cr;
+            cr = c == '\r';
+            if (literal) {
+                literal = false;
+                append(x);
+                continue;
+            }
+            if (c == '\r' || c == '\n') {
+                if (c == '\n' && wasCR) {
+                    continue;
+                }
+                echo.append("\r\n");
+                // transposed to CR LF by the telnet filter
+                append((byte) '\n');
+                send();
+                continue;
+            }
+            if (c == 0) {
+                append(x);
+            } else if (trapsig && signal(c)) {
+                continue;
+            } else if (c == special(TelnetProtocolHandler.SLC_EC) || c == '\b' || c == 127) {
+                if (len > 0) {
+                    len--;
+                    echo.append("\b \b");
+                }
+            } else if (c == special(TelnetProtocolHandler.SLC_EL)) {
+                erase(0);
+            } else if (c == special(TelnetProtocolHandler.SLC_EW)) {
+                int n = len;
+                while (n > 0 && line[n - 1] == ' ') {
+                    n--;
+                }
+                while (n > 0 && line[n - 1] != ' ') {
+                    n--;
+                }
+                erase(n);
+            } else if (c == special(TelnetProtocolHandler.SLC_RP)) {
+                echo.append("\r\n").append(new String(line, 0, len, StandardCharsets.ISO_8859_1));
+            } else if (c == special(TelnetProtocolHandler.SLC_LNEXT)) {
+                literal = true;
+            } else {
+                append(x);
+                if (forwardMask != null && (forwardMask[c >> 3] & (0x80 >> (c & 7))) != 0) {
+                    send();
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the telnet command for a signal character. The line typed so far
+     * is dropped, except for EOF where it is sent first.
+     *
+     * @return true if the character was a signal character
+     */
+    private boolean signal(int c) throws IOException {
+        byte cmd;
+        if (c == special(TelnetProtocolHandler.SLC_IP)) {
+            cmd = IP;
+        } else if (c == special(TelnetProtocolHandler.SLC_ABORT)) {
+            cmd = ABORT;
+        } else if (c == special(TelnetProtocolHandler.SLC_SUSP)) {
+            cmd = SUSP;
+        } else if (c == special(TelnetProtocolHandler.SLC_BRK)) {
+            cmd = BRK;
+        } else if (c == special(TelnetProtocolHandler.SLC_AO)) {
+            cmd = AO;
+        } else if (c == special(TelnetProtocolHandler.SLC_AYT)) {
+            cmd = AYT;
+        } else if (c == special(TelnetProtocolHandler.SLC_EOF)) {
+            send();
+            cmd = EOF;
+        } else {
+            return false;
+        }
+        if (cmd != AO && cmd != AYT && len > 0) {
+            len = 0;
+            echo.append("\r\n");
+        }
+        bus.broadcast(new TelnetCommandRequest(cmd));
+        return true;
+    }
+
+    /**
+     * @return the special character for an SLC function or -1 if there is none
+     */
+    private int special(int function) {
+        return function < slc.length && slc[function] != 0 ? slc[function] & 0xff : -1;
+    }
+
+    private void append(byte x) {
+        if (len == line.length) {
+            byte[] xl = new byte[line.length * 2];
+            System.arraycopy(line, 0, xl, 0, len);
+            line = xl;
+        }
+        line[len++] = x;
+        if ((x & 0xff) >= 32 && x != 127) {
+            echo.append((char) (x & 0xff));
+        }
+    }
+
+    /**
+     * Erase the end of the line, starting at the given position.
+     */
+    private void erase(int from) {
+        for (; len > from; len--) {
+            echo.append("\b \b");
+        }
+    }
+
+    /**
+     * Send the line typed so far with a single write.
+     */
+    private void send() throws IOException {
+        if (len == 0) {
+            return;
+        }
+        byte[] b = new byte[len];
+        System.arraycopy(line, 0, b, 0, len);
+        len = 0;
+        out.write(b);
+    }
+}
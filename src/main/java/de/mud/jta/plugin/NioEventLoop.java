@@ -0,0 +1,140 @@
+package de.mud.jta.plugin;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A thread waiting on a Selector for many channels at once. A small pool of
+ * loops is shared by all NioSocket plugins in the virtual machine, so the
+ * amount of I/O threads does not grow with the amount of sessions.
+ * Channels are registered and their interest changed only from the loop's
+ * own thread, other threads hand these changes over with execute().
+ *
+ * @see NioSocket
+ */
+final class NioEventLoop implements Runnable {
+    private static final Logger logger = Logger.getLogger(NioEventLoop.class.getName());
+
+    /**
+     * Called by the loop when a channel is ready.
+     */
+    interface Handler {
+        /**
+         * Called on the loop thread when the channel was registered.
+         */
+        void registered(SelectionKey key);
+
+        /**
+         * Handle the operations the key is ready for.
+         */
+        void ready(SelectionKey key) throws IOException;
+
+        /**
+         * Called if ready() failed, the key is cancelled already.
+         */
+        void failed(IOException e);
+    }
+
+    /* amount of loops shared by all sessions */
+    private final static int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static NioEventLoop[] loops;
+    private static final AtomicInteger nextLoop = new AtomicInteger();
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private NioEventLoop(int n) throws IOException {
+        selector = Selector.open();
+        Thread thread = new Thread(this, "NioEventLoop-" + n);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get a loop for a new channel. Loops are started when first needed and
+     * handed out in turn.
+     */
+    static synchronized NioEventLoop next() throws IOException {
+        if (loops == null) {
+            NioEventLoop[] l = new NioEventLoop[THREADS];
+            for (int i = 0; i < l.length; i++) {
+                l[i] = new NioEventLoop(i);
+            }
+            loops = l;
+        }
+        return loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    /**
+     * Run a task on the loop thread as soon as possible.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Register a channel with the loop, the handler is called when it is
+     * ready for one of the operations.
+     *
+     * @param channel a non-blocking channel
+     * @param ops     the interest set
+     * @param handler the handler attached to the key
+     */
+    void register(final SelectableChannel channel, final int ops, final Handler handler) {
+        execute(() -> {
+            try {
+                handler.registered(channel.register(selector, ops, handler));
+            } catch (ClosedChannelException e) {
+                handler.failed(e);
+            }
+        });
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "NioEventLoop: select failed", e);
+                continue;
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "NioEventLoop: task failed", e);
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Handler handler = (Handler) key.attachment();
+                try {
+                    if (key.isValid()) {
+                        handler.ready(key);
+                    }
+                } catch (IOException e) {
+                    key.cancel();
+                    handler.failed(e);
+                } catch (RuntimeException e) {
+                    key.cancel();
+                    logger.log(Level.SEVERE, "NioEventLoop: handler failed", e);
+                    handler.failed(new IOException(e.toString()));
+                }
+            }
+        }
+    }
+}
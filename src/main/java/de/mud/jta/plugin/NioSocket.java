@@ -0,0 +1,446 @@
+package de.mud.jta.plugin;
+
+import de.mud.jta.Connector;
+import de.mud.jta.FilterPlugin;
+import de.mud.jta.Plugin;
+import de.mud.jta.PluginBus;
+import de.mud.jta.event.ConfigurationListener;
+import de.mud.jta.event.OnlineStatus;
+import de.mud.jta.event.SocketListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * The NIO socket plugin is a data source for networked operations like the
+ * socket plugin, but its connection is served by a small pool of threads
+ * shared by all sessions in the virtual machine. Received data is kept in
+ * a buffer of the session until read() takes it; if the buffer is full
+ * reading from the network pauses. Instead of reading, a Receiver can be
+ * set that gets the data on the loop thread as soon as it arrives. Written
+ * data is queued and sent with gathering writes as soon as the network
+ * takes it.
+ * <p>
+ * It uses the same relay settings as the socket plugin, configured with
+ * NioSocket.relay and NioSocket.relayPort. NioSocket.connectTimeout limits
+ * the time connect() waits, in milliseconds (0 waits forever).
+ *
+ * @see Socket
+ */
+public class NioSocket extends Plugin implements FilterPlugin, SocketListener {
+
+    private final static int debug = 0;
+
+    /* size of the receive buffer and of the buffers in the send queue */
+    private final static int IN_SIZE = 64 * 1024;
+    private final static int OUT_SIZE = 8 * 1024;
+    /* send buffers kept for reuse */
+    private final static int OUT_SPARE = 4;
+
+    protected String relay = null;
+    protected int relayPort = 31415;
+    protected int connectTimeout = Connector.CONNECT_TIMEOUT;
+
+    /**
+     * Gets received data as soon as it arrives, instead of read().
+     *
+     * @see #setReceiver
+     */
+    public interface Receiver {
+        /**
+         * Called on the loop thread with the data received. The buffer is
+         * only valid during the call and has to be consumed completely.
+         * This must not block, as the thread serves other sessions too.
+         */
+        void received(ByteBuffer data);
+
+        /**
+         * Called when no more data will arrive, on the loop thread or on
+         * the thread calling connect() if the connection could not be made.
+         *
+         * @param failure why the connection failed, null at the end of the
+         *                stream
+         */
+        void closed(IOException failure);
+    }
+
+    private Receiver receiver;
+
+    private final Session session = new Session();
+    private NioEventLoop loop;
+    private SocketChannel channel;
+    private SelectionKey key;
+
+    private final ByteBuffer inbound = ByteBuffer.allocateDirect(IN_SIZE);
+    private boolean readPaused;          /* inbound was full */
+    private boolean eof;                   /* no more data will arrive */
+    private boolean connected;
+    private IOException failure;
+
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>();
+    private final ArrayDeque<ByteBuffer> spare = new ArrayDeque<ByteBuffer>();
+    private ByteBuffer[] gather = new ByteBuffer[0];
+    private boolean writePending;         /* waiting for OP_WRITE */
+
+    /**
+     * Create a new NIO socket plugin.
+     */
+    public NioSocket(final PluginBus bus, final String id) {
+        super(bus, id);
+
+        // register socket listener
+        bus.registerPluginListener(this);
+
+        bus.registerPluginListener((ConfigurationListener) config -> {
+            if ((relay = config.getProperty("NioSocket", id, "relay")) != null) {
+                if (config.getProperty("NioSocket", id, "relayPort") != null) {
+                    try {
+                        relayPort = Integer.parseInt(config.getProperty("NioSocket", id, "relayPort"));
+                    } catch (NumberFormatException e) {
+                        NioSocket.this.error("relayPort is not a number");
+                    }
+                }
+            }
+            String value;
+            if ((value = config.getProperty("NioSocket", id, "connectTimeout")) != null) {
+                try {
+                    int millis = Integer.parseInt(value);
+                    if (millis < 0) {
+                        throw new NumberFormatException();
+                    }
+                    connectTimeout = millis;
+                } catch (NumberFormatException e) {
+                    NioSocket.this.error("illegal timeout: " + value);
+                }
+            }
+        });
+    }
+
+    private String error = null;
+
+    /**
+     * Pass received data to the receiver instead of keeping it for read().
+     * Set it before connect(), read() then only reports the end of the
+     * stream.
+     *
+     * @param receiver the receiver, null to go back to read()
+     */
+    public synchronized void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * Connect to the host and port passed, through the relay if one is
+     * configured. Returns when the connection is established, failed or
+     * took longer than NioSocket.connectTimeout.
+     *
+     * @see Socket#connect
+     */
+    public void connect(String host, int port) {
+        if (host == null) {
+            return;
+        }
+        if (debug > 0) {
+            error("connect(" + host + "," + port + ")");
+        }
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            boolean done = channel.connect(relay == null ? new InetSocketAddress(host, port)
+                    : new InetSocketAddress(relay, relayPort));
+            synchronized (this) {
+                this.channel = channel;
+                inbound.clear();
+                readPaused = eof = false;
+                connected = done;
+                failure = null;
+            }
+            loop = NioEventLoop.next();
+            loop.register(channel, done ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, session);
+            long deadline = System.nanoTime() + connectTimeout * 1000000L;
+            boolean timedOut = false;
+            synchronized (this) {
+                while (!connected && failure == null && !timedOut) {
+                    if (connectTimeout == 0) {
+                        wait();
+                    } else {
+                        long left = (deadline - System.nanoTime()) / 1000000;
+                        if (left > 0) {
+                            wait(left);
+                        } else {
+                            // the loop drops the key of a channel that is not ours
+                            timedOut = true;
+                            this.channel = null;
+                        }
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+            if (timedOut) {
+                channel.close();
+                throw new SocketTimeoutException("connect timed out after " + connectTimeout + " ms");
+            }
+            // send the string to relay to the target host, port
+            if (relay != null) {
+                write(("relay " + host + " " + port + "\n").getBytes());
+            }
+        } catch (Exception e) {
+            error = "Sorry, Could not connect to: " + host + " " + port + "\r\n" +
+                    "Reason: " + e + "\r\n\r\n";
+            error("can't connect: " + e);
+            Receiver receiver;
+            synchronized (this) {
+                eof = true;
+                receiver = this.receiver;
+            }
+            if (receiver != null) {
+                receiver.closed(e instanceof IOException ? (IOException) e : new IOException(e.toString()));
+            }
+        }
+        bus.broadcast(new OnlineStatus(true));
+    }
+
+    /**
+     * Disconnect the socket and close the connection.
+     */
+    public void disconnect() throws IOException {
+        if (debug > 0) {
+            error("disconnect()");
+        }
+        bus.broadcast(new OnlineStatus(false));
+        SocketChannel channel;
+        synchronized (this) {
+            channel = this.channel;
+            this.channel = null;
+            eof = true;
+            outbound.clear();
+            notifyAll();
+        }
+        if (channel != null) {
+            // closing deregisters the channel with the next select
+            channel.close();
+        }
+    }
+
+    public void setFilterSource(FilterPlugin plugin) {
+        // we do not have a source other than our socket
+    }
+
+    public FilterPlugin getFilterSource() {
+        return null;
+    }
+
+    /**
+     * Take received data, waiting until some arrives.
+     */
+    public int read(byte[] b) throws IOException {
+        // send error messages upward
+        if (error != null && !error.isEmpty()) {
+            int n = error.length() < b.length ? error.length() : b.length;
+            System.arraycopy(error.getBytes(), 0, b, 0, n);
+            error = error.substring(n);
+            return n;
+        }
+
+        int n;
+        synchronized (this) {
+            while (inbound.position() == 0 && !eof) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted while waiting for data");
+                }
+            }
+            if (inbound.position() == 0) {
+                n = -1;
+            } else {
+                inbound.flip();
+                n = Math.min(b.length, inbound.remaining());
+                inbound.get(b, 0, n);
+                inbound.compact();
+                if (readPaused) {
+                    readPaused = false;
+                    interest(SelectionKey.OP_READ, true);
+                }
+            }
+        }
+        if (n < 0) {
+            disconnect();
+        }
+        return n;
+    }
+
+    /**
+     * Queue data to be sent. As much as the network takes right away is
+     * sent at once, the rest is sent by the event loop.
+     */
+    public void write(byte[] b) throws IOException {
+        IOException failure;
+        synchronized (this) {
+            if (channel == null || !connected) {
+                return;
+            }
+            int off = 0;
+            ByteBuffer last = outbound.peekLast();
+            if (last != null && last.limit() < last.capacity()) {
+                // fill up the last buffer, it is in read mode
+                int pos = last.position();
+                int n = Math.min(b.length, last.capacity() - last.limit());
+                last.position(last.limit()).limit(last.capacity());
+                last.put(b, 0, n);
+                last.limit(last.position()).position(pos);
+                off = n;
+            }
+            while (off < b.length) {
+                ByteBuffer buf = spare.isEmpty() ? ByteBuffer.allocateDirect(OUT_SIZE) : spare.poll();
+                int n = Math.min(b.length - off, buf.capacity());
+                buf.put(b, off, n).flip();
+                outbound.add(buf);
+                off += n;
+            }
+            if (writePending) {
+                return;
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                this.failure = e;
+            }
+            failure = this.failure;
+            if (failure == null && !outbound.isEmpty()) {
+                writePending = true;
+                interest(SelectionKey.OP_WRITE, true);
+            }
+        }
+        if (failure != null) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Send as much of the queue as the network takes with a single
+     * gathering write. Must be called with the lock held.
+     */
+    private void flush() throws IOException {
+        if (gather.length < outbound.size()) {
+            gather = new ByteBuffer[Math.max(outbound.size(), gather.length * 2)];
+        }
+        int n = outbound.size();
+        outbound.toArray(gather);
+        channel.write(gather, 0, n);
+        while (!outbound.isEmpty() && !outbound.peek().hasRemaining()) {
+            ByteBuffer buf = outbound.poll();
+            if (spare.size() < OUT_SPARE) {
+                buf.clear();
+                spare.add(buf);
+            }
+        }
+        Arrays.fill(gather, 0, n, null);
+    }
+
+    /**
+     * Change the interest set of the key on the loop thread.
+     */
+    private void interest(final int op, final boolean on) {
+        final NioEventLoop loop = this.loop;
+        loop.execute(() -> {
+            SelectionKey key = this.key;
+            if (key != null && key.isValid()) {
+                key.interestOps(on ? key.interestOps() | op : key.interestOps() & ~op);
+            }
+        });
+    }
+
+    /**
+     * The connection as seen by the event loop.
+     */
+    private class Session implements NioEventLoop.Handler {
+        public void registered(SelectionKey k) {
+            synchronized (NioSocket.this) {
+                key = k;
+            }
+        }
+
+        public void ready(SelectionKey k) throws IOException {
+            Receiver receiver;
+            boolean received = false;
+            boolean closed = false;
+            synchronized (NioSocket.this) {
+                receiver = NioSocket.this.receiver;
+                if (k.channel() != channel) {
+                    // a connection we have given up already
+                    k.cancel();
+                    return;
+                }
+                if (k.isConnectable()) {
+                    channel.finishConnect();
+                    connected = true;
+                    k.interestOps(SelectionKey.OP_READ);
+                    NioSocket.this.notifyAll();
+                }
+                if (k.isReadable()) {
+                    int n = channel.read(inbound);
+                    if (n < 0) {
+                        eof = true;
+                        closed = receiver != null;
+                        k.interestOps(k.interestOps() & ~SelectionKey.OP_READ);
+                    } else if (receiver != null && n > 0) {
+                        // read() sees an empty buffer until it is cleared again
+                        received = true;
+                        inbound.flip();
+                    } else if (!inbound.hasRemaining()) {
+                        // wait for read() to make room
+                        readPaused = true;
+                        k.interestOps(k.interestOps() & ~SelectionKey.OP_READ);
+                    }
+                    if (n != 0) {
+                        NioSocket.this.notifyAll();
+                    }
+                }
+                if (k.isValid() && k.isWritable()) {
+                    flush();
+                    if (outbound.isEmpty()) {
+                        writePending = false;
+                        k.interestOps(k.interestOps() & ~SelectionKey.OP_WRITE);
+                    }
+                }
+            }
+            // call the receiver without the lock, it may well write()
+            if (received) {
+                try {
+                    receiver.received(inbound);
+                } finally {
+                    synchronized (NioSocket.this) {
+                        inbound.clear();
+                    }
+                }
+            }
+            if (closed) {
+                receiver.closed(null);
+            }
+        }
+
+        public void failed(IOException e) {
+            Receiver receiver;
+            synchronized (NioSocket.this) {
+                failure = e;
+                eof = true;
+                // before that connect() reports the failure
+                receiver = connected ? NioSocket.this.receiver : null;
+                NioSocket.this.notifyAll();
+            }
+            if (receiver != null) {
+                receiver.closed(e);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package de.mud.jta.plugin;
 
+import de.mud.jta.Connector;
 import de.mud.jta.FilterPlugin;
 import de.mud.jta.Plugin;
 import de.mud.jta.PluginBus;
@@ -11,6 +12,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionListener;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Arrays;
 import java.util.logging.Logger;
 
@@ -70,6 +72,14 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
         bus.registerPluginListener((ConfigurationListener) config -> {
             user = config.getProperty("SSH", id, "user");
             pass = config.getProperty("SSH", id, "password");
+            String level = config.getProperty("SSH", id, "compression");
+            if (level != null) {
+                try {
+                    handler.setCompressionLevel(Integer.parseInt(level));
+                } catch (IllegalArgumentException e) {
+                    SSH.this.error("illegal compression level: " + e.getMessage());
+                }
+            }
         });
 
         bus.registerPluginListener((SetWindowSizeListener) (columns, rows) -> {
@@ -81,9 +91,24 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
         });
 
 
+        // the socket plugin registered first, so it is connected already
+        bus.registerPluginListener(new SocketListener() {
+            public void connect(String host, int port) {
+                Connector.Stats stats = host == null ? null : Connector.getStats(host);
+                if (stats != null && stats.getConnects() > 0) {
+                    handler.setConnectTime(stats.getLastLatency());
+                }
+            }
+
+            public void disconnect() {
+                // the online status tells us
+            }
+        });
+
         // reset the protocol handler just in case :-)
         bus.registerPluginListener(new OnlineStatusListener() {
             public void online() {
+                handler.connected(-1);
                 if (pass == null) {
 
                     final Frame frame = new Frame("SSH User Authentication");
@@ -107,7 +132,7 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
                         handler.setLogin(login.getText());
                         handler.setPassword(passw.getText());
                         frame.dispose();
-                        auth = true;
+                        setAuth(true);
                     };
                     ok.addActionListener(enter);
                     passw.addActionListener(enter);
@@ -127,13 +152,13 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
                     error(user + ":" + pass);
                     handler.setLogin(user);
                     handler.setPassword(pass);
-                    auth = true;
+                    setAuth(true);
                 }
             }
 
             public void offline() {
                 handler.disconnect();
-                auth = false;
+                setAuth(false);
                 bus.broadcast(new SocketRequest());
             }
         });
@@ -148,6 +173,11 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
         return source;
     }
 
+    private synchronized void setAuth(boolean auth) {
+        this.auth = auth;
+        notifyAll();
+    }
+
     private byte[] buffer;
     private int pos;
 
@@ -162,11 +192,13 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
      */
     public int read(byte[] b) throws IOException {
         // we don't want to read from the pipeline without authorization
-        while (!auth) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        synchronized (this) {
+            while (!auth) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted while waiting for authorization");
+                }
             }
         }
 
@@ -185,10 +217,8 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
         // now that the buffer is empty let's read more data and decrypt it
         int n = source.read(b);
         if (n > 0) {
-            byte[] tmp = new byte[n];
-            System.arraycopy(b, 0, tmp, 0, n);
             pos = 0;
-            buffer = handler.handleSSH(tmp);
+            buffer = handler.handleSSH(b, 0, n);
 
             if (buffer != null && buffer.length > 0) {
                 System.err.println("ssh: " + Arrays.toString(buffer));
@@ -214,15 +244,12 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
     /**
      * Write data to the back end. This hands the data over to the ssh
      * protocol handler who encrypts the information and writes it to
-     * the actual back end pipe.
+     * the actual back end pipe. Data written before the session is open
+     * is queued by the handler.
      *
      * @param b the unencrypted data to be encrypted and sent
      */
     public void write(byte[] b) throws IOException {
-        // no write until authorization is done
-        if (!auth) {
-            return;
-        }
         for (int i = 0; i < b.length; i++) {
             switch (b[i]) {
                 case 10: /* \n -> \r */
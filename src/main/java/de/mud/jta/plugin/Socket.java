@@ -1,5 +1,6 @@
 package de.mud.jta.plugin;
 
+import de.mud.jta.Connector;
 import de.mud.jta.FilterPlugin;
 import de.mud.jta.Plugin;
 import de.mud.jta.PluginBus;
@@ -30,6 +31,8 @@ public class Socket extends Plugin implements FilterPlugin, SocketListener {
     protected String relay = null;
     protected int relayPort = 31415;
 
+    protected Connector connector = new Connector();
+
     /**
      * Create a new socket plugin.
      */
@@ -49,6 +52,20 @@ public class Socket extends Plugin implements FilterPlugin, SocketListener {
                     }
                 }
             }
+            String value;
+            try {
+                if ((value = config.getProperty("Socket", id, "connectTimeout")) != null) {
+                    connector.setConnectTimeout(Integer.parseInt(value));
+                }
+                if ((value = config.getProperty("Socket", id, "readTimeout")) != null) {
+                    connector.setReadTimeout(Integer.parseInt(value));
+                }
+                if ((value = config.getProperty("Socket", id, "dnsTtl")) != null) {
+                    Connector.setDnsTtl(Integer.parseInt(value));
+                }
+            } catch (IllegalArgumentException e) {
+                Socket.this.error("illegal timeout: " + e.getMessage());
+            }
         });
     }
 
@@ -60,6 +77,11 @@ public class Socket extends Plugin implements FilterPlugin, SocketListener {
      * is configured this method will connect to the relay first, send
      * off the string "relay host port\n" and then the real connection will
      * be published to be online.
+     * <p>
+     * All addresses of the host are tried, see Connector. The timeouts can
+     * be set with Socket.connectTimeout and Socket.readTimeout, and how
+     * long resolved addresses are kept with Socket.dnsTtl, all in
+     * milliseconds.
      */
     public void connect(String host, int port) {
         if (host == null) {
@@ -71,9 +93,12 @@ public class Socket extends Plugin implements FilterPlugin, SocketListener {
         try {
             // check the relay settings, this is for the mrelayd only!
             if (relay == null) {
-                socket = new java.net.Socket(host, port);
+                socket = connector.connect(host, port);
             } else {
-                socket = new java.net.Socket(relay, relayPort);
+                socket = connector.connect(relay, relayPort);
+            }
+            if (debug > 0) {
+                error("connect statistics: " + Connector.getStats(relay == null ? host : relay));
             }
             in = socket.getInputStream();
             out = socket.getOutputStream();
@@ -5,6 +5,7 @@ import de.mud.jta.Plugin;
 import de.mud.jta.PluginBus;
 import de.mud.jta.PluginConfig;
 import de.mud.jta.event.*;
+import de.mud.telnet.GMCPHandler;
 import de.mud.telnet.TelnetProtocolHandler;
 
 import java.awt.*;
@@ -54,6 +55,12 @@ public class Telnet extends Plugin implements FilterPlugin {
                 bus.broadcast(new EndOfRecordRequest());
             }
 
+            /** notify about LINEMODE changes */
+            public void notifyLineMode(int mode, byte[] slc, byte[] forwardMask) {
+                bus.broadcast(new LineModeRequest((mode & MODE_EDIT) != 0, (mode & MODE_TRAPSIG) != 0,
+                        slc, forwardMask));
+            }
+
             /** write data to our back end */
             public void write(byte[] b) throws IOException {
                 source.write(b);
@@ -70,6 +77,10 @@ public class Telnet extends Plugin implements FilterPlugin {
             }
 
             public void offline() {
+                if (handler.getCompressedBytes() > 0) {
+                    logger.log(Level.FINE, "Telnet: received " + handler.getCompressedBytes()
+                            + " compressed bytes for " + handler.getUncompressedBytes());
+                }
                 handler.reset();
                 bus.broadcast(new LocalEchoRequest(true));
             }
@@ -98,6 +109,34 @@ public class Telnet extends Plugin implements FilterPlugin {
         if (cr != null) {
             handler.setCR(cr);
         }
+
+        String compress = cfg.getProperty("Telnet", id, "compress");    // MCCP
+        if (compress != null) {
+            handler.setCompression(Boolean.valueOf(compress));
+        }
+
+        String linemode = cfg.getProperty("Telnet", id, "linemode");    // RFC 1184
+        if (linemode != null) {
+            handler.setLineMode(Boolean.valueOf(linemode));
+        }
+
+        String gmcp = cfg.getProperty("Telnet", id, "gmcp");    // supported packages
+        if (gmcp != null) {
+            new GMCPHandler(handler, "JTA", "2.6", gmcp.split(",")) {
+                protected void handleMessage(String name, Object data) {
+                    bus.broadcast(new GMCPRequest(name, data));
+                }
+            };
+        }
+
+        String sbmax = cfg.getProperty("Telnet", id, "maxSubnegotiation");
+        if (sbmax != null) {
+            try {
+                handler.setMaxSubnegotiationSize(Integer.parseInt(sbmax));
+            } catch (IllegalArgumentException e) {
+                error("Telnet.maxSubnegotiation: must be a positive number, not " + sbmax);
+            }
+        }
     }
 
     public void setFilterSource(FilterPlugin source) {
@@ -121,7 +160,7 @@ public class Telnet extends Plugin implements FilterPlugin {
      * any data read.
      */
         do {
-            n = handler.negotiate(b);
+            n = handler.negotiate(b, 0, b.length);
             if (n > 0) {
                 return n;
             }
@@ -136,10 +175,10 @@ public class Telnet extends Plugin implements FilterPlugin {
                 return n;
             }
 
-            handler.inputfeed(b, n);
+            handler.inputfeed(b, 0, n);
             n = 0;
             while (true) {
-                n = handler.negotiate(b);
+                n = handler.negotiate(b, 0, b.length);
                 if (n > 0) {
                     return n;
                 }
@@ -69,6 +69,14 @@ public class Terminal extends Plugin implements FilterPlugin, VisualTransferPlug
 
     private boolean localecho_overridden = false;
 
+    /* local echo of the emulation while not editing lines locally */
+    private boolean localecho = false;
+
+    /**
+     * edits lines locally in telnet LINEMODE
+     */
+    private final LineEditor editor;
+
     /**
      * Access to the system clipboard
      */
@@ -107,7 +115,12 @@ public class Terminal extends Plugin implements FilterPlugin, VisualTransferPlug
         emulation = new vt320() {
             public void write(byte[] b) {
                 try {
-                    Terminal.this.write(b);
+                    // only keys go to the line editor, answers to the host do not
+                    if (EventQueue.isDispatchThread() && editor.isEditing()) {
+                        editor.type(b);
+                    } else {
+                        Terminal.this.write(b);
+                    }
                 } catch (IOException e) {
                     reader = null;
                 }
@@ -129,6 +142,8 @@ public class Terminal extends Plugin implements FilterPlugin, VisualTransferPlug
             }
         };
 
+        editor = new LineEditor(emulation, this, bus);
+
         // create terminal
         terminal = new SwingTerminal(emulation);
 
@@ -321,7 +336,28 @@ public class Terminal extends Plugin implements FilterPlugin, VisualTransferPlug
 
         bus.registerPluginListener((LocalEchoListener) echo -> {
             if (!localecho_overridden) {
-                emulation.setLocalEcho(echo);
+                localecho = echo;
+                if (!editor.isEditing()) {
+                    emulation.setLocalEcho(echo);
+                }
+            }
+        });
+
+        bus.registerPluginListener((LineModeListener) (edit, trapsig, slc, forwardMask) -> {
+            try {
+                editor.setLineMode(edit, trapsig, slc, forwardMask);
+            } catch (IOException e) {
+                logger.warning("Terminal: could not send the edited line: " + e);
+            }
+            // the line editor echoes by itself
+            emulation.setLocalEcho(!edit && localecho);
+        });
+
+        // called by the reading thread, after the record was put into the pipe
+        bus.registerPluginListener((EndOfRecordListener) () -> {
+            ByteRingBuffer pipe = this.pipe;
+            if (pipe != null) {
+                pipe.mark();
             }
         });
 
@@ -410,7 +446,8 @@ public class Terminal extends Plugin implements FilterPlugin, VisualTransferPlug
         }
 
         if ((tmp = cfg.getProperty("Terminal", id, "localecho")) != null) {
-            emulation.setLocalEcho(Boolean.valueOf(tmp));
+            localecho = Boolean.valueOf(tmp);
+            emulation.setLocalEcho(localecho && !editor.isEditing());
             localecho_overridden = true;
         }
 
@@ -434,6 +471,10 @@ public class Terminal extends Plugin implements FilterPlugin, VisualTransferPlug
             emulation.setAnswerBack(tmp);
         }
 
+        if ((tmp = cfg.getProperty("Terminal", id, "packedCells")) != null) {
+            emulation.setPackedCells(Boolean.valueOf(tmp));
+        }
+
         if ((tmp = cfg.getProperty("Terminal", id, "buffer")) != null) {
             emulation.setBufferSize(Integer.parseInt(tmp));
         }
@@ -508,8 +549,30 @@ public class Terminal extends Plugin implements FilterPlugin, VisualTransferPlug
         if ((tmp = cfg.getProperty("Terminal", id, "IBM")) != null) {
             emulation.setIBMCharset(Boolean.valueOf(tmp));
         }
+        if ((tmp = cfg.getProperty("Terminal", id, "maxFps")) != null) {
+            try {
+                emulation.setMaxFps(Integer.parseInt(tmp));
+            } catch (NumberFormatException e) {
+                error("Terminal.maxFps: must be a number, not " + tmp);
+            }
+        }
+        if ((tmp = cfg.getProperty("Terminal", id, "recordHold")) != null) {
+            try {
+                emulation.setRecordHold(Integer.parseInt(tmp));
+            } catch (NumberFormatException e) {
+                error("Terminal.recordHold: must be a number, not " + tmp);
+            }
+        }
+        if ((tmp = cfg.getProperty("Terminal", id, "jumpScroll")) != null) {
+            emulation.setJumpScroll(Boolean.valueOf(tmp));
+        }
         if ((tmp = cfg.getProperty("Terminal", id, "encoding")) != null) {
-            encoding = tmp;
+            try {
+                emulation.setEncoding(tmp);
+                encoding = tmp;
+            } catch (IllegalArgumentException e) {
+                error("unsupported encoding: " + tmp + ", using " + encoding);
+            }
         }
 
         if ((tmp = cfg.getProperty("Terminal", id, "beep")) != null) {
@@ -523,27 +586,79 @@ public class Terminal extends Plugin implements FilterPlugin, VisualTransferPlug
         tPanel.setBackground(terminal.getBackground());
     }
 
+    /* read sizes used when reading from the back end */
+    private final static int MIN_READ = 256;
+    private final static int MAX_READ = 64 * 1024;
+    /* bytes read but not yet parsed before reading stops */
+    private final static int PIPE_SIZE = 4 * MAX_READ;
+
+    /* connects the reading thread with the emulation while online */
+    private volatile ByteRingBuffer pipe;
+
     /**
      * Continuously read from our back end and display the data on screen.
+     * Reading is done by a separate thread that feeds a bounded buffer, so
+     * the back end is read while the emulation is busy. If the emulation
+     * falls behind the buffer fills up and reading pauses.
      */
     public void run() {
-        byte[] b = new byte[256];
-        int n = 0;
-        while (n >= 0) {
-            try {
-                n = read(b);
-                if (n > 0) {
-                    logger.warning("Terminal: \"" + (new String(b, 0, n, encoding)) + "\"");
+        final ByteRingBuffer pipe = new ByteRingBuffer(PIPE_SIZE);
+        this.pipe = pipe;
+        Thread network = new Thread(() -> readBackEnd(pipe), "Terminal reader");
+        network.setDaemon(true);
+        network.start();
+
+        byte[] b = new byte[MAX_READ];
+        try {
+            int n;
+            while ((n = pipe.read(b, 0, b.length)) >= 0) {
+                if (logger.isLoggable(Level.FINEST)) {
+                    logger.finest("Terminal: \"" + (new String(b, 0, n, encoding)) + "\"");
                 }
-                if (n > 0) {
-                    emulation.putString(new String(b, 0, n, encoding));
+                emulation.putBytes(b, 0, n);
+                if (pipe.takeMark()) {
+                    emulation.endOfRecord();
                 }
-                tPanel.repaint();
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, e.toString(), e);
-                reader = null;
-                break;
             }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, e.toString(), e);
+            reader = null;
+        } finally {
+            // make sure the reading thread does not wait for us forever
+            pipe.close();
+        }
+    }
+
+    /**
+     * Read from the back end into the pipe until the end of the stream.
+     * The read size doubles while reads fill the buffer completely and is
+     * halved again when only little data arrives.
+     */
+    private void readBackEnd(ByteRingBuffer pipe) {
+        byte[][] buffers = new byte[Integer.numberOfTrailingZeros(MAX_READ / MIN_READ) + 1][];
+        int size = 0;
+        try {
+            int n;
+            do {
+                if (buffers[size] == null) {
+                    buffers[size] = new byte[MIN_READ << size];
+                }
+                byte[] b = buffers[size];
+                n = read(b);
+                if (n > 0) {
+                    pipe.write(b, 0, n);
+                    if (n == b.length && size < buffers.length - 1) {
+                        size++;
+                    } else if (n < b.length / 8 && size > 0) {
+                        size--;
+                    }
+                }
+            } while (n >= 0);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, e.toString(), e);
+            reader = null;
+        } finally {
+            pipe.close();
         }
     }
 
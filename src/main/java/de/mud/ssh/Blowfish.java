@@ -122,93 +122,51 @@ public final class Blowfish extends Cipher {
 
     }
 
-    public synchronized void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-        int[] out = new int[2];
+    public void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+        encryptBlocks(src, srcOff, dest, destOff, len / 8);
+    }
+
+    public void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+        decryptBlocks(src, srcOff, dest, destOff, len / 8);
+    }
+
+    /**
+     * Encrypt whole blocks in CBC mode. Source and destination may be the
+     * same array.
+     *
+     * @param nBlocks the amount of 8 byte blocks
+     */
+    public synchronized void encryptBlocks(byte[] src, int srcOff, byte[] dest, int destOff, int nBlocks) {
         int iv0 = IV0;
         int iv1 = IV1;
-        int end = srcOff + len;
-
-        for (int si = srcOff, di = destOff; si < end; si += 8, di += 8) {
-            iv0 ^= ((src[si] & 0xff) | ((src[si + 1] & 0xff) << 8) |
-                    ((src[si + 2] & 0xff) << 16) | ((src[si + 3] & 0xff) << 24));
-            iv1 ^= ((src[si + 4] & 0xff) | ((src[si + 5] & 0xff) << 8) |
-                    ((src[si + 6] & 0xff) << 16) | ((src[si + 7] & 0xff) << 24));
-            encrypt(iv0, iv1, out);
-            iv0 = out[0];
-            iv1 = out[1];
-            dest[di] = (byte) (iv0 & 0xff);
-            dest[di + 1] = (byte) ((iv0 >>> 8) & 0xff);
-            dest[di + 2] = (byte) ((iv0 >>> 16) & 0xff);
-            dest[di + 3] = (byte) ((iv0 >>> 24) & 0xff);
-            dest[di + 4] = (byte) (iv1 & 0xff);
-            dest[di + 5] = (byte) ((iv1 >>> 8) & 0xff);
-            dest[di + 6] = (byte) ((iv1 >>> 16) & 0xff);
-            dest[di + 7] = (byte) ((iv1 >>> 24) & 0xff);
+
+        for (int si = srcOff, di = destOff, end = srcOff + 8 * nBlocks; si < end; si += 8, di += 8) {
+            long b = encrypt(iv0 ^ getIntLE(src, si), iv1 ^ getIntLE(src, si + 4));
+            iv0 = (int) b;
+            iv1 = (int) (b >>> 32);
+            putIntLE(dest, di, iv0);
+            putIntLE(dest, di + 4, iv1);
         }
         IV0 = iv0;
         IV1 = iv1;
     }
 
-    public void encrypt(int xL, int xR, int[] out) {
-        int L, R;
-
-        L = xL;
-        R = xR;
-
-        L ^= P[0];
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^ P[1]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^ P[2]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^ P[3]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^ P[4]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^ P[5]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^ P[6]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^ P[7]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^ P[8]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^ P[9]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^
-                P[10]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^
-                P[11]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^
-                P[12]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^
-                P[13]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^
-                P[14]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^
-                P[15]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^
-                P[16]);
-        R ^= P[17];
-
-        out[0] = R;
-        out[1] = L;
-    }
-
-    public synchronized void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-        int[] out = new int[2];
+    /**
+     * Decrypt whole blocks in CBC mode. Source and destination may be the
+     * same array.
+     *
+     * @param nBlocks the amount of 8 byte blocks
+     */
+    public synchronized void decryptBlocks(byte[] src, int srcOff, byte[] dest, int destOff, int nBlocks) {
         int iv0 = IV0;
         int iv1 = IV1;
-        int d0;
-        int d1;
-        int end = srcOff + len;
-
-        for (int si = srcOff, di = destOff; si < end; si += 8, di += 8) {
-            d0 = ((src[si] & 0xff) | ((src[si + 1] & 0xff) << 8) |
-                    ((src[si + 2] & 0xff) << 16) | ((src[si + 3] & 0xff) << 24));
-            d1 = ((src[si + 4] & 0xff) | ((src[si + 5] & 0xff) << 8) |
-                    ((src[si + 6] & 0xff) << 16) | ((src[si + 7] & 0xff) << 24));
-            decrypt(d0, d1, out);
-            iv0 ^= out[0];
-            iv1 ^= out[1];
-            dest[di] = (byte) (iv0 & 0xff);
-            dest[di + 1] = (byte) ((iv0 >>> 8) & 0xff);
-            dest[di + 2] = (byte) ((iv0 >>> 16) & 0xff);
-            dest[di + 3] = (byte) ((iv0 >>> 24) & 0xff);
-            dest[di + 4] = (byte) (iv1 & 0xff);
-            dest[di + 5] = (byte) ((iv1 >>> 8) & 0xff);
-            dest[di + 6] = (byte) ((iv1 >>> 16) & 0xff);
-            dest[di + 7] = (byte) ((iv1 >>> 24) & 0xff);
+
+        for (int si = srcOff, di = destOff, end = srcOff + 8 * nBlocks; si < end; si += 8, di += 8) {
+            int d0 = getIntLE(src, si);
+            int d1 = getIntLE(src, si + 4);
+            long b = decrypt(d0, d1);
+            putIntLE(dest, di, iv0 ^ (int) b);
+            putIntLE(dest, di + 4, iv1 ^ (int) (b >>> 32));
             iv0 = d0;
             iv1 = d1;
         }
@@ -216,42 +174,75 @@ public final class Blowfish extends Cipher {
         IV1 = iv1;
     }
 
+    public void encrypt(int xL, int xR, int[] out) {
+        long b = encrypt(xL, xR);
+        out[0] = (int) b;
+        out[1] = (int) (b >>> 32);
+    }
+
     public int[] decrypt(int xL, int xR, int[] out) {
-        int L, R;
+        long b = decrypt(xL, xR);
+        out[0] = (int) b;
+        out[1] = (int) (b >>> 32);
+        return out;
+    }
 
-        L = xL;
-        R = xR;
+    /**
+     * Encrypt a block, the 16 rounds unrolled.
+     *
+     * @return the left half in the upper, the right half in the lower 32 bits
+     */
+    private long encrypt(int L, int R) {
+        final int[] P = this.P, S0 = this.S0, S1 = this.S1, S2 = this.S2, S3 = this.S3;
+        L ^= P[0];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[1];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[2];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[3];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[4];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[5];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[6];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[7];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[8];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[9];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[10];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[11];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[12];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[13];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[14];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[15];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[16];
+        R ^= P[17];
+
+        return ((long) L << 32) | (R & 0xffffffffL);
+    }
 
+    /**
+     * Decrypt a block, the 16 rounds unrolled.
+     *
+     * @return the left half in the upper, the right half in the lower 32 bits
+     */
+    private long decrypt(int L, int R) {
+        final int[] P = this.P, S0 = this.S0, S1 = this.S1, S2 = this.S2, S3 = this.S3;
         L ^= P[17];
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^
-                P[16]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^
-                P[15]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^
-                P[14]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^
-                P[13]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^
-                P[12]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^
-                P[11]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^
-                P[10]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^ P[9]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^ P[8]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^ P[7]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^ P[6]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^ P[5]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^ P[4]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^ P[3]);
-        R ^= ((((S0[((L >>> 24) & 0xff)] + S1[((L >>> 16) & 0xff)]) ^ S2[((L >>> 8) & 0xff)]) + S3[(L & 0xff)]) ^ P[2]);
-        L ^= ((((S0[((R >>> 24) & 0xff)] + S1[((R >>> 16) & 0xff)]) ^ S2[((R >>> 8) & 0xff)]) + S3[(R & 0xff)]) ^ P[1]);
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[16];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[15];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[14];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[13];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[12];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[11];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[10];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[9];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[8];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[7];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[6];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[5];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[4];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[3];
+        R ^= (((S0[L >>> 24] + S1[(L >>> 16) & 0xff]) ^ S2[(L >>> 8) & 0xff]) + S3[L & 0xff]) ^ P[2];
+        L ^= (((S0[R >>> 24] + S1[(R >>> 16) & 0xff]) ^ S2[(R >>> 8) & 0xff]) + S3[R & 0xff]) ^ P[1];
         R ^= P[0];
 
-        out[0] = R;
-        out[1] = L;
-
-        return out;
+        return ((long) L << 32) | (R & 0xffffffffL);
     }
 
 /* Blowfish's P and S -boxes, respectively. These were taken
@@ -24,6 +24,9 @@
  */
 package de.mud.ssh;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Cipher class is the type for all other ciphers.
  *
@@ -33,7 +36,27 @@ package de.mud.ssh;
 
 public abstract class Cipher {
 
+    /* SSH 2 cipher names in order of preference and their classes */
+    private final static String[][] SSH2_CIPHERS = {
+            {"aes128-ctr", "AES128CTR"},
+            {"aes256-ctr", "AES256CTR"},
+            {"aes128-cbc", "AES128CBC"},
+            {"3des-cbc", "DES3CBC"},
+    };
+
+    /**
+     * Get a new instance of a cipher.
+     *
+     * @param algorithm the class name of the cipher, like "DES3", or the
+     *                  SSH 2 name, like "aes128-ctr"
+     * @return the cipher or null if it is not available
+     */
     public static Cipher getInstance(String algorithm) {
+        for (String[] c : SSH2_CIPHERS) {
+            if (c[0].equals(algorithm)) {
+                algorithm = c[1];
+            }
+        }
         Class c;
         try {
             c = Class.forName("de.mud.ssh." + algorithm);
@@ -45,7 +68,43 @@ public abstract class Cipher {
     }
 
     /**
-     * Encrypt source byte array using the instantiated algorithm.
+     * Choose the cipher to use from the list the remote side offers. The
+     * ciphers of the Java Cryptography Extension are preferred, with AES
+     * in counter mode first, as the virtual machine may run them with
+     * special processor instructions (AES-NI). SshIO picks the cipher of
+     * each direction with this during the SSH 2 key exchange.
+     *
+     * @param offered comma separated SSH 2 cipher names
+     * @return the SSH 2 name of the chosen cipher or null if none fits
+     */
+    public static String choose(String offered) {
+        List<String> names = Arrays.asList(offered.split(","));
+        for (String[] c : SSH2_CIPHERS) {
+            if (names.contains(c[0]) && JCECipher.isAvailable(c[1])) {
+                return c[0];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the SSH 2 names of the ciphers available, comma separated in
+     * order of preference
+     */
+    static String available() {
+        StringBuilder sb = new StringBuilder();
+        for (String[] c : SSH2_CIPHERS) {
+            if (JCECipher.isAvailable(c[1])) {
+                sb.append(sb.length() > 0 ? "," : "").append(c[0]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Encrypt source byte array using the instantiated algorithm. This
+     * allocates the result, use encrypt(src, srcOff, dest, destOff, len)
+     * to encrypt in place.
      */
     public byte[] encrypt(byte[] src) {
         byte[] dest = new byte[src.length];
@@ -54,7 +113,8 @@ public abstract class Cipher {
     }
 
     /**
-     * The actual encryption takes place here.
+     * The actual encryption takes place here. Source and destination may be
+     * the same array.
      */
     public abstract void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len);
 
@@ -68,12 +128,41 @@ public abstract class Cipher {
     }
 
     /**
-     * The actual decryption takes place here.
+     * The actual decryption takes place here. Source and destination may be
+     * the same array.
      */
     public abstract void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len);
 
     public abstract void setKey(byte[] key);
 
+    /**
+     * Read a little endian int, as the DES and Blowfish blocks are stored.
+     */
+    static int getIntLE(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | (b[off + 3] << 24);
+    }
+
+    static void putIntLE(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+
+    /**
+     * Read a big endian int, as the IDEA blocks are stored.
+     */
+    static int getIntBE(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    static void putIntBE(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
     public void setKey(String key) {
         setKey(key.getBytes());
     }
@@ -81,57 +81,53 @@ public final class DES extends Cipher {
     protected int IV0 = 0;
     protected int IV1 = 0;
 
-    public synchronized void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-        int[] out = new int[2];
+    public void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+        encryptBlocks(src, srcOff, dest, destOff, len / 8);
+    }
+
+    public void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+        decryptBlocks(src, srcOff, dest, destOff, len / 8);
+    }
+
+    /**
+     * Encrypt whole blocks in CBC mode. Source and destination may be the
+     * same array.
+     *
+     * @param nBlocks the amount of 8 byte blocks
+     */
+    public synchronized void encryptBlocks(byte[] src, int srcOff, byte[] dest, int destOff, int nBlocks) {
+        int[] ks = key_schedule;
         int iv0 = IV0;
         int iv1 = IV1;
-        int end = srcOff + len;
-
-        for (int si = srcOff, di = destOff; si < end; si += 8, di += 8) {
-            iv0 ^= ((src[si] & 0xff) | ((src[si + 1] & 0xff) << 8) |
-                    ((src[si + 2] & 0xff) << 16) | ((src[si + 3] & 0xff) << 24));
-            iv1 ^= ((src[si + 4] & 0xff) | ((src[si + 5] & 0xff) << 8) |
-                    ((src[si + 6] & 0xff) << 16) | ((src[si + 7] & 0xff) << 24));
-            encrypt(iv0, iv1, out);
-            iv0 = out[0];
-            iv1 = out[1];
-            dest[di] = (byte) (iv0 & 0xff);
-            dest[di + 1] = (byte) ((iv0 >>> 8) & 0xff);
-            dest[di + 2] = (byte) ((iv0 >>> 16) & 0xff);
-            dest[di + 3] = (byte) ((iv0 >>> 24) & 0xff);
-            dest[di + 4] = (byte) (iv1 & 0xff);
-            dest[di + 5] = (byte) ((iv1 >>> 8) & 0xff);
-            dest[di + 6] = (byte) ((iv1 >>> 16) & 0xff);
-            dest[di + 7] = (byte) ((iv1 >>> 24) & 0xff);
+
+        for (int si = srcOff, di = destOff, end = srcOff + 8 * nBlocks; si < end; si += 8, di += 8) {
+            long b = encrypt(ks, iv0 ^ getIntLE(src, si), iv1 ^ getIntLE(src, si + 4));
+            iv0 = (int) b;
+            iv1 = (int) (b >>> 32);
+            putIntLE(dest, di, iv0);
+            putIntLE(dest, di + 4, iv1);
         }
         IV0 = iv0;
         IV1 = iv1;
     }
 
-    public synchronized void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-        int[] out = new int[2];
+    /**
+     * Decrypt whole blocks in CBC mode. Source and destination may be the
+     * same array.
+     *
+     * @param nBlocks the amount of 8 byte blocks
+     */
+    public synchronized void decryptBlocks(byte[] src, int srcOff, byte[] dest, int destOff, int nBlocks) {
+        int[] ks = key_schedule;
         int iv0 = IV0;
         int iv1 = IV1;
-        int d0;
-        int d1;
-        int end = srcOff + len;
-
-        for (int si = srcOff, di = destOff; si < end; si += 8, di += 8) {
-            d0 = ((src[si] & 0xff) | ((src[si + 1] & 0xff) << 8) |
-                    ((src[si + 2] & 0xff) << 16) | ((src[si + 3] & 0xff) << 24));
-            d1 = ((src[si + 4] & 0xff) | ((src[si + 5] & 0xff) << 8) |
-                    ((src[si + 6] & 0xff) << 16) | ((src[si + 7] & 0xff) << 24));
-            decrypt(d0, d1, out);
-            iv0 ^= out[0];
-            iv1 ^= out[1];
-            dest[di] = (byte) (iv0 & 0xff);
-            dest[di + 1] = (byte) ((iv0 >>> 8) & 0xff);
-            dest[di + 2] = (byte) ((iv0 >>> 16) & 0xff);
-            dest[di + 3] = (byte) ((iv0 >>> 24) & 0xff);
-            dest[di + 4] = (byte) (iv1 & 0xff);
-            dest[di + 5] = (byte) ((iv1 >>> 8) & 0xff);
-            dest[di + 6] = (byte) ((iv1 >>> 16) & 0xff);
-            dest[di + 7] = (byte) ((iv1 >>> 24) & 0xff);
+
+        for (int si = srcOff, di = destOff, end = srcOff + 8 * nBlocks; si < end; si += 8, di += 8) {
+            int d0 = getIntLE(src, si);
+            int d1 = getIntLE(src, si + 4);
+            long b = decrypt(ks, d0, d1);
+            putIntLE(dest, di, iv0 ^ (int) b);
+            putIntLE(dest, di + 4, iv1 ^ (int) (b >>> 32));
             iv0 = d0;
             iv1 = d1;
         }
@@ -198,7 +194,24 @@ public final class DES extends Cipher {
     }
 
     public void encrypt(int l, int r, int[] out) {
-        int t = 0, u = 0, i;
+        long b = encrypt(key_schedule, l, r);
+        out[0] = (int) b;
+        out[1] = (int) (b >>> 32);
+    }
+
+    public void decrypt(int l, int r, int[] out) {
+        long b = decrypt(key_schedule, l, r);
+        out[0] = (int) b;
+        out[1] = (int) (b >>> 32);
+    }
+
+    /**
+     * Encrypt a block with a key schedule, the 16 rounds unrolled.
+     *
+     * @return the right half in the upper, the left half in the lower 32 bits
+     */
+    static long encrypt(int[] ks, int l, int r) {
+        int t;
 
         t = ((r >>> 4) ^ l) & 0x0f0f0f0f;
         l ^= t;
@@ -220,23 +233,22 @@ public final class DES extends Cipher {
         r = (l << 1) | (l >>> 31);
         l = t;
 
-        for (i = 0; i < 32; i += 4) {
-            u = r ^ key_schedule[i];
-            t = r ^ key_schedule[i + 1];
-            t = ((t >>> 4) + (t << 28));
-            l ^= (des_SPtrans[1][(t) & 0x3f] | des_SPtrans[3][(t >>> 8) & 0x3f] |
-                    des_SPtrans[5][(t >>> 16) & 0x3f] | des_SPtrans[7][(t >>> 24) & 0x3f] |
-                    des_SPtrans[0][(u) & 0x3f] | des_SPtrans[2][(u >>> 8) & 0x3f] |
-                    des_SPtrans[4][(u >>> 16) & 0x3f] | des_SPtrans[6][(u >>> 24) & 0x3f]);
-
-            u = l ^ key_schedule[i + 2];
-            t = l ^ key_schedule[i + 3];
-            t = ((t >>> 4) + (t << 28));
-            r ^= (des_SPtrans[1][(t) & 0x3f] | des_SPtrans[3][(t >>> 8) & 0x3f] |
-                    des_SPtrans[5][(t >>> 16) & 0x3f] | des_SPtrans[7][(t >>> 24) & 0x3f] |
-                    des_SPtrans[0][(u) & 0x3f] | des_SPtrans[2][(u >>> 8) & 0x3f] |
-                    des_SPtrans[4][(u >>> 16) & 0x3f] | des_SPtrans[6][(u >>> 24) & 0x3f]);
-        }
+        l ^= f(r, ks[0], ks[1]);
+        r ^= f(l, ks[2], ks[3]);
+        l ^= f(r, ks[4], ks[5]);
+        r ^= f(l, ks[6], ks[7]);
+        l ^= f(r, ks[8], ks[9]);
+        r ^= f(l, ks[10], ks[11]);
+        l ^= f(r, ks[12], ks[13]);
+        r ^= f(l, ks[14], ks[15]);
+        l ^= f(r, ks[16], ks[17]);
+        r ^= f(l, ks[18], ks[19]);
+        l ^= f(r, ks[20], ks[21]);
+        r ^= f(l, ks[22], ks[23]);
+        l ^= f(r, ks[24], ks[25]);
+        r ^= f(l, ks[26], ks[27]);
+        l ^= f(r, ks[28], ks[29]);
+        r ^= f(l, ks[30], ks[31]);
 
         l = (l >>> 1) | (l << 31);
         r = (r >>> 1) | (r << 31);
@@ -257,12 +269,16 @@ public final class DES extends Cipher {
         l ^= t;
         r ^= t << 4;
 
-        out[0] = l;
-        out[1] = r;
+        return ((long) r << 32) | (l & 0xffffffffL);
     }
 
-    public void decrypt(int l, int r, int[] out) {
-        int t, u, i;
+    /**
+     * Decrypt a block with a key schedule, the 16 rounds unrolled.
+     *
+     * @return the right half in the upper, the left half in the lower 32 bits
+     */
+    static long decrypt(int[] ks, int l, int r) {
+        int t;
 
         t = ((r >>> 4) ^ l) & 0x0f0f0f0f;
         l ^= t;
@@ -284,23 +300,22 @@ public final class DES extends Cipher {
         r = (l << 1) | (l >>> 31);
         l = t;
 
-        for (i = 30; i > 0; i -= 4) {
-            u = r ^ key_schedule[i];
-            t = r ^ key_schedule[i + 1];
-            t = ((t >>> 4) + (t << 28));
-            l ^= (des_SPtrans[1][(t) & 0x3f] | des_SPtrans[3][(t >>> 8) & 0x3f] |
-                    des_SPtrans[5][(t >>> 16) & 0x3f] | des_SPtrans[7][(t >>> 24) & 0x3f] |
-                    des_SPtrans[0][(u) & 0x3f] | des_SPtrans[2][(u >>> 8) & 0x3f] |
-                    des_SPtrans[4][(u >>> 16) & 0x3f] | des_SPtrans[6][(u >>> 24) & 0x3f]);
-
-            u = l ^ key_schedule[i - 2];
-            t = l ^ key_schedule[i - 1];
-            t = ((t >>> 4) + (t << 28));
-            r ^= (des_SPtrans[1][(t) & 0x3f] | des_SPtrans[3][(t >>> 8) & 0x3f] |
-                    des_SPtrans[5][(t >>> 16) & 0x3f] | des_SPtrans[7][(t >>> 24) & 0x3f] |
-                    des_SPtrans[0][(u) & 0x3f] | des_SPtrans[2][(u >>> 8) & 0x3f] |
-                    des_SPtrans[4][(u >>> 16) & 0x3f] | des_SPtrans[6][(u >>> 24) & 0x3f]);
-        }
+        l ^= f(r, ks[30], ks[31]);
+        r ^= f(l, ks[28], ks[29]);
+        l ^= f(r, ks[26], ks[27]);
+        r ^= f(l, ks[24], ks[25]);
+        l ^= f(r, ks[22], ks[23]);
+        r ^= f(l, ks[20], ks[21]);
+        l ^= f(r, ks[18], ks[19]);
+        r ^= f(l, ks[16], ks[17]);
+        l ^= f(r, ks[14], ks[15]);
+        r ^= f(l, ks[12], ks[13]);
+        l ^= f(r, ks[10], ks[11]);
+        r ^= f(l, ks[8], ks[9]);
+        l ^= f(r, ks[6], ks[7]);
+        r ^= f(l, ks[4], ks[5]);
+        l ^= f(r, ks[2], ks[3]);
+        r ^= f(l, ks[0], ks[1]);
 
         l = (l >>> 1) | (l << 31);
         r = (r >>> 1) | (r << 31);
@@ -321,8 +336,19 @@ public final class DES extends Cipher {
         l ^= t;
         r ^= t << 4;
 
-        out[0] = l;
-        out[1] = r;
+        return ((long) r << 32) | (l & 0xffffffffL);
+    }
+
+    /**
+     * The round function: both halves of the round key are applied and
+     * the eight S-boxes looked up, each combined with the P permutation.
+     */
+    private static int f(int r, int k0, int k1) {
+        int u = r ^ k0;
+        int t = r ^ k1;
+        t = (t >>> 4) | (t << 28);
+        return SP1[t & 0x3f] | SP3[(t >>> 8) & 0x3f] | SP5[(t >>> 16) & 0x3f] | SP7[(t >>> 24) & 0x3f] |
+                SP0[u & 0x3f] | SP2[(u >>> 8) & 0x3f] | SP4[(u >>> 16) & 0x3f] | SP6[(u >>> 24) & 0x3f];
     }
 
     /* Table for key generation.  This used to be in sk.h.
@@ -486,4 +512,13 @@ public final class DES extends Cipher {
                     0x08208020, 0x00200000, 0x08200000, 0x08000020, 0x00208000, 0x00008020, 0x08008020, 0x08200000,
                     0x00000020, 0x08208000, 0x00208020, 0x00000000, 0x08000000, 0x08200020, 0x00008000, 0x00208020}};
 
+    /* the rows of des_SPtrans, one lookup less per S-box */
+    private final static int[] SP0 = des_SPtrans[0];
+    private final static int[] SP1 = des_SPtrans[1];
+    private final static int[] SP2 = des_SPtrans[2];
+    private final static int[] SP3 = des_SPtrans[3];
+    private final static int[] SP4 = des_SPtrans[4];
+    private final static int[] SP5 = des_SPtrans[5];
+    private final static int[] SP6 = des_SPtrans[6];
+    private final static int[] SP7 = des_SPtrans[7];
 }
@@ -36,16 +36,85 @@ public final class DES3 extends Cipher {
     final DES des2 = new DES();
     final DES des3 = new DES();
 
-    public synchronized void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-        des1.encrypt(src, srcOff, dest, destOff, len);
-        des2.decrypt(dest, destOff, dest, destOff, len);
-        des3.encrypt(dest, destOff, dest, destOff, len);
+    public void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+        encryptBlocks(src, srcOff, dest, destOff, len / 8);
     }
 
-    public synchronized void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-        des3.decrypt(src, srcOff, dest, destOff, len);
-        des2.encrypt(dest, destOff, dest, destOff, len);
-        des1.decrypt(dest, destOff, dest, destOff, len);
+    public void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+        decryptBlocks(src, srcOff, dest, destOff, len / 8);
+    }
+
+    /**
+     * Encrypt whole blocks. Each of the three DES runs in CBC mode with
+     * its own chaining state (inner CBC, as SSH 1 does it); all three are
+     * applied to a block before the next one, in a single pass over the
+     * data.
+     *
+     * @param nBlocks the amount of 8 byte blocks
+     */
+    public synchronized void encryptBlocks(byte[] src, int srcOff, byte[] dest, int destOff, int nBlocks) {
+        int[] ks1 = des1.key_schedule, ks2 = des2.key_schedule, ks3 = des3.key_schedule;
+        int a0 = des1.IV0, a1 = des1.IV1;
+        int b0 = des2.IV0, b1 = des2.IV1;
+        int c0 = des3.IV0, c1 = des3.IV1;
+
+        for (int si = srcOff, di = destOff, end = srcOff + 8 * nBlocks; si < end; si += 8, di += 8) {
+            long x = DES.encrypt(ks1, a0 ^ Cipher.getIntLE(src, si), a1 ^ Cipher.getIntLE(src, si + 4));
+            a0 = (int) x;
+            a1 = (int) (x >>> 32);
+            x = DES.decrypt(ks2, a0, a1);
+            int y0 = b0 ^ (int) x;
+            int y1 = b1 ^ (int) (x >>> 32);
+            b0 = a0;
+            b1 = a1;
+            x = DES.encrypt(ks3, c0 ^ y0, c1 ^ y1);
+            c0 = (int) x;
+            c1 = (int) (x >>> 32);
+            Cipher.putIntLE(dest, di, c0);
+            Cipher.putIntLE(dest, di + 4, c1);
+        }
+        des1.IV0 = a0;
+        des1.IV1 = a1;
+        des2.IV0 = b0;
+        des2.IV1 = b1;
+        des3.IV0 = c0;
+        des3.IV1 = c1;
+    }
+
+    /**
+     * Decrypt whole blocks, the reverse of encryptBlocks().
+     *
+     * @param nBlocks the amount of 8 byte blocks
+     */
+    public synchronized void decryptBlocks(byte[] src, int srcOff, byte[] dest, int destOff, int nBlocks) {
+        int[] ks1 = des1.key_schedule, ks2 = des2.key_schedule, ks3 = des3.key_schedule;
+        int a0 = des1.IV0, a1 = des1.IV1;
+        int b0 = des2.IV0, b1 = des2.IV1;
+        int c0 = des3.IV0, c1 = des3.IV1;
+
+        for (int si = srcOff, di = destOff, end = srcOff + 8 * nBlocks; si < end; si += 8, di += 8) {
+            int d0 = Cipher.getIntLE(src, si);
+            int d1 = Cipher.getIntLE(src, si + 4);
+            long x = DES.decrypt(ks3, d0, d1);
+            int y0 = c0 ^ (int) x;
+            int y1 = c1 ^ (int) (x >>> 32);
+            c0 = d0;
+            c1 = d1;
+            x = DES.encrypt(ks2, b0 ^ y0, b1 ^ y1);
+            b0 = (int) x;
+            b1 = (int) (x >>> 32);
+            x = DES.decrypt(ks1, b0, b1);
+            Cipher.putIntLE(dest, di, a0 ^ (int) x);
+            Cipher.putIntLE(dest, di + 4, a1 ^ (int) (x >>> 32));
+            a0 = b0;
+            a1 = b1;
+        }
+        des1.IV0 = a0;
+        des1.IV1 = a1;
+        des2.IV0 = b0;
+        des2.IV1 = b1;
+        des3.IV0 = c0;
+        des3.IV1 = c1;
     }
 
     public void setKey(byte[] key) {
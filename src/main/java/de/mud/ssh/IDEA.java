@@ -46,96 +46,75 @@ public final class IDEA extends Cipher {
     protected int IV0 = 0;
     protected int IV1 = 0;
 
+    /**
+     * Encrypt in CFB mode, a last partial block is encrypted like a
+     * stream cipher.
+     */
     public synchronized void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-        int[] out = new int[2];
+        int n = len / 8;
+        encryptBlocks(src, srcOff, dest, destOff, n);
+        if (len % 8 != 0) {
+            byte[] tail = new byte[8];
+            System.arraycopy(src, srcOff + 8 * n, tail, 0, len % 8);
+            encryptBlocks(tail, 0, tail, 0, 1);
+            System.arraycopy(tail, 0, dest, destOff + 8 * n, len % 8);
+        }
+    }
+
+    /**
+     * Decrypt in CFB mode, a last partial block is decrypted like a
+     * stream cipher.
+     */
+    public synchronized void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+        int n = len / 8;
+        decryptBlocks(src, srcOff, dest, destOff, n);
+        if (len % 8 != 0) {
+            byte[] tail = new byte[8];
+            System.arraycopy(src, srcOff + 8 * n, tail, 0, len % 8);
+            decryptBlocks(tail, 0, tail, 0, 1);
+            System.arraycopy(tail, 0, dest, destOff + 8 * n, len % 8);
+        }
+    }
+
+    /**
+     * Encrypt whole blocks in CFB mode. Source and destination may be the
+     * same array.
+     *
+     * @param nBlocks the amount of 8 byte blocks
+     */
+    public synchronized void encryptBlocks(byte[] src, int srcOff, byte[] dest, int destOff, int nBlocks) {
+        int[] ks = key_schedule;
         int iv0 = IV0;
         int iv1 = IV1;
-        int end = srcOff + len;
-
-        for (int si = srcOff, di = destOff; si < end; si += 8, di += 8) {
-            encrypt(iv0, iv1, out);
-            iv0 = out[0];
-            iv1 = out[1];
-            iv0 ^= ((src[si + 3] & 0xff) | ((src[si + 2] & 0xff) << 8) |
-                    ((src[si + 1] & 0xff) << 16) | ((src[si] & 0xff) << 24));
-            iv1 ^= ((src[si + 7] & 0xff) | ((src[si + 6] & 0xff) << 8) |
-                    ((src[si + 5] & 0xff) << 16) | ((src[si + 4] & 0xff) << 24));
-
-            if (di + 8 <= end) {
-                dest[di + 3] = (byte) (iv0 & 0xff);
-                dest[di + 2] = (byte) ((iv0 >>> 8) & 0xff);
-                dest[di + 1] = (byte) ((iv0 >>> 16) & 0xff);
-                dest[di] = (byte) ((iv0 >>> 24) & 0xff);
-                dest[di + 7] = (byte) (iv1 & 0xff);
-                dest[di + 6] = (byte) ((iv1 >>> 8) & 0xff);
-                dest[di + 5] = (byte) ((iv1 >>> 16) & 0xff);
-                dest[di + 4] = (byte) ((iv1 >>> 24) & 0xff);
-            } else {
-                switch (end - di) {
-                    case 7:
-                        dest[di + 6] = (byte) ((iv1 >>> 8) & 0xff);
-                    case 6:
-                        dest[di + 5] = (byte) ((iv1 >>> 16) & 0xff);
-                    case 5:
-                        dest[di + 4] = (byte) ((iv1 >>> 24) & 0xff);
-                    case 4:
-                        dest[di + 3] = (byte) (iv0 & 0xff);
-                    case 3:
-                        dest[di + 2] = (byte) ((iv0 >>> 8) & 0xff);
-                    case 2:
-                        dest[di + 1] = (byte) ((iv0 >>> 16) & 0xff);
-                    case 1:
-                        dest[di] = (byte) ((iv0 >>> 24) & 0xff);
-                }
-            }
+
+        for (int si = srcOff, di = destOff, end = srcOff + 8 * nBlocks; si < end; si += 8, di += 8) {
+            long b = encrypt(ks, iv0, iv1);
+            iv0 = (int) (b >>> 32) ^ getIntBE(src, si);
+            iv1 = (int) b ^ getIntBE(src, si + 4);
+            putIntBE(dest, di, iv0);
+            putIntBE(dest, di + 4, iv1);
         }
         IV0 = iv0;
         IV1 = iv1;
     }
 
-    public synchronized void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-        int[] out = new int[2];
+    /**
+     * Decrypt whole blocks in CFB mode. Source and destination may be the
+     * same array.
+     *
+     * @param nBlocks the amount of 8 byte blocks
+     */
+    public synchronized void decryptBlocks(byte[] src, int srcOff, byte[] dest, int destOff, int nBlocks) {
+        int[] ks = key_schedule;
         int iv0 = IV0;
         int iv1 = IV1;
-        int plain0, plain1;
-        int end = srcOff + len;
-
-        for (int si = srcOff, di = destOff; si < end; si += 8, di += 8) {
-            decrypt(iv0, iv1, out);
-            iv0 = ((src[si + 3] & 0xff) | ((src[si + 2] & 0xff) << 8) |
-                    ((src[si + 1] & 0xff) << 16) | ((src[si] & 0xff) << 24));
-            iv1 = ((src[si + 7] & 0xff) | ((src[si + 6] & 0xff) << 8) |
-                    ((src[si + 5] & 0xff) << 16) | ((src[si + 4] & 0xff) << 24));
-            plain0 = out[0] ^ iv0;
-            plain1 = out[1] ^ iv1;
-
-            if (di + 8 <= end) {
-                dest[di + 3] = (byte) (plain0 & 0xff);
-                dest[di + 2] = (byte) ((plain0 >>> 8) & 0xff);
-                dest[di + 1] = (byte) ((plain0 >>> 16) & 0xff);
-                dest[di] = (byte) ((plain0 >>> 24) & 0xff);
-                dest[di + 7] = (byte) (plain1 & 0xff);
-                dest[di + 6] = (byte) ((plain1 >>> 8) & 0xff);
-                dest[di + 5] = (byte) ((plain1 >>> 16) & 0xff);
-                dest[di + 4] = (byte) ((plain1 >>> 24) & 0xff);
-            } else {
-                switch (end - di) {
-                    case 7:
-                        dest[di + 6] = (byte) ((plain1 >>> 8) & 0xff);
-                    case 6:
-                        dest[di + 5] = (byte) ((plain1 >>> 16) & 0xff);
-                    case 5:
-                        dest[di + 4] = (byte) ((plain1 >>> 24) & 0xff);
-                    case 4:
-                        dest[di + 3] = (byte) (plain0 & 0xff);
-                    case 3:
-                        dest[di + 2] = (byte) ((plain0 >>> 8) & 0xff);
-                    case 2:
-                        dest[di + 1] = (byte) ((plain0 >>> 16) & 0xff);
-                    case 1:
-                        dest[di] = (byte) ((plain0 >>> 24) & 0xff);
-                }
-            }
+
+        for (int si = srcOff, di = destOff, end = srcOff + 8 * nBlocks; si < end; si += 8, di += 8) {
+            long b = encrypt(ks, iv0, iv1);
+            iv0 = getIntBE(src, si);
+            iv1 = getIntBE(src, si + 4);
+            putIntBE(dest, di, (int) (b >>> 32) ^ iv0);
+            putIntBE(dest, di + 4, (int) b ^ iv1);
         }
         IV0 = iv0;
         IV1 = iv1;
@@ -157,6 +136,21 @@ public final class IDEA extends Cipher {
     }
 
     public final void encrypt(int l, int r, int[] out) {
+        long b = encrypt(key_schedule, l, r);
+        out[0] = (int) (b >>> 32);
+        out[1] = (int) b;
+    }
+
+    public final void decrypt(int l, int r, int[] out) {
+        encrypt(l, r, out);
+    }
+
+    /**
+     * Encrypt a block with a key schedule.
+     *
+     * @return the left half in the upper, the right half in the lower 32 bits
+     */
+    static long encrypt(int[] key_schedule, int l, int r) {
         int t1 = 0, t2 = 0, x1, x2, x3, x4, ki = 0;
 
         x1 = (l >>> 16);
@@ -191,12 +185,7 @@ public final class IDEA extends Cipher {
         x4 = mulop(x4 & 0xffff, key_schedule[ki]);
 
 
-        out[0] = (x1 << 16) | (x2 & 0xffff);
-        out[1] = (x3 << 16) | (x4 & 0xffff);
-    }
-
-    public final void decrypt(int l, int r, int[] out) {
-        encrypt(l, r, out);
+        return ((long) ((x1 << 16) | (x2 & 0xffff)) << 32) | (((x3 << 16) | (x4 & 0xffff)) & 0xffffffffL);
     }
 
     public static int mulop(int a, int b) {
@@ -0,0 +1,168 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meißner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.ssh;
+
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base class for ciphers implemented by the Java Cryptography Extension.
+ * The virtual machine runs AES with special processor instructions where
+ * it has them (like AES-NI), which is much faster than a cipher written in
+ * Java. The constructor fails if the provider does not have
+ * the transformation.
+ * <p>
+ * Data is passed through without padding and without allocating, source
+ * and destination may be the same array.
+ *
+ * @see Cipher#choose
+ */
+public abstract class JCECipher extends Cipher {
+
+    /* result of isAvailable() per class name */
+    private static final Map<String, Boolean> available = new ConcurrentHashMap<String, Boolean>();
+
+    private final String algorithm;
+    private final String transformation;
+    private final int keyLength;
+    private final int blockSize;
+
+    private final javax.crypto.Cipher enc;
+    private final javax.crypto.Cipher dec;
+    private SecretKeySpec key;
+    private IvParameterSpec iv;
+    private boolean encReady, decReady;
+
+    /**
+     * Create a cipher.
+     *
+     * @param algorithm the JCE algorithm name, like "AES"
+     * @param mode      the JCE mode, like "CTR"
+     * @param keyLength the amount of key bytes used, 0 to use the whole key
+     * @throws GeneralSecurityException if no provider has the transformation
+     */
+    protected JCECipher(String algorithm, String mode, int keyLength) throws GeneralSecurityException {
+        this.algorithm = algorithm;
+        this.transformation = algorithm + "/" + mode + "/NoPadding";
+        this.keyLength = keyLength;
+        enc = javax.crypto.Cipher.getInstance(transformation);
+        dec = javax.crypto.Cipher.getInstance(transformation);
+        blockSize = enc.getBlockSize();
+    }
+
+    /**
+     * Set the key, the initialization vector is all zeroes.
+     */
+    public void setKey(byte[] key) {
+        setKey(key, new byte[blockSize]);
+    }
+
+    /**
+     * Set the key and the initialization vector.
+     *
+     * @param key the key, only the first bytes are used if it is longer
+     *            than the algorithm needs
+     * @param iv  the initialization vector, at least one block long
+     */
+    public synchronized void setKey(byte[] key, byte[] iv) {
+        int n = keyLength == 0 ? key.length : keyLength;
+        if (key.length < n) {
+            throw new IllegalArgumentException(transformation + " needs a key of " + n + " bytes, got " + key.length);
+        }
+        this.key = new SecretKeySpec(key, 0, n, algorithm);
+        this.iv = new IvParameterSpec(Arrays.copyOf(iv, blockSize));
+        encReady = decReady = false;
+    }
+
+    public synchronized void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+        try {
+            if (!encReady) {
+                enc.init(javax.crypto.Cipher.ENCRYPT_MODE, key, iv);
+                encReady = true;
+            }
+            enc.update(src, srcOff, len, dest, destOff);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(transformation + ": " + e, e);
+        }
+    }
+
+    public synchronized void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+        try {
+            if (!decReady) {
+                dec.init(javax.crypto.Cipher.DECRYPT_MODE, key, iv);
+                decReady = true;
+            }
+            dec.update(src, srcOff, len, dest, destOff);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(transformation + ": " + e, e);
+        }
+    }
+
+    /**
+     * @return the amount of key bytes used
+     */
+    int getKeyLength() {
+        return keyLength;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Check whether a cipher class can be used, that is whether the provider
+     * has its transformation. The answer is remembered, so the check is
+     * done only once per class.
+     *
+     * @param name the class name in this package
+     */
+    static boolean isAvailable(String name) {
+        Boolean result = available.get(name);
+        if (result == null) {
+            result = probe(name);
+            available.put(name, result);
+        }
+        return result;
+    }
+
+    private static boolean probe(String name) {
+        try {
+            Class.forName("de.mud.ssh." + name).getDeclaredConstructor().newInstance();
+            return true;
+        } catch (ReflectiveOperationException e) {
+            // a GeneralSecurityException from the constructor arrives wrapped in here
+            return false;
+        }
+    }
+
+    public String toString() {
+        return transformation;
+    }
+}
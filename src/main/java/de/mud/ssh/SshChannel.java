@@ -0,0 +1,295 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meißner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.ssh;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * A shell session running in a channel of an SSH 2 connection. Many
+ * channels share one connection, so only the first one pays for the key
+ * exchange and authentication; every other one costs a single round trip.
+ * <p>
+ * Each channel has its own flow control window: received data is kept in
+ * a buffer as large as the window and the window is only opened again as
+ * data is read, so a channel nobody reads does not hold up the others.
+ * Written data is queued and sent by the connection in turn with the data
+ * of the other channels, one packet each, as far as the remote window
+ * allows.
+ *
+ * @see SshIO#openChannel
+ */
+public class SshChannel {
+
+    /* the window we offer, also the size of the receive buffer */
+    final static int WINDOW = 256 * 1024;
+    /* the largest packet we send or accept */
+    final static int MAX_PACKET = 32 * 1024;
+    /* how much written data may be queued before write() waits */
+    private final static int MAX_QUEUE = 256 * 1024;
+
+    private final SshIO io;
+    final int id;
+    int remoteId = -1;
+
+    /* received data not read yet */
+    private final byte[] in = new byte[WINDOW];
+    private int head, count;
+    private int consumed;                /* bytes read since the last adjust */
+    private boolean eof;                  /* the remote side sent EOF or CLOSE */
+    private String failure;
+
+    /* written data not sent yet */
+    private byte[] out = new byte[1024];
+    private int outStart, outEnd;
+    private long remoteWindow, remoteMaxPacket;
+    private boolean closing, eofSent, closeSent;
+
+    private int exitStatus = -1;
+
+    SshChannel(SshIO io, int id) {
+        this.io = io;
+        this.id = id;
+    }
+
+    /**
+     * Read data sent by the remote shell, standard output and error, waiting
+     * until some arrives.
+     *
+     * @return the amount of bytes read or -1 if the channel was closed
+     * @throws IOException if the channel could not be opened or the
+     *                     connection was lost
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n, adjust = 0;
+        synchronized (this) {
+            while (count == 0 && !eof && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted while waiting for data");
+                }
+            }
+            if (count == 0) {
+                if (failure != null) {
+                    throw new IOException(failure);
+                }
+                return -1;
+            }
+            n = Math.min(len, count);
+            int first = Math.min(n, in.length - head);
+            System.arraycopy(in, head, b, off, first);
+            System.arraycopy(in, 0, b, off + first, n - first);
+            head = (head + n) % in.length;
+            count -= n;
+            consumed += n;
+            if (consumed >= WINDOW / 2 && !eof) {
+                adjust = consumed;
+                consumed = 0;
+            }
+        }
+        if (adjust > 0) {
+            io.adjustWindow(this, adjust);
+        }
+        return n;
+    }
+
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    /**
+     * Queue data to be sent to the remote shell. Waits while too much
+     * data is queued already.
+     *
+     * @throws IOException if the channel is closed
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        synchronized (this) {
+            while (outEnd - outStart >= MAX_QUEUE && failure == null && !closing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted while waiting to send");
+                }
+            }
+            if (failure != null) {
+                throw new IOException(failure);
+            }
+            if (closing) {
+                throw new IOException("channel closed");
+            }
+            if (out.length - outEnd < len) {
+                int queued = outEnd - outStart;
+                byte[] n = queued + len > out.length ? new byte[Math.max(queued + len, out.length * 2)] : out;
+                System.arraycopy(out, outStart, n, 0, queued);
+                out = n;
+                outStart = 0;
+                outEnd = queued;
+            }
+            System.arraycopy(b, off, out, outEnd, len);
+            outEnd += len;
+        }
+        io.flushChannels();
+    }
+
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Tell the remote shell the new terminal size.
+     */
+    public void setWindowSize(int columns, int rows) throws IOException {
+        io.changeWindow(this, columns, rows);
+    }
+
+    /**
+     * Close the channel once the data queued is sent. Reading returns the
+     * rest of the data the remote side sends until it closes, too.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            closing = true;
+            notifyAll();
+        }
+        io.flushChannels();
+    }
+
+    /**
+     * @return the exit status of the remote shell or -1 if not known (yet)
+     */
+    public synchronized int getExitStatus() {
+        return exitStatus;
+    }
+
+    /**
+     * @return true if the remote side confirmed the channel and did not
+     * close it yet
+     */
+    public synchronized boolean isOpen() {
+        return remoteId >= 0 && !eof && failure == null;
+    }
+
+    /* the methods below are called by the connection with its lock held */
+
+    synchronized void confirmed(int remoteId, long window, long maxPacket) {
+        this.remoteId = remoteId;
+        remoteWindow = window;
+        remoteMaxPacket = maxPacket;
+    }
+
+    synchronized void failed(String reason) {
+        failure = reason;
+        notifyAll();
+    }
+
+    synchronized void adjust(long bytes) {
+        remoteWindow += bytes;
+    }
+
+    /**
+     * Store data received, it must fit into the window we offered.
+     *
+     * @param p   the packet, positioned at the data
+     * @param len the length the remote side claims for the data
+     * @return false if the length is negative, beyond the end of the packet
+     * or more than the window allows
+     */
+    synchronized boolean received(SshPacket p, int len) {
+        if (len < 0 || len > p.getRemaining() || len > in.length - count) {
+            return false;
+        }
+        int tail = (head + count) % in.length;
+        int first = Math.min(len, in.length - tail);
+        p.getBytes(in, tail, first);
+        p.getBytes(in, 0, len - first);
+        if (count == 0) {
+            notifyAll();
+        }
+        count += len;
+        return true;
+    }
+
+    synchronized void remoteEof() {
+        eof = true;
+        notifyAll();
+    }
+
+    synchronized void exitStatus(int status) {
+        exitStatus = status;
+    }
+
+    /**
+     * Append the next chunk of queued data to a packet, as much as the
+     * remote window and packet size allow.
+     *
+     * @return the amount of bytes appended
+     */
+    synchronized int take(SshPacket p) {
+        int n = (int) Math.min(Math.min(outEnd - outStart, MAX_PACKET), Math.min(remoteWindow, remoteMaxPacket));
+        if (remoteId < 0 || closeSent || n <= 0) {
+            return 0;
+        }
+        p.putInt32(n);
+        p.putBytes(out, outStart, n);
+        outStart += n;
+        if (outStart == outEnd) {
+            outStart = outEnd = 0;
+        }
+        remoteWindow -= n;
+        notifyAll();
+        return n;
+    }
+
+    /**
+     * @return true once if EOF is to be sent: the channel is closing and
+     * all queued data was sent
+     */
+    synchronized boolean takeEof() {
+        if (remoteId < 0 || !closing || eofSent || outStart != outEnd) {
+            return false;
+        }
+        eofSent = true;
+        return true;
+    }
+
+    /**
+     * @return true once if CLOSE is to be sent, after our EOF or when the
+     * remote side closed
+     */
+    synchronized boolean takeClose(boolean remoteClosed) {
+        if (remoteId < 0 || closeSent || !(eofSent || remoteClosed)) {
+            return false;
+        }
+        closeSent = true;
+        return true;
+    }
+
+    synchronized boolean isCloseSent() {
+        return closeSent;
+    }
+}
@@ -52,6 +52,20 @@ public class SshCrypto {
         return rcvCipher.decrypt(block);
     }
 
+    /**
+     * Encrypt without allocating, source and destination may be the same.
+     */
+    public void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+        sndCipher.encrypt(src, srcOff, dest, destOff, len);
+    }
+
+    /**
+     * Decrypt without allocating, source and destination may be the same.
+     */
+    public void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+        rcvCipher.decrypt(src, srcOff, dest, destOff, len);
+    }
+
     //-------------------------------------------------------------------------
 
     static public byte[] encrypteRSAPkcs1Twice(byte[] clearData, byte[] server_key_public_exponent,
@@ -27,10 +27,19 @@ package de.mud.ssh;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Secure Shell IO
@@ -40,6 +49,8 @@ import java.util.Arrays;
  */
 public abstract class SshIO {
 
+    private static final Logger logger = Logger.getLogger(SshIO.class.getName());
+
     private static MessageDigest md5;
 
     static {
@@ -55,7 +66,9 @@ public abstract class SshIO {
      * variables for the connection
      */
     private String idstr = ""; //("SSH-<protocolmajor>.<protocolminor>-<version>\n")
-    private String idstr_sent = "SSH/JTA (c) Marcus Meissner, Matthias L. Jugel\n";
+    private String idstr_sent = "SSH/JTA (c) Marcus Meissner, Matthias L. Jugel";
+    /* both identification lines without the line end, hashed by SSH 2 */
+    private String clientVersion, serverVersion;
 
     /**
      * Debug level. This results in additional diagnostic messages on the
@@ -90,9 +103,6 @@ public abstract class SshIO {
     private final int PHASE_SSH_RECEIVE_PACKET = 1;
 
 
-    // SSH v2 RSA
-    BigInteger rsa_e, rsa_n;
-
     //handlePacket
     //messages
     //  The supported packet types and the corresponding message numbers are
@@ -117,12 +127,15 @@ public abstract class SshIO {
     private final byte SSH_MSG_IGNORE = 32;
     private final byte SSH_CMSG_EXIT_CONFIRMATION = 33;
     private final byte SSH_MSG_DEBUG = 36;
+    private final byte SSH_CMSG_REQUEST_COMPRESSION = 37;
 
 
   /* SSH v2 stuff */
 
     private final byte SSH2_MSG_DISCONNECT = 1;
     private final byte SSH2_MSG_IGNORE = 2;
+    private final byte SSH2_MSG_UNIMPLEMENTED = 3;
+    private final byte SSH2_MSG_DEBUG = 4;
     private final byte SSH2_MSG_SERVICE_REQUEST = 5;
     private final byte SSH2_MSG_SERVICE_ACCEPT = 6;
 
@@ -132,10 +145,52 @@ public abstract class SshIO {
     private final byte SSH2_MSG_KEXDH_INIT = 30;
     private final byte SSH2_MSG_KEXDH_REPLY = 31;
 
-    private String kexalgs, hostkeyalgs, encalgs2c, encalgc2s, macalgs2c, macalgc2s, compalgc2s, compalgs2c, langc2s,
-            langs2;
-
-    private int outgoingseq = 0, incomingseq = 0;
+    private final byte SSH2_MSG_USERAUTH_REQUEST = 50;
+    private final byte SSH2_MSG_USERAUTH_FAILURE = 51;
+    private final byte SSH2_MSG_USERAUTH_SUCCESS = 52;
+    private final byte SSH2_MSG_USERAUTH_BANNER = 53;
+    private final byte SSH2_MSG_USERAUTH_INFO_REQUEST = 60;
+    private final byte SSH2_MSG_USERAUTH_INFO_RESPONSE = 61;
+
+    private final byte SSH2_MSG_GLOBAL_REQUEST = 80;
+    private final byte SSH2_MSG_REQUEST_FAILURE = 82;
+    private final byte SSH2_MSG_CHANNEL_OPEN = 90;
+    private final byte SSH2_MSG_CHANNEL_OPEN_CONFIRMATION = 91;
+    private final byte SSH2_MSG_CHANNEL_OPEN_FAILURE = 92;
+    private final byte SSH2_MSG_CHANNEL_WINDOW_ADJUST = 93;
+    private final byte SSH2_MSG_CHANNEL_DATA = 94;
+    private final byte SSH2_MSG_CHANNEL_EXTENDED_DATA = 95;
+    private final byte SSH2_MSG_CHANNEL_EOF = 96;
+    private final byte SSH2_MSG_CHANNEL_CLOSE = 97;
+    private final byte SSH2_MSG_CHANNEL_REQUEST = 98;
+    private final byte SSH2_MSG_CHANNEL_FAILURE = 100;
+
+    /* reason codes of SSH2_MSG_DISCONNECT */
+    private final int SSH2_DISCONNECT_PROTOCOL_ERROR = 2;
+    private final int SSH2_DISCONNECT_KEY_EXCHANGE_FAILED = 3;
+    private final int SSH2_DISCONNECT_HOST_KEY_NOT_VERIFIABLE = 9;
+    private final int SSH2_DISCONNECT_BY_APPLICATION = 11;
+    private final int SSH2_DISCONNECT_NO_MORE_AUTH_METHODS_AVAILABLE = 14;
+
+    /* the algorithms negotiated with the last KEXINIT */
+    private String kexAlgorithm, hostKeyAlgorithm, cipherC2S, cipherS2C, macC2S, macS2C;
+    private byte[] clientKexInit, serverKexInit;
+    private SshKex kex;                          /* while exchanging keys */
+    private byte[] sessionId;
+    private String hostKeyFingerprint;
+    /* packets other than transport messages wait for the end of a key exchange */
+    private boolean kexing;
+    private final List<SshPacket2> deferred = new ArrayList<SshPacket2>();
+    private boolean authenticated;
+    private String authMethod;
+
+    private int outgoingseq = 0;
+
+    /* the open channels, in the order they take turns sending */
+    private final List<SshChannel> channels = new ArrayList<SshChannel>();
+    private int nextChannel, nextChannelId;
+    /* the channel of the terminal session, read by handleSSH() */
+    private SshChannel shell;
 
     //
     // encryption types
@@ -162,11 +217,133 @@ public abstract class SshIO {
 
     private boolean cansenddata = false;
 
+    /* the terminal size to request, the last one set */
+    private int columns = 80, rows = 24;
+
+    /**
+     * States of the connection setup, see getState(). Data written before
+     * the session is open is queued.
+     */
+    public final static int STATE_VERSION = 0;    // waiting for the remote version
+    public final static int STATE_KEX = 1;        // exchanging the session key
+    public final static int STATE_AUTH = 2;       // authenticating, starting the shell
+    public final static int STATE_SESSION = 3;    // the shell runs, data is sent
+    public final static int STATE_CLOSED = 4;
+
+    /**
+     * Phases of the connection setup, see getTiming().
+     */
+    public final static int TIMING_CONNECT = 0;       // TCP connect, if known
+    public final static int TIMING_VERSION = 1;       // version exchange
+    public final static int TIMING_KEX = 2;           // key exchange
+    public final static int TIMING_AUTH = 3;          // authentication, terminal and shell
+    public final static int TIMING_FIRST_BYTE = 4;    // from the open session to the first output
+
+    private volatile int state;
+    private final long[] timing = new long[5];    /* nanoseconds, -1 if not done */
+    private long phaseStart;
+    private CountDownLatch session;
+
     /**
      * Initialise SshIO
      */
     public SshIO() {
         crypto = null;
+        connected(-1);
+    }
+
+    /**
+     * Start the setup of a new connection. Called when the transport is
+     * connected, the timing of the following phases starts now.
+     *
+     * @param connectTime how long the TCP connect took in milliseconds, or
+     *                    -1 if not known
+     * @see #setConnectTime
+     */
+    public synchronized void connected(double connectTime) {
+        if (session == null || session.getCount() == 0) {
+            session = new CountDownLatch(1);
+        }
+        Arrays.fill(timing, -1);
+        setConnectTime(connectTime);
+        phaseStart = System.nanoTime();
+        state = STATE_VERSION;
+    }
+
+    /**
+     * Set how long the TCP connect took, if it was not known when
+     * connected() was called.
+     *
+     * @param connectTime the time in milliseconds, or -1 if not known
+     */
+    public synchronized void setConnectTime(double connectTime) {
+        timing[TIMING_CONNECT] = connectTime < 0 ? -1 : (long) (connectTime * 1e6);
+    }
+
+    /**
+     * @return the current state of the connection setup, one of the
+     * STATE_ constants
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Get how long a phase of the connection setup took.
+     *
+     * @param phase one of the TIMING_ constants
+     * @return the time in milliseconds or -1 if the phase is not done
+     */
+    public synchronized double getTiming(int phase) {
+        return timing[phase] < 0 ? -1 : timing[phase] / 1e6;
+    }
+
+    /**
+     * Wait until the session is open, that is until data is sent to the
+     * remote host instead of queued.
+     *
+     * @param millis the maximum time to wait in milliseconds
+     * @return true if the session is open, false if the time passed or
+     * the connection was closed
+     */
+    public boolean waitForSession(long millis) throws InterruptedException {
+        CountDownLatch latch;
+        synchronized (this) {
+            latch = session;
+        }
+        return latch.await(millis, TimeUnit.MILLISECONDS) && state == STATE_SESSION;
+    }
+
+    /**
+     * Move to the next state and take the time of the phase that ended.
+     *
+     * @param next  the new state
+     * @param ended the TIMING_ constant of the phase that ended, or -1
+     */
+    private synchronized void enter(int next, int ended) {
+        long now = System.nanoTime();
+        if (ended >= 0) {
+            timing[ended] = now - phaseStart;
+        }
+        phaseStart = now;
+        state = next;
+        if (next == STATE_SESSION || next == STATE_CLOSED) {
+            session.countDown();
+        }
+    }
+
+    /**
+     * Take the time until the first output arrived and log all timings.
+     */
+    private synchronized void firstByte() {
+        if (timing[TIMING_FIRST_BYTE] < 0 && state == STATE_SESSION) {
+            timing[TIMING_FIRST_BYTE] = System.nanoTime() - phaseStart;
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(String.format("SshIO: setup connect=%.1fms version=%.1fms kex=%.1fms auth=%.1fms " +
+                                "first byte=%.1fms", getTiming(TIMING_CONNECT), getTiming(TIMING_VERSION),
+                        getTiming(TIMING_KEX), getTiming(TIMING_AUTH), getTiming(TIMING_FIRST_BYTE)));
+            }
+        }
     }
 
     public void setLogin(String user) {
@@ -183,10 +360,83 @@ public abstract class SshIO {
         this.password = password;
     }
 
-    SshPacket currentpacket;
+    /**
+     * Set the zlib compression level requested when the next session is
+     * set up. Compression pays off on slow links, terminal output usually
+     * shrinks to a fraction.
+     *
+     * @param level 1 (fastest) to 9 (best), 0 switches compression off
+     */
+    public void setCompressionLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("compression level must be 0-9: " + level);
+        }
+        compressionLevel = level;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Get the amount of packet bytes before compression of the current or
+     * last session.
+     *
+     * @param sent the bytes sent, or else the bytes received
+     */
+    public synchronized long getUncompressedBytes(boolean sent) {
+        return codec != null ? codec.getCompressionCount(sent, false) : zipCounts[sent ? 0 : 2];
+    }
+
+    /**
+     * Get the amount of packet bytes after compression of the current or
+     * last session.
+     *
+     * @param sent the bytes sent, or else the bytes received
+     */
+    public synchronized long getCompressedBytes(boolean sent) {
+        return codec != null ? codec.getCompressionCount(sent, true) : zipCounts[sent ? 1 : 3];
+    }
+
+    /**
+     * @param sent the bytes sent, or else the bytes received
+     * @return how many times smaller compression made the data, 1 if
+     * nothing was compressed
+     */
+    public double getCompressionRatio(boolean sent) {
+        long zipped = getCompressedBytes(sent);
+        return zipped == 0 ? 1 : (double) getUncompressedBytes(sent) / zipped;
+    }
+
+    /* frames the packets once the protocol version is known */
+    private SshPacketCodec codec;
+
+    /* the compression level to request, 0 for none */
+    private volatile int compressionLevel = 0;
+    /* the compression methods we offer for SSH 2, in order of preference */
+    private final static String SSH2_COMPRESSION = "zlib@openssh.com,zlib,none";
+    /* the compression methods negotiated for SSH 2, by direction */
+    private String compC2S, compS2C;
+    /* counters of the last session, see getCompressedBytes() */
+    private final long[] zipCounts = new long[4];
 
     protected abstract void write(byte[] buf) throws IOException;
 
+    /**
+     * Write a part of an array to the back end. The default implementation
+     * passes a copy to write(byte[]) unless the whole array is written,
+     * override it if the back end can write parts of arrays.
+     */
+    protected void write(byte[] b, int off, int len) throws IOException {
+        if (off == 0 && len == b.length) {
+            write(b);
+        } else {
+            byte[] part = new byte[len];
+            System.arraycopy(b, off, part, 0, len);
+            write(part);
+        }
+    }
+
     public abstract String getTerminalType();
 
     final byte[] one = new byte[1];
@@ -203,31 +453,83 @@ public abstract class SshIO {
         password = "";
         phase = 0;
         crypto = null;
+        synchronized (this) {
+            if (codec != null) {
+                zipCounts[0] = codec.getCompressionCount(true, false);
+                zipCounts[1] = codec.getCompressionCount(true, true);
+                zipCounts[2] = codec.getCompressionCount(false, false);
+                zipCounts[3] = codec.getCompressionCount(false, true);
+                if (codec.isCompressing() && logger.isLoggable(Level.FINE)) {
+                    logger.fine(String.format("SshIO: compression sent %d -> %d bytes (%.2f), received %d -> %d " +
+                                    "bytes (%.2f)", zipCounts[0], zipCounts[1], getCompressionRatio(true),
+                            zipCounts[2], zipCounts[3], getCompressionRatio(false)));
+                }
+                codec.end();
+            }
+            codec = null;
+            for (SshChannel ch : channels) {
+                ch.failed("connection closed");
+            }
+            channels.clear();
+            shell = null;
+            authenticated = false;
+            authMethod = null;
+            kexing = false;
+            deferred.clear();
+            kex = null;
+            sessionId = null;
+            outgoingseq = 0;
+        }
+        cansenddata = false;
+        enter(STATE_CLOSED, -1);
     }
 
     public void setWindowSize(int columns, int rows) throws IOException {
-        if (phase == PHASE_INIT) {
-            System.err.println("sshio:setWindowSize(), sizing in init phase not supported.\n");
-        }
         if (debug > 1) {
             System.err.println("SSHIO:setWindowSize(" + columns + "," + rows + ")");
         }
-        Send_SSH_CMSG_WINDOW_SIZE(columns, rows);
+        SshChannel ch;
+        synchronized (this) {
+            this.columns = columns;
+            this.rows = rows;
+            // before the session the size is sent with the terminal request
+            if (!cansenddata) {
+                return;
+            }
+            ch = shell;
+        }
+        if (ch != null) {
+            changeWindow(ch, columns, rows);
+        } else {
+            Send_SSH_CMSG_WINDOW_SIZE(columns, rows);
+        }
     }
 
-    synchronized public void sendData(String str) throws IOException {
+    public void sendData(String str) throws IOException {
         if (debug > 1) {
             System.out.println("SshIO.send(" + str + ")");
         }
-        if (dataToSend == null) {
-            dataToSend = str;
-        } else {
-            dataToSend += str;
-        }
-        if (cansenddata) {
-            Send_SSH_CMSG_STDIN_DATA(dataToSend);
+        SshChannel ch;
+        synchronized (this) {
+            if (dataToSend == null) {
+                dataToSend = str;
+            } else {
+                dataToSend += str;
+            }
+            if (!cansenddata) {
+                return;
+            }
+            if (shell == null) {
+                Send_SSH_CMSG_STDIN_DATA(dataToSend);
+                dataToSend = null;
+                return;
+            }
+            ch = shell;
+            str = dataToSend;
             dataToSend = null;
         }
+        // may wait for the remote window, without holding the connection
+        ch.write(str.getBytes());
     }
 
     /**
@@ -236,19 +538,35 @@ public abstract class SshIO {
      * Returns an array of bytes that will be displayed.
      */
     public byte[] handleSSH(byte[] buff) throws IOException {
-        byte[] rest;
+        return handleSSH(buff, 0, buff.length);
+    }
+
+    /**
+     * Handle data received from the remote host.
+     *
+     * @param buff the array holding the data
+     * @param off  index of the first byte
+     * @param len  amount of bytes
+     * @return the bytes to be displayed
+     */
+    public byte[] handleSSH(byte[] buff, int off, int len) throws IOException {
         String result;
 
         if (debug > 1) {
-            System.out.println("SshIO.getPacket(" + Arrays.toString(buff) + "," + buff.length + ")");
+            System.out.println("SshIO.getPacket(" + Arrays.toString(Arrays.copyOfRange(buff, off, off + len)) + "," +
+                    len + ")");
         }
 
-
+        int end = off + len;
         if (phase == PHASE_INIT) {
+            if (state == STATE_CLOSED) {
+                // reconnected without connected() being called
+                connected(-1);
+            }
             byte b;        // of course, byte is a signed entity (-128 -> 127)
-            int boffset = 0;    // offset into the buffer received
+            int boffset = off;    // offset into the buffer received
 
-            while (boffset < buff.length) {
+            while (phase == PHASE_INIT && boffset < end) {
                 b = buff[boffset++];
                 // both sides MUST send an identification string of the form
                 // "SSH-protoversion-softwareversion comments",
@@ -290,47 +608,53 @@ public abstract class SshIO {
                         }
                     }
                     // this is how we tell the remote server what protocol we use.
-                    idstr_sent = "SSH-" + mymajor + "." + myminor + "-" + idstr_sent;
-                    write(idstr_sent.getBytes());
-
-                    if (useprotocol == 2) {
-                        currentpacket = new SshPacket2(null);
-                    } else {
-                        currentpacket = new SshPacket1(null);
+                    // SSH 2 ends the line with CR LF, the exchange hash covers it without
+                    clientVersion = "SSH-" + mymajor + "." + myminor + "-" + idstr_sent;
+                    serverVersion = idstr.trim();
+                    write((clientVersion + (useprotocol == 2 ? "\r\n" : "\n")).getBytes());
+
+                    codec = new SshPacketCodec(useprotocol);
+                    enter(STATE_KEX, TIMING_VERSION);
+                    if (useprotocol == 1) {
+                        synchronized (this) {
+                            for (SshChannel ch : channels) {
+                                ch.failed("channels need SSH protocol 2");
+                            }
+                            channels.clear();
+                        }
                     }
                 }
             }
-            if (boffset == buff.length) {
+            if (phase == PHASE_INIT) {
                 return "".getBytes();
             }
-            return "Must not have left over data after PHASE_INIT!\n".getBytes();
+            // packets may follow the identification in the same read
+            off = boffset;
         }
 
         result = "";
-        rest = currentpacket.addPayload(buff);
-        if (currentpacket.isFinished()) {
-            if (useprotocol == 1) {
-                result = result + handlePacket1((SshPacket1) currentpacket);
-                currentpacket = new SshPacket1(crypto);
-            } else {
-                result = result + handlePacket2((SshPacket2) currentpacket);
-                currentpacket = new SshPacket2(crypto);
-            }
-        }
-        while (rest != null) {
-            rest = currentpacket.addPayload(rest);
-            if (currentpacket.isFinished()) {
-                // the packet is finished, otherwise we would not have got a rest
+        codec.feed(buff, off, end - off);
+        SshPacket p;
+        // handle each packet before decoding the next, they share a buffer
+        while (codec != null && (p = codec.next()) != null) {
+            try {
                 if (useprotocol == 1) {
-                    result = result + handlePacket1((SshPacket1) currentpacket);
-                    currentpacket = new SshPacket1(crypto);
+                    result = result + handlePacket1((SshPacket1) p);
                 } else {
-                    result = result + handlePacket2((SshPacket2) currentpacket);
-                    currentpacket = new SshPacket2(crypto);
+                    result = result + handlePacket2((SshPacket2) p);
                 }
+            } catch (IndexOutOfBoundsException e) {
+                // a field reaches past the end of the packet
+                if (useprotocol == 1) {
+                    Send_SSH_MSG_DISCONNECT("Malformed packet.");
+                } else {
+                    Send_SSH2_MSG_DISCONNECT(SSH2_DISCONNECT_PROTOCOL_ERROR, "malformed packet");
+                }
+                disconnect();
+                result = result + "\r\nSSH: " + e.getMessage() + ", disconnected\r\n";
             }
         }
-        return result.getBytes();
+        return result.getBytes(StandardCharsets.ISO_8859_1);
     }
 
     /**
@@ -342,138 +666,291 @@ public abstract class SshIO {
     private String handlePacket2(SshPacket2 p) throws IOException {
         switch (p.getType()) {
             case SSH2_MSG_IGNORE:
-                System.out.println("SSH2: SSH2_MSG_IGNORE");
+            case SSH2_MSG_DEBUG:
+                break;
+            case SSH2_MSG_UNIMPLEMENTED:
+                if (debug > 0) {
+                    System.err.println("SSH2: packet " + p.getInt32() + " not implemented by the server");
+                }
                 break;
-            case SSH2_MSG_DISCONNECT:
+            case SSH2_MSG_DISCONNECT: {
                 int discreason = p.getInt32();
                 String discreason1 = p.getString();
-        /*String discreason2 = p.getString();*/
-                System.out.println("SSH2: SSH2_MSG_DISCONNECT(" + discreason + "," + discreason1 + "," +
-                        "" + /*discreason2+*/")");
-
-                return "\nSSH2 disconnect: " + discreason1 + "\n";
-
+                if (debug > 0) {
+                    System.out.println("SSH2: SSH2_MSG_DISCONNECT(" + discreason + "," + discreason1 + ")");
+                }
+                disconnect();
+                return "\r\nSSH2 disconnect: " + discreason1 + "\r\n";
+            }
+            case SSH2_MSG_KEXINIT:
+                return handleKexInit(p);
+            case SSH2_MSG_KEXDH_REPLY:
+                return handleKexReply(p);
             case SSH2_MSG_NEWKEYS: {
-                System.out.println("SSH2: SSH2_MSG_NEWKEYS");
-                sendPacket2(new SshPacket2(SSH2_MSG_NEWKEYS));
-
-                byte[] session_key = new byte[16];
-
-                crypto = new SshCrypto(cipher_type, session_key);
-
-                SshPacket2 pn = new SshPacket2(SSH2_MSG_SERVICE_REQUEST);
-                pn.putString("ssh-userauth");
-                sendPacket2(pn);
+                if (kex == null) {
+                    break;
+                }
+                // the packets following this one use the new keys
+                try {
+                    JCECipher c = newCipher(cipherS2C, 'B', 'D');
+                    codec.setReceiveKeys(c, c.getBlockSize(), SshKex.mac(macS2C, kex, 'F', sessionId));
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("SSH2: unable to set the keys: " + e);
+                }
+                if (compressNow(compS2C)) {
+                    codec.compressReceived();
+                }
+                kex = null;
+                if (state == STATE_KEX) {
+                    enter(STATE_AUTH, TIMING_KEX);
+                    SshPacket2 pn = new SshPacket2(SSH2_MSG_SERVICE_REQUEST);
+                    pn.putString("ssh-userauth");
+                    sendPacket2(pn);
+                }
                 break;
             }
-            case SSH2_MSG_SERVICE_ACCEPT: {
-                System.out.println("Service Accept: " + p.getString());
+            case SSH2_MSG_SERVICE_ACCEPT:
+                Send_SSH2_MSG_USERAUTH_REQUEST("password");
                 break;
+            case SSH2_MSG_USERAUTH_BANNER:
+                return p.getString().replaceAll("\r?\n", "\r\n");
+            case SSH2_MSG_USERAUTH_FAILURE: {
+                String methods = p.getString();
+                if (!"keyboard-interactive".equals(authMethod)
+                        && Arrays.asList(methods.split(",")).contains("keyboard-interactive")) {
+                    // many servers take passwords through keyboard-interactive only
+                    Send_SSH2_MSG_USERAUTH_REQUEST("keyboard-interactive");
+                    break;
+                }
+                return loginFailed();
             }
-            case SSH2_MSG_KEXINIT: {
-                byte[] fupp;
-                System.out.println("SSH2: SSH2_MSG_KEXINIT");
-                byte[] kexcookie = p.getBytes(16); // unused.
-
-                String kexalgs = p.getString();
-                System.out.println("- " + kexalgs);
-                String hostkeyalgs = p.getString();
-                System.out.println("- " + hostkeyalgs);
-                String encalgc2s = p.getString();
-                System.out.println("- " + encalgc2s);
-                String encalgs2c = p.getString();
-                System.out.println("- " + encalgs2c);
-                String macalgc2s = p.getString();
-                System.out.println("- " + macalgc2s);
-                String macalgs2c = p.getString();
-                System.out.println("- " + macalgs2c);
-                String compalgc2s = p.getString();
-                System.out.println("- " + compalgc2s);
-                String compalgs2c = p.getString();
-                System.out.println("- " + compalgs2c);
-                String langc2s = p.getString();
-                System.out.println("- " + langc2s);
-                String langs2c = p.getString();
-                System.out.println("- " + langs2c);
-                fupp = p.getBytes(1);
-                System.out.println("- first_kex_follows: " + fupp[0]);
-          /* int32 reserved (0) */
-
-                SshPacket2 pn = new SshPacket2(SSH2_MSG_KEXINIT);
-                byte[] kexsend = new byte[16];
-                String ciphername;
-                pn.putBytes(kexsend);
-                pn.putString("diffie-hellman-group1-sha1");
-                pn.putString("ssh-rsa");
-
-          /* FIXME: check if it really is in the encalgc2s */
-                cipher_type = "NONE";
-                ciphername = "none";
-
-          /* FIXME: dito for HMAC */
-
-                pn.putString("none");
-                pn.putString("none");
-                pn.putString("hmac-md5");
-                pn.putString("hmac-md5");
-                pn.putString("none");
-                pn.putString("none");
-                pn.putString("");
-                pn.putString("");
-                pn.putByte((byte) 0);
-                pn.putInt32(0);
+            case SSH2_MSG_USERAUTH_INFO_REQUEST: {
+                if (!"keyboard-interactive".equals(authMethod)) {
+                    // SSH_MSG_USERAUTH_PASSWD_CHANGEREQ, the password expired
+                    return loginFailed();
+                }
+                p.getString();    // name
+                p.getString();    // instruction
+                p.getString();    // language
+                int prompts = p.getInt32();
+                SshPacket2 pn = new SshPacket2(SSH2_MSG_USERAUTH_INFO_RESPONSE);
+                pn.putInt32(prompts);
+                for (int i = 0; i < prompts; i++) {
+                    p.getString();
+                    p.getByte();
+                    // the password is all we know, it answers every prompt
+                    pn.putString(password);
+                }
                 sendPacket2(pn);
-
-                pn = new SshPacket2(SSH2_MSG_KEXDH_INIT);
-                pn.putMpInt(BigInteger.valueOf(0xdeadbeef));
+                break;
+            }
+            case SSH2_MSG_USERAUTH_SUCCESS: {
+                synchronized (this) {
+                    authenticated = true;
+                    // delayed compression starts right after this packet
+                    if (compressNow(compS2C)) {
+                        codec.compressReceived();
+                    }
+                    if (compressNow(compC2S)) {
+                        codec.compressSent(compressionLevel);
+                    }
+                    // the terminal session first, then the channels opened so far
+                    shell = new SshChannel(this, nextChannelId++);
+                    channels.add(0, shell);
+                    for (SshChannel ch : channels) {
+                        Send_SSH2_MSG_CHANNEL_OPEN(ch);
+                    }
+                }
+                break;
+            }
+            case SSH2_MSG_GLOBAL_REQUEST: {
+                p.getString();
+                if (p.getByte() != 0) {
+                    sendPacket2(new SshPacket2(SSH2_MSG_REQUEST_FAILURE));
+                }
+                break;
+            }
+            case SSH2_MSG_CHANNEL_OPEN_CONFIRMATION:
+            case SSH2_MSG_CHANNEL_OPEN_FAILURE:
+            case SSH2_MSG_CHANNEL_WINDOW_ADJUST:
+            case SSH2_MSG_CHANNEL_DATA:
+            case SSH2_MSG_CHANNEL_EXTENDED_DATA:
+            case SSH2_MSG_CHANNEL_EOF:
+            case SSH2_MSG_CHANNEL_CLOSE:
+            case SSH2_MSG_CHANNEL_REQUEST:
+                return handleChannel(p);
+            default: {
+                SshPacket2 pn = new SshPacket2(SSH2_MSG_UNIMPLEMENTED);
+                pn.putInt32(codec.getReceiveSequence());
                 sendPacket2(pn);
                 break;
             }
-            case SSH2_MSG_KEXDH_REPLY: {
-                String result;
-
-                System.out.println("SSH2_MSG_KEXDH_REPLY");
-                int bloblen = p.getInt32();
-                System.out.println("bloblen is " + bloblen);
-          /* the blob has a substructure:
-           * 	String type
-           * 	if RSA:
-           * 		bignum1
-           * 		bignum2
-           * 	if DSA:
-           * 		bignum1,2,3,4
-           */
-                String keytype = p.getString();
-                System.out.println("KEXDH: " + keytype);
-                if ("ssh-rsa".equals(keytype)) {
-                    rsa_e = p.getMpInt();
-                    rsa_n = p.getMpInt();
-                    result = "\n\rSSH-RSA (" + rsa_n + "," + rsa_e + ")\n\r";
-                } else {
-                    return "\n\rUnsupported kexdh algorithm " + keytype + "!\n\r";
-                }
-                BigInteger dhserverpub = p.getMpInt();
-                result += "DH Server Pub: " + dhserverpub + "\n\r";
-
-          /* signature is a new blob, length is Int32. */
-          /*
-           * RSA:
-           * 	String 		type (ssh-rsa)
-           * 	Int32/byte[]	signed signature
-           */
-                int siglen = p.getInt32();
-                String sigstr = p.getString();
-                result += "Signature: ktype is " + sigstr + "\r\n";
-                byte[] sigdata = p.getBytes(p.getInt32());
-
-                return result;
+        }
+        return "";
+    }
+
+    /**
+     * Answer the KEXINIT of the server: choose the algorithms, send our
+     * KEXINIT and start the Diffie-Hellman key exchange right away.
+     */
+    private String handleKexInit(SshPacket2 p) throws IOException {
+        serverKexInit = payload(p);
+        p.getBytes(16);    // cookie
+        String kexalgs = p.getString();
+        String hostkeyalgs = p.getString();
+        String encalgc2s = p.getString();
+        String encalgs2c = p.getString();
+        String macalgc2s = p.getString();
+        String macalgs2c = p.getString();
+        String compalgc2s = p.getString();
+        String compalgs2c = p.getString();
+        if (debug > 0) {
+            System.out.println("SSH2: SSH2_MSG_KEXINIT " + kexalgs + " " + hostkeyalgs + " " + encalgc2s + " " +
+                    macalgc2s + " " + compalgc2s);
+        }
+
+        kexAlgorithm = SshKex.choose(SshKex.ALGORITHMS, kexalgs);
+        hostKeyAlgorithm = SshKex.choose(SshKex.HOST_KEY_ALGORITHMS, hostkeyalgs);
+        cipherC2S = Cipher.choose(encalgc2s);
+        cipherS2C = Cipher.choose(encalgs2c);
+        macC2S = SshKex.choose(SshKex.MACS, macalgc2s);
+        macS2C = SshKex.choose(SshKex.MACS, macalgs2c);
+        // zlib starts with the new keys, the delayed zlib@openssh.com
+        // (the only one OpenSSH offers) with the user authentication
+        String compression = compressionLevel > 0 ? SSH2_COMPRESSION : "none";
+        compC2S = SshKex.choose(compression, compalgc2s);
+        compS2C = SshKex.choose(compression, compalgs2c);
+        String missing = kexAlgorithm == null ? "key exchange" : hostKeyAlgorithm == null ? "host key" :
+                cipherC2S == null || cipherS2C == null ? "cipher" : macC2S == null || macS2C == null ? "MAC" :
+                compC2S == null || compS2C == null ? "compression" : null;
+        try {
+            if (missing == null) {
+                kex = new SshKex(kexAlgorithm);
             }
-            default:
-                return "SSH2: handlePacket2 Unknown type " + p.getType();
+        } catch (GeneralSecurityException e) {
+            missing = kexAlgorithm;
+        }
+        if (missing != null) {
+            Send_SSH2_MSG_DISCONNECT(SSH2_DISCONNECT_KEY_EXCHANGE_FAILED, "no matching " + missing + " algorithm");
+            disconnect();
+            return "\r\nSSH2: the server offers no " + missing + " algorithm we support\r\n";
         }
+
+        SshPacket2 pn = new SshPacket2(SSH2_MSG_KEXINIT);
+        byte[] cookie = new byte[16];
+        new SecureRandom().nextBytes(cookie);
+        pn.putBytes(cookie);
+        pn.putString(SshKex.ALGORITHMS);
+        pn.putString(SshKex.HOST_KEY_ALGORITHMS);
+        String ciphers = Cipher.available();
+        pn.putString(ciphers);
+        pn.putString(ciphers);
+        pn.putString(SshKex.MACS);
+        pn.putString(SshKex.MACS);
+        pn.putString(compression);
+        pn.putString(compression);
+        pn.putString("");
+        pn.putString("");
+        pn.putByte((byte) 0);
+        pn.putInt32(0);
+        synchronized (this) {
+            kexing = true;
+            clientKexInit = payload(pn);
+            sendPacket2(pn);
+        }
+
+        pn = new SshPacket2(SSH2_MSG_KEXDH_INIT);
+        pn.putMpInt(kex.getE());
+        sendPacket2(pn);
         return "";
     }
 
+    /**
+     * Check the reply of the server to KEXDH_INIT and switch to the new keys.
+     */
+    private String handleKexReply(SshPacket2 p) throws IOException {
+        if (kex == null) {
+            return "";
+        }
+        byte[] hostKey = p.getBytes(p.getInt32());
+        BigInteger f = p.getMpInt();
+        byte[] signature = p.getBytes(p.getInt32());
+        String fingerprint;
+        try {
+            kex.reply(clientVersion, serverVersion, clientKexInit, serverKexInit, hostKey, f, signature,
+                    hostKeyAlgorithm);
+            fingerprint = SshKex.fingerprint(hostKey);
+        } catch (GeneralSecurityException e) {
+            Send_SSH2_MSG_DISCONNECT(SSH2_DISCONNECT_KEY_EXCHANGE_FAILED, "key exchange failed");
+            disconnect();
+            return "\r\nSSH2: key exchange failed: " + e.getMessage() + "\r\n";
+        }
+        if (!checkHostKey(fingerprint)) {
+            Send_SSH2_MSG_DISCONNECT(SSH2_DISCONNECT_HOST_KEY_NOT_VERIFIABLE, "host key not accepted");
+            disconnect();
+            return "\r\nSSH2: host key " + fingerprint + " not accepted\r\n";
+        }
+        hostKeyFingerprint = fingerprint;
+        if (sessionId == null) {
+            sessionId = kex.getExchangeHash();
+        }
+        Send_SSH2_MSG_NEWKEYS();
+        return "";
+    }
+
+    /**
+     * Decide whether to trust the SSH 2 host key of the server. Like for
+     * SSH 1 any key is accepted, override this to compare it with a known
+     * one.
+     *
+     * @param fingerprint the fingerprint as OpenSSH shows it, "SHA256:..."
+     * @return true to go on with the connection
+     */
+    protected boolean checkHostKey(String fingerprint) {
+        return true;
+    }
+
+    /**
+     * @return the SSH 2 host key fingerprint of the server, "SHA256:...",
+     * or null if not known
+     */
+    public String getHostKeyFingerprint() {
+        return hostKeyFingerprint;
+    }
+
+    /**
+     * Create the cipher for a direction with the keys of the current key
+     * exchange.
+     *
+     * @param iv  the letter of the initialization vector, see SshKex
+     * @param key the letter of the key
+     */
+    private JCECipher newCipher(String name, char iv, char key) throws GeneralSecurityException {
+        JCECipher c = (JCECipher) Cipher.getInstance(name);
+        if (c == null) {
+            throw new GeneralSecurityException("cipher " + name + " not available");
+        }
+        c.setKey(kex.deriveKey(key, c.getKeyLength(), sessionId), kex.deriveKey(iv, c.getBlockSize(), sessionId));
+        return c;
+    }
+
+    /**
+     * @return the type and data of a packet, as hashed by the key exchange
+     */
+    private static byte[] payload(SshPacket p) {
+        byte[] b = new byte[p.getDataLength() + 1];
+        b[0] = p.getType();
+        System.arraycopy(p.getDataArray(), p.getDataOffset(), b, 1, p.getDataLength());
+        return b;
+    }
+
+    private String loginFailed() throws IOException {
+        System.out.println("failed to log in");
+        Send_SSH2_MSG_DISCONNECT(SSH2_DISCONNECT_NO_MORE_AUTH_METHODS_AVAILABLE, "Failed to log in.");
+        disconnect();
+        return "\r\nLogin & password not accepted\r\n";
+    }
+
 
     private String handlePacket1(SshPacket1 p) throws IOException { //the message to handle is data and its length is
 
@@ -584,13 +1061,14 @@ public abstract class SshIO {
                 }
                 if (lastPacketSentType == SSH_CMSG_SESSION_KEY) {
                     //we have succefully sent the session key !! (at last :-) )
+                    enter(STATE_AUTH, TIMING_KEX);
                     Send_SSH_CMSG_USER();
                     break;
                 }
 
                 if (lastPacketSentType == SSH_CMSG_USER) {
                     // authentication is NOT needed for this user
-                    Send_SSH_CMSG_REQUEST_PTY(); //request a pseudo-terminal
+                    startSession();
                     return "\nEmpty password login.\r\n";
                 }
 
@@ -601,18 +1079,28 @@ public abstract class SshIO {
                     }
 
                     //now we have to start the interactive session ...
-                    Send_SSH_CMSG_REQUEST_PTY(); //request a pseudo-terminal
+                    startSession();
                     return "\nLogin & password accepted\r\n";
                 }
 
+                if (lastPacketSentType == SSH_CMSG_REQUEST_COMPRESSION) {
+                    // from the next packet on, in both directions
+                    codec.setCompression(compressionLevel);
+                    Send_SSH_CMSG_REQUEST_PTY(); //request a pseudo-terminal
+                    break;
+                }
+
                 if (lastPacketSentType == SSH_CMSG_REQUEST_PTY) {// pty accepted !!
-          /* we can send data with a pty accepted ... no need for a shell. */
-                    cansenddata = true;
-                    if (dataToSend != null) {
-                        Send_SSH_CMSG_STDIN_DATA(dataToSend);
-                        dataToSend = null;
-                    }
                     Send_SSH_CMSG_EXEC_SHELL(); //we start a shell
+                    // now the data queued so far can be sent
+                    synchronized (this) {
+                        cansenddata = true;
+                        if (dataToSend != null) {
+                            Send_SSH_CMSG_STDIN_DATA(dataToSend);
+                            dataToSend = null;
+                        }
+                        enter(STATE_SESSION, TIMING_AUTH);
+                    }
                     break;
                 }
                 if (lastPacketSentType == SSH_CMSG_EXEC_SHELL) {// shell is running ...
@@ -638,12 +1126,19 @@ public abstract class SshIO {
                     break;
                 }
 
+                if (lastPacketSentType == SSH_CMSG_REQUEST_COMPRESSION) {
+                    // the server does not compress, go on without
+                    Send_SSH_CMSG_REQUEST_PTY(); //request a pseudo-terminal
+                    break;
+                }
+
                 if (lastPacketSentType == SSH_CMSG_REQUEST_PTY) {// pty not accepted !!
                     break;
                 }
                 break;
 
             case SSH_SMSG_STDOUT_DATA: //receive some data from the server
+                firstByte();
                 return p.getString();
 
             case SSH_SMSG_STDERR_DATA: //receive some error data from the server
@@ -687,17 +1182,344 @@ public abstract class SshIO {
         return "";
     } // handlePacket
 
-    private void sendPacket1(SshPacket1 packet) throws IOException {
-        write(packet.getPayLoad(crypto));
+    private synchronized void sendPacket1(SshPacket1 packet) throws IOException {
+        if (codec == null) {
+            // not connected or still exchanging the versions
+            return;
+        }
+        ByteBuffer b = codec.encode(packet, 0);
+        write(b.array(), b.arrayOffset(), b.limit());
         lastPacketSentType = packet.getType();
     }
 
-    private void sendPacket2(SshPacket2 packet) throws IOException {
-        write(packet.getPayLoad(crypto, outgoingseq));
+    private synchronized void sendPacket2(SshPacket2 packet) throws IOException {
+        if (codec == null) {
+            // not connected or still exchanging the versions
+            return;
+        }
+        if (kexing && packet.getType() >= SSH2_MSG_USERAUTH_REQUEST) {
+            // only transport messages may be sent during a key exchange
+            deferred.add(packet);
+            return;
+        }
+        ByteBuffer b = codec.encode(packet, outgoingseq);
+        write(b.array(), b.arrayOffset(), b.limit());
         outgoingseq++;
         lastPacketSentType = packet.getType();
     }
 
+    /**
+     * Open a new shell session on this connection. The channel is
+     * requested as soon as the user is authenticated, terminal and shell
+     * are requested right when the remote side confirms the channel, so
+     * an additional channel costs a single round trip. Data written before
+     * is queued.
+     *
+     * @return the new channel
+     * @throws IOException if the connection does not use SSH protocol 2
+     */
+    public synchronized SshChannel openChannel() throws IOException {
+        if (phase != PHASE_INIT && useprotocol != 2) {
+            throw new IOException("channels need SSH protocol 2");
+        }
+        SshChannel ch = new SshChannel(this, nextChannelId++);
+        channels.add(ch);
+        if (authenticated) {
+            Send_SSH2_MSG_CHANNEL_OPEN(ch);
+        }
+        return ch;
+    }
+
+    /**
+     * Find the channel a packet is for.
+     *
+     * @return the channel or null if it is closed already
+     */
+    private SshChannel channel(int id) {
+        for (SshChannel ch : channels) {
+            if (ch.id == id) {
+                return ch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Handle the messages of the connection protocol for a channel.
+     *
+     * @return the data received for the terminal session
+     */
+    private synchronized String handleChannel(SshPacket2 p) throws IOException {
+        SshChannel ch = channel(p.getInt32());
+        if (ch == null) {
+            if (debug > 0) {
+                System.err.println("SshIO: message " + p.getType() + " for an unknown channel");
+            }
+            return "";
+        }
+        String result = "";
+        switch (p.getType()) {
+            case SSH2_MSG_CHANNEL_OPEN_CONFIRMATION: {
+                int remoteId = p.getInt32();
+                long window = p.getInt32() & 0xffffffffL;
+                ch.confirmed(remoteId, window, p.getInt32() & 0xffffffffL);
+                // pipeline the terminal and the shell, we do not wait for replies
+                SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_REQUEST);
+                pn.putInt32(remoteId);
+                pn.putString("pty-req");
+                pn.putByte((byte) 0);
+                pn.putString(getTerminalType());
+                pn.putInt32(columns);
+                pn.putInt32(rows);
+                pn.putInt32(0);
+                pn.putInt32(0);
+                pn.putString("");
+                sendPacket2(pn);
+                pn = new SshPacket2(SSH2_MSG_CHANNEL_REQUEST);
+                pn.putInt32(remoteId);
+                pn.putString("shell");
+                pn.putByte((byte) 0);
+                sendPacket2(pn);
+                if (ch == shell) {
+                    // now the data queued so far can be sent
+                    cansenddata = true;
+                    if (dataToSend != null) {
+                        shell.write(dataToSend.getBytes());
+                        dataToSend = null;
+                    }
+                    enter(STATE_SESSION, TIMING_AUTH);
+                }
+                break;
+            }
+            case SSH2_MSG_CHANNEL_OPEN_FAILURE: {
+                p.getInt32();
+                String reason = p.getString();
+                ch.failed("channel not opened: " + reason);
+                channels.remove(ch);
+                if (ch == shell) {
+                    shell = null;
+                    return "\r\nSSH2: no shell session: " + reason + "\r\n";
+                }
+                return "";
+            }
+            case SSH2_MSG_CHANNEL_WINDOW_ADJUST:
+                ch.adjust(p.getInt32() & 0xffffffffL);
+                break;
+            case SSH2_MSG_CHANNEL_EXTENDED_DATA:
+                p.getInt32();    // stderr is shown like stdout
+                // fall through
+            case SSH2_MSG_CHANNEL_DATA: {
+                firstByte();
+                int len = p.getInt32();
+                if (!ch.received(p, len)) {
+                    Send_SSH2_MSG_DISCONNECT(SSH2_DISCONNECT_PROTOCOL_ERROR, "bad channel data length " + len);
+                    disconnect();
+                    return "\r\nSSH2: bad channel data length " + len + ", disconnected\r\n";
+                }
+                if (ch == shell && len > 0) {
+                    // handed to the terminal right away, which opens the window again
+                    byte[] b = new byte[len];
+                    result = new String(b, 0, shell.read(b, 0, len), StandardCharsets.ISO_8859_1);
+                }
+                break;
+            }
+            case SSH2_MSG_CHANNEL_EOF:
+                ch.remoteEof();
+                break;
+            case SSH2_MSG_CHANNEL_CLOSE:
+                ch.remoteEof();
+                if (ch.takeClose(true)) {
+                    SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_CLOSE);
+                    pn.putInt32(ch.remoteId);
+                    sendPacket2(pn);
+                }
+                channels.remove(ch);
+                if (ch == shell) {
+                    // the shell exited, like SSH 1 the connection ends with it
+                    shell = null;
+                    cansenddata = false;
+                    if (channels.isEmpty()) {
+                        Send_SSH2_MSG_DISCONNECT(SSH2_DISCONNECT_BY_APPLICATION, "shell exited");
+                        disconnect();
+                    }
+                }
+                return "";
+            case SSH2_MSG_CHANNEL_REQUEST: {
+                String request = p.getString();
+                boolean wantReply = p.getByte() != 0;
+                if ("exit-status".equals(request)) {
+                    ch.exitStatus(p.getInt32());
+                } else if (wantReply) {
+                    SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_FAILURE);
+                    pn.putInt32(ch.remoteId);
+                    sendPacket2(pn);
+                }
+                break;
+            }
+        }
+        flushChannels();
+        return result;
+    }
+
+    /**
+     * Send the data queued in the channels. The channels take turns with
+     * one packet each, so a channel sending much data does not hold up
+     * the others.
+     */
+    synchronized void flushChannels() throws IOException {
+        if (!authenticated || kexing) {
+            return;
+        }
+        boolean sent = true;
+        while (sent) {
+            sent = false;
+            for (int i = 0, n = channels.size(); i < n; i++) {
+                SshChannel ch = channels.get((nextChannel + i) % n);
+                SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_DATA);
+                pn.putInt32(ch.remoteId);
+                if (ch.take(pn) > 0) {
+                    sendPacket2(pn);
+                    sent = true;
+                }
+                if (ch.takeEof()) {
+                    pn = new SshPacket2(SSH2_MSG_CHANNEL_EOF);
+                    pn.putInt32(ch.remoteId);
+                    sendPacket2(pn);
+                }
+                if (ch.takeClose(false)) {
+                    pn = new SshPacket2(SSH2_MSG_CHANNEL_CLOSE);
+                    pn.putInt32(ch.remoteId);
+                    sendPacket2(pn);
+                }
+            }
+            if (!channels.isEmpty()) {
+                nextChannel = (nextChannel + 1) % channels.size();
+            }
+        }
+    }
+
+    /**
+     * Let the remote side send more data on a channel.
+     */
+    synchronized void adjustWindow(SshChannel ch, int bytes) throws IOException {
+        if (channels.contains(ch) && !ch.isCloseSent()) {
+            SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_WINDOW_ADJUST);
+            pn.putInt32(ch.remoteId);
+            pn.putInt32(bytes);
+            sendPacket2(pn);
+        }
+    }
+
+    /**
+     * Tell the remote side the new terminal size of a channel.
+     */
+    synchronized void changeWindow(SshChannel ch, int columns, int rows) throws IOException {
+        if (channels.contains(ch) && ch.remoteId >= 0 && !ch.isCloseSent()) {
+            SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_REQUEST);
+            pn.putInt32(ch.remoteId);
+            pn.putString("window-change");
+            pn.putByte((byte) 0);
+            pn.putInt32(columns);
+            pn.putInt32(rows);
+            pn.putInt32(0);
+            pn.putInt32(0);
+            sendPacket2(pn);
+        }
+    }
+
+    /**
+     * Check whether a negotiated SSH 2 compression method is in effect now.
+     * The delayed zlib@openssh.com starts after the user authentication.
+     */
+    private boolean compressNow(String method) {
+        return "zlib".equals(method) || "zlib@openssh.com".equals(method) && authenticated;
+    }
+
+    /**
+     * Send_SSH2_MSG_NEWKEYS
+     * Switch to the new keys for all packets sent from now on and send the
+     * packets held back during the key exchange.
+     */
+    private synchronized void Send_SSH2_MSG_NEWKEYS() throws IOException {
+        if (codec == null) {
+            return;
+        }
+        sendPacket2(new SshPacket2(SSH2_MSG_NEWKEYS));
+        try {
+            JCECipher c = newCipher(cipherC2S, 'A', 'C');
+            codec.setSendKeys(c, c.getBlockSize(), SshKex.mac(macC2S, kex, 'E', sessionId));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("SSH2: unable to set the keys: " + e);
+        }
+        if (compressNow(compC2S)) {
+            codec.compressSent(compressionLevel);
+        }
+        kexing = false;
+        for (SshPacket2 pn : deferred) {
+            sendPacket2(pn);
+        }
+        deferred.clear();
+        flushChannels();
+    }
+
+    /**
+     * Send_SSH2_MSG_DISCONNECT
+     * uint32       reason code
+     * string       description
+     * string       language tag
+     */
+    private void Send_SSH2_MSG_DISCONNECT(int reason, String description) throws IOException {
+        SshPacket2 pn = new SshPacket2(SSH2_MSG_DISCONNECT);
+        pn.putInt32(reason);
+        pn.putString(description);
+        pn.putString("");
+        sendPacket2(pn);
+    }
+
+    /**
+     * Send_SSH2_MSG_USERAUTH_REQUEST
+     * string       user name
+     * string       service name (ssh-connection)
+     * string       method name, password or keyboard-interactive
+     * for password:
+     * boolean      FALSE
+     * string       password
+     * for keyboard-interactive:
+     * string       language tag
+     * string       submethods
+     */
+    private void Send_SSH2_MSG_USERAUTH_REQUEST(String method) throws IOException {
+        authMethod = method;
+        SshPacket2 pn = new SshPacket2(SSH2_MSG_USERAUTH_REQUEST);
+        pn.putString(login);
+        pn.putString("ssh-connection");
+        pn.putString(method);
+        if ("password".equals(method)) {
+            pn.putByte((byte) 0);
+            pn.putString(password);
+        } else {
+            pn.putString("");
+            pn.putString("");
+        }
+        sendPacket2(pn);
+    }
+
+    /**
+     * Send_SSH2_MSG_CHANNEL_OPEN
+     * string       channel type (session)
+     * uint32       sender channel
+     * uint32       initial window size
+     * uint32       maximum packet size
+     */
+    private void Send_SSH2_MSG_CHANNEL_OPEN(SshChannel ch) throws IOException {
+        SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_OPEN);
+        pn.putString("session");
+        pn.putInt32(ch.id);
+        pn.putInt32(SshChannel.WINDOW);
+        pn.putInt32(SshChannel.MAX_PACKET);
+        sendPacket2(pn);
+    }
+
     //
     // Send_SSH_CMSG_SESSION_KEY
     // Create :
@@ -820,6 +1642,7 @@ public abstract class SshIO {
         packet.putInt32(protocol_flags);
         sendPacket1(packet);
         crypto = new SshCrypto(cipher_type, session_key);
+        codec.setCrypto(crypto);
         return "";
     }
 
@@ -901,6 +1724,29 @@ public abstract class SshIO {
         return "";
     }
 
+    /**
+     * Start the interactive session after the login, asking for
+     * compression first if it is wanted.
+     */
+    private void startSession() throws IOException {
+        if (compressionLevel > 0) {
+            Send_SSH_CMSG_REQUEST_COMPRESSION(compressionLevel);
+        } else {
+            Send_SSH_CMSG_REQUEST_PTY(); //request a pseudo-terminal
+        }
+    }
+
+    /**
+     * Send_SSH_CMSG_REQUEST_COMPRESSION
+     * 32-bit int   gzip compression level (1-9)
+     */
+    private String Send_SSH_CMSG_REQUEST_COMPRESSION(int level) throws IOException {
+        SshPacket1 p = new SshPacket1(SSH_CMSG_REQUEST_COMPRESSION);
+        p.putInt32(level);
+        sendPacket1(p);
+        return "";
+    }
+
     /**
      * Send_SSH_CMSG_REQUEST_PTY
      * string       TERM environment variable value (e.g. vt100)
@@ -912,8 +1758,10 @@ public abstract class SshIO {
         SshPacket1 p = new SshPacket1(SSH_CMSG_REQUEST_PTY);
 
         p.putString(getTerminalType());
-        p.putInt32(24);        // Int32	rows
-        p.putInt32(80);        // Int32	columns
+        synchronized (this) {
+            p.putInt32(rows);        // Int32	rows
+            p.putInt32(columns);        // Int32	columns
+        }
         p.putInt32(0);        // Int32	x pixels
         p.putInt32(0);        // Int32	y pixels
         p.putByte((byte) 0);        // Int8		terminal modes
@@ -0,0 +1,261 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meißner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.ssh;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * The Diffie-Hellman key exchange of SSH 2 (RFC 4253, 8268) with the
+ * 2048 bit group 14 and an RSA host key. Computes the exchange hash,
+ * checks the signature of the host over it and derives the keys of both
+ * directions.
+ *
+ * @see SshIO
+ */
+final class SshKex {
+
+    /* the algorithms we offer, in order of preference */
+    final static String ALGORITHMS = "diffie-hellman-group14-sha256,diffie-hellman-group14-sha1";
+    final static String HOST_KEY_ALGORITHMS = "rsa-sha2-256,rsa-sha2-512,ssh-rsa";
+    final static String MACS = "hmac-sha2-256,hmac-sha1";
+
+    /* RFC 3526, 2048-bit MODP group 14 */
+    private final static BigInteger P = new BigInteger(
+            "FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74020BBEA63B139B22514A08798E3404DD" +
+            "EF9519B3CD3A431B302B0A6DF25F14374FE1356D6D51C245E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7ED" +
+            "EE386BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3DC2007CB8A163BF0598DA48361C55D39A69163FA8FD24CF5F" +
+            "83655D23DCA3AD961C62F356208552BB9ED529077096966D670C354E4ABC9804F1746C08CA18217C32905E462E36CE3B" +
+            "E39E772C180E86039B2783A2EC07A28FB5C55DF06F4C52C9DE2BCBF6955817183995497CEA956AE515D2261898FA0510" +
+            "15728E5A8AACAA68FFFFFFFFFFFFFFFF", 16);
+    private final static BigInteger G = BigInteger.valueOf(2);
+
+    private static SecureRandom random;
+
+    private final MessageDigest hash;
+    private final BigInteger x, e;
+    private byte[] secret;              /* K, encoded as mpint */
+    private byte[] exchangeHash;        /* H */
+
+    /**
+     * Start a key exchange, choosing our secret exponent.
+     *
+     * @param algorithm one of ALGORITHMS
+     */
+    SshKex(String algorithm) throws NoSuchAlgorithmException {
+        hash = MessageDigest.getInstance(algorithm.endsWith("sha256") ? "SHA-256" : "SHA-1");
+        synchronized (SshKex.class) {
+            if (random == null) {
+                random = new SecureRandom();
+            }
+        }
+        // twice the bits of the strongest key derived is plenty
+        x = new BigInteger(512, random).setBit(511);
+        e = G.modPow(x, P);
+    }
+
+    /**
+     * @return our public value, sent with KEXDH_INIT
+     */
+    BigInteger getE() {
+        return e;
+    }
+
+    /**
+     * Compute the shared secret and the exchange hash from the reply of the
+     * server and check the signature of the host over the hash.
+     *
+     * @param clientVersion    our identification, without CR LF
+     * @param serverVersion    the identification of the server, without CR LF
+     * @param clientKexInit    the payload of our KEXINIT
+     * @param serverKexInit    the payload of the KEXINIT of the server
+     * @param hostKey          the host key blob
+     * @param f                the public value of the server
+     * @param signature        the signature blob
+     * @param hostKeyAlgorithm the negotiated host key algorithm
+     * @throws GeneralSecurityException if the value or the signature is not
+     *                                  valid
+     */
+    void reply(String clientVersion, String serverVersion, byte[] clientKexInit, byte[] serverKexInit,
+               byte[] hostKey, BigInteger f, byte[] signature, String hostKeyAlgorithm)
+            throws GeneralSecurityException {
+        if (f.compareTo(BigInteger.ONE) <= 0 || f.compareTo(P.subtract(BigInteger.ONE)) >= 0) {
+            throw new GeneralSecurityException("server DH value out of range");
+        }
+        SshPacket2 k = new SshPacket2();
+        k.putMpInt(f.modPow(x, P));
+        secret = k.getData();
+
+        SshPacket2 h = new SshPacket2();
+        putString(h, clientVersion.getBytes());
+        putString(h, serverVersion.getBytes());
+        putString(h, clientKexInit);
+        putString(h, serverKexInit);
+        putString(h, hostKey);
+        h.putMpInt(e);
+        h.putMpInt(f);
+        hash.update(h.getData());
+        hash.update(secret);
+        exchangeHash = hash.digest();
+
+        verify(hostKey, signature, hostKeyAlgorithm);
+    }
+
+    /**
+     * @return the exchange hash H, the first one is the session id
+     */
+    byte[] getExchangeHash() {
+        return exchangeHash;
+    }
+
+    /**
+     * Derive a key: HASH(K || H || letter || session_id), extended with
+     * HASH(K || H || key so far) until it is long enough.
+     *
+     * @param letter    'A' to 'F', see RFC 4253 section 7.2
+     * @param length    amount of bytes needed
+     * @param sessionId the exchange hash of the first key exchange
+     */
+    byte[] deriveKey(char letter, int length, byte[] sessionId) {
+        hash.update(secret);
+        hash.update(exchangeHash);
+        hash.update((byte) letter);
+        hash.update(sessionId);
+        byte[] key = hash.digest();
+        while (key.length < length) {
+            hash.update(secret);
+            hash.update(exchangeHash);
+            hash.update(key);
+            byte[] more = hash.digest();
+            int n = key.length;
+            key = Arrays.copyOf(key, n + more.length);
+            System.arraycopy(more, 0, key, n, more.length);
+        }
+        return Arrays.copyOf(key, length);
+    }
+
+    /**
+     * Check the signature of the host over the exchange hash.
+     */
+    private void verify(byte[] hostKey, byte[] signature, String algorithm) throws GeneralSecurityException {
+        SshPacket2 key = new SshPacket2();
+        key.putData(hostKey);
+        SshPacket2 sig = new SshPacket2();
+        sig.putData(signature);
+        try {
+            if (!"ssh-rsa".equals(key.getString())) {
+                throw new GeneralSecurityException("host key is not an RSA key");
+            }
+            BigInteger exponent = key.getMpInt();
+            BigInteger modulus = key.getMpInt();
+            if (!algorithm.equals(sig.getString())) {
+                throw new SignatureException("signature is not " + algorithm);
+            }
+            byte[] s = sig.getBytes(sig.getInt32());
+            // some servers drop leading zeroes, the JCE wants the full length
+            int n = (modulus.bitLength() + 7) / 8;
+            if (s.length < n) {
+                byte[] padded = new byte[n];
+                System.arraycopy(s, 0, padded, n - s.length, s.length);
+                s = padded;
+            }
+            PublicKey pub = KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(modulus, exponent));
+            Signature v = Signature.getInstance("rsa-sha2-512".equals(algorithm) ? "SHA512withRSA" :
+                    "rsa-sha2-256".equals(algorithm) ? "SHA256withRSA" : "SHA1withRSA");
+            v.initVerify(pub);
+            v.update(exchangeHash);
+            if (!v.verify(s)) {
+                throw new SignatureException("host key signature does not match");
+            }
+        } catch (IndexOutOfBoundsException ex) {
+            throw new GeneralSecurityException("host key or signature malformed");
+        }
+    }
+
+    /**
+     * Choose the first of our algorithms the remote side offers as well.
+     *
+     * @param ours    comma separated names in order of preference
+     * @param offered comma separated names the remote side offers
+     * @return the name or null if none fits
+     */
+    static String choose(String ours, String offered) {
+        List<String> names = Arrays.asList(offered.split(","));
+        for (String name : ours.split(",")) {
+            if (names.contains(name)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create the MAC for one direction.
+     *
+     * @param name      one of MACS
+     * @param kex       the key exchange to derive the key from
+     * @param letter    'E' for client to server, 'F' for server to client
+     * @param sessionId the exchange hash of the first key exchange
+     * @return the initialized MAC
+     */
+    static Mac mac(String name, SshKex kex, char letter, byte[] sessionId) throws NoSuchAlgorithmException {
+        String algorithm = "hmac-sha2-256".equals(name) ? "HmacSHA256" : "HmacSHA1";
+        Mac mac = Mac.getInstance(algorithm);
+        try {
+            mac.init(new SecretKeySpec(kex.deriveKey(letter, mac.getMacLength(), sessionId), algorithm));
+        } catch (GeneralSecurityException e) {
+            throw new NoSuchAlgorithmException(name + ": " + e);
+        }
+        return mac;
+    }
+
+    /**
+     * @return the host key fingerprint as OpenSSH shows it, like
+     * "SHA256:nThbg6kXUpJWGl7E1IGOCspRomTxdCARLviKw6E5SY8"
+     */
+    static String fingerprint(byte[] hostKey) throws NoSuchAlgorithmException {
+        byte[] d = MessageDigest.getInstance("SHA-256").digest(hostKey);
+        return "SHA256:" + Base64.getEncoder().withoutPadding().encodeToString(d);
+    }
+
+    private static void putString(SshPacket2 p, byte[] b) {
+        p.putInt32(b.length);
+        p.putBytes(b);
+    }
+}
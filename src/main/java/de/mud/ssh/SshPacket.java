@@ -26,6 +26,8 @@
 package de.mud.ssh;
 
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 abstract class SshPacket {
     public SshPacket() { /* nothing */
@@ -34,24 +36,47 @@ abstract class SshPacket {
     // Data management
     protected byte[] byteArray = new byte[0];
     protected int offset;
-    private boolean finished = false;
+    private int start;                     /* first byte of the data */
+    private int end;                       /* end of the data */
 
+    /**
+     * @return a copy of the data of the packet
+     */
     public byte[] getData() {
-        return byteArray;
+        return Arrays.copyOfRange(byteArray, start, end);
     }
 
     public void putData(byte[] data) {
-        byteArray = data;
-        offset = 0;
-        finished = true;
+        if (data == null) {
+            data = new byte[0];
+        }
+        putData(data, 0, data.length);
     }
 
-    public boolean isFinished() {
-        return finished;
+    /**
+     * Use a part of an array as the data of the packet, without copying.
+     * The array must not be changed while the packet is used.
+     */
+    void putData(byte[] buf, int off, int len) {
+        byteArray = buf;
+        start = offset = off;
+        end = off + len;
     }
 
-    abstract public byte[] addPayload(byte[] buff);
+    /**
+     * @return the array holding the data, starting at getDataOffset()
+     */
+    byte[] getDataArray() {
+        return byteArray;
+    }
 
+    int getDataOffset() {
+        return start;
+    }
+
+    int getDataLength() {
+        return end - start;
+    }
 
     // Type
     private byte packet_type;
@@ -66,61 +91,48 @@ abstract class SshPacket {
 
     public abstract void putMpInt(BigInteger bi);
 
-    public int getInt32() {
-        short d0 = byteArray[offset++];
-        short d1 = byteArray[offset++];
-        short d2 = byteArray[offset++];
-        short d3 = byteArray[offset++];
-
-        if (d0 < 0) {
-            d0 = (short) (256 + d0);
-        }
-        if (d1 < 0) {
-            d1 = (short) (256 + d1);
-        }
-        if (d2 < 0) {
-            d2 = (short) (256 + d2);
-        }
-        if (d3 < 0) {
-            d3 = (short) (256 + d3);
+    /**
+     * Check that the packet has the given amount of bytes left to read.
+     */
+    private void need(int n) {
+        if (n < 0 || end - offset < n) {
+            throw new IndexOutOfBoundsException("SSH packet too short: need " + n + " bytes, have " + (end - offset));
         }
+    }
 
-        return (d0 << 24) + (d1 << 16) + (d2 << 8) + d3;
+    public int getInt32() {
+        need(4);
+        return ((byteArray[offset++] & 0xff) << 24) | ((byteArray[offset++] & 0xff) << 16) |
+                ((byteArray[offset++] & 0xff) << 8) | (byteArray[offset++] & 0xff);
     }
 
     public int getInt16() {
-        short d0 = byteArray[offset++];
-        short d1 = byteArray[offset++];
-
-        if (d0 < 0) {
-            d0 = (short) (256 + d0);
-        }
-        if (d1 < 0) {
-            d1 = (short) (256 + d1);
-        }
-
-        return (d0 << 8) + d1;
+        need(2);
+        return ((byteArray[offset++] & 0xff) << 8) | (byteArray[offset++] & 0xff);
     }
 
     public String getString() {
         int length = getInt32();
-
-        String str = "";
-        for (int i = 0; i < length; i++) {
-            if (byteArray[offset] >= 0) {
-                str += (char) (byteArray[offset++]);
-            } else {
-                str += (char) (256 + byteArray[offset++]);
-            }
-        }
+        need(length);
+        String str = new String(byteArray, offset, length, StandardCharsets.ISO_8859_1);
+        offset += length;
         return str;
     }
 
+    /**
+     * @return the amount of bytes left to read
+     */
+    int getRemaining() {
+        return end - offset;
+    }
+
     public byte getByte() {
+        need(1);
         return byteArray[offset++];
     }
 
     public byte[] getBytes(int cnt) {
+        need(cnt);
         byte[] bytes = new byte[cnt];
 
         System.arraycopy(byteArray, offset, bytes, 0, cnt);
@@ -128,37 +140,57 @@ abstract class SshPacket {
         return bytes;
     }
 
+    /**
+     * Read bytes into an array instead of allocating one.
+     */
+    public void getBytes(byte[] dest, int off, int cnt) {
+        need(cnt);
+        System.arraycopy(byteArray, offset, dest, off, cnt);
+        offset += cnt;
+    }
+
+    /**
+     * Make room to append the given amount of bytes. The array grows by
+     * at least half its size so building a packet takes linear time.
+     */
     private void grow(int howmuch) {
-        byte[] value = new byte[byteArray.length + howmuch];
-        System.arraycopy(byteArray, 0, value, 0, byteArray.length);
-        byteArray = value;
+        if (start != 0 || end + howmuch > byteArray.length) {
+            byte[] value = new byte[Math.max(end - start + howmuch, (end - start) * 3 / 2 + 16)];
+            System.arraycopy(byteArray, start, value, 0, end - start);
+            byteArray = value;
+            offset -= start;
+            end -= start;
+            start = 0;
+        }
     }
 
     public void putInt16(int xint) {
-        int boffset = byteArray.length;
         grow(2);
-        byteArray[boffset + 1] = (byte) ((xint) & 0xff);
-        byteArray[boffset] = (byte) ((xint >> 8) & 0xff);
+        byteArray[end++] = (byte) ((xint >> 8) & 0xff);
+        byteArray[end++] = (byte) ((xint) & 0xff);
     }
 
     public void putInt32(int xint) {
-        int boffset = byteArray.length;
         grow(4);
-        byteArray[boffset + 3] = (byte) ((xint) & 0xff);
-        byteArray[boffset + 2] = (byte) ((xint >> 8) & 0xff);
-        byteArray[boffset + 1] = (byte) ((xint >> 16) & 0xff);
-        byteArray[boffset] = (byte) ((xint >> 24) & 0xff);
+        byteArray[end++] = (byte) ((xint >> 24) & 0xff);
+        byteArray[end++] = (byte) ((xint >> 16) & 0xff);
+        byteArray[end++] = (byte) ((xint >> 8) & 0xff);
+        byteArray[end++] = (byte) ((xint) & 0xff);
     }
 
     public void putByte(byte xbyte) {
         grow(1);
-        byteArray[byteArray.length - 1] = xbyte;
+        byteArray[end++] = xbyte;
     }
 
     public void putBytes(byte[] bytes) {
-        int oldlen = byteArray.length;
-        grow(bytes.length);
-        System.arraycopy(bytes, 0, byteArray, oldlen, bytes.length);
+        putBytes(bytes, 0, bytes.length);
+    }
+
+    public void putBytes(byte[] bytes, int off, int len) {
+        grow(len);
+        System.arraycopy(bytes, off, byteArray, end, len);
+        end += len;
     }
 
 
@@ -170,7 +202,8 @@ abstract class SshPacket {
      * @param str: The string to be added.
      */
     public void putString(String str) {
-        putInt32(str.length());
-        putBytes(str.getBytes());
+        byte[] bytes = str.getBytes();
+        putInt32(bytes.length);
+        putBytes(bytes);
     }
 }
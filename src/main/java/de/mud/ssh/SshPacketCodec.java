@@ -0,0 +1,498 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meißner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.ssh;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes SSH packets with buffers reused for all packets of a
+ * connection. Received bytes are collected in one buffer, where each
+ * complete packet is decrypted in place and handed out as a view: the
+ * packet returned by next() is only valid until next() is called again.
+ * Outgoing packets are framed, checksummed and encrypted in a second buffer
+ * that grows to the largest packet sent.
+ * <p>
+ * SSH 2 has a cipher and a MAC for each direction, switched on separately
+ * when the NEWKEYS message is sent and received.
+ * <p>
+ * Once compression is switched on the type and data of each packet are
+ * compressed with zlib. Each direction is one zlib stream for the rest of
+ * the connection, flushed at the end of every packet.
+ *
+ * @see SshIO
+ */
+final class SshPacketCodec {
+
+    /* the largest packet accepted, as in the SSH 1 protocol description */
+    private final static int MAX_PACKET = 256 * 1024;
+
+    private final int protocol;
+    private SshCrypto crypto;
+
+    /* SSH 2: cipher, its block size and MAC of each direction */
+    private Cipher sendCipher, receiveCipher;
+    private int sendBlock = 8, receiveBlock = 8;
+    private Mac sendMac, receiveMac;
+    private byte[] macIn = new byte[0];
+    private final byte[] seq = new byte[4];
+    private int receiveSeq = -1;                /* of the last packet returned */
+    private boolean headDecrypted;             /* first block of the next packet */
+
+    private ByteBuffer in = ByteBuffer.allocate(8192);
+    private ByteBuffer out = ByteBuffer.allocate(1024);
+    private final SshPacket1 packet1 = new SshPacket1();
+    private final SshPacket2 packet2 = new SshPacket2();
+    private final CRC32 crc = new CRC32();
+    private SecureRandom random;
+
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] zin = new byte[0];        /* packets inflated */
+    private byte[] zout = new byte[0];       /* packets deflated */
+    private final byte[] type = new byte[1];
+    /* bytes before and after compression, sent and received */
+    private long rawOut, zipOut, rawIn, zipIn;
+
+    /**
+     * Create a codec.
+     *
+     * @param protocol the protocol version, 1 or 2
+     */
+    SshPacketCodec(int protocol) {
+        this.protocol = protocol;
+        in.flip();
+    }
+
+    /**
+     * Set the cipher for the SSH 1 packets read and written from now on.
+     */
+    void setCrypto(SshCrypto crypto) {
+        this.crypto = crypto;
+    }
+
+    /**
+     * Set the cipher and MAC for the SSH 2 packets written from now on.
+     *
+     * @param cipher    the cipher, its key and IV set
+     * @param blockSize the block size of the cipher
+     * @param mac       the MAC, its key set
+     */
+    void setSendKeys(Cipher cipher, int blockSize, Mac mac) {
+        sendCipher = cipher;
+        sendBlock = Math.max(blockSize, 8);
+        sendMac = mac;
+    }
+
+    /**
+     * Set the cipher and MAC for the SSH 2 packets read from now on.
+     */
+    void setReceiveKeys(Cipher cipher, int blockSize, Mac mac) {
+        receiveCipher = cipher;
+        receiveBlock = Math.max(blockSize, 8);
+        receiveMac = mac;
+        if (macIn.length < mac.getMacLength()) {
+            macIn = new byte[mac.getMacLength()];
+        }
+    }
+
+    /**
+     * @return the SSH 2 sequence number of the packet returned last by next()
+     */
+    int getReceiveSequence() {
+        return receiveSeq;
+    }
+
+    /**
+     * Compress the packets read and written from now on.
+     *
+     * @param level the zlib compression level for written packets, 1-9
+     */
+    void setCompression(int level) {
+        end();
+        deflater = new Deflater(level);
+        inflater = new Inflater();
+    }
+
+    /**
+     * Compress the packets written from now on, if not done already.
+     */
+    void compressSent(int level) {
+        if (deflater == null) {
+            deflater = new Deflater(level);
+        }
+    }
+
+    /**
+     * Decompress the packets read from now on, if not done already.
+     */
+    void compressReceived() {
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+    }
+
+    boolean isCompressing() {
+        return deflater != null || inflater != null;
+    }
+
+    /**
+     * Release the zlib streams.
+     */
+    void end() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    /**
+     * Get the amount of packet bytes compressed so far.
+     *
+     * @param sent       the bytes written, or else the bytes read
+     * @param compressed the size after compression, or else before
+     */
+    long getCompressionCount(boolean sent, boolean compressed) {
+        return sent ? (compressed ? zipOut : rawOut) : (compressed ? zipIn : rawIn);
+    }
+
+    /**
+     * Add received bytes.
+     */
+    void feed(byte[] b, int off, int len) {
+        if (in.capacity() - in.remaining() < len) {
+            ByteBuffer n = ByteBuffer.allocate(Math.max(in.capacity() * 2, in.remaining() + len));
+            n.put(in);
+            in = n;
+        } else {
+            in.compact();
+        }
+        in.put(b, off, len).flip();
+    }
+
+    /**
+     * Decode the next complete packet received.
+     *
+     * @return the packet, valid until the next call, or null if more bytes
+     * are needed
+     * @throws IOException if the packet length is out of range
+     */
+    SshPacket next() throws IOException {
+        return protocol == 1 ? next1() : next2();
+    }
+
+    /*
+     * SSH 1: uint32 length, then padding to a multiple of 8, type, data and
+     * the CRC, length counts type, data and CRC. All but the length is
+     * encrypted.
+     */
+    private SshPacket next1() throws IOException {
+        int p = in.position();
+        if (in.remaining() < 4) {
+            return null;
+        }
+        int len = in.getInt(p);
+        if (len < 5 || len > MAX_PACKET) {
+            throw new IOException("SSH packet length out of range: " + len);
+        }
+        int padded = 8 * (len / 8 + 1);
+        if (in.remaining() < 4 + padded) {
+            return null;
+        }
+        byte[] b = in.array();
+        int off = in.arrayOffset() + p + 4;
+        if (crypto != null) {
+            crypto.decrypt(b, off, b, off, padded);
+        }
+        long check = in.getInt(p + padded) & 0xffffffffL;
+        if (SshMisc.crc32(crc, b, off, padded - 4) != check) {
+            System.err.println("SshPacket1: CRC wrong in received packet!");
+        }
+        int pad = padded - len;
+        in.position(p + 4 + padded);
+        if (inflater != null) {
+            int n = inflate(b, off + pad, len - 4);
+            packet1.setType(zin[0]);
+            packet1.putData(zin, 1, n - 1);
+        } else {
+            packet1.setType(b[off + pad]);
+            packet1.putData(b, off + pad + 1, len - 5);
+        }
+        return packet1;
+    }
+
+    /*
+     * SSH 2: uint32 length, byte padding length, type, data, padding and
+     * the MAC. All but the MAC is encrypted, the first block is decrypted
+     * on its own to learn the length. The MAC covers the sequence number
+     * and the unencrypted packet.
+     */
+    private SshPacket next2() throws IOException {
+        int p = in.position();
+        int block = receiveCipher != null ? receiveBlock : 5;
+        if (in.remaining() < block) {
+            return null;
+        }
+        byte[] b = in.array();
+        int off = in.arrayOffset() + p;
+        if (receiveCipher != null && !headDecrypted) {
+            receiveCipher.decrypt(b, off, b, off, block);
+            headDecrypted = true;
+        }
+        int len = in.getInt(p);
+        int padlen = b[off + 4] & 0xff;
+        if (len < 5 || len > MAX_PACKET || (receiveCipher != null && (len + 4) % receiveBlock != 0)) {
+            throw new IOException("SSH packet length out of range: " + len);
+        }
+        if (padlen > len - 2) {
+            throw new IOException("SSH packet padding out of range: " + padlen);
+        }
+        int mac = receiveMac != null ? receiveMac.getMacLength() : 0;
+        if (in.remaining() < 4 + len + mac) {
+            return null;
+        }
+        if (receiveCipher != null) {
+            receiveCipher.decrypt(b, off + block, b, off + block, 4 + len - block);
+            headDecrypted = false;
+        }
+        receiveSeq++;
+        if (receiveMac != null) {
+            putSeq(receiveSeq);
+            receiveMac.update(seq);
+            receiveMac.update(b, off, 4 + len);
+            try {
+                receiveMac.doFinal(macIn, 0);
+            } catch (ShortBufferException e) {
+                throw new IOException("SSH packet MAC: " + e);
+            }
+            // compare all bytes, so the time taken does not tell where they differ
+            int diff = 0;
+            for (int i = 0; i < mac; i++) {
+                diff |= macIn[i] ^ b[off + 4 + len + i];
+            }
+            if (diff != 0) {
+                throw new IOException("SSH packet MAC does not match");
+            }
+        }
+        in.position(p + 4 + len + mac);
+        int payload = len - padlen - 1;
+        if (inflater != null) {
+            int n = inflate(b, off + 5, payload);
+            packet2.setType(zin[0]);
+            packet2.putData(zin, 1, n - 1);
+        } else {
+            packet2.setType(b[off + 5]);
+            packet2.putData(b, off + 6, payload - 1);
+        }
+        return packet2;
+    }
+
+    /**
+     * Frame and encrypt a packet.
+     *
+     * @param packet the packet to send
+     * @param seqnr  the sequence number of the packet, used by SSH 2 only
+     * @return the bytes to send, valid until the next call
+     */
+    ByteBuffer encode(SshPacket packet, int seqnr) {
+        return protocol == 1 ? encode1(packet) : encode2(packet, seqnr);
+    }
+
+    private ByteBuffer encode1(SshPacket packet) {
+        // the payload is the type and data, data counts the rest of it
+        int data = deflater != null ? deflate(packet) - 1 : packet.getDataLength();
+        int len = data + 5;
+        int pad = 8 - len % 8;
+        byte[] b = reserve(4 + pad + len);
+        out.putInt(0, len);
+        padding(b, 4, pad);
+        payload(packet, b, 4 + pad, data);
+        out.putInt(5 + pad + data, (int) SshMisc.crc32(crc, b, 4, pad + 1 + data));
+        if (crypto != null) {
+            crypto.encrypt(b, 4, b, 4, pad + len);
+        }
+        out.limit(4 + pad + len);
+        return out;
+    }
+
+    private ByteBuffer encode2(SshPacket packet, int seqnr) {
+        int data = deflater != null ? deflate(packet) - 1 : packet.getDataLength();
+        // length, padding length, type and data, padded to full blocks
+        int block = sendCipher != null ? sendBlock : 8;
+        int len = 4 + 1 + 1 + data;
+        int padlen = block - len % block;
+        if (padlen < 4) {
+            padlen += block;
+        }
+        int mac = sendMac != null ? sendMac.getMacLength() : 0;
+        byte[] b = reserve(len + padlen + Math.max(mac, 4));
+        out.putInt(0, len + padlen - 4);
+        b[4] = (byte) padlen;
+        payload(packet, b, 5, data);
+        padding(b, len, padlen);
+        if (sendMac != null) {
+            out.putInt(len + padlen, seqnr);
+            sendMac.update(b, len + padlen, 4);
+            sendMac.update(b, 0, len + padlen);
+            try {
+                sendMac.doFinal(b, len + padlen);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException("SSH packet MAC: " + e);
+            }
+        }
+        if (sendCipher != null) {
+            sendCipher.encrypt(b, 0, b, 0, len + padlen);
+        }
+        out.limit(len + padlen + mac);
+        return out;
+    }
+
+    private void putSeq(int n) {
+        seq[0] = (byte) (n >>> 24);
+        seq[1] = (byte) (n >>> 16);
+        seq[2] = (byte) (n >>> 8);
+        seq[3] = (byte) n;
+    }
+
+    /**
+     * Copy the type and data of a packet, or what deflate() made of them.
+     *
+     * @param data the length of the payload without the first byte
+     */
+    private void payload(SshPacket packet, byte[] b, int off, int data) {
+        if (deflater != null) {
+            System.arraycopy(zout, 0, b, off, data + 1);
+        } else {
+            b[off] = packet.getType();
+            System.arraycopy(packet.getDataArray(), packet.getDataOffset(), b, off + 1, data);
+        }
+    }
+
+    /**
+     * Compress the type and data of a packet into zout.
+     *
+     * @return the compressed length
+     */
+    private int deflate(SshPacket packet) {
+        int data = packet.getDataLength();
+        // a sync flush ends on a byte boundary and takes at most a few bytes
+        int n = 0, max = data + 1 + (data + 1) / 1000 + 64;
+        if (zout.length < max) {
+            zout = new byte[Math.max(max, zout.length * 2)];
+        }
+        type[0] = packet.getType();
+        deflater.setInput(type);
+        while (!deflater.needsInput()) {
+            n += deflater.deflate(zout, n, zout.length - n, Deflater.NO_FLUSH);
+        }
+        deflater.setInput(packet.getDataArray(), packet.getDataOffset(), data);
+        while (true) {
+            int d = deflater.deflate(zout, n, zout.length - n, Deflater.SYNC_FLUSH);
+            n += d;
+            if (n < zout.length) {
+                break;
+            }
+            // the output filled the buffer, there may be more
+            zout = Arrays.copyOf(zout, zout.length * 2);
+        }
+        rawOut += data + 1;
+        zipOut += n;
+        return n;
+    }
+
+    /**
+     * Decompress a packet payload into zin.
+     *
+     * @return the decompressed length
+     * @throws IOException if the data is corrupt or the packet too large
+     */
+    private int inflate(byte[] b, int off, int len) throws IOException {
+        if (zin.length == 0) {
+            zin = new byte[8192];
+        }
+        inflater.setInput(b, off, len);
+        int n = 0;
+        try {
+            while (true) {
+                n += inflater.inflate(zin, n, zin.length - n);
+                if (n < zin.length) {
+                    break;
+                }
+                if (zin.length >= MAX_PACKET) {
+                    throw new IOException("SSH packet too large after decompression");
+                }
+                zin = Arrays.copyOf(zin, Math.min(zin.length * 2, MAX_PACKET));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("SSH packet can not be decompressed: " + e.getMessage());
+        }
+        if (n == 0) {
+            throw new IOException("SSH packet is empty after decompression");
+        }
+        rawIn += n;
+        zipIn += len;
+        return n;
+    }
+
+    /**
+     * Make the output buffer hold at least the given amount of bytes.
+     *
+     * @return the array of the output buffer
+     */
+    private byte[] reserve(int size) {
+        if (out.capacity() < size) {
+            out = ByteBuffer.allocate(Math.max(size, out.capacity() * 2));
+        }
+        out.clear();
+        return out.array();
+    }
+
+    /**
+     * Fill in the padding: zeroes without encryption, so we do not tell an
+     * attacker the state of our random generator, random bytes otherwise.
+     */
+    private void padding(byte[] b, int off, int len) {
+        boolean encrypting = crypto != null || sendCipher != null;
+        if (encrypting && random == null) {
+            random = new SecureRandom();
+        }
+        for (int i = off; i < off + len; i++) {
+            b[i] = encrypting ? (byte) (random.nextInt(255) + 1) : 0;
+        }
+    }
+}
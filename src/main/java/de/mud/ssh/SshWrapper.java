@@ -29,6 +29,8 @@ import de.mud.jta.Wrapper;
 
 import java.awt.*;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.logging.Logger;
 
@@ -63,6 +65,13 @@ public class SshWrapper extends Wrapper {
 
     private static final Logger logger = Logger.getLogger(SshWrapper.class.getName());
 
+    /* reads the connection for the channels */
+    private Thread reader;
+    /* terminal output taken by the reader thread until read() gets it */
+    private final ArrayDeque<byte[]> received = new ArrayDeque<byte[]>();
+    /* held while data is read from the connection and handled */
+    private final Object readLock = new Object();
+
     public SshWrapper() {
         handler = new SshIO() {
             /** get the current terminal type */
@@ -84,9 +93,86 @@ public class SshWrapper extends Wrapper {
             public void write(byte[] b) throws IOException {
                 out.write(b);
             }
+
+            protected void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
         };
     }
 
+    /**
+     * Connect the socket and start the setup of a new session, see
+     * SshIO.getTiming() for how long its phases took.
+     */
+    public void connect(String host, int port) throws IOException {
+        long start = System.nanoTime();
+        super.connect(host, port);
+        handler.connected((System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Open another shell session on this connection, see SshIO#openChannel.
+     * The key exchange and authentication of the connection are shared, so
+     * this is much cheaper than another connect(). Once a channel is open
+     * the connection is read by a background thread, read() then returns
+     * the terminal output that thread collected.
+     *
+     * @return the new channel
+     * @throws IOException if the connection does not use SSH protocol 2
+     */
+    public SshChannel openChannel() throws IOException {
+        SshChannel ch = handler.openChannel();
+        synchronized (this) {
+            if (reader == null) {
+                reader = new Thread(() -> {
+                    byte[] b = new byte[8192];
+                    try {
+                        byte[] data;
+                        // channel packets go to the channels, the rest is kept for read()
+                        while ((data = receive(b)) != null) {
+                            if (data.length > 0) {
+                                synchronized (SshWrapper.this) {
+                                    received.add(data);
+                                    SshWrapper.this.notifyAll();
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        logger.warning("SshWrapper: " + e);
+                    }
+                    // wake up the channels
+                    handler.disconnect();
+                    synchronized (SshWrapper.this) {
+                        reader = null;
+                        SshWrapper.this.notifyAll();
+                    }
+                }, "SshWrapper reader");
+                reader.setDaemon(true);
+                reader.start();
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Set the zlib compression level to request, call it before connect().
+     *
+     * @param level 1 (fastest) to 9 (best), 0 switches compression off
+     * @see SshIO#setCompressionLevel
+     */
+    public void setCompressionLevel(int level) {
+        handler.setCompressionLevel(level);
+    }
+
+    /**
+     * @param sent the bytes sent, or else the bytes received
+     * @return how many times smaller compression made the data
+     * @see SshIO#getCompressionRatio
+     */
+    public double getCompressionRatio(boolean sent) {
+        return handler.getCompressionRatio(sent);
+    }
+
     /**
      * Send a command to the remote host. A newline is appended and if
      * a prompt is set it will return the resulting data until the prompt
@@ -126,49 +212,63 @@ public class SshWrapper extends Wrapper {
      * Read data from the backend and decrypt it. This is a buffering read
      * as the encrypted information is usually smaller than its decrypted
      * pendant. So it will not read from the backend as long as there is
-     * data in the buffer.
+     * data in the buffer. While channels are open the connection is read
+     * by their thread and this waits for the terminal output it gets.
      *
      * @param b the buffer where to read the decrypted data in
      * @return the amount of bytes actually read.
      */
     public int read(byte[] b) throws IOException {
-        // Empty the buffer before we do anything else
-        if (buffer != null) {
-            int amount = ((buffer.length - pos) <= b.length) ? buffer.length - pos : b.length;
-            System.arraycopy(buffer, pos, b, 0, amount);
-            if (pos + amount < buffer.length) {
-                pos += amount;
-            } else {
-                buffer = null;
+        if (buffer == null) {
+            synchronized (this) {
+                while (reader != null && received.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("interrupted while waiting for data");
+                    }
+                }
+                buffer = received.poll();
+                pos = 0;
+            }
+            if (buffer == null) {
+                buffer = receive(b);
+                if (buffer == null) {
+                    return -1;
+                }
+                if (buffer.length == 0) {
+                    buffer = null;
+                    return 0;
+                }
             }
-            return amount;
         }
+        int amount = Math.min(buffer.length - pos, b.length);
+        System.arraycopy(buffer, pos, b, 0, amount);
+        pos += amount;
+        if (pos == buffer.length) {
+            buffer = null;
+        }
+        return amount;
+    }
 
-        // now that the buffer is empty let's read more data and decrypt it
-        int n = in.read(b);
-        if (n > 0) {
-            byte[] tmp = new byte[n];
-            System.arraycopy(b, 0, tmp, 0, n);
-            pos = 0;
-            buffer = handler.handleSSH(tmp);
-            if (buffer != null && buffer.length > 0) {
-                logger.warning("ssh: " + Arrays.toString(buffer));
+    /**
+     * Read from the connection once and handle what arrived. Only one
+     * thread at a time does this, so the packets are handled in order.
+     *
+     * @param b the buffer to read into
+     * @return the terminal output, or null at the end of the stream
+     */
+    private byte[] receive(byte[] b) throws IOException {
+        synchronized (readLock) {
+            int n = in.read(b);
+            if (n < 0) {
+                return null;
             }
-
-            if (buffer != null && buffer.length > 0) {
-                logger.warning("ssh: incoming=" + n + " now=" + buffer.length);
-
-                int amount = buffer.length <= b.length ? buffer.length : b.length;
-                System.arraycopy(buffer, 0, b, 0, amount);
-                pos = n = amount;
-                if (amount == buffer.length) {
-                    buffer = null;
-                    pos = 0;
-                }
-            } else {
-                return 0;
+            byte[] data = handler.handleSSH(b, 0, n);
+            if (data.length > 0) {
+                logger.fine("ssh: incoming=" + n + " now=" + data.length);
             }
+            return data;
         }
-        return n;
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meißner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+
+package de.mud.telnet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Handles GMCP (Generic MUD Communication Protocol, telnet option 201).
+ * The host sends messages made of a package name like "Char.Vitals" and
+ * an optional JSON value. They are decoded and passed to handleMessage().
+ * When the host offers GMCP the handler says hello and tells the host
+ * which packages the client supports.
+ */
+public abstract class GMCPHandler implements SubnegotiationHandler {
+    /**
+     * Telnet option: Generic MUD Communication Protocol
+     */
+    public final static byte TELOPT_GMCP = (byte) 201;
+
+    private final TelnetProtocolHandler telnet;
+    private final String hello;
+    private final String supports;
+
+    /**
+     * Create a GMCP handler and register it with the protocol handler.
+     *
+     * @param telnet   the protocol handler to register with
+     * @param client   name of the client sent in Core.Hello
+     * @param version  version of the client sent in Core.Hello
+     * @param supports packages with versions like "Char 1", sent in
+     *                 Core.Supports.Set
+     */
+    public GMCPHandler(TelnetProtocolHandler telnet, String client, String version, String[] supports) {
+        this.telnet = telnet;
+        hello = "{\"client\":" + quote(client) + ",\"version\":" + quote(version) + "}";
+        StringBuilder sb = new StringBuilder("[");
+        for (String pkg : supports) {
+            if (pkg.trim().length() > 0) {
+                sb.append(sb.length() > 1 ? "," : "").append(quote(pkg.trim()));
+            }
+        }
+        this.supports = sb.append(']').toString();
+        telnet.setSubnegotiationHandler(TELOPT_GMCP, this);
+    }
+
+    /**
+     * Called for each message received.
+     *
+     * @param name the package and message name, like "Char.Vitals"
+     * @param data the decoded JSON value: a Map, List, String, Long, Double
+     *             or Boolean, null if there is none
+     */
+    protected abstract void handleMessage(String name, Object data);
+
+    /**
+     * Send a message to the host.
+     *
+     * @param name the package and message name
+     * @param json the JSON encoded value or null if there is none
+     */
+    public void send(String name, String json) throws IOException {
+        byte[] b = (json == null ? name : name + " " + json).getBytes(StandardCharsets.UTF_8);
+        telnet.sendSubnegotiation(TELOPT_GMCP, b, b.length);
+    }
+
+    public void optionEnabled(byte option) throws IOException {
+        send("Core.Hello", hello);
+        send("Core.Supports.Set", supports);
+    }
+
+    public void handleSubnegotiation(byte option, byte[] data, int off, int len) {
+        int end = off + len, sp = off;
+        while (sp < end && data[sp] != ' ') {
+            sp++;
+        }
+        String name = new String(data, off, sp - off, StandardCharsets.UTF_8);
+        Object value = null;
+        if (sp < end) {
+            try {
+                value = JSONParser.parse(data, sp + 1, end - sp - 1);
+            } catch (IllegalArgumentException e) {
+                System.err.println("GMCPHandler: dropping " + name + ": " + e.getMessage());
+                return;
+            }
+        }
+        handleMessage(name, value);
+    }
+
+    /**
+     * Encode a string as JSON string.
+     */
+    public static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
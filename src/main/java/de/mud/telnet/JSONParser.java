@@ -0,0 +1,317 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meißner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+
+package de.mud.telnet;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small JSON parser working directly on UTF-8 encoded bytes. It reads
+ * the input once from left to right, decoding strings as it goes, and
+ * builds Map (keeping the order of the members), List, String, Long (or
+ * BigInteger if out of range), Double, Boolean or null values. Arrays and objects may be nested at most
+ * 64 deep.
+ */
+final class JSONParser {
+
+    /* how deep arrays and objects may be nested */
+    private final static int MAX_DEPTH = 64;
+
+    /* smallest code point for a sequence with 1, 2 or 3 continuation bytes */
+    private final static int[] MIN_CODE_POINT = {0, 0x80, 0x800, 0x10000};
+
+    private final byte[] in;
+    private int pos;
+    private final int end;
+    private final StringBuilder sb = new StringBuilder();
+    private int depth;
+
+    private JSONParser(byte[] in, int off, int len) {
+        this.in = in;
+        this.pos = off;
+        this.end = off + len;
+    }
+
+    /**
+     * Parse a JSON value.
+     *
+     * @param in  the array holding the UTF-8 encoded text
+     * @param off index of the first byte
+     * @param len amount of bytes
+     * @return the value
+     * @throws IllegalArgumentException if the text is not valid JSON
+     */
+    static Object parse(byte[] in, int off, int len) {
+        JSONParser parser = new JSONParser(in, off, len);
+        Object value = parser.value();
+        parser.skipSpace();
+        if (parser.pos < parser.end) {
+            throw parser.error("text after the value");
+        }
+        return value;
+    }
+
+    private Object value() {
+        skipSpace();
+        if (pos == end) {
+            throw error("value expected");
+        }
+        switch (in[pos]) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                literal("true");
+                return Boolean.TRUE;
+            case 'f':
+                literal("false");
+                return Boolean.FALSE;
+            case 'n':
+                literal("null");
+                return null;
+            default:
+                return number();
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        nest();
+        pos++;
+        skipSpace();
+        if (pos < end && in[pos] == '}') {
+            pos++;
+            depth--;
+            return map;
+        }
+        while (true) {
+            skipSpace();
+            if (pos == end || in[pos] != '"') {
+                throw error("member name expected");
+            }
+            String name = string();
+            skipSpace();
+            expect(':');
+            map.put(name, value());
+            skipSpace();
+            if (pos < end && in[pos] == ',') {
+                pos++;
+            } else {
+                expect('}');
+                depth--;
+                return map;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> list = new ArrayList<Object>();
+        nest();
+        pos++;
+        skipSpace();
+        if (pos < end && in[pos] == ']') {
+            pos++;
+            depth--;
+            return list;
+        }
+        while (true) {
+            list.add(value());
+            skipSpace();
+            if (pos < end && in[pos] == ',') {
+                pos++;
+            } else {
+                expect(']');
+                depth--;
+                return list;
+            }
+        }
+    }
+
+    private String string() {
+        pos++;
+        sb.setLength(0);
+        while (true) {
+            if (pos == end) {
+                throw error("unterminated string");
+            }
+            int c = in[pos++] & 0xff;
+            if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\') {
+                if (pos == end) {
+                    throw error("unterminated string");
+                }
+                switch (in[pos++]) {
+                    case '"':
+                        sb.append('"');
+                        break;
+                    case '\\':
+                        sb.append('\\');
+                        break;
+                    case '/':
+                        sb.append('/');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (end - pos < 4) {
+                            throw error("bad unicode escape");
+                        }
+                        int u = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int d = Character.digit(in[pos++], 16);
+                            if (d < 0) {
+                                throw error("bad unicode escape");
+                            }
+                            u = u * 16 + d;
+                        }
+                        sb.append((char) u);
+                        break;
+                    default:
+                        throw error("bad escape");
+                }
+            } else if (c < 0x80) {
+                sb.append((char) c);
+            } else {
+                sb.appendCodePoint(utf8(c));
+            }
+        }
+    }
+
+    /**
+     * Decode the rest of a multibyte UTF-8 sequence. Broken sequences,
+     * overlong encodings and surrogates become U+FFFD, a byte which does not
+     * continue the sequence is left to be read again.
+     *
+     * @param c the lead byte
+     * @return the code point
+     */
+    private int utf8(int c) {
+        int n = c >= 0xf5 ? 0 : c >= 0xf0 ? 3 : c >= 0xe0 ? 2 : c >= 0xc2 ? 1 : 0;
+        if (n == 0) {
+            return 0xfffd;
+        }
+        int cp = c & (0x3f >> n);
+        for (int i = 0; i < n; i++) {
+            if (pos == end || (in[pos] & 0xc0) != 0x80) {
+                return 0xfffd;
+            }
+            cp = cp << 6 | (in[pos++] & 0x3f);
+        }
+        if (cp < MIN_CODE_POINT[n] || cp > Character.MAX_CODE_POINT
+                || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+            return 0xfffd;
+        }
+        return cp;
+    }
+
+    private Number number() {
+        int start = pos;
+        boolean integer = true;
+        if (pos < end && in[pos] == '-') {
+            pos++;
+        }
+        while (pos < end) {
+            byte c = in[pos];
+            if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                integer = false;
+            } else if (c < '0' || c > '9') {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw error("value expected");
+        }
+        String text = new String(in, start, pos - start, StandardCharsets.US_ASCII);
+        try {
+            if (integer) {
+                try {
+                    return Long.valueOf(text);
+                } catch (NumberFormatException e) {
+                    // valid, but beyond long, like unsigned 64 bit IDs
+                    return new BigInteger(text);
+                }
+            }
+            return Double.valueOf(text);
+        } catch (NumberFormatException e) {
+            pos = start;
+            throw error("bad number " + text);
+        }
+    }
+
+    private void nest() {
+        if (++depth > MAX_DEPTH) {
+            throw error("nested deeper than " + MAX_DEPTH);
+        }
+    }
+
+    private void literal(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (pos == end || in[pos++] != word.charAt(i)) {
+                throw error(word + " expected");
+            }
+        }
+    }
+
+    private void expect(char c) {
+        if (pos == end || in[pos] != c) {
+            throw error("'" + c + "' expected");
+        }
+        pos++;
+    }
+
+    private void skipSpace() {
+        while (pos < end && (in[pos] == ' ' || in[pos] == '\t' || in[pos] == '\n' || in[pos] == '\r')) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException("JSON: " + msg + " at offset " + pos);
+    }
+}
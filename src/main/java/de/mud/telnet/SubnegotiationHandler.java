@@ -0,0 +1,60 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meißner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+
+package de.mud.telnet;
+
+import java.io.IOException;
+
+/**
+ * Receives the payload of telnet subnegotiations (IAC SB &lt;option&gt;
+ * ... IAC SE) for one option. Handlers are registered with the
+ * TelnetProtocolHandler and are called from negotiate(). The handler
+ * accepts options offered by the host that have a handler registered.
+ *
+ * @see TelnetProtocolHandler#setSubnegotiationHandler
+ */
+public interface SubnegotiationHandler {
+    /**
+     * Handle a subnegotiation. Doubled IAC bytes have already been
+     * unescaped. The array is reused for the next subnegotiation, so
+     * the data must be copied if it is needed after returning.
+     *
+     * @param option the telnet option
+     * @param data   the array holding the payload
+     * @param off    index of the first payload byte
+     * @param len    amount of payload bytes
+     */
+    void handleSubnegotiation(byte option, byte[] data, int off, int len) throws IOException;
+
+    /**
+     * Called when the remote host offered the option and it was accepted,
+     * before the first subnegotiation. Does nothing by default.
+     *
+     * @param option the telnet option
+     */
+    default void optionEnabled(byte option) throws IOException {
+    }
+}
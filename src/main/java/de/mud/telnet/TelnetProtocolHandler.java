@@ -26,7 +26,11 @@
 package de.mud.telnet;
 
 import java.awt.*;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * This is a telnet protocol handler. The handler needs implementations
@@ -45,9 +49,40 @@ public abstract class TelnetProtocolHandler {
     private final static int debug = 0;
 
     /**
-     * temporary buffer for data-telnetstuff-data transformation
+     * input not yet negotiated, the bytes from inpos up to inend are valid
      */
-    private byte[] tempbuf = new byte[0];
+    private byte[] inbuf = new byte[4096];
+    private int inpos, inend;
+
+    /**
+     * reusable buffer for replies and for negotiate(ByteBuffer)
+     */
+    private final byte[] sendbuf = new byte[3];
+    private byte[] outbuf = new byte[0];
+
+    /**
+     * MCCP state: the inflater is set while the input is compressed, the
+     * compressed bytes not yet given to it are kept in zbuf
+     */
+    private boolean compress = true;
+    private Inflater inflater;
+    private boolean inflating;
+    private byte[] zbuf = new byte[0];
+    private long compressedBytes, uncompressedBytes;
+
+    /**
+     * LINEMODE state: the current mode, the special characters and the
+     * characters that make the client forward a line early
+     */
+    private boolean linemode = false;
+    private int lmMode;
+    private final byte[] slc = new byte[NSLC + 1];
+    private byte[] forwardMask;
+
+    /**
+     * reusable buffer for data escaped by transpose()
+     */
+    private byte[] txbuf = new byte[0];
 
     /**
      * the data sent on pressing <RETURN>  \n
@@ -94,9 +129,25 @@ public abstract class TelnetProtocolHandler {
 
     /**
      * Generate an EOR (end of record) request. For use by prompt displaying.
+     * Also called for GA (go ahead), which hosts use the same way.
      */
     protected abstract void notifyEndOfRecord();
 
+    /**
+     * Called when the LINEMODE mode, special characters or forward mask
+     * change. With MODE_EDIT set lines are to be edited locally and sent
+     * as a whole, without it the client is in character mode again.
+     * The arrays must not be kept, they are changed by later negotiation.
+     * Does nothing by default.
+     *
+     * @param mode        MODE_EDIT and MODE_TRAPSIG bits
+     * @param slc         special characters indexed by SLC function, 0 if
+     *                    not supported
+     * @param forwardMask 256 bits for characters that end a line, or null
+     */
+    protected void notifyLineMode(int mode, byte[] slc, byte[] forwardMask) {
+    }
+
     /**
      * Send data to the remote host.
      *
@@ -104,6 +155,27 @@ public abstract class TelnetProtocolHandler {
      */
     protected abstract void write(byte[] b) throws IOException;
 
+    /**
+     * Send part of an array to the remote host. The array may be reused as
+     * soon as the method returns, so it must not be kept. The default copies
+     * the data unless it covers the whole array and calls write(byte[]).
+     * Override it to send the data without that copy.
+     *
+     * @param b   the array holding the data
+     * @param off index of the first byte
+     * @param len amount of bytes
+     * @see #write(byte[] b)
+     */
+    protected void write(byte[] b, int off, int len) throws IOException {
+        if (off == 0 && len == b.length) {
+            write(b);
+        } else {
+            byte[] xb = new byte[len];
+            System.arraycopy(b, off, xb, 0, len);
+            write(xb);
+        }
+    }
+
     /**
      * Send one byte to the remote host.
      *
@@ -123,6 +195,18 @@ public abstract class TelnetProtocolHandler {
      */
     public void reset() {
         neg_state = 0;
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        inflating = false;
+        compressedBytes = uncompressedBytes = 0;
+        if (lmMode != 0) {
+            lmMode = 0;
+            notifyLineMode(0, slc, null);
+        }
+        forwardMask = null;
+        System.arraycopy(SLC_DEFAULTS, 0, slc, 0, slc.length);
         receivedDX = new byte[256];
         sentDX = new byte[256];
         receivedWX = new byte[256];
@@ -158,9 +242,21 @@ public abstract class TelnetProtocolHandler {
     private byte current_sb;
 
     /**
-     * current SB negotiation buffer
+     * current SB negotiation buffer, the first sblen bytes are valid
      */
-    private byte[] sbbuf;
+    private byte[] sbbuf = new byte[256];
+    private int sblen;
+
+    /**
+     * largest SB payload accepted, longer ones are dropped
+     */
+    private int sbmax = 1024 * 1024;
+    private boolean sboverflow;
+
+    /**
+     * handlers for the SB payload of each option
+     */
+    private final SubnegotiationHandler[] sbhandlers = new SubnegotiationHandler[256];
 
     /**
      * IAC - init sequence for telnet negotiation.
@@ -170,6 +266,10 @@ public abstract class TelnetProtocolHandler {
      * [IAC] End Of Record
      */
     private final static byte EOR = (byte) 239;
+    /**
+     * [IAC] Go Ahead
+     */
+    private final static byte GA = (byte) 249;
     /**
      * [IAC] WILL
      */
@@ -218,6 +318,47 @@ public abstract class TelnetProtocolHandler {
      * Telnet option: Terminal Type
      */
     private final static byte TELOPT_TTYPE = (byte) 24;  /* terminal type */
+    /**
+     * Telnet option: MUD Client Compression Protocol v2
+     */
+    private final static byte TELOPT_COMPRESS2 = (byte) 86;  /* MCCP v2 */
+    /**
+     * Telnet option: Linemode (RFC 1184)
+     */
+    private final static byte TELOPT_LINEMODE = (byte) 34;  /* linemode */
+
+    /**
+     * LINEMODE suboptions and MODE bits
+     */
+    private final static byte LM_MODE = (byte) 1;
+    private final static byte LM_FORWARDMASK = (byte) 2;
+    private final static byte LM_SLC = (byte) 3;
+    public final static int MODE_EDIT = 1;
+    public final static int MODE_TRAPSIG = 2;
+    private final static int MODE_ACK = 4;
+
+    /**
+     * LINEMODE special characters, the functions are used as index into
+     * the array passed to notifyLineMode()
+     */
+    public final static int SLC_BRK = 2;
+    public final static int SLC_IP = 3;
+    public final static int SLC_AO = 4;
+    public final static int SLC_AYT = 5;
+    public final static int SLC_ABORT = 7;
+    public final static int SLC_EOF = 8;
+    public final static int SLC_SUSP = 9;
+    public final static int SLC_EC = 10;
+    public final static int SLC_EL = 11;
+    public final static int SLC_EW = 12;
+    public final static int SLC_RP = 13;
+    public final static int SLC_LNEXT = 14;
+    private final static int NSLC = 18;
+    private final static int SLC_NOSUPPORT = 0;
+    private final static int SLC_VARIABLE = 2;
+    private final static int SLC_DEFAULT = 3;
+    private final static int SLC_LEVELBITS = 3;
+    private final static int SLC_ACK = 0x80;
 
     private final static byte[] IACWILL = {IAC, WILL};
     private final static byte[] IACWONT = {IAC, WONT};
@@ -287,19 +428,72 @@ public abstract class TelnetProtocolHandler {
     }
 
 
+    /**
+     * Set the handler for the subnegotiations of an option. A handler
+     * replaces the built-in handling of the option.
+     *
+     * @param option  the telnet option
+     * @param handler the handler or null to remove it
+     */
+    public void setSubnegotiationHandler(byte option, SubnegotiationHandler handler) {
+        sbhandlers[option & 0xff] = handler;
+    }
+
+    /**
+     * Set the largest subnegotiation payload accepted. Longer ones are
+     * dropped without being handled.
+     *
+     * @param max amount of bytes
+     */
+    public void setMaxSubnegotiationSize(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + max);
+        }
+        sbmax = max;
+    }
+
+    /**
+     * Append a byte to the current SB payload.
+     */
+    private void sbappend(byte b) {
+        if (sboverflow) {
+            return;
+        }
+        if (sblen == sbmax) {
+            System.err.println("TelnetProtocolHandler: dropping SB " + (current_sb & 0xff) + " longer than " + sbmax + " bytes");
+            sboverflow = true;
+            return;
+        }
+        if (sblen == sbbuf.length) {
+            byte[] xsb = new byte[Math.min(sbbuf.length * 2, sbmax)];
+            System.arraycopy(sbbuf, 0, xsb, 0, sblen);
+            sbbuf = xsb;
+        }
+        sbbuf[sblen++] = b;
+    }
+
     /**
      * Handle an incoming IAC SB &lt;type&gt; &lt;bytes&gt; IAC SE
      *
-     * @param type  type of SB
-     * @param sbata byte array as &lt;bytes&gt;
+     * @param type   type of SB
+     * @param sbdata byte array as &lt;bytes&gt;
+     * @param sblen  amount of bytes
      */
-    private void handle_sb(byte type, byte[] sbdata) throws IOException {
+    private void handle_sb(byte type, byte[] sbdata, int sblen) throws IOException {
         if (debug > 1) {
             System.err.println("TelnetIO.handle_sb(" + type + ")");
         }
+        if (sboverflow) {
+            return;
+        }
+        SubnegotiationHandler handler = sbhandlers[type & 0xff];
+        if (handler != null) {
+            handler.handleSubnegotiation(type, sbdata, 0, sblen);
+            return;
+        }
         switch (type) {
             case TELOPT_TTYPE:
-                if (sbdata.length > 0 && sbdata[0] == TELQUAL_SEND) {
+                if (sblen > 0 && sbdata[0] == TELQUAL_SEND) {
                     write(IACSB);
                     write(TELOPT_TTYPE);
                     write(TELQUAL_IS);
@@ -313,8 +507,276 @@ public abstract class TelnetProtocolHandler {
                     write(ttype.getBytes());
                     write(IACSE);
                 }
+                break;
+            case TELOPT_COMPRESS2:
+                // only if we agreed to it, anything else would be garbled
+                if (sentDX[TELOPT_COMPRESS2 + 128] == DO) {
+                    startCompression();
+                } else if (debug > 0) {
+                    System.err.println("TelnetProtocolHandler: COMPRESS2 not agreed, ignored");
+                }
+                break;
+            case TELOPT_LINEMODE:
+                if (sblen > 0) {
+                    handle_linemode(sbdata, sblen);
+                }
+                break;
+
+        }
+    }
+
+    /**
+     * default special characters, in the order of the SLC functions
+     */
+    private final static byte[] SLC_DEFAULTS = {
+            0, 0, 0, 3 /* ^C */, 15 /* ^O */, 20 /* ^T */, 0, 28 /* ^\ */,
+            4 /* ^D */, 26 /* ^Z */, 127 /* DEL */, 21 /* ^U */, 23 /* ^W */,
+            18 /* ^R */, 22 /* ^V */, 17 /* ^Q */, 19 /* ^S */, 0, 0
+    };
+
+    /**
+     * Allow or refuse LINEMODE when the remote host asks for it. Refused by
+     * default.
+     *
+     * @param linemode true to edit lines locally if the host agrees
+     */
+    public void setLineMode(boolean linemode) {
+        this.linemode = linemode;
+    }
+
+    /**
+     * Handle IAC SB LINEMODE ... IAC SE
+     */
+    private void handle_linemode(byte[] sbdata, int sblen) throws IOException {
+        switch (sbdata[0]) {
+            case LM_MODE:
+                if (sblen < 2) {
+                    return;
+                }
+                if ((sbdata[1] & MODE_ACK) != 0) {
+                    // RFC 1184: an acknowledged mode other than ours is ignored
+                    return;
+                }
+                int requested = sbdata[1] & 0xff;
+                int mode = requested & (MODE_EDIT | MODE_TRAPSIG);
+                if (mode == requested) {
+                    sbreply(TELOPT_LINEMODE, LM_MODE, (byte) (mode | MODE_ACK));
+                } else {
+                    // propose the part we support, only the exact mode may be acknowledged
+                    sbreply(TELOPT_LINEMODE, LM_MODE, (byte) mode);
+                }
+                if (mode == lmMode) {
+                    return;
+                }
+                lmMode = mode;
+                break;
+            case DO:
+            case DONT:
+                if (sblen < 2 || sbdata[1] != LM_FORWARDMASK) {
+                    return;
+                }
+                if (sbdata[0] == DO) {
+                    forwardMask = new byte[32];
+                    System.arraycopy(sbdata, 2, forwardMask, 0, Math.min(sblen - 2, 32));
+                    sbreply(TELOPT_LINEMODE, WILL, LM_FORWARDMASK);
+                } else {
+                    forwardMask = null;
+                    sbreply(TELOPT_LINEMODE, WONT, LM_FORWARDMASK);
+                }
+                break;
+            case WILL:
+                if (sblen > 1 && sbdata[1] == LM_FORWARDMASK) {
+                    sbreply(TELOPT_LINEMODE, DONT, LM_FORWARDMASK);
+                }
+                return;
+            case LM_SLC:
+                handle_slc(sbdata, sblen);
+                break;
+            default:
+                return;
+        }
+        notifyLineMode(lmMode, slc, forwardMask);
+    }
+
+    /**
+     * Handle the special character triplets of IAC SB LINEMODE SLC, take
+     * the values of the host and acknowledge them.
+     */
+    private void handle_slc(byte[] sbdata, int sblen) throws IOException {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        reply.write(LM_SLC);
+        for (int i = 1; i + 2 < sblen; i += 3) {
+            int func = sbdata[i] & 0xff, flags = sbdata[i + 1] & 0xff;
+            byte value = sbdata[i + 2];
+            if (func == 0) {
+                if ((flags & SLC_LEVELBITS) == SLC_DEFAULT || (flags & SLC_LEVELBITS) == SLC_VARIABLE) {
+                    // the host wants to know our characters
+                    for (int f = 1; f <= NSLC; f++) {
+                        reply.write(f);
+                        reply.write(slc[f] == 0 ? SLC_NOSUPPORT : SLC_VARIABLE);
+                        reply.write(slc[f]);
+                    }
+                }
+                continue;
+            }
+            if (func > NSLC) {
+                continue;
+            }
+            if ((flags & SLC_ACK) != 0) {
+                slc[func] = value;
+            } else if ((flags & SLC_LEVELBITS) == SLC_DEFAULT) {
+                slc[func] = SLC_DEFAULTS[func];
+                reply.write(func);
+                reply.write(slc[func] == 0 ? SLC_NOSUPPORT : SLC_VARIABLE);
+                reply.write(slc[func]);
+            } else {
+                slc[func] = (flags & SLC_LEVELBITS) == SLC_NOSUPPORT ? 0 : value;
+                reply.write(func);
+                reply.write(flags | SLC_ACK);
+                reply.write(slc[func]);
+            }
+        }
+        if (reply.size() > 1) {
+            byte[] data = reply.toByteArray();
+            sbreply(TELOPT_LINEMODE, data, data.length);
+        }
+    }
+
+    /**
+     * Send a subnegotiation to the remote host, IAC bytes in the data are
+     * doubled.
+     *
+     * @param option the telnet option
+     * @param data   the array holding the payload
+     * @param len    amount of payload bytes
+     */
+    public void sendSubnegotiation(byte option, byte[] data, int len) throws IOException {
+        sbreply(option, data, len);
+    }
 
+    private void sbreply(byte option, byte a, byte b) throws IOException {
+        sendbuf[0] = a;
+        sendbuf[1] = b;
+        sbreply(option, sendbuf, 2);
+    }
+
+    /**
+     * Send IAC SB &lt;option&gt; &lt;data&gt; IAC SE, doubling IAC in the data.
+     */
+    private void sbreply(byte option, byte[] data, int len) throws IOException {
+        byte[] b = new byte[5 + len * 2];
+        int n = 0;
+        b[n++] = IAC;
+        b[n++] = SB;
+        b[n++] = option;
+        for (int i = 0; i < len; i++) {
+            if ((b[n++] = data[i]) == IAC) {
+                b[n++] = IAC;
+            }
         }
+        b[n++] = IAC;
+        b[n++] = SE;
+        write(b, 0, n);
+    }
+
+    /**
+     * Allow or refuse MCCP (COMPRESS2) when the remote host offers it.
+     * Allowed by default.
+     *
+     * @param compress true to accept compressed input
+     */
+    public void setCompression(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Get the amount of compressed bytes received since the last reset.
+     *
+     * @return bytes read from the remote host while compressed
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * Get the amount of bytes the compressed input expanded to since the
+     * last reset.
+     *
+     * @return bytes after decompression
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * Handle IAC SB COMPRESS2 IAC SE: everything after it is compressed,
+     * including what is left of the current input.
+     */
+    private void startCompression() {
+        if (debug > 0) {
+            System.err.println("TelnetProtocolHandler: compression starts");
+        }
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            inflater.reset();
+        }
+        inflating = true;
+        int left = inend - inpos;
+        inend = inpos;
+        zfeed(inbuf, inpos, left);
+    }
+
+    /**
+     * Give compressed bytes to the inflater, after the ones it still has.
+     */
+    private void zfeed(byte[] b, int off, int len) {
+        int left = inflater.getRemaining();
+        if (left + len > zbuf.length) {
+            byte[] xb = new byte[Math.max(zbuf.length * 2, left + len)];
+            System.arraycopy(zbuf, zbuf.length - left, xb, xb.length - left - len, left);
+            zbuf = xb;
+        } else {
+            System.arraycopy(zbuf, zbuf.length - left, zbuf, zbuf.length - left - len, left);
+        }
+        // the unused input is always kept at the end of zbuf
+        System.arraycopy(b, off, zbuf, zbuf.length - len, len);
+        inflater.setInput(zbuf, zbuf.length - left - len, left + len);
+        compressedBytes += len;
+    }
+
+    /**
+     * Fill the empty input buffer with decompressed data. The compressed
+     * stream may end, then the bytes following it are plain input again.
+     *
+     * @return true if there is new input
+     */
+    private boolean inflate() throws IOException {
+        int n = 0;
+        try {
+            while (n == 0 && !inflater.needsInput() && !inflater.finished()) {
+                n = inflater.inflate(inbuf, 0, inbuf.length);
+                if (inflater.needsDictionary()) {
+                    throw new DataFormatException("preset dictionary not supported");
+                }
+            }
+        } catch (DataFormatException e) {
+            inflating = false;
+            throw new IOException("corrupt compressed data: " + e.getMessage());
+        }
+        inpos = 0;
+        inend = n;
+        uncompressedBytes += n;
+        if (inflater.finished()) {
+            if (debug > 0) {
+                System.err.println("TelnetProtocolHandler: compression ends");
+            }
+            int left = inflater.getRemaining();
+            compressedBytes -= left;
+            inflating = false;
+            inputfeed(zbuf, zbuf.length - left, left);
+        }
+        return inend > 0;
     }
 
     /**
@@ -335,13 +797,58 @@ public abstract class TelnetProtocolHandler {
      * @param buf the data buffer to be sent
      */
     public void transpose(byte[] buf) throws IOException {
-        int i;
+        transpose(buf, 0, buf.length);
+    }
 
-        byte[] nbuf, xbuf;
-        int nbufptr = 0;
-        nbuf = new byte[buf.length * 2]; // FIXME: buffer overflows possible
+    /**
+     * Transpose and send part of an array. Data without any special codes
+     * is sent as it is, anything else is escaped into a reusable buffer.
+     *
+     * @param buf the array holding the data to be sent
+     * @param off index of the first byte
+     * @param len amount of bytes
+     * @see #transpose(byte[])
+     */
+    public void transpose(byte[] buf, int off, int len) throws IOException {
+        boolean binary = receivedDX[TELOPT_BINARY + 128] == DO;
+        int end = off + len, i, size = len;
 
-        for (i = 0; i < buf.length; i++) {
+        // find the first byte to escape and the size after escaping
+        for (i = off; i < end; i++) {
+            byte b = buf[i];
+            if (b == IAC || (!binary && (b == 10 || b == 13))) {
+                break;
+            }
+        }
+        if (i == end) {
+            write(buf, off, len);
+            return;
+        }
+        for (int j = i; j < end; j++) {
+            switch (buf[j]) {
+                case IAC:
+                    size++;
+                    break;
+                case 10:
+                    if (!binary) {
+                        size += crlf.length - 1;
+                    }
+                    break;
+                case 13:
+                    if (!binary) {
+                        size += cr.length - 1;
+                    }
+                    break;
+            }
+        }
+        if (txbuf.length < size) {
+            txbuf = new byte[Math.max(txbuf.length * 2, size)];
+        }
+        byte[] nbuf = txbuf;
+        int nbufptr = i - off;
+        System.arraycopy(buf, off, nbuf, 0, nbufptr);
+
+        for (; i < end; i++) {
             switch (buf[i]) {
                 // Escape IAC twice in stream ... to be telnet protocol compliant
                 // this is there in binary and non-binary mode.
@@ -353,16 +860,9 @@ public abstract class TelnetProtocolHandler {
                 // we assume that the Terminal sends \n for lf+cr and \r for just cr
                 // linefeed+carriage return is CR LF */
                 case 10:    // \n
-                    if (receivedDX[TELOPT_BINARY + 128] != DO) {
-                        while (nbuf.length - nbufptr < crlf.length) {
-                            xbuf = new byte[nbuf.length * 2];
-                            System.arraycopy(nbuf, 0, xbuf, 0, nbufptr);
-                            nbuf = xbuf;
-                        }
-                        for (byte aCrlf : crlf) {
-                            nbuf[nbufptr++] = aCrlf;
-                        }
-                        break;
+                    if (!binary) {
+                        System.arraycopy(crlf, 0, nbuf, nbufptr, crlf.length);
+                        nbufptr += crlf.length;
                     } else {
                         // copy verbatim in binary mode.
                         nbuf[nbufptr++] = buf[i];
@@ -370,15 +870,9 @@ public abstract class TelnetProtocolHandler {
                     break;
                 // carriage return is CR NUL */
                 case 13:    // \r
-                    if (receivedDX[TELOPT_BINARY + 128] != DO) {
-                        while (nbuf.length - nbufptr < cr.length) {
-                            xbuf = new byte[nbuf.length * 2];
-                            System.arraycopy(nbuf, 0, xbuf, 0, nbufptr);
-                            nbuf = xbuf;
-                        }
-                        for (byte aCr : cr) {
-                            nbuf[nbufptr++] = aCr;
-                        }
+                    if (!binary) {
+                        System.arraycopy(cr, 0, nbuf, nbufptr, cr.length);
+                        nbufptr += cr.length;
                     } else {
                         // copy verbatim in binary mode.
                         nbuf[nbufptr++] = buf[i];
@@ -390,9 +884,7 @@ public abstract class TelnetProtocolHandler {
                     break;
             }
         }
-        xbuf = new byte[nbufptr];
-        System.arraycopy(nbuf, 0, xbuf, 0, nbufptr);
-        write(xbuf);
+        write(nbuf, 0, nbufptr);
     }
 
     public void setCRLF(String xcrlf) {
@@ -412,20 +904,58 @@ public abstract class TelnetProtocolHandler {
      * @return number of bytes processed, 0 for none, and -1 for end of buffer.
      */
     public int negotiate(byte[] nbuf) throws IOException {
-        int count = tempbuf.length;
-        byte[] buf = tempbuf;
-        byte[] sendbuf = new byte[3];
+        return negotiate(nbuf, 0, nbuf.length);
+    }
+
+    /**
+     * Handle telnet protocol negotiation. Works like negotiate(byte[]) but
+     * puts the data into a buffer, starting at its position.
+     *
+     * @param out the buffer to put the data after negotiation into
+     * @return number of bytes put, 0 for none, and -1 for end of buffer.
+     * @see #negotiate(byte[])
+     */
+    public int negotiate(ByteBuffer out) throws IOException {
+        int n;
+        if (out.hasArray()) {
+            n = negotiate(out.array(), out.arrayOffset() + out.position(), out.remaining());
+            if (n > 0) {
+                out.position(out.position() + n);
+            }
+        } else {
+            if (outbuf.length < out.remaining()) {
+                outbuf = new byte[out.remaining()];
+            }
+            n = negotiate(outbuf, 0, out.remaining());
+            if (n > 0) {
+                out.put(outbuf, 0, n);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Handle telnet protocol negotiation. Works like negotiate(byte[]) but
+     * puts the data into a part of the array.
+     *
+     * @param nbuf the array to put the data after negotiation into
+     * @param off  index of the first byte to put
+     * @param len  the most bytes to put
+     * @return number of bytes put, 0 for none, and -1 for end of buffer.
+     * @see #negotiate(byte[])
+     */
+    public int negotiate(byte[] nbuf, int off, int len) throws IOException {
         byte b, reply;
-        int boffset = 0, noffset = 0;
+        int noffset = 0;
         boolean dobreak = false;
 
-        if (count == 0)    // buffer is empty.
+        if (inpos == inend && !(inflating && inflate()))    // buffer is empty.
         {
             return -1;
         }
 
-        while (!dobreak && (boffset < count) && (noffset < nbuf.length)) {
-            b = buf[boffset++];
+        while (!dobreak && (inpos < inend) && (noffset < len)) {
+            b = inbuf[inpos++];
             // of course, byte is a signed entity (-128 -> 127)
             // but apparently the SGI Netscape 3.0 doesn't seem
             // to care and provides happily values up to 255
@@ -442,7 +972,7 @@ public abstract class TelnetProtocolHandler {
                         neg_state = STATE_IAC;
                         dobreak = true; // leave the loop so we can sync.
                     } else {
-                        nbuf[noffset++] = b;
+                        nbuf[off + noffset++] = b;
                     }
                     break;
                 case STATE_IAC:
@@ -452,7 +982,7 @@ public abstract class TelnetProtocolHandler {
                                 System.err.print("IAC ");
                             }
                             neg_state = STATE_DATA;
-                            nbuf[noffset++] = IAC;
+                            nbuf[off + noffset++] = IAC;
                             break;
                         case WILL:
                             if (debug > 2) {
@@ -479,8 +1009,9 @@ public abstract class TelnetProtocolHandler {
                             neg_state = STATE_IACDO;
                             break;
                         case EOR:
+                        case GA:
                             if (debug > 1) {
-                                System.err.print("EOR ");
+                                System.err.print(b == EOR ? "EOR " : "GA ");
                             }
                             notifyEndOfRecord();
                             dobreak = true; // leave the loop so we can sync.
@@ -527,11 +1058,18 @@ public abstract class TelnetProtocolHandler {
                             }
                             reply = DO;
                             break;
+                        case TELOPT_COMPRESS2:
+                            if (debug > 2) {
+                                System.err.println("COMPRESS2");
+                            }
+                            reply = compress ? DO : DONT;
+                            break;
                         default:
                             if (debug > 2) {
                                 System.err.println("<UNKNOWN," + b + ">");
                             }
-                            reply = DONT;
+                            // accept options somebody handles
+                            reply = sbhandlers[b & 0xff] != null ? DO : DONT;
                             break;
                     }
                     if (debug > 1) {
@@ -544,6 +1082,9 @@ public abstract class TelnetProtocolHandler {
                         write(sendbuf);
                         sentDX[b + 128] = reply;
                         receivedWX[b + 128] = WILL;
+                        if (reply == DO && sbhandlers[b & 0xff] != null) {
+                            sbhandlers[b & 0xff].optionEnabled(b);
+                        }
                     }
                     neg_state = STATE_DATA;
                     break;
@@ -618,6 +1159,12 @@ public abstract class TelnetProtocolHandler {
                             }
                             reply = WILL;
                             break;
+                        case TELOPT_LINEMODE:
+                            if (debug > 2) {
+                                System.err.println("LINEMODE");
+                            }
+                            reply = linemode ? WILL : WONT;
+                            break;
                         case TELOPT_NAWS:
                             if (debug > 2) {
                                 System.err.println("NAWS");
@@ -693,6 +1240,17 @@ public abstract class TelnetProtocolHandler {
                             }
                             reply = WONT;
                             break;
+                        case TELOPT_LINEMODE:
+                            if (debug > 2) {
+                                System.err.println("LINEMODE");
+                            }
+                            reply = WONT;
+                            if (lmMode != 0) {
+                                // back to character mode
+                                lmMode = 0;
+                                notifyLineMode(lmMode, slc, forwardMask);
+                            }
+                            break;
                         default:
                             if (debug > 2) {
                                 System.err.println("<UNKNOWN," + b + ">");
@@ -714,7 +1272,8 @@ public abstract class TelnetProtocolHandler {
                         System.err.println("" + b + " ");
                     }
                     if (b == IAC) {
-                        sbbuf = new byte[0];
+                        sblen = 0;
+                        sboverflow = false;
                         current_sb = b;
                         neg_state = STATE_IACSBDATA;
                     } else {
@@ -732,7 +1291,8 @@ public abstract class TelnetProtocolHandler {
                             break;
                         default:
                             current_sb = b;
-                            sbbuf = new byte[0];
+                            sblen = 0;
+                            sboverflow = false;
                             neg_state = STATE_IACSBDATA;
                             break;
                     }
@@ -746,10 +1306,7 @@ public abstract class TelnetProtocolHandler {
                             neg_state = STATE_IACSBDATAIAC;
                             break;
                         default:
-                            byte[] xsb = new byte[sbbuf.length + 1];
-                            System.arraycopy(sbbuf, 0, xsb, 0, sbbuf.length);
-                            sbbuf = xsb;
-                            sbbuf[sbbuf.length - 1] = b;
+                            sbappend(b);
                             break;
                     }
                     break;
@@ -760,18 +1317,15 @@ public abstract class TelnetProtocolHandler {
                     switch (b) {
                         case IAC:
                             neg_state = STATE_IACSBDATA;
-                            byte[] xsb = new byte[sbbuf.length + 1];
-                            System.arraycopy(sbbuf, 0, xsb, 0, sbbuf.length);
-                            sbbuf = xsb;
-                            sbbuf[sbbuf.length - 1] = IAC;
+                            sbappend(IAC);
                             break;
                         case SE:
-                            handle_sb(current_sb, sbbuf);
+                            handle_sb(current_sb, sbbuf, sblen);
                             current_sb = 0;
                             neg_state = STATE_DATA;
                             break;
                         case SB:
-                            handle_sb(current_sb, sbbuf);
+                            handle_sb(current_sb, sbbuf, sblen);
                             neg_state = STATE_IACSB;
                             break;
                         default:
@@ -787,18 +1341,44 @@ public abstract class TelnetProtocolHandler {
                     break;
             }
         }
-        // shrink tempbuf to new processed size.
-        byte[] xb = new byte[count - boffset];
-        System.arraycopy(tempbuf, boffset, xb, 0, count - boffset);
-        tempbuf = xb;
+        if (inpos == inend) {
+            inpos = inend = 0;
+        }
         return noffset;
     }
 
+    /**
+     * Add data received from the remote host to the input of negotiate().
+     *
+     * @param b   the data
+     * @param len amount of bytes
+     */
     public void inputfeed(byte[] b, int len) {
-        byte[] xb = new byte[tempbuf.length + len];
+        inputfeed(b, 0, len);
+    }
 
-        System.arraycopy(tempbuf, 0, xb, 0, tempbuf.length);
-        System.arraycopy(b, 0, xb, tempbuf.length, len);
-        tempbuf = xb;
+    /**
+     * Add data received from the remote host to the input of negotiate().
+     *
+     * @param b   the array holding the data
+     * @param off index of the first byte
+     * @param len amount of bytes
+     */
+    public void inputfeed(byte[] b, int off, int len) {
+        if (inflating) {
+            zfeed(b, off, len);
+            return;
+        }
+        if (inend + len > inbuf.length) {
+            // move what is left to the front and grow if that is not enough
+            int left = inend - inpos;
+            byte[] xb = left + len > inbuf.length ? new byte[Math.max(inbuf.length * 2, left + len)] : inbuf;
+            System.arraycopy(inbuf, inpos, xb, 0, left);
+            inbuf = xb;
+            inpos = 0;
+            inend = left;
+        }
+        System.arraycopy(b, off, inbuf, inend, len);
+        inend += len;
     }
 }
@@ -86,6 +86,10 @@ public class TelnetWrapper extends Wrapper {
                 out.write(b);
             }
 
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
             /** sent on IAC EOR (prompt terminator for remote access systems). */
             public void notifyEndOfRecord() {
             }
@@ -131,7 +135,7 @@ public class TelnetWrapper extends Wrapper {
         int n;
 
         do {
-            n = handler.negotiate(b);
+            n = handler.negotiate(b, 0, b.length);
             if (n > 0) {
                 return n;
             }
@@ -139,7 +143,7 @@ public class TelnetWrapper extends Wrapper {
 
         while (n <= 0) {
             do {
-                n = handler.negotiate(b);
+                n = handler.negotiate(b, 0, b.length);
                 if (n > 0) {
                     return n;
                 }
@@ -148,8 +152,8 @@ public class TelnetWrapper extends Wrapper {
             if (n < 0) {
                 return n;
             }
-            handler.inputfeed(b, n);
-            n = handler.negotiate(b);
+            handler.inputfeed(b, 0, n);
+            n = handler.negotiate(b, 0, b.length);
         }
         return n;
     }
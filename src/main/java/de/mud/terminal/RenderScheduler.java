@@ -0,0 +1,179 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meißner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.terminal;
+
+/**
+ * Limits how often a VDUBuffer redraws its display. A redraw requested
+ * while the display is idle happens at once, so typed characters are echoed
+ * without delay. Requests coming in faster than the frame rate are
+ * collected and handled by a single redraw at the next frame, which is
+ * done by a background thread so the emulation never waits for it.
+ *
+ * @see VDUBuffer#setMaxFps
+ */
+class RenderScheduler implements Runnable {
+
+    private final static int debug = 0;
+
+    private final VDUBuffer buffer;
+    private long frameInterval;          /* minimum time between frames */
+    private long lastFrame;                /* when the last frame started */
+    private boolean pending;             /* a deferred frame is waiting */
+    private long due;                  /* when the deferred frame is drawn */
+    private Thread thread;
+    private boolean stopped;             /* no more deferred frames */
+
+    /**
+     * Create a scheduler for the given buffer.
+     *
+     * @param buffer the buffer whose display is redrawn
+     * @param maxFps the maximum amount of frames per second
+     */
+    RenderScheduler(VDUBuffer buffer, int maxFps) {
+        this.buffer = buffer;
+        setMaxFps(maxFps);
+        lastFrame = System.nanoTime() - frameInterval;
+    }
+
+    /**
+     * Change the maximum amount of frames per second.
+     *
+     * @param maxFps frames per second, must be positive
+     */
+    synchronized void setMaxFps(int maxFps) {
+        frameInterval = 1000000000L / maxFps;
+        notify();
+    }
+
+    /**
+     * Ask for the display to be redrawn. Returns at once, either after the
+     * redraw or after scheduling it for the next frame.
+     */
+    void requestRedraw() {
+        synchronized (this) {
+            if (pending) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (!stopped && now - lastFrame < frameInterval) {
+                defer(lastFrame + frameInterval);
+                return;
+            }
+            lastFrame = now;
+        }
+        buffer.redrawNow();
+    }
+
+    /**
+     * Ask for the display to be redrawn one frame interval from now, unless
+     * a redraw is already waiting.
+     *
+     * @see #cancel
+     */
+    void holdRedraw() {
+        synchronized (this) {
+            if (pending) {
+                return;
+            }
+            if (!stopped) {
+                defer(System.nanoTime() + frameInterval);
+                return;
+            }
+        }
+        buffer.redrawNow();
+    }
+
+    /**
+     * Drop a waiting redraw because the caller redraws right now.
+     */
+    synchronized void cancel() {
+        pending = false;
+        lastFrame = System.nanoTime();
+    }
+
+    /**
+     * Stop the scheduler and end its thread. A waiting frame is drawn right
+     * away, and so are all frames requested later on.
+     */
+    void stop() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            notify();
+            if (!pending) {
+                return;
+            }
+            pending = false;
+        }
+        buffer.redrawNow();
+    }
+
+    private void defer(long when) {
+        pending = true;
+        due = when;
+        if (thread == null) {
+            thread = new Thread(this, "RenderScheduler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notify();
+    }
+
+    /**
+     * Wait for deferred frames and draw them when they are due.
+     */
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!pending && !stopped) {
+                        wait();
+                    }
+                    if (stopped) {
+                        thread = null;
+                        return;
+                    }
+                    long delay = due - System.nanoTime();
+                    if (delay > 0) {
+                        wait(delay / 1000000, (int) (delay % 1000000));
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    if (debug > 0) {
+                        System.err.println("RenderScheduler: interrupted");
+                    }
+                    thread = null;
+                    return;
+                }
+                pending = false;
+                lastFrame = System.nanoTime();
+            }
+            buffer.redrawNow();
+        }
+    }
+}
@@ -80,6 +80,12 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
 
     private Image backingStore = null;
 
+    private VDUFrame frame = new VDUFrame();       /* screen being painted */
+    private boolean redrawAll = true;     /* repaint the complete screen */
+    private int[] damageFrom = new int[0];      /* damaged columns per line */
+    private int[] damageTo = new int[0];
+    private int cursorRow = -1, cursorColumn;      /* where cursor was drawn */
+
     /**
      * Create a color representation that is brighter than the standard
      * color but not what we would like to use for bold characters.
@@ -210,6 +216,8 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
     public void setVDUBuffer(VDUBuffer buffer) {
         this.buffer = buffer;
         buffer.setDisplay(this);
+        buffer.update[0] = true;
+        buffer.publishFrame();
     }
 
     /**
@@ -228,7 +236,7 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
      */
     public void setColorSet(Color[] colorset) {
         System.arraycopy(colorset, 0, color, 0, 10);
-        buffer.update[0] = true;
+        redrawAll = true;
         redraw();
     }
 
@@ -254,9 +262,7 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
             charHeight = fm.getHeight();
             charDescent = fm.getDescent();
         }
-        if (buffer.update != null) {
-            buffer.update[0] = true;
-        }
+        redrawAll = true;
         redraw();
     }
 
@@ -304,13 +310,11 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
     }
 
     /**
-     * Redraw marked lines.
+     * Redraw marked lines. The lines are painted later on the event
+     * dispatch thread using the latest frame published by the buffer.
      */
     public void redraw() {
-        if (backingStore != null) {
-            redraw(backingStore.getGraphics());
-            repaint();
-        }
+        repaint();
     }
 
     public void updateScrollBar() {
@@ -320,33 +324,75 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
         scrollBar.setValues(buffer.windowBase, buffer.height, 0, buffer.bufSize);
     }
 
+    /**
+     * Paint the changes of the latest frame published by the buffer, or
+     * the complete current frame if requested.
+     */
     protected void redraw(Graphics g) {
         if (debug > 0) {
             System.err.println("redraw()");
         }
 
-        int xoffset = (super.getSize().width - buffer.width * charWidth) / 2;
-        int yoffset = (super.getSize().height - buffer.height * charHeight) / 2;
+        VDUFrame next = buffer.swapFrame(frame);
+        if (next == null && !redrawAll) {
+            return;
+        }
+        if (next != null) {
+            frame = next;
+        }
+        if (damageFrom.length < frame.height) {
+            damageFrom = new int[frame.height];
+            damageTo = new int[frame.height];
+        }
+        for (int l = 0; l < frame.height; l++) {
+            if (redrawAll) {
+                damageFrom[l] = 0;
+                damageTo[l] = frame.width;
+            } else if (next != null) {
+                damageFrom[l] = frame.damageFrom[l];
+                damageTo[l] = frame.damageTo[l];
+            } else {
+                damageFrom[l] = damageTo[l] = 0;
+            }
+        }
+        redrawAll = false;
 
-        int selectStartLine = selectBegin.y - buffer.windowBase;
-        int selectEndLine = selectEnd.y - buffer.windowBase;
+        int xoffset = (super.getSize().width - frame.width * charWidth) / 2;
+        int yoffset = (super.getSize().height - frame.height * charHeight) / 2;
+
+        int selectStartLine = selectBegin.y - frame.windowBase;
+        int selectEndLine = selectEnd.y - frame.windowBase;
 
         Color fg = darken(color[COLOR_FG_STD]);
         Color bg = darken(color[COLOR_BG_STD]);
 
         g.setFont(normalFont);
 
-        for (int l = 0; l < buffer.height; l++) {
-            if (!buffer.update[0] && !buffer.update[l + 1]) {
+        // the cursor is drawn in XOR mode, so redraw the cell it was drawn on
+        // and the one it will be drawn on
+        damageCell(cursorColumn, cursorRow);
+        cursorRow = -1;
+        if (frame.showcursor && (frame.screenBase + frame.cursorY >= frame.windowBase && frame.screenBase +
+                frame.cursorY < frame.windowBase + frame.height)) {
+            cursorRow = frame.cursorY + frame.screenBase - frame.windowBase;
+            cursorColumn = frame.cursorX;
+            damageCell(cursorColumn, cursorRow);
+        }
+
+        for (int l = 0; l < frame.height; l++) {
+            int from = damageFrom[l];
+            int to = damageTo[l];
+            if (from >= to) {
                 continue;
             }
-            buffer.update[l + 1] = false;
             if (debug > 2) {
-                System.err.println("redraw(): line " + l);
+                System.err.println("redraw(): line " + l + " columns " + from + "-" + to);
             }
-            for (int c = 0; c < buffer.width; c++) {
+            char[] chars = frame.charArray[l];
+            int[] attrs = frame.charAttributes[l];
+            for (int c = from; c < to; c++) {
                 int addr = 0;
-                int currAttr = buffer.charAttributes[buffer.windowBase + l][c];
+                int currAttr = attrs[c];
 
                 fg = darken(getForeground());
                 bg = darken(getBackground());
@@ -386,12 +432,12 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
                     }
                 }
 
-                if (sf.inSoftFont(buffer.charArray[buffer.windowBase + l][c])) {
+                if (sf.inSoftFont(chars[c])) {
                     g.setColor(bg);
                     g.fillRect(c * charWidth + xoffset, l * charHeight + yoffset, charWidth, charHeight);
                     g.setColor(fg);
                     if ((currAttr & VDUBuffer.INVISIBLE) == 0) {
-                        sf.drawChar(g, buffer.charArray[buffer.windowBase + l][c], xoffset + c * charWidth,
+                        sf.drawChar(g, chars[c], xoffset + c * charWidth,
                                 l * charHeight + yoffset, charWidth, charHeight);
                     }
                     if ((currAttr & VDUBuffer.UNDERLINE) != 0) {
@@ -402,13 +448,12 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
                 }
 
                 // determine the maximum of characters we can print in one go
-                while ((c + addr < buffer.width) &&
-                        ((buffer.charArray[buffer.windowBase + l][c + addr] < ' ') || (buffer.charAttributes[buffer
-                                .windowBase + l][c + addr] == currAttr)) &&
-                        !sf.inSoftFont(buffer.charArray[buffer.windowBase + l][c + addr])) {
-                    if (buffer.charArray[buffer.windowBase + l][c + addr] < ' ') {
-                        buffer.charArray[buffer.windowBase + l][c + addr] = ' ';
-                        buffer.charAttributes[buffer.windowBase + l][c + addr] = 0;
+                while ((c + addr < to) &&
+                        ((chars[c + addr] < ' ') || (attrs[c + addr] == currAttr)) &&
+                        !sf.inSoftFont(chars[c + addr])) {
+                    if (chars[c + addr] < ' ') {
+                        chars[c + addr] = ' ';
+                        attrs[c + addr] = 0;
                         continue;
                     }
                     addr++;
@@ -422,7 +467,7 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
 
                 // draw the characters, if not invisible.
                 if ((currAttr & VDUBuffer.INVISIBLE) == 0) {
-                    g.drawChars(buffer.charArray[buffer.windowBase + l], c, addr, c * charWidth + xoffset,
+                    g.drawChars(chars, c, addr, c * charWidth + xoffset,
                             (l + 1) * charHeight - charDescent + yoffset);
                 }
 
@@ -439,15 +484,21 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
             // selected previously
             if (l >= selectStartLine && l <= selectEndLine) {
                 int selectStartColumn = (l == selectStartLine ? selectBegin.x : 0);
-                int selectEndColumn = (l == selectEndLine ? (l == selectStartLine ? selectEnd.x - selectStartColumn :
-                        selectEnd.x) : buffer.width);
-                if (selectStartColumn != selectEndColumn) {
+                int selectEndColumn = (l == selectEndLine ? selectEnd.x : frame.width);
+                // only the redrawn part of the line may be highlighted again
+                if (selectStartColumn < from) {
+                    selectStartColumn = from;
+                }
+                if (selectEndColumn > to) {
+                    selectEndColumn = to;
+                }
+                if (selectStartColumn < selectEndColumn) {
                     if (debug > 0) {
                         System.err.println("select(" + selectStartColumn + "-" + selectEndColumn + ")");
                     }
                     g.setXORMode(bg);
                     g.fillRect(selectStartColumn * charWidth + xoffset, l * charHeight + yoffset,
-                            selectEndColumn * charWidth, charHeight);
+                            (selectEndColumn - selectStartColumn) * charWidth, charHeight);
                     g.setPaintMode();
                 }
             }
@@ -455,12 +506,10 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
         }
 
         // draw cursor
-        if (buffer.showcursor && (buffer.screenBase + buffer.cursorY >= buffer.windowBase && buffer.screenBase +
-                buffer.cursorY < buffer.windowBase + buffer.height)) {
+        if (cursorRow >= 0) {
             g.setColor(cursorColorFG);
             g.setXORMode(cursorColorBG);
-            g.fillRect(buffer.cursorX * charWidth + xoffset, (buffer.cursorY + buffer.screenBase - buffer.windowBase)
-                    * charHeight + yoffset, charWidth, charHeight);
+            g.fillRect(cursorColumn * charWidth + xoffset, cursorRow * charHeight + yoffset, charWidth, charHeight);
             g.setPaintMode();
             g.setColor(color[COLOR_FG_STD]);
         }
@@ -471,11 +520,27 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
             xoffset--;
             yoffset--;
             for (int i = insets.top - 1; i >= 0; i--) {
-                g.draw3DRect(xoffset - i, yoffset - i, charWidth * buffer.width + 1 + i * 2,
-                        charHeight * buffer.height + 1 + i * 2, raised);
+                g.draw3DRect(xoffset - i, yoffset - i, charWidth * frame.width + 1 + i * 2,
+                        charHeight * frame.height + 1 + i * 2, raised);
             }
         }
-        buffer.update[0] = false;
+    }
+
+    /**
+     * Add a single cell to the damage collected for the current redraw.
+     */
+    private void damageCell(int c, int l) {
+        if (l < 0 || l >= frame.height || c < 0 || c >= frame.width) {
+            return;
+        }
+        if (damageFrom[l] >= damageTo[l]) {
+            damageFrom[l] = c;
+            damageTo[l] = c + 1;
+        } else if (c < damageFrom[l]) {
+            damageFrom[l] = c;
+        } else if (c >= damageTo[l]) {
+            damageTo[l] = c + 1;
+        }
     }
 
     /**
@@ -485,8 +550,10 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
         if (backingStore == null) {
             Dimension size = super.getSize();
             backingStore = createImage(size.width, size.height);
-            buffer.update[0] = true;
-            redraw();
+            redrawAll = true;
+        }
+        if (backingStore != null) {
+            redraw(backingStore.getGraphics());
         }
 
         if (debug > 1) {
@@ -520,9 +587,7 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
         if (debug > 0) {
             System.err.println("DEBUG: print()");
         }
-        for (int i = 0; i <= buffer.height; i++) {
-            buffer.update[i] = true;
-        }
+        redrawAll = true;
         Color fg = null;
         Color bg = null;
         Color[] colorSave = null;
@@ -543,6 +608,9 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
             setForeground(fg);
             setBackground(bg);
         }
+        // the backing store missed what was painted for the printer
+        redrawAll = true;
+        repaint();
     }
 
     /**
@@ -682,7 +750,7 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
 
         // delete the double buffer image and mark all lines
         backingStore = null;
-        buffer.markLine(0, buffer.height);
+        redrawAll = true;
     }
 
     /**
@@ -757,7 +825,7 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
             }
 
             if (oldx != x || oldy != y) {
-                buffer.update[0] = true;
+                redrawAll = true;
                 if (debug > 0) {
                     System.err.println("select([" + selectBegin.x + "," + selectBegin.y + "]," +
                             "[" + selectEnd.x + "," + selectEnd.y + "])");
@@ -821,7 +889,7 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
             mouseDragged(evt);
 
             if (selectBegin.x == selectEnd.x && selectBegin.y == selectEnd.y) {
-                buffer.update[0] = true;
+                redrawAll = true;
                 redraw();
                 return;
             }
@@ -833,31 +901,37 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
             if (selectEnd.y < 0) {
                 selectEnd.y = 0;
             }
-            if (selectEnd.y >= buffer.charArray.length) {
-                selectEnd.y = buffer.charArray.length - 1;
+            if (selectEnd.y >= buffer.bufSize) {
+                selectEnd.y = buffer.bufSize - 1;
             }
-            if (selectEnd.x > buffer.charArray[0].length) {
-                selectEnd.x = buffer.charArray[0].length;
+            if (selectEnd.x > buffer.width) {
+                selectEnd.x = buffer.width;
             }
 
             // Initial buffer space for selectEnd - selectBegin + 1 lines
             // NOTE: Selection includes invisible text as spaces!
             // (also leaves invisible non-whitespace selection ending as spaces)
-            StringBuilder selectionBuf = new StringBuilder(buffer.charArray[0].length * (selectEnd.y - selectBegin.y
+            StringBuilder selectionBuf = new StringBuilder(buffer.width * (selectEnd.y - selectBegin.y
                     + 1));
 
+            char[] chars = new char[buffer.width];
+            int[] attrs = new int[buffer.width];
             for (int l = selectBegin.y; l <= selectEnd.y; l++) {
+                buffer.getRow(l, chars, attrs);
                 int start, end;
                 start = (l == selectBegin.y ? start = selectBegin.x : 0);
-                end = (l == selectEnd.y ? end = selectEnd.x : buffer.charArray[l].length);
+                end = (l == selectEnd.y ? end = selectEnd.x : buffer.width);
 
                 boolean newlineFound = false;
                 char ch;
                 for (int i = start; i < end; i++) {
-                    if ((buffer.charAttributes[l][i] & VDUBuffer.INVISIBLE) != 0) {
+                    if ((attrs[i] & VDUBuffer.INVISIBLE) != 0) {
                         ch = ' ';
                     } else {
-                        ch = buffer.charArray[l][i];
+                        ch = chars[i];
+                    }
+                    if (ch < ' ' && ch != '\n') {
+                        ch = ' ';
                     }
                     if (ch == '\n') {
                         newlineFound = true;
@@ -869,7 +943,7 @@ public class SwingTerminal extends Component implements VDUDisplay, KeyListener,
                 }
                 // Trim all spaces from end of line, like xterm does.
                 selection += ("-" + (selectionBuf.toString())).trim().substring(1);
-                if (end == buffer.charArray[l].length) {
+                if (end == chars.length) {
                     selection += "\n";
                 }
             }
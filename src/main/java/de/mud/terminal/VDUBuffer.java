@@ -25,6 +25,9 @@
 
 package de.mud.terminal;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Implementation of a Video Display Unit (VDU) buffer. This class contains
  * all methods to manipulate the buffer that stores characters and their
@@ -47,14 +50,38 @@ public class VDUBuffer {
 
     public int height, width;                          /* rows and columns */
     public boolean[] update;        /* contains the lines that need update */
-    public char[][] charArray;                  /* contains the characters */
-    public int[][] charAttributes;             /* contains character attrs */
+    private int[] damageFrom, damageTo;     /* damaged columns of each line */
+    /**
+     * Row store for the characters. The rows form a ring starting at
+     * {@link #bufferStart}, use {@link #getCharRow} to address a buffer line.
+     * This is null while packed cells are used, read the buffer with
+     * {@link #getRow} if packed cells may be enabled.
+     */
+    public char[][] charArray;
+    /**
+     * Row store for the character attributes, organized like {@link #charArray}.
+     * This is null while packed cells are used.
+     */
+    public int[][] charAttributes;
+    /**
+     * Packed row store holding character and attributes of a cell in one
+     * long, organized like {@link #charArray}. This is null unless packed
+     * cells have been enabled.
+     *
+     * @see #setPackedCells
+     */
+    public long[][] cellArray;
+    public int bufferStart;            /* ring index of the first buffer line */
     public int bufSize;
     public int maxBufSize;                                 /* buffer sizes */
     public int screenBase;                      /* the actual screen start */
     public int windowBase;                   /* where the start displaying */
     public int scrollMarker;               /* marks the last line inserted */
 
+    private char[][] scratchChars;             /* row references while scrolling */
+    private int[][] scratchAttributes;
+    private long[][] scratchCells;
+
     private int topMargin;                               /* top scroll margin */
     private int bottomMargin;                         /* bottom scroll margin */
 
@@ -117,6 +144,15 @@ public class VDUBuffer {
      */
     public final static int COLOR_BG = 0x1e00;
 
+    /**
+     * Packed cells keep the character in the lower 16 bits.
+     */
+    public final static long CELL_CHAR_MASK = 0xffffL;
+    /**
+     * Packed cells keep the attributes above the character.
+     */
+    public final static int CELL_ATTRIBUTES_SHIFT = 16;
+
     /**
      * Create a new video display buffer with the passed width and height in
      * characters.
@@ -175,9 +211,14 @@ public class VDUBuffer {
     public void putChar(int c, int l, char ch, int attributes) {
         c = checkBounds(c, 0, width - 1);
         l = checkBounds(l, 0, height - 1);
-        charArray[screenBase + l][c] = ch;
-        charAttributes[screenBase + l][c] = attributes;
-        markLine(l, 1);
+        int r = ringIndex(screenBase + l);
+        if (cellArray != null) {
+            cellArray[r][c] = packCell(ch, attributes);
+        } else {
+            charArray[r][c] = ch;
+            charAttributes[r][c] = attributes;
+        }
+        markCells(c, l, 1);
     }
 
     /**
@@ -190,7 +231,8 @@ public class VDUBuffer {
     public char getChar(int c, int l) {
         c = checkBounds(c, 0, width - 1);
         l = checkBounds(l, 0, height - 1);
-        return charArray[screenBase + l][c];
+        int r = ringIndex(screenBase + l);
+        return cellArray != null ? cellChar(cellArray[r][c]) : charArray[r][c];
     }
 
     /**
@@ -203,7 +245,8 @@ public class VDUBuffer {
     public int getAttributes(int c, int l) {
         c = checkBounds(c, 0, width - 1);
         l = checkBounds(l, 0, height - 1);
-        return charAttributes[screenBase + l][c];
+        int r = ringIndex(screenBase + l);
+        return cellArray != null ? cellAttributes(cellArray[r][c]) : charAttributes[r][c];
     }
 
     /**
@@ -228,9 +271,15 @@ public class VDUBuffer {
     public void insertChar(int c, int l, char ch, int attributes) {
         c = checkBounds(c, 0, width - 1);
         l = checkBounds(l, 0, height - 1);
-        System.arraycopy(charArray[screenBase + l], c, charArray[screenBase + l], c + 1, width - c - 1);
-        System.arraycopy(charAttributes[screenBase + l], c, charAttributes[screenBase + l], c + 1, width - c - 1);
+        int r = ringIndex(screenBase + l);
+        if (cellArray != null) {
+            System.arraycopy(cellArray[r], c, cellArray[r], c + 1, width - c - 1);
+        } else {
+            System.arraycopy(charArray[r], c, charArray[r], c + 1, width - c - 1);
+            System.arraycopy(charAttributes[r], c, charAttributes[r], c + 1, width - c - 1);
+        }
         putChar(c, l, ch, attributes);
+        markCells(c, l, width - c);
     }
 
     /**
@@ -248,10 +297,16 @@ public class VDUBuffer {
         c = checkBounds(c, 0, width - 1);
         l = checkBounds(l, 0, height - 1);
         if (c < width - 1) {
-            System.arraycopy(charArray[screenBase + l], c + 1, charArray[screenBase + l], c, width - c - 1);
-            System.arraycopy(charAttributes[screenBase + l], c + 1, charAttributes[screenBase + l], c, width - c - 1);
+            int r = ringIndex(screenBase + l);
+            if (cellArray != null) {
+                System.arraycopy(cellArray[r], c + 1, cellArray[r], c, width - c - 1);
+            } else {
+                System.arraycopy(charArray[r], c + 1, charArray[r], c, width - c - 1);
+                System.arraycopy(charAttributes[r], c + 1, charAttributes[r], c, width - c - 1);
+            }
         }
         putChar(width - 1, l, (char) 0);
+        markCells(c, l, width - c);
     }
 
     /**
@@ -297,8 +352,81 @@ public class VDUBuffer {
      * @see #redraw
      */
     public void putString(int c, int l, String s, int attributes) {
-        for (int i = 0; i < s.length() && c + i < width; i++) {
-            putChar(c + i, l, s.charAt(i), attributes);
+        putChars(c, l, s.toCharArray(), 0, s.length(), attributes);
+    }
+
+    /**
+     * Put a part of a character array at a specific position giving all
+     * characters the same attributes. Characters that do not fit on the line
+     * are ignored.
+     * You need to call redraw() to update the screen.
+     *
+     * @param c          x-coordinate (column)
+     * @param l          y-coordinate (line)
+     * @param chars      the array containing the characters
+     * @param begin      index of the first character to put
+     * @param end        index after the last character to put
+     * @param attributes character attributes
+     * @return the amount of characters put on the line
+     * @see #putChar
+     * @see #insertChars
+     */
+    public int putChars(int c, int l, char[] chars, int begin, int end, int attributes) {
+        c = checkBounds(c, 0, width - 1);
+        l = checkBounds(l, 0, height - 1);
+        int n = end - begin < width - c ? end - begin : width - c;
+        if (n > 0) {
+            writeRun(ringIndex(screenBase + l), c, chars, begin, n, attributes);
+            markCells(c, l, n);
+        }
+        return n;
+    }
+
+    /**
+     * Insert a part of a character array at a specific position giving all
+     * characters the same attributes. All characters right to this position
+     * are moved to the right, characters moved beyond the end of the line are
+     * lost.
+     * You need to call redraw() to update the screen.
+     *
+     * @param c          x-coordinate (column)
+     * @param l          y-coordinate (line)
+     * @param chars      the array containing the characters
+     * @param begin      index of the first character to insert
+     * @param end        index after the last character to insert
+     * @param attributes character attributes
+     * @return the amount of characters inserted
+     * @see #insertChar
+     * @see #putChars
+     */
+    public int insertChars(int c, int l, char[] chars, int begin, int end, int attributes) {
+        c = checkBounds(c, 0, width - 1);
+        l = checkBounds(l, 0, height - 1);
+        int n = end - begin < width - c ? end - begin : width - c;
+        if (n > 0) {
+            int r = ringIndex(screenBase + l);
+            if (cellArray != null) {
+                System.arraycopy(cellArray[r], c, cellArray[r], c + n, width - c - n);
+            } else {
+                System.arraycopy(charArray[r], c, charArray[r], c + n, width - c - n);
+                System.arraycopy(charAttributes[r], c, charAttributes[r], c + n, width - c - n);
+            }
+            writeRun(r, c, chars, begin, n, attributes);
+            markCells(c, l, width - c);
+        }
+        return n;
+    }
+
+    private void writeRun(int r, int c, char[] chars, int begin, int n, int attributes) {
+        if (cellArray != null) {
+            long[] cells = cellArray[r];
+            long attr = (long) attributes << CELL_ATTRIBUTES_SHIFT;
+            for (int i = 0; i < n; i++) {
+                cells[c + i] = attr | chars[begin + i];
+            }
+        } else {
+            System.arraycopy(chars, begin, charArray[r], c, n);
+            Arrays.fill(charAttributes[r], c, c + n, attributes);
         }
     }
 
@@ -360,11 +488,6 @@ public class VDUBuffer {
     public synchronized void insertLine(int l, int n, boolean scrollDown) {
         l = checkBounds(l, 0, height - 1);
 
-        char[][] cbuf = null;
-        int[][] abuf = null;
-        int offset = 0;
-        int oldBase = screenBase;
-
         if (l > bottomMargin) /* We do not scroll below bottom margin (below the scrolling region). */ {
             return;
         }
@@ -373,115 +496,84 @@ public class VDUBuffer {
         int bottom = (l > bottomMargin ? height - 1 : (l < topMargin ? (topMargin > 0 ? topMargin - 1 : 0) :
                 bottomMargin));
 
-        // System.out.println("l is "+l+", top is "+top+", bottom is "+bottom+", bottomargin is "+bottomMargin+",
-        // topMargin is "+topMargin);
-
         if (scrollDown) {
             if (n > (bottom - top)) {
                 n = (bottom - top);
             }
-            cbuf = new char[bottom - l - (n - 1)][width];
-            abuf = new int[bottom - l - (n - 1)][width];
-
-            System.arraycopy(charArray, oldBase + l, cbuf, 0, bottom - l - (n - 1));
-            System.arraycopy(charAttributes, oldBase + l, abuf, 0, bottom - l - (n - 1));
-            System.arraycopy(cbuf, 0, charArray, oldBase + l + n, bottom - l - (n - 1));
-            System.arraycopy(abuf, 0, charAttributes, oldBase + l + n, bottom - l - (n - 1));
-            cbuf = charArray;
-            abuf = charAttributes;
+            if (n > bottom - l + 1) {
+                n = bottom - l + 1;
+            }
+            // the lines that fall off the bottom of the region become the
+            // blank lines inserted at l
+            rotateLines(screenBase + l, bottom - l + 1, n);
+            clearLines(screenBase + l, n);
+            // this is a little helper to mark the scrolling
+            scrollMarker -= n;
         } else {
-            try {
-                if (n > (bottom - top) + 1) {
-                    n = (bottom - top) + 1;
+            if (n > l - top + 1) {
+                n = l - top + 1;
+            }
+            int oldBase = screenBase;
+            int below = bufSize - (screenBase + height);
+            boolean region = top > 0 || l < height - 1 || below > 0;
+
+            if (region && bufSize + n - maxBufSize > oldBase) {
+                // The back buffer has no room for the scrolled lines, appending
+                // would recycle rows that are still on the screen. Scroll the
+                // region in place instead, its top lines are lost.
+                rotateLines(screenBase + top, l - top + 1, l - top + 1 - n);
+                clearLines(screenBase + l - n + 1, n);
+            } else {
+                int dropped = appendLines(n);
+
+                screenBase = oldBase + n - dropped;
+                windowBase += screenBase - oldBase;
+                if (windowBase < 0) {
+                    windowBase = 0;
                 }
-                if (bufSize < maxBufSize) {
-                    if (bufSize + n > maxBufSize) {
-                        offset = n - (maxBufSize - bufSize);
-                        scrollMarker += offset;
-                        bufSize = maxBufSize;
-                        screenBase = maxBufSize - height - 1;
-                        windowBase = screenBase;
-                    } else {
-                        scrollMarker += n;
-                        screenBase += n;
-                        windowBase += n;
-                        bufSize += n;
+                scrollMarker -= dropped;
+
+                // The ring rotation moved the top n screen lines into the scroll
+                // back buffer and appended n blank lines at the end. For anything
+                // but a full screen scroll the row references need to be shuffled
+                // so the region top..l scrolls and the rest stays in place.
+                if (region) {
+                    int first = screenBase - n;
+                    int count = n + height + below;
+                    ensureScratch(count);
+                    for (int i = 0; i < count; i++) {
+                        saveRow(i, ringIndex(first + i));
                     }
-
-                    cbuf = new char[bufSize][width];
-                    abuf = new int[bufSize][width];
-                } else {
-                    offset = n;
-                    cbuf = charArray;
-                    abuf = charAttributes;
+                    int dst = first;
+                    dst = placeLines(dst, top, n);                            // scrolled into the back buffer
+                    dst = placeLines(dst, 0, top);                            // above the scroll region
+                    dst = placeLines(dst, top + n, l - top - n + 1);          // scrolled within the region
+                    dst = placeLines(dst, height + below, n);                 // new blank lines
+                    dst = placeLines(dst, l + 1, height - l - 1);             // below the insert position
+                    placeLines(dst, height, below);                           // below the screen
+                    clearScratch(count);
                 }
-                // copy anything from the top of the buffer (+offset) to the new top
-                // up to the screenBase.
-                if (oldBase > 0) {
-                    System.arraycopy(charArray, offset, cbuf, 0, oldBase - offset);
-                    System.arraycopy(charAttributes, offset, abuf, 0, oldBase - offset);
-                }
-                // copy anything from the top of the screen (screenBase) up to the
-                // topMargin to the new screen
-                if (top > 0) {
-                    System.arraycopy(charArray, oldBase, cbuf, screenBase, top);
-                    System.arraycopy(charAttributes, oldBase, abuf, screenBase, top);
-                }
-                // copy anything from the topMargin up to the amount of lines inserted
-                // to the gap left over between scrollback buffer and screenBase
-                if (oldBase > 0) {
-                    System.arraycopy(charArray, oldBase + top, cbuf, oldBase - offset, n);
-                    System.arraycopy(charAttributes, oldBase + top, abuf, oldBase - offset, n);
-                }
-                // copy anything from topMargin + n up to the line linserted to the
-                // topMargin
-                System.arraycopy(charArray, oldBase + top + n, cbuf, screenBase + top, l - top - (n - 1));
-                System.arraycopy(charAttributes, oldBase + top + n, abuf, screenBase + top, l - top - (n - 1));
-                //
-                // copy the all lines next to the inserted to the new buffer
-                if (l < height - 1) {
-                    System.arraycopy(charArray, oldBase + l + 1, cbuf, screenBase + l + 1, (height - 1) - l);
-                    System.arraycopy(charAttributes, oldBase + l + 1, abuf, screenBase + l + 1, (height - 1) - l);
-                }
-            } catch (ArrayIndexOutOfBoundsException e) {
-                // this should not happen anymore, but I will leave the code
-                // here in case something happens anyway. That code above is
-                // so complex I always have a hard time understanding what
-                // I did, even though there are comments
-                System.err.println("*** Error while scrolling up:");
-                System.err.println("--- BEGIN STACK TRACE ---");
-                e.printStackTrace();
-                System.err.println("--- END STACK TRACE ---");
-                System.err.println("bufSize=" + bufSize + ", maxBufSize=" + maxBufSize);
-                System.err.println("top=" + top + ", bottom=" + bottom);
-                System.err.println("n=" + n + ", l=" + l);
-                System.err.println("screenBase=" + screenBase + ", windowBase=" + windowBase);
-                System.err.println("oldBase=" + oldBase);
-                System.err.println("size.width=" + width + ", size.height=" + height);
-                System.err.println("abuf.length=" + abuf.length + ", cbuf.length=" + cbuf.length);
-                System.err.println("*** done dumping debug information");
             }
         }
 
-        // this is a little helper to mark the scrolling
-        scrollMarker -= n;
-
-
-        for (int i = 0; i < n; i++) {
-            cbuf[(screenBase + l) + (scrollDown ? i : -i)] = new char[width];
-            abuf[(screenBase + l) + (scrollDown ? i : -i)] = new int[width];
+        if (!scrollDown) {
+            scrolledLines += n;
+            if (jumpScroll && scrolledLines >= height) {
+                // all of the screen scrolled by since the last frame
+                update[0] = true;
+            }
         }
-
-        charArray = cbuf;
-        charAttributes = abuf;
-
         if (scrollDown) {
             markLine(l, bottom - l + 1);
         } else {
             markLine(top, l - top + 1);
         }
 
-        display.updateScrollBar();
+        if (jumping) {
+            scrollBarChanged = true;
+        } else {
+            display.updateScrollBar();
+        }
     }
 
     /**
@@ -496,10 +588,11 @@ public class VDUBuffer {
         l = checkBounds(l, 0, height - 1);
 
         int bottom = (l > bottomMargin ? height - 1 : (l < topMargin ? topMargin : bottomMargin + 1));
-        System.arraycopy(charArray, screenBase + l + 1, charArray, screenBase + l, bottom - l - 1);
-        System.arraycopy(charAttributes, screenBase + l + 1, charAttributes, screenBase + l, bottom - l - 1);
-        charArray[screenBase + bottom - 1] = new char[width];
-        charAttributes[screenBase + bottom - 1] = new int[width];
+        if (bottom - l > 0) {
+            // the deleted line is reused as the blank line at the bottom
+            rotateLines(screenBase + l, bottom - l, bottom - l - 1);
+            clearLines(screenBase + bottom - 1, 1);
+        }
         markLine(l, bottom - l);
     }
 
@@ -520,17 +613,17 @@ public class VDUBuffer {
         c = checkBounds(c, 0, width - 1);
         l = checkBounds(l, 0, height - 1);
 
-        char[] cbuf = new char[w];
-        int[] abuf = new int[w];
-
-        for (int i = 0; i < w; i++) {
-            abuf[i] = curAttr;
-        }
+        int end = c + w < width ? c + w : width;
         for (int i = 0; i < h && l + i < height; i++) {
-            System.arraycopy(cbuf, 0, charArray[screenBase + l + i], c, w);
-            System.arraycopy(abuf, 0, charAttributes[screenBase + l + i], c, w);
+            int r = ringIndex(screenBase + l + i);
+            if (cellArray != null) {
+                Arrays.fill(cellArray[r], c, end, packCell((char) 0, curAttr));
+            } else {
+                Arrays.fill(charArray[r], c, end, (char) 0);
+                Arrays.fill(charAttributes[r], c, end, curAttr);
+            }
+            markCells(c, l + i, end - c);
         }
-        markLine(l, h);
     }
 
     /**
@@ -546,17 +639,7 @@ public class VDUBuffer {
      * @see #redraw
      */
     public void deleteArea(int c, int l, int w, int h) {
-        c = checkBounds(c, 0, width - 1);
-        l = checkBounds(l, 0, height - 1);
-
-        char[] cbuf = new char[w];
-        int[] abuf = new int[w];
-
-        for (int i = 0; i < h && l + i < height; i++) {
-            System.arraycopy(cbuf, 0, charArray[screenBase + l + i], c, w);
-            System.arraycopy(abuf, 0, charAttributes[screenBase + l + i], c, w);
-        }
-        markLine(l, h);
+        deleteArea(c, l, w, h, NORMAL);
     }
 
     /**
@@ -566,7 +649,7 @@ public class VDUBuffer {
      */
     public void showCursor(boolean doshow) {
         if (doshow != showcursor) {
-            markLine(cursorY, 1);
+            markCells(cursorX, cursorY, 1);
         }
         showcursor = doshow;
     }
@@ -580,7 +663,7 @@ public class VDUBuffer {
     public void setCursorPosition(int c, int l) {
         cursorX = checkBounds(c, 0, width - 1);
         cursorY = checkBounds(l, 0, height - 1);
-        markLine(cursorY, 1);
+        markCells(cursorX, cursorY, 1);
     }
 
     /**
@@ -687,23 +770,14 @@ public class VDUBuffer {
      *
      * @param amount new size of the buffer
      */
-    public void setBufferSize(int amount) {
+    public synchronized void setBufferSize(int amount) {
         if (amount < height) {
             amount = height;
         }
         if (amount < maxBufSize) {
-            char[][] cbuf = new char[amount][width];
-            int[][] abuf = new int[amount][width];
             int copyStart = bufSize - amount < 0 ? 0 : bufSize - amount;
             int copyCount = bufSize - amount < 0 ? bufSize : amount;
-            if (charArray != null) {
-                System.arraycopy(charArray, copyStart, cbuf, 0, copyCount);
-            }
-            if (charAttributes != null) {
-                System.arraycopy(charAttributes, copyStart, abuf, 0, copyCount);
-            }
-            charArray = cbuf;
-            charAttributes = abuf;
+            resizeStore(amount, copyStart, copyCount);
             bufSize = copyCount;
             screenBase = bufSize - height;
             windowBase = screenBase;
@@ -739,9 +813,7 @@ public class VDUBuffer {
      * @param w of the screen
      * @param h of the screen
      */
-    public void setScreenSize(int w, int h, boolean broadcast) {
-        char[][] cbuf;
-        int[][] abuf;
+    public synchronized void setScreenSize(int w, int h, boolean broadcast) {
         int bsize = bufSize;
 
         if (w < 1 || h < 1) {
@@ -771,24 +843,34 @@ public class VDUBuffer {
         }
 
 
-        cbuf = new char[bufSize][w];
-        abuf = new int[bufSize][w];
-
-        if (charArray != null && charAttributes != null) {
+        int copy = w < width ? w : width;
+        if (cellArray != null) {
+            long[][] lbuf = new long[bufSize][w];
             for (int i = 0; i < bsize && i < bufSize; i++) {
-                System.arraycopy(charArray[i], 0, cbuf[i], 0, w < width ? w : width);
-                System.arraycopy(charAttributes[i], 0, abuf[i], 0, w < width ? w : width);
+                System.arraycopy(cellArray[ringIndex(i)], 0, lbuf[i], 0, copy);
             }
+            cellArray = lbuf;
+        } else {
+            char[][] cbuf = new char[bufSize][w];
+            int[][] abuf = new int[bufSize][w];
+            if (charArray != null && charAttributes != null) {
+                for (int i = 0; i < bsize && i < bufSize; i++) {
+                    System.arraycopy(charArray[ringIndex(i)], 0, cbuf[i], 0, copy);
+                    System.arraycopy(charAttributes[ringIndex(i)], 0, abuf[i], 0, copy);
+                }
+            }
+            charArray = cbuf;
+            charAttributes = abuf;
         }
-
-        charArray = cbuf;
-        charAttributes = abuf;
+        bufferStart = 0;
         width = w;
         height = h;
         topMargin = 0;
         bottomMargin = h - 1;
         update = new boolean[h + 1];
         update[0] = true;
+        damageFrom = new int[h];
+        damageTo = new int[h];
     /*  FIXME: ???
     if(resizeStrategy == RESIZE_FONT)
       setBounds(getBounds());
@@ -809,6 +891,335 @@ public class VDUBuffer {
         return width;
     }
 
+    /**
+     * Switch between separate character and attribute rows and packed cells.
+     * Packed cells keep character and attributes of a cell next to each
+     * other in one long, which saves an array per row and keeps the write
+     * and render paths on a single row in memory. The current content is
+     * converted. While packed cells are used {@link #charArray} and
+     * {@link #charAttributes} are null and {@link #getCharRow} and
+     * {@link #getAttributeRow} throw, read the buffer with {@link #getRow}.
+     *
+     * @param packed true to use packed cells
+     * @see #getCellRow
+     * @see #getRow
+     */
+    public void setPackedCells(boolean packed) {
+        if (packed == (cellArray != null)) {
+            return;
+        }
+        int capacity = rowCapacity();
+        if (packed) {
+            long[][] lbuf = new long[capacity][];
+            for (int r = 0; r < capacity; r++) {
+                if (charArray[r] != null) {
+                    lbuf[r] = new long[charArray[r].length];
+                    for (int c = 0; c < lbuf[r].length; c++) {
+                        lbuf[r][c] = packCell(charArray[r][c], charAttributes[r][c]);
+                    }
+                }
+            }
+            cellArray = lbuf;
+            charArray = null;
+            charAttributes = null;
+        } else {
+            char[][] cbuf = new char[capacity][];
+            int[][] abuf = new int[capacity][];
+            for (int r = 0; r < capacity; r++) {
+                if (cellArray[r] != null) {
+                    cbuf[r] = new char[cellArray[r].length];
+                    abuf[r] = new int[cellArray[r].length];
+                    unpackCells(cellArray[r], cbuf[r], abuf[r], cellArray[r].length);
+                }
+            }
+            charArray = cbuf;
+            charAttributes = abuf;
+            cellArray = null;
+        }
+        scratchChars = null;
+        scratchAttributes = null;
+        scratchCells = null;
+    }
+
+    /**
+     * Check whether packed cells are used.
+     *
+     * @see #setPackedCells
+     */
+    public boolean isPackedCells() {
+        return cellArray != null;
+    }
+
+    /**
+     * Pack a character and its attributes into a cell.
+     *
+     * @param ch         the character
+     * @param attributes the character attributes
+     * @return the packed cell
+     */
+    public static long packCell(char ch, int attributes) {
+        return ((long) attributes << CELL_ATTRIBUTES_SHIFT) | ch;
+    }
+
+    /**
+     * Get the character of a packed cell.
+     */
+    public static char cellChar(long cell) {
+        return (char) (cell & CELL_CHAR_MASK);
+    }
+
+    /**
+     * Get the attributes of a packed cell.
+     */
+    public static int cellAttributes(long cell) {
+        return (int) (cell >>> CELL_ATTRIBUTES_SHIFT);
+    }
+
+    /**
+     * Get the characters of a line in the buffer. The returned array is the
+     * live row, changes are visible immediately. There are no such rows
+     * with packed cells, use {@link #getRow} or {@link #getCellRow} there.
+     *
+     * @param line the buffer line, 0 is the oldest line of the scroll back
+     *             buffer and {@link #screenBase} the top line of the screen
+     * @return the characters of that line
+     * @throws IllegalStateException if packed cells are used
+     */
+    public char[] getCharRow(int line) {
+        if (cellArray != null) {
+            throw new IllegalStateException("no character rows with packed cells, use getRow()");
+        }
+        return charArray[ringIndex(line)];
+    }
+
+    /**
+     * Get the attributes of a line in the buffer.
+     *
+     * @param line the buffer line
+     * @return the attributes of that line
+     * @throws IllegalStateException if packed cells are used
+     * @see #getCharRow
+     */
+    public int[] getAttributeRow(int line) {
+        if (cellArray != null) {
+            throw new IllegalStateException("no attribute rows with packed cells, use getRow()");
+        }
+        return charAttributes[ringIndex(line)];
+    }
+
+    /**
+     * Get the packed cells of a line in the buffer.
+     *
+     * @param line the buffer line
+     * @return the live row of cells or null if packed cells are not used
+     * @see #setPackedCells
+     */
+    public long[] getCellRow(int line) {
+        return cellArray != null ? cellArray[ringIndex(line)] : null;
+    }
+
+    /**
+     * Copy a line of the buffer into the passed arrays. This works the same
+     * for both row stores and is what renderers should use.
+     *
+     * @param line  the buffer line
+     * @param chars receives the characters, at least {@link #width} long
+     * @param attrs receives the attributes, at least {@link #width} long
+     */
+    public void getRow(int line, char[] chars, int[] attrs) {
+        int r = ringIndex(line);
+        if (cellArray != null) {
+            unpackCells(cellArray[r], chars, attrs, width);
+        } else {
+            System.arraycopy(charArray[r], 0, chars, 0, width);
+            System.arraycopy(charAttributes[r], 0, attrs, 0, width);
+        }
+    }
+
+    private static void unpackCells(long[] cells, char[] chars, int[] attrs, int n) {
+        for (int c = 0; c < n; c++) {
+            long cell = cells[c];
+            chars[c] = (char) (cell & CELL_CHAR_MASK);
+            attrs[c] = (int) (cell >>> CELL_ATTRIBUTES_SHIFT);
+        }
+    }
+
+    /**
+     * Map a buffer line to its index in the row store.
+     */
+    private int ringIndex(int line) {
+        assert line >= 0 : "buffer line " + line;
+        int index = bufferStart + line;
+        int capacity = rowCapacity();
+        return index < capacity ? index : index - capacity;
+    }
+
+    private int rowCapacity() {
+        return cellArray != null ? cellArray.length : charArray.length;
+    }
+
+    /**
+     * Replace the row store with a new one, keeping the row references of
+     * a range of buffer lines which become the first lines of the new store.
+     *
+     * @param capacity  amount of rows in the new store
+     * @param copyStart first buffer line to keep
+     * @param copyCount amount of lines to keep
+     */
+    private void resizeStore(int capacity, int copyStart, int copyCount) {
+        if (cellArray != null) {
+            long[][] lbuf = new long[capacity][];
+            for (int i = 0; i < copyCount; i++) {
+                lbuf[i] = cellArray[ringIndex(copyStart + i)];
+            }
+            cellArray = lbuf;
+        } else {
+            char[][] cbuf = new char[capacity][];
+            int[][] abuf = new int[capacity][];
+            for (int i = 0; i < copyCount; i++) {
+                int r = ringIndex(copyStart + i);
+                cbuf[i] = charArray[r];
+                abuf[i] = charAttributes[r];
+            }
+            charArray = cbuf;
+            charAttributes = abuf;
+        }
+        bufferStart = 0;
+    }
+
+    /**
+     * Append blank lines at the end of the buffer. If the buffer reached its
+     * maximum size the oldest lines are dropped by moving the ring start,
+     * their rows are reused for the new lines.
+     *
+     * @param n amount of lines to append
+     * @return the amount of lines dropped from the top of the buffer
+     */
+    private int appendLines(int n) {
+        int dropped = bufSize + n > maxBufSize ? bufSize + n - maxBufSize : 0;
+        int size = bufSize + n - dropped;
+
+        if (size > rowCapacity()) {
+            // grow the row store, doubling keeps appending amortized constant
+            int capacity = rowCapacity() * 2 < maxBufSize ? rowCapacity() * 2 : maxBufSize;
+            if (capacity < size) {
+                capacity = size;
+            }
+            resizeStore(capacity, 0, bufSize);
+        }
+
+        bufferStart = ringIndex(dropped);
+        bufSize -= dropped;
+        for (int i = bufSize; i < size; i++) {
+            int r = ringIndex(i);
+            if (cellArray != null) {
+                if (cellArray[r] == null || cellArray[r].length != width) {
+                    cellArray[r] = new long[width];
+                } else {
+                    Arrays.fill(cellArray[r], 0L);
+                }
+            } else if (charArray[r] == null || charArray[r].length != width) {
+                charArray[r] = new char[width];
+                charAttributes[r] = new int[width];
+            } else {
+                Arrays.fill(charArray[r], (char) 0);
+                Arrays.fill(charAttributes[r], 0);
+            }
+        }
+        bufSize = size;
+        return dropped;
+    }
+
+    /**
+     * Rotate the row references of a range of buffer lines.
+     *
+     * @param first the first buffer line of the range
+     * @param count amount of lines in the range
+     * @param n     amount of lines to move down, lines leaving the range at
+     *              the bottom reappear at its top
+     */
+    private void rotateLines(int first, int count, int n) {
+        if (count <= 1 || n % count == 0) {
+            return;
+        }
+        ensureScratch(count);
+        for (int i = 0; i < count; i++) {
+            saveRow(i, ringIndex(first + i));
+        }
+        for (int i = 0; i < count; i++) {
+            restoreRow(ringIndex(first + (i + n) % count), i);
+        }
+        clearScratch(count);
+    }
+
+    /**
+     * Copy row references saved in the scratch arrays back into the buffer.
+     *
+     * @param dst   the first buffer line to write
+     * @param src   the first scratch row to read
+     * @param count amount of lines
+     * @return the buffer line following the written range
+     */
+    private int placeLines(int dst, int src, int count) {
+        for (int i = 0; i < count; i++) {
+            restoreRow(ringIndex(dst + i), src + i);
+        }
+        return dst + count;
+    }
+
+    private void ensureScratch(int count) {
+        if (cellArray != null) {
+            if (scratchCells == null || scratchCells.length < count) {
+                scratchCells = new long[count][];
+            }
+        } else if (scratchChars == null || scratchChars.length < count) {
+            scratchChars = new char[count][];
+            scratchAttributes = new int[count][];
+        }
+    }
+
+    private void saveRow(int i, int r) {
+        if (cellArray != null) {
+            scratchCells[i] = cellArray[r];
+        } else {
+            scratchChars[i] = charArray[r];
+            scratchAttributes[i] = charAttributes[r];
+        }
+    }
+
+    private void restoreRow(int r, int i) {
+        if (cellArray != null) {
+            cellArray[r] = scratchCells[i];
+        } else {
+            charArray[r] = scratchChars[i];
+            charAttributes[r] = scratchAttributes[i];
+        }
+    }
+
+    private void clearScratch(int count) {
+        if (cellArray != null) {
+            Arrays.fill(scratchCells, 0, count, null);
+        } else {
+            Arrays.fill(scratchChars, 0, count, null);
+            Arrays.fill(scratchAttributes, 0, count, null);
+        }
+    }
+
+    /**
+     * Blank out a range of buffer lines.
+     */
+    private void clearLines(int first, int count) {
+        for (int i = 0; i < count; i++) {
+            int r = ringIndex(first + i);
+            if (cellArray != null) {
+                Arrays.fill(cellArray[r], 0L);
+            } else {
+                Arrays.fill(charArray[r], (char) 0);
+                Arrays.fill(charAttributes[r], 0);
+            }
+        }
+    }
+
     /**
      * Mark lines to be updated with redraw().
      *
@@ -816,11 +1227,84 @@ public class VDUBuffer {
      * @param n amount of lines to be updated
      * @see #redraw
      */
-    public void markLine(int l, int n) {
+    public synchronized void markLine(int l, int n) {
+        if (update[0]) {
+            return;
+        }
         l = checkBounds(l, 0, height - 1);
         for (int i = 0; (i < n) && (l + i < height); i++) {
             update[l + i + 1] = true;
+            damageFrom[l + i] = 0;
+            damageTo[l + i] = width;
+        }
+    }
+
+    /**
+     * Mark part of a line to be updated with redraw().
+     *
+     * @param c first column to be updated
+     * @param l the line
+     * @param n amount of columns to be updated
+     * @see #markLine
+     * @see #takeDamage
+     */
+    public synchronized void markCells(int c, int l, int n) {
+        if (update[0] || l < 0 || l >= height || n <= 0) {
+            return;
+        }
+        int end = c + n < width ? c + n : width;
+        if (c < 0) {
+            c = 0;
+        }
+        if (!update[l + 1]) {
+            update[l + 1] = true;
+            damageFrom[l] = c;
+            damageTo[l] = end;
+        } else if (damageFrom[l] < damageTo[l]) {
+            // an empty span on a flagged line means the whole line
+            if (c < damageFrom[l]) {
+                damageFrom[l] = c;
+            }
+            if (end > damageTo[l]) {
+                damageTo[l] = end;
+            }
+        }
+    }
+
+    /**
+     * Collect the parts of the screen that need to be redrawn and mark the
+     * whole screen as up to date. For every line l the columns from
+     * from[l] up to but not including to[l] have changed, the range is
+     * empty for lines that did not change. Lines flagged directly in
+     * {@link #update} are reported as changed completely.
+     *
+     * @param from receives the first damaged column of each line
+     * @param to   receives the column after the last damaged one
+     * @return the amount of damaged lines
+     * @see #markLine
+     * @see #markCells
+     */
+    public synchronized int takeDamage(int[] from, int[] to) {
+        boolean all = update[0];
+        int lines = 0;
+        for (int l = 0; l < height; l++) {
+            if (all || (update[l + 1] && damageFrom[l] >= damageTo[l])) {
+                from[l] = 0;
+                to[l] = width;
+            } else if (update[l + 1]) {
+                from[l] = damageFrom[l];
+                to[l] = damageTo[l];
+            } else {
+                from[l] = to[l] = 0;
+            }
+            if (from[l] < to[l]) {
+                lines++;
+            }
+            update[l + 1] = false;
+            damageFrom[l] = damageTo[l] = 0;
         }
+        update[0] = false;
+        return lines;
     }
 
     private int checkBounds(int value, int lower, int upper) {
@@ -842,12 +1326,265 @@ public class VDUBuffer {
         this.display = display;
     }
 
+    /* limits the frame rate of the display, null if unlimited */
+    private RenderScheduler scheduler;
+
     /**
-     * Trigger a redraw on the display.
+     * Limit how often the display is redrawn. Changes made between two
+     * frames are drawn together with the next frame.
+     *
+     * @param fps maximum amount of frames per second, 0 for no limit
+     */
+    public void setMaxFps(int fps) {
+        if (fps <= 0) {
+            stop(scheduler);
+            scheduler = null;
+        } else if (scheduler == null) {
+            scheduler = new RenderScheduler(this, fps);
+        } else {
+            scheduler.setMaxFps(fps);
+        }
+    }
+
+    /* frame rate while jump scrolling without a configured limit */
+    private final static int JUMP_SCROLL_FPS = 25;
+
+    private boolean jumpScroll;                /* jump scrolling allowed */
+    private volatile boolean jumping;    /* display can not keep up */
+    private int scrolledLines;    /* lines scrolled since display caught up */
+    private boolean scrollBarChanged;      /* scroll bar update is due */
+    private RenderScheduler jumpScheduler;
+
+    /**
+     * Allow jump scrolling. If more than a screen full of lines scrolls by
+     * before the display picks up a frame, the display only gets the final
+     * state of the screen at each frame, and the frame rate is limited even
+     * if no limit was set with setMaxFps(). The scroll back buffer is kept
+     * as usual. Normal scrolling is resumed when the output slows down.
+     *
+     * @param jumpScroll true to allow jump scrolling
+     * @see #isJumpScrolling
+     */
+    public synchronized void setJumpScroll(boolean jumpScroll) {
+        this.jumpScroll = jumpScroll;
+        if (!jumpScroll) {
+            jumping = false;
+            stop(jumpScheduler);
+            jumpScheduler = null;
+        }
+    }
+
+    /**
+     * Check whether the display is currently jump scrolling.
+     *
+     * @see #setJumpScroll
+     */
+    public boolean isJumpScrolling() {
+        return jumping;
+    }
+
+    /* holds output back until the end of a record, null if not wanted */
+    private RenderScheduler recordHold;
+    private volatile boolean records;     /* the host marks record ends */
+
+    /**
+     * Hold output back until the host ends a record, which telnet hosts do
+     * with EOR or GA after a prompt. Everything up to the end of the record
+     * is then drawn at once with a single frame, right away. Output is only
+     * held after the host ended a record for the first time, and never for
+     * longer than the given time.
+     *
+     * @param millis longest time to hold output, 0 to not hold it
+     * @see #endOfRecord
+     */
+    public void setRecordHold(int millis) {
+        if (millis <= 0) {
+            stop(recordHold);
+            recordHold = null;
+        } else if (recordHold == null) {
+            recordHold = new RenderScheduler(this, Math.max(1, 1000 / millis));
+        } else {
+            recordHold.setMaxFps(Math.max(1, 1000 / millis));
+        }
+    }
+
+    private static void stop(RenderScheduler scheduler) {
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+    }
+
+    /**
+     * Stop the threads that draw deferred frames. Call this when the buffer
+     * is no longer used. Afterwards every change is drawn right away, as if
+     * setMaxFps(0), setJumpScroll(false) and setRecordHold(0) were called.
+     */
+    public void dispose() {
+        setMaxFps(0);
+        setJumpScroll(false);
+        setRecordHold(0);
+    }
+
+    /**
+     * Tell the buffer that the host ended a record. If output is held back
+     * it is drawn now, without waiting for the next frame.
+     *
+     * @see #setRecordHold
+     */
+    public void endOfRecord() {
+        RenderScheduler recordHold = this.recordHold;
+        if (recordHold == null) {
+            return;
+        }
+        records = true;
+        recordHold.cancel();
+        RenderScheduler scheduler = this.scheduler;
+        if (scheduler != null) {
+            scheduler.cancel();
+        }
+        redrawNow();
+    }
+
+    /**
+     * Trigger a redraw after output from the host. Works like redraw(), but
+     * the redraw is held back until the end of the record if the host marks
+     * record ends and holding output is wanted.
+     *
+     * @see #setRecordHold
+     */
+    protected void redrawOutput() {
+        RenderScheduler recordHold = this.recordHold;
+        if (recordHold != null && records) {
+            recordHold.holdRedraw();
+        } else {
+            redraw();
+        }
+    }
+
+    /**
+     * Trigger a redraw on the display. A new frame is published before.
+     * If the frame rate is limited the redraw may happen later.
+     *
+     * @see #publishFrame
+     * @see #setMaxFps
      */
     protected void redraw() {
-        if (display != null) {
-            display.redraw();
+        RenderScheduler scheduler = this.scheduler;
+        if (scheduler == null && jumping) {
+            if (jumpScheduler == null) {
+                jumpScheduler = new RenderScheduler(this, JUMP_SCROLL_FPS);
+            }
+            scheduler = jumpScheduler;
+        }
+        if (scheduler != null) {
+            scheduler.requestRedraw();
+        } else {
+            redrawNow();
+        }
+    }
+
+    /**
+     * Publish a new frame and redraw the display right now. Only publishing
+     * the frame needs the lock, the display paints without it, so the
+     * emulation can go on writing into the buffer meanwhile.
+     */
+    void redrawNow() {
+        VDUDisplay display;
+        boolean scrollBar;
+        synchronized (this) {
+            display = this.display;
+            if (display == null) {
+                return;
+            }
+            scrollBar = scrollBarChanged;
+            scrollBarChanged = false;
+            publishFrame();
+        }
+        if (scrollBar) {
+            display.updateScrollBar();
+        }
+        display.redraw();
+    }
+
+    /* frames handed over to the display, see publishFrame() */
+    private final AtomicReference<VDUFrame> readyFrame = new AtomicReference<VDUFrame>(new VDUFrame());
+    private VDUFrame backFrame = new VDUFrame();
+
+    /**
+     * Copy the visible part of the buffer and its damage into a frame and
+     * make it available to the display. The display picks the frame up with
+     * swapFrame() whenever it is ready to paint, it never has to wait for
+     * the emulation and the emulation never waits for the display. If the
+     * display did not pick up the previous frame it is replaced and its
+     * damage is carried over into the new one.
+     *
+     * @see #swapFrame
+     */
+    public synchronized void publishFrame() {
+        VDUFrame frame = backFrame;
+        frame.setSize(width, height);
+        takeDamage(frame.damageFrom, frame.damageTo);
+        frame.windowBase = windowBase;
+        frame.screenBase = screenBase;
+        frame.bufSize = bufSize;
+        frame.cursorX = cursorX;
+        frame.cursorY = cursorY;
+        frame.showcursor = showcursor;
+        for (int l = 0; l < height; l++) {
+            getRow(windowBase + l, frame.charArray[l], frame.charAttributes[l]);
+        }
+
+        VDUFrame old = readyFrame.get();
+        if (old.fresh) {
+            mergeDamage(frame, old);
+        }
+        // a screen full of lines scrolled by since the display took a frame
+        jumping = jumpScroll && scrolledLines >= height;
+        if (!old.fresh) {
+            scrolledLines = 0;
+        }
+        frame.fresh = true;
+        if (!readyFrame.compareAndSet(old, frame)) {
+            // the display took the old frame meanwhile and left its own
+            old = readyFrame.getAndSet(frame);
+        }
+        old.fresh = false;
+        backFrame = old;
+    }
+
+    /**
+     * Exchange a frame the display is done with for the most recently
+     * published one. The display must not touch the passed frame afterwards.
+     *
+     * @param frame the frame the display had before, may be null
+     * @return the new frame or null if nothing was published since the
+     * last call, in this case the display keeps the frame it had
+     * @see #publishFrame
+     */
+    public VDUFrame swapFrame(VDUFrame frame) {
+        if (!readyFrame.get().fresh) {
+            return null;
+        }
+        VDUFrame next = readyFrame.getAndSet(frame != null ? frame : new VDUFrame());
+        next.fresh = false;
+        return next;
+    }
+
+    private static void mergeDamage(VDUFrame frame, VDUFrame old) {
+        boolean all = old.width != frame.width || old.height != frame.height;
+        for (int l = 0; l < frame.height; l++) {
+            if (all) {
+                frame.damageFrom[l] = 0;
+                frame.damageTo[l] = frame.width;
+            } else if (old.damageFrom[l] < old.damageTo[l]) {
+                if (frame.damageFrom[l] >= frame.damageTo[l]) {
+                    frame.damageFrom[l] = old.damageFrom[l];
+                    frame.damageTo[l] = old.damageTo[l];
+                } else {
+                    frame.damageFrom[l] = Math.min(frame.damageFrom[l], old.damageFrom[l]);
+                    frame.damageTo[l] = Math.max(frame.damageTo[l], old.damageTo[l]);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meißner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.terminal;
+
+/**
+ * A copy of the visible part of a VDUBuffer taken at a consistent point.
+ * Frames are published by the buffer after the terminal emulation has
+ * finished a piece of output and are handed to the display with
+ * VDUBuffer.swapFrame(). A display owns the frame it got until it passes it
+ * back, so it can read the frame without any locking while the emulation
+ * goes on changing the buffer.
+ *
+ * @see VDUBuffer#publishFrame
+ * @see VDUBuffer#swapFrame
+ */
+public class VDUFrame {
+    public int width, height;                          /* rows and columns */
+    public int windowBase, screenBase, bufSize;       /* buffer positions */
+    public int cursorX, cursorY;                       /* cursor position */
+    public boolean showcursor;                     /* cursor visibility */
+    public char[][] charArray;             /* characters of visible lines */
+    public int[][] charAttributes;         /* attributes of visible lines */
+    /**
+     * Damaged columns of each line since the frame the display had before,
+     * from damageFrom[l] up to but not including damageTo[l].
+     */
+    public int[] damageFrom, damageTo;
+
+    /* set while the frame is published but not yet taken by the display */
+    volatile boolean fresh;
+
+    public VDUFrame() {
+        setSize(0, 0);
+    }
+
+    /**
+     * Make room for a screen of the given size. Old contents are lost if the
+     * size changes.
+     */
+    void setSize(int w, int h) {
+        if (charArray == null || width != w || height != h) {
+            charArray = new char[h][w];
+            charAttributes = new int[h][w];
+            damageFrom = new int[h];
+            damageTo = new int[h];
+            width = w;
+            height = h;
+        }
+    }
+}
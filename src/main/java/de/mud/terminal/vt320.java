@@ -1,6 +1,12 @@
 package de.mud.terminal;
 
 import java.awt.event.KeyEvent;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.Properties;
 
 /**
@@ -44,20 +50,198 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
      * @param s the string
      */
     public void putString(String s) {
-        int len = s.length();
         // System.err.println("'"+s+"'");
+        putChars(s.toCharArray(), 0, s.length());
+    }
 
+    /**
+     * Put characters at current cursor position. Moves cursor
+     * according to the characters. Does NOT wrap.
+     *
+     * @param chars the array holding the characters
+     * @param off   index of the first character
+     * @param len   amount of characters
+     */
+    public synchronized void putChars(char[] chars, int off, int len) {
         if (len > 0) {
-            markLine(R, 1);
-            for (int i = 0; i < len; i++) {
-                // System.err.print(s.charAt(i)+"("+(int)s.charAt(i)+")");
-                putChar(s.charAt(i), false);
-            }
+            parse(chars, off, off + len);
             setCursorPosition(C, R);
             redraw();
         }
     }
 
+    /**
+     * Put bytes received from the host at current cursor position. The bytes
+     * are decoded using the current encoding, an incomplete multibyte
+     * sequence at the end is kept and completed by the next call. The redraw
+     * may be held back until the host ends a record.
+     *
+     * @param b   the array holding the bytes
+     * @param off index of the first byte
+     * @param len amount of bytes
+     * @see #setEncoding
+     * @see #setRecordHold
+     */
+    public void putBytes(byte[] b, int off, int len) {
+        putBytes(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Put bytes received from the host at current cursor position. The bytes
+     * are decoded using the current encoding. Bytes of an incomplete
+     * multibyte sequence at the end are consumed from the buffer and
+     * completed by the next call.
+     *
+     * @param in the buffer holding the bytes
+     * @see #setEncoding
+     */
+    public synchronized void putBytes(ByteBuffer in) {
+        if (!in.hasRemaining()) {
+            return;
+        }
+        // continue a multibyte sequence left over by the previous call
+        if (pendingBytes.position() > 0) {
+            while (in.hasRemaining() && pendingBytes.position() > 0) {
+                pendingBytes.put(in.get());
+                pendingBytes.flip();
+                decode(pendingBytes);
+                pendingBytes.compact();
+            }
+        }
+        decode(in);
+        if (in.hasRemaining()) {
+            pendingBytes.put(in);
+        }
+    }
+
+    /**
+     * Decode as much of the buffer as possible and feed the parser.
+     */
+    private void decode(ByteBuffer in) {
+        boolean changed = false;
+        CoderResult result;
+        do {
+            result = decoder.decode(in, decoded, false);
+            if (decoded.position() > 0) {
+                parse(decoded.array(), 0, decoded.position());
+                decoded.clear();
+                changed = true;
+            }
+        } while (result.isOverflow());
+        if (changed) {
+            setCursorPosition(C, R);
+            redrawOutput();
+        }
+    }
+
+    /**
+     * Set the encoding used to decode bytes passed to putBytes(). Malformed
+     * input and unmappable characters are replaced.
+     *
+     * @param encoding name of the character set
+     * @throws IllegalArgumentException if the encoding is not supported
+     * @see #putBytes
+     */
+    public void setEncoding(String encoding) {
+        decoder = Charset.forName(encoding).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        pendingBytes.clear();
+    }
+
+    /**
+     * Run characters through the parser. Plain text is written in runs, the
+     * rest goes through putChar().
+     */
+    private void parse(char[] chars, int begin, int end) {
+        int i = begin;
+        while (i < end) {
+            if (term_state == TSTATE_DATA && !useibmcharset && onegl < 0) {
+                // the character sets in GL and GR decide what is shown as is
+                boolean plainGL = !usedcharsets || isPlainSet(gx[gl]);
+                boolean plainGR = !usedcharsets || isPlainSet(gx[gr]) || gx[gr] == '<';
+                int run = i;
+                while (run < end && isPrintable(chars[run], plainGL, plainGR)) {
+                    run++;
+                }
+                if (run > i) {
+                    putPrintable(chars, i, run);
+                    i = run;
+                    continue;
+                }
+            }
+            // System.err.print(chars[i]+"("+(int)chars[i]+")");
+            putChar(chars[i++], false);
+        }
+    }
+
+    /**
+     * Check whether a character is displayed as is without any mapping.
+     *
+     * @param plainGL the character set in GL leaves ASCII alone
+     * @param plainGR the character set in GR leaves Latin-1 alone
+     */
+    private static boolean isPrintable(char c, boolean plainGL, boolean plainGR) {
+        if (c < 0xa0) {
+            return c >= ' ' && c < 0x7f && plainGL;
+        }
+        return c > 0xff || plainGR;
+    }
+
+    /**
+     * Check whether a designated character set is ASCII or Latin-1, which
+     * putChar() shows without mapping.
+     */
+    private static boolean isPlainSet(char set) {
+        return set == 'A' || set == 'B';
+    }
+
+    /**
+     * Put a run of printable characters at the cursor position. This does
+     * the same as calling putChar() for each of them, but writes as much
+     * of the run as fits on a line in one go.
+     *
+     * @param chars the array holding the characters
+     * @param begin index of the first character
+     * @param end   index after the last character
+     */
+    private void putPrintable(char[] chars, int begin, int end) {
+        int rows = getRows();
+        int columns = getColumns();
+
+        lastwaslf = 0;
+        while (begin < end) {
+            if (C >= columns) {
+                if (wraparound) {
+                    if (R < rows - 1) {
+                        R++;
+                    } else {
+                        insertLine(R, 1, SCROLL_UP);
+                    }
+                    C = 0;
+                } else {
+                    // cursor stays on last character, only the last one is kept
+                    C = columns - 1;
+                    begin = end - 1;
+                }
+            }
+            int n;
+            if (insertmode == 1) {
+                n = insertChars(C, R, chars, begin, end, attributes);
+            } else {
+                n = putChars(C, R, chars, begin, end, attributes);
+            }
+            begin += n;
+            C += n;
+        }
+        if (C > columns) {
+            C = columns;
+        }
+        if (R > rows) {
+            R = rows;
+        }
+    }
+
     protected void sendTelnetCommand(byte cmd) {
     }
 
@@ -69,18 +253,20 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
     }
 
     public void setScreenSize(int c, int r, boolean broadcast) {
-        int oldrows = getRows(), oldcols = getColumns();
+        synchronized (this) {
+            int oldrows = getRows(), oldcols = getColumns();
 
-        if (debug > 2) {
-            System.err.println("setscreensize (" + c + "," + r + "," + broadcast + ")");
-        }
+            if (debug > 2) {
+                System.err.println("setscreensize (" + c + "," + r + "," + broadcast + ")");
+            }
 
-        super.setScreenSize(c, r, false);
+            super.setScreenSize(c, r, false);
 
-    /* Tricky, since the VDUBuffer works strangely. */
-        if (r > oldrows) {
-            setCursorPosition(C, R + (r - oldrows));
-            redraw();
+            /* Tricky, since the VDUBuffer works strangely. */
+            if (r > oldrows) {
+                setCursorPosition(C, R + (r - oldrows));
+                redraw();
+            }
         }
         if (broadcast) {
             setWindowSize(c, r); /* broadcast up */
@@ -527,6 +713,13 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
     private String terminalID = "vt320";
     private String answerBack = "Use Terminal.answerback to set ...\n";
 
+    // decoding of bytes passed to putBytes()
+    private CharsetDecoder decoder = Charset.forName("ISO-8859-1").newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer pendingBytes = ByteBuffer.allocate(16);
+    private final CharBuffer decoded = CharBuffer.allocate(4096);
+
     // X - COLUMNS, Y - ROWS
     int R, C;
     int attributes = 0;
@@ -1440,13 +1633,11 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
         int tm = getTopMargin();
         int bm = getBottomMargin();
         // byte msg[];
-        boolean mapped = false;
 
         if (debug > 4) {
             System.out.println("putChar(" + c + " [" + ((int) c) + "]) at R=" + R + " , C=" + C + ", " +
                     "columns=" + columns + ", rows=" + rows);
         }
-        markLine(R, 1);
         if (c > 255) {
             if (debug > 0) {
                 System.out.println("char > 255:" + (int) c);
@@ -1457,1464 +1648,1556 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
 
         switch (term_state) {
             case TSTATE_DATA:
+                parseData(c, rows, columns, tm, bm);
+                break;
+            case TSTATE_OSC:
+                parseOsc(c);
+                break;
+            case TSTATE_ESCSPACE:
+                parseEscSpace(c);
+                break;
+            case TSTATE_ESC:
+                parseEsc(c, rows, columns, tm, bm);
+                break;
+            case TSTATE_VT52X:
+                parseVt52X(c);
+                break;
+            case TSTATE_VT52Y:
+                parseVt52Y(c);
+                break;
+            case TSTATE_SETG0:
+                parseSetG(0, c);
+                break;
+            case TSTATE_SETG1:
+                parseSetG(1, c);
+                break;
+            case TSTATE_SETG2:
+                parseSetG(2, c);
+                break;
+            case TSTATE_SETG3:
+                parseSetG(3, c);
+                break;
+            case TSTATE_ESCSQUARE:
+                parseEscSquare(c, rows, columns);
+                break;
+            case TSTATE_DCS:
+                parseDcs(c);
+                break;
+            case TSTATE_DCEQ:
+                parseDceq(c);
+                break;
+            case TSTATE_CSI_EX:
+                parseCsiEx(c);
+                break;
+            case TSTATE_CSI_TICKS:
+                parseCsiTicks(c);
+                break;
+            case TSTATE_CSI_EQUAL:
+                parseCsiEqual(c);
+                break;
+            case TSTATE_CSI_DOLLAR:
+                parseCsiDollar(c);
+                break;
+            case TSTATE_CSI:
+                parseCsi(c, rows, columns, tm, bm);
+                break;
+            default:
+                term_state = TSTATE_DATA;
+                break;
+        }
+        if (C > columns) {
+            C = columns;
+        }
+        if (R > rows) {
+            R = rows;
+        }
+        if (C < 0) {
+            C = 0;
+        }
+        if (R < 0) {
+            R = 0;
+        }
+        if (doshowcursor) {
+            setCursorPosition(C, R);
+        }
+    }
+
+    /**
+     * Handle a character in the data state, that is text and C0/C1 control codes.
+     */
+    private void parseData(char c, int rows, int columns, int tm, int bm) {
+        boolean mapped = false;
+
         /* FIXME: we shouldn't use chars with bit 8 set if ibmcharset.
          * probably... but some BBS do anyway...
          */
-                if (!useibmcharset) {
-                    boolean doneflag = true;
-                    switch (c) {
-                        case OSC:
-                            osc = "";
-                            term_state = TSTATE_OSC;
-                            break;
-                        case RI:
-                            if (R > tm) {
-                                R--;
-                            } else {
-                                insertLine(R, 1, SCROLL_DOWN);
-                            }
-                            if (debug > 1) {
-                                System.out.println("RI");
-                            }
-                            break;
-                        case IND:
-                            if (debug > 2) {
-                                System.out.println("IND at " + R + ", tm is " + tm + ", bm is " + bm);
-                            }
-                            if (R == bm || R == rows - 1) {
-                                insertLine(R, 1, SCROLL_UP);
-                            } else {
-                                R++;
-                            }
-                            if (debug > 1) {
-                                System.out.println("IND (at " + R + " )");
-                            }
-                            break;
-                        case NEL:
-                            if (R == bm || R == rows - 1) {
-                                insertLine(R, 1, SCROLL_UP);
-                            } else {
-                                R++;
-                            }
-                            C = 0;
-                            if (debug > 1) {
-                                System.out.println("NEL (at " + R + " )");
-                            }
-                            break;
-                        case HTS:
-                            Tabs[C] = 1;
-                            if (debug > 1) {
-                                System.out.println("HTS");
-                            }
-                            break;
-                        case DCS:
-                            dcs = "";
-                            term_state = TSTATE_DCS;
-                            break;
-                        default:
-                            doneflag = false;
-                            break;
+        if (!useibmcharset) {
+            boolean doneflag = true;
+            switch (c) {
+                case OSC:
+                    osc = "";
+                    term_state = TSTATE_OSC;
+                    break;
+                case RI:
+                    if (R > tm) {
+                        R--;
+                    } else {
+                        insertLine(R, 1, SCROLL_DOWN);
                     }
-                    if (doneflag) {
-                        break;
+                    if (debug > 1) {
+                        System.out.println("RI");
                     }
+                    break;
+                case IND:
+                    if (debug > 2) {
+                        System.out.println("IND at " + R + ", tm is " + tm + ", bm is " + bm);
+                    }
+                    if (R == bm || R == rows - 1) {
+                        insertLine(R, 1, SCROLL_UP);
+                    } else {
+                        R++;
+                    }
+                    if (debug > 1) {
+                        System.out.println("IND (at " + R + " )");
+                    }
+                    break;
+                case NEL:
+                    if (R == bm || R == rows - 1) {
+                        insertLine(R, 1, SCROLL_UP);
+                    } else {
+                        R++;
+                    }
+                    C = 0;
+                    if (debug > 1) {
+                        System.out.println("NEL (at " + R + " )");
+                    }
+                    break;
+                case HTS:
+                    Tabs[C] = 1;
+                    if (debug > 1) {
+                        System.out.println("HTS");
+                    }
+                    break;
+                case DCS:
+                    dcs = "";
+                    term_state = TSTATE_DCS;
+                    break;
+                default:
+                    doneflag = false;
+                    break;
+            }
+            if (doneflag) {
+                return;
+            }
+        }
+        switch (c) {
+            case SS3:
+                onegl = 3;
+                break;
+            case SS2:
+                onegl = 2;
+                break;
+            case CSI: // should be in the 8bit section, but some BBS use this
+                DCEvar = 0;
+                DCEvars[0] = 0;
+                DCEvars[1] = 0;
+                DCEvars[2] = 0;
+                DCEvars[3] = 0;
+                term_state = TSTATE_CSI;
+                break;
+            case ESC:
+                term_state = TSTATE_ESC;
+                lastwaslf = 0;
+                break;
+            case 5: /* ENQ */
+                write(answerBack, false);
+                break;
+            case 12:
+    /* FormFeed, Home for the BBS world */
+                deleteArea(0, 0, columns, rows, attributes);
+                C = R = 0;
+                break;
+            case '\b': /* 8 */
+                C--;
+                if (C < 0) {
+                    C = 0;
                 }
-                switch (c) {
-                    case SS3:
-                        onegl = 3;
-                        break;
-                    case SS2:
-                        onegl = 2;
-                        break;
-                    case CSI: // should be in the 8bit section, but some BBS use this
-                        DCEvar = 0;
-                        DCEvars[0] = 0;
-                        DCEvars[1] = 0;
-                        DCEvars[2] = 0;
-                        DCEvars[3] = 0;
-                        term_state = TSTATE_CSI;
-                        break;
-                    case ESC:
-                        term_state = TSTATE_ESC;
-                        lastwaslf = 0;
-                        break;
-                    case 5: /* ENQ */
-                        write(answerBack, false);
-                        break;
-                    case 12:
-            /* FormFeed, Home for the BBS world */
-                        deleteArea(0, 0, columns, rows, attributes);
-                        C = R = 0;
+                lastwaslf = 0;
+                break;
+            case '\t':
+                do {
+                    // Don't overwrite or insert! TABS are not destructive, but movement!
+                    C++;
+                } while (C < columns && (Tabs[C] == 0));
+                lastwaslf = 0;
+                break;
+            case '\r':
+                C = 0;
+                break;
+            case '\n':
+                if (debug > 3) {
+                    System.out.println("R= " + R + ", bm " + bm + ", tm=" + tm + ", rows=" + rows);
+                }
+                if (!vms) {
+                    if (lastwaslf != 0 && lastwaslf != c)   //  Ray: I do not understand this logic.
+                    {
                         break;
-                    case '\b': /* 8 */
-                        C--;
-                        if (C < 0) {
-                            C = 0;
+                    }
+                    lastwaslf = c;
+      /*C = 0;*/
+                }
+                if (R == bm || R >= rows - 1) {
+                    insertLine(R, 1, SCROLL_UP);
+                } else {
+                    R++;
+                }
+                break;
+            case 7:
+                beep();
+                break;
+            case '\016': /* SMACS , as */
+    /* ^N, Shift out - Put G1 into GL */
+                gl = 1;
+                usedcharsets = true;
+                break;
+            case '\017': /* RMACS , ae */
+    /* ^O, Shift in - Put G0 into GL */
+                gl = 0;
+                usedcharsets = true;
+                break;
+            default: {
+                int thisgl = gl;
+
+                if (onegl >= 0) {
+                    thisgl = onegl;
+                    onegl = -1;
+                }
+                lastwaslf = 0;
+                if (c < 32) {
+                    if (c != 0) {
+                        if (debug > 0) {
+                            System.out.println("TSTATE_DATA char: " + ((int) c));
                         }
-                        lastwaslf = 0;
-                        break;
-                    case '\t':
-                        do {
-                            // Don't overwrite or insert! TABS are not destructive, but movement!
-                            C++;
-                        } while (C < columns && (Tabs[C] == 0));
-                        lastwaslf = 0;
-                        break;
-                    case '\r':
-                        C = 0;
+                    }
+        /*break; some BBS really want those characters, like hearst etc. */
+                    if (c == 0) /* print 0 ... you bet */ {
                         break;
-                    case '\n':
-                        if (debug > 3) {
-                            System.out.println("R= " + R + ", bm " + bm + ", tm=" + tm + ", rows=" + rows);
-                        }
-                        if (!vms) {
-                            if (lastwaslf != 0 && lastwaslf != c)   //  Ray: I do not understand this logic.
-                            {
-                                break;
-                            }
-                            lastwaslf = c;
-              /*C = 0;*/
-                        }
-                        if (R == bm || R >= rows - 1) {
-                            insertLine(R, 1, SCROLL_UP);
-                        } else {
+                    }
+                }
+                if (C >= columns) {
+                    if (wraparound) {
+                        if (R < rows - 1) {
                             R++;
+                        } else {
+                            insertLine(R, 1, SCROLL_UP);
                         }
-                        break;
-                    case 7:
-                        beep();
-                        break;
-                    case '\016': /* SMACS , as */
-            /* ^N, Shift out - Put G1 into GL */
-                        gl = 1;
-                        usedcharsets = true;
-                        break;
-                    case '\017': /* RMACS , ae */
-            /* ^O, Shift in - Put G0 into GL */
-                        gl = 0;
-                        usedcharsets = true;
-                        break;
-                    default: {
-                        int thisgl = gl;
+                        C = 0;
+                    } else {
+                        // cursor stays on last character.
+                        C = columns - 1;
+                    }
+                }
 
-                        if (onegl >= 0) {
-                            thisgl = onegl;
-                            onegl = -1;
-                        }
-                        lastwaslf = 0;
-                        if (c < 32) {
-                            if (c != 0) {
-                                if (debug > 0) {
-                                    System.out.println("TSTATE_DATA char: " + ((int) c));
+                // Mapping if DEC Special is chosen charset
+                if (usedcharsets) {
+                    if (c >= '\u0020' && c <= '\u007f') {
+                        switch (gx[thisgl]) {
+                            case '0':
+                                // Remap SCOANSI line drawing to VT100 line drawing chars
+                                // for our SCO using customers.
+                                if ("scoansi".equals(terminalID) || "ansi".equals(terminalID)) {
+                                    for (int i = 0; i < scoansi_acs.length(); i += 2) {
+                                        if (c == scoansi_acs.charAt(i)) {
+                                            c = scoansi_acs.charAt(i + 1);
+                                            break;
+                                        }
+                                    }
+                                }
+                                if (c >= '\u005f' && c <= '\u007e') {
+                                    c = DECSPECIAL[(short) c - 0x5f];
+                                    mapped = true;
                                 }
-                            }
-                /*break; some BBS really want those characters, like hearst etc. */
-                            if (c == 0) /* print 0 ... you bet */ {
                                 break;
-                            }
+                            case '<': // 'user preferred' is currently 'ISO Latin-1 suppl
+                                c = (char) (((int) c & 0x7f) | 0x80);
+                                mapped = true;
+                                break;
+                            case 'A':
+                            case 'B': // Latin-1 , ASCII -> fall through
+                                mapped = true;
+                                break;
+                            default:
+                                System.out.println("Unsupported GL mapping: " + gx[thisgl]);
+                                break;
                         }
-                        if (C >= columns) {
-                            if (wraparound) {
-                                if (R < rows - 1) {
-                                    R++;
-                                } else {
-                                    insertLine(R, 1, SCROLL_UP);
+                    }
+                    if (!mapped && (c >= '\u0080' && c <= '\u00ff')) {
+                        switch (gx[gr]) {
+                            case '0':
+                                if (c >= '\u00df' && c <= '\u00fe') {
+                                    c = DECSPECIAL[c - '\u00df'];
+                                    mapped = true;
                                 }
-                                C = 0;
-                            } else {
-                                // cursor stays on last character.
-                                C = columns - 1;
-                            }
+                                break;
+                            case '<':
+                            case 'A':
+                            case 'B':
+                                mapped = true;
+                                break;
+                            default:
+                                System.out.println("Unsupported GR mapping: " + gx[gr]);
+                                break;
                         }
+                    }
+                }
+                if (!mapped && useibmcharset) {
+                    c = map_cp850_unicode(c);
+                }
 
-                        // Mapping if DEC Special is chosen charset
-                        if (usedcharsets) {
-                            if (c >= '\u0020' && c <= '\u007f') {
-                                switch (gx[thisgl]) {
-                                    case '0':
-                                        // Remap SCOANSI line drawing to VT100 line drawing chars
-                                        // for our SCO using customers.
-                                        if ("scoansi".equals(terminalID) || "ansi".equals(terminalID)) {
-                                            for (int i = 0; i < scoansi_acs.length(); i += 2) {
-                                                if (c == scoansi_acs.charAt(i)) {
-                                                    c = scoansi_acs.charAt(i + 1);
-                                                    break;
-                                                }
-                                            }
-                                        }
-                                        if (c >= '\u005f' && c <= '\u007e') {
-                                            c = DECSPECIAL[(short) c - 0x5f];
-                                            mapped = true;
-                                        }
-                                        break;
-                                    case '<': // 'user preferred' is currently 'ISO Latin-1 suppl
-                                        c = (char) (((int) c & 0x7f) | 0x80);
-                                        mapped = true;
-                                        break;
-                                    case 'A':
-                                    case 'B': // Latin-1 , ASCII -> fall through
-                                        mapped = true;
-                                        break;
-                                    default:
-                                        System.out.println("Unsupported GL mapping: " + gx[thisgl]);
-                                        break;
-                                }
-                            }
-                            if (!mapped && (c >= '\u0080' && c <= '\u00ff')) {
-                                switch (gx[gr]) {
-                                    case '0':
-                                        if (c >= '\u00df' && c <= '\u00fe') {
-                                            c = DECSPECIAL[c - '\u00df'];
-                                            mapped = true;
-                                        }
-                                        break;
-                                    case '<':
-                                    case 'A':
-                                    case 'B':
-                                        mapped = true;
-                                        break;
-                                    default:
-                                        System.out.println("Unsupported GR mapping: " + gx[gr]);
-                                        break;
-                                }
-                            }
-                        }
-                        if (!mapped && useibmcharset) {
-                            c = map_cp850_unicode(c);
-                        }
+      /*if(true || (statusmode == 0)) { */
+                if (insertmode == 1) {
+                    insertChar(C, R, c, attributes);
+                } else {
+                    putChar(C, R, c, attributes);
+                }
+      /*
+        } else {
+        if (insertmode==1) {
+        insertChar(C, rows, c, attributes);
+        } else {
+        putChar(C, rows, c, attributes);
+        }
+        }
+      */
+                C++;
+                break;
+            }
+        } /* switch(c) */
+    }
 
-              /*if(true || (statusmode == 0)) { */
-                        if (insertmode == 1) {
-                            insertChar(C, R, c, attributes);
-                        } else {
-                            putChar(C, R, c, attributes);
-                        }
-              /*
+    /**
+     * Collect an operating system command (ESC ]).
+     */
+    private void parseOsc(char c) {
+        if ((c < 0x20) && (c != ESC)) {// NP - No printing character
+            handle_osc(osc);
+            term_state = TSTATE_DATA;
+            return;
+        }
+        //but check for vt102 ESC \
+        if (c == '\\' && osc.charAt(osc.length() - 1) == ESC) {
+            handle_osc(osc);
+            term_state = TSTATE_DATA;
+            return;
+        }
+        osc = osc + c;
+    }
+
+    /**
+     * Handle the character following ESC &lt;space&gt;.
+     */
+    private void parseEscSpace(char c) {
+        term_state = TSTATE_DATA;
+        switch (c) {
+            case 'F': /* S7C1T, Disable output of 8-bit controls, use 7-bit */
+                output8bit = false;
+                break;
+            case 'G': /* S8C1T, Enable output of 8-bit control codes*/
+                output8bit = true;
+                break;
+            default:
+                System.out.println("ESC <space> " + c + " unhandled.");
+        }
+    }
+
+    /**
+     * Handle the character following ESC.
+     */
+    private void parseEsc(char c, int rows, int columns, int tm, int bm) {
+        term_state = TSTATE_DATA;
+        switch (c) {
+            case ' ':
+                term_state = TSTATE_ESCSPACE;
+                break;
+            case '#':
+                term_state = TSTATE_ESCSQUARE;
+                break;
+            case 'c':
+    /* Hard terminal reset */
+    /* reset character sets */
+                gx[0] = 'B';
+                gx[1] = '0';
+                gx[2] = 'B';
+                gx[3] = 'B';
+                gl = 0;  // default GL to G0
+                gr = 1;  // default GR to G1
+    /* reset tabs */
+                int nw = getColumns();
+                if (nw < 132) {
+                    nw = 132;
+                }
+                Tabs = new byte[nw];
+                for (int i = 0; i < nw; i += 8) {
+                    Tabs[i] = 1;
+                }
+    /*FIXME:*/
+                break;
+            case '[':
+                DCEvar = 0;
+                DCEvars[0] = 0;
+                DCEvars[1] = 0;
+                DCEvars[2] = 0;
+                DCEvars[3] = 0;
+                term_state = TSTATE_CSI;
+                break;
+            case ']':
+                osc = "";
+                term_state = TSTATE_OSC;
+                break;
+            case 'P':
+                dcs = "";
+                term_state = TSTATE_DCS;
+                break;
+            case 'A': /* CUU */
+                R--;
+                if (R < 0) {
+                    R = 0;
+                }
+                break;
+            case 'B': /* CUD */
+                R++;
+                if (R > rows - 1) {
+                    R = rows - 1;
+                }
+                break;
+            case 'C':
+                C++;
+                if (C >= columns) {
+                    C = columns - 1;
+                }
+                break;
+            case 'I': // RI
+                insertLine(R, 1, SCROLL_DOWN);
+                break;
+            case 'E': /* NEL */
+                if (R == bm || R == rows - 1) {
+                    insertLine(R, 1, SCROLL_UP);
                 } else {
-                if (insertmode==1) {
-                insertChar(C, rows, c, attributes);
+                    R++;
+                }
+                C = 0;
+                if (debug > 1) {
+                    System.out.println("ESC E (at " + R + ")");
+                }
+                break;
+            case 'D': /* IND */
+                if (R == bm || R == rows - 1) {
+                    insertLine(R, 1, SCROLL_UP);
                 } else {
-                putChar(C, rows, c, attributes);
+                    R++;
                 }
+                if (debug > 1) {
+                    System.out.println("ESC D (at " + R + " )");
                 }
-              */
-                        C++;
-                        break;
-                    }
-                } /* switch(c) */
                 break;
-            case TSTATE_OSC:
-                if ((c < 0x20) && (c != ESC)) {// NP - No printing character
-                    handle_osc(osc);
-                    term_state = TSTATE_DATA;
-                    break;
+            case 'J': /* erase to end of screen */
+                if (R < rows - 1) {
+                    deleteArea(0, R + 1, columns, rows - R - 1, attributes);
                 }
-                //but check for vt102 ESC \
-                if (c == '\\' && osc.charAt(osc.length() - 1) == ESC) {
-                    handle_osc(osc);
-                    term_state = TSTATE_DATA;
-                    break;
+                if (C < columns - 1) {
+                    deleteArea(C, R, columns - C, 1, attributes);
                 }
-                osc = osc + c;
                 break;
-            case TSTATE_ESCSPACE:
-                term_state = TSTATE_DATA;
-                switch (c) {
-                    case 'F': /* S7C1T, Disable output of 8-bit controls, use 7-bit */
-                        output8bit = false;
-                        break;
-                    case 'G': /* S8C1T, Enable output of 8-bit control codes*/
-                        output8bit = true;
-                        break;
-                    default:
-                        System.out.println("ESC <space> " + c + " unhandled.");
+            case 'K':
+                if (C < columns - 1) {
+                    deleteArea(C, R, columns - C, 1, attributes);
                 }
                 break;
-            case TSTATE_ESC:
-                term_state = TSTATE_DATA;
-                switch (c) {
-                    case ' ':
-                        term_state = TSTATE_ESCSPACE;
-                        break;
-                    case '#':
-                        term_state = TSTATE_ESCSQUARE;
-                        break;
-                    case 'c':
-            /* Hard terminal reset */
-            /* reset character sets */
-                        gx[0] = 'B';
-                        gx[1] = '0';
-                        gx[2] = 'B';
-                        gx[3] = 'B';
-                        gl = 0;  // default GL to G0
-                        gr = 1;  // default GR to G1
-            /* reset tabs */
-                        int nw = getColumns();
-                        if (nw < 132) {
-                            nw = 132;
-                        }
-                        Tabs = new byte[nw];
-                        for (int i = 0; i < nw; i += 8) {
-                            Tabs[i] = 1;
-                        }
-            /*FIXME:*/
-                        break;
-                    case '[':
-                        DCEvar = 0;
-                        DCEvars[0] = 0;
-                        DCEvars[1] = 0;
-                        DCEvars[2] = 0;
-                        DCEvars[3] = 0;
-                        term_state = TSTATE_CSI;
-                        break;
-                    case ']':
-                        osc = "";
-                        term_state = TSTATE_OSC;
-                        break;
-                    case 'P':
-                        dcs = "";
-                        term_state = TSTATE_DCS;
-                        break;
-                    case 'A': /* CUU */
-                        R--;
-                        if (R < 0) {
-                            R = 0;
-                        }
-                        break;
-                    case 'B': /* CUD */
-                        R++;
-                        if (R > rows - 1) {
-                            R = rows - 1;
-                        }
-                        break;
-                    case 'C':
-                        C++;
-                        if (C >= columns) {
-                            C = columns - 1;
-                        }
-                        break;
-                    case 'I': // RI
-                        insertLine(R, 1, SCROLL_DOWN);
-                        break;
-                    case 'E': /* NEL */
-                        if (R == bm || R == rows - 1) {
-                            insertLine(R, 1, SCROLL_UP);
-                        } else {
-                            R++;
-                        }
-                        C = 0;
-                        if (debug > 1) {
-                            System.out.println("ESC E (at " + R + ")");
-                        }
-                        break;
-                    case 'D': /* IND */
-                        if (R == bm || R == rows - 1) {
-                            insertLine(R, 1, SCROLL_UP);
-                        } else {
-                            R++;
-                        }
-                        if (debug > 1) {
-                            System.out.println("ESC D (at " + R + " )");
-                        }
-                        break;
-                    case 'J': /* erase to end of screen */
-                        if (R < rows - 1) {
-                            deleteArea(0, R + 1, columns, rows - R - 1, attributes);
-                        }
-                        if (C < columns - 1) {
-                            deleteArea(C, R, columns - C, 1, attributes);
-                        }
-                        break;
-                    case 'K':
-                        if (C < columns - 1) {
-                            deleteArea(C, R, columns - C, 1, attributes);
-                        }
-                        break;
-                    case 'M': // RI
-                        System.out.println("ESC M : R is " + R + ", tm is " + tm + ", bm is " + bm);
-                        if (R > bm) // outside scrolling region
-                        {
-                            break;
-                        }
-                        if (R > tm) { // just go up 1 line.
-                            R--;
-                        } else { // scroll down
-                            insertLine(R, 1, SCROLL_DOWN);
-                        }
-            /* else do nothing ; */
-                        if (debug > 2) {
-                            System.out.println("ESC M ");
-                        }
-                        break;
-                    case 'H':
-                        if (debug > 1) {
-                            System.out.println("ESC H at " + C);
-                        }
-            /* right border probably ...*/
-                        if (C >= columns) {
-                            C = columns - 1;
-                        }
-                        Tabs[C] = 1;
-                        break;
-                    case 'N': // SS2
-                        onegl = 2;
-                        break;
-                    case 'O': // SS3
-                        onegl = 3;
-                        break;
-                    case '=':
-            /*application keypad*/
-                        if (debug > 0) {
-                            System.out.println("ESC =");
-                        }
-                        keypadmode = true;
-                        break;
-                    case '<': /* vt52 mode off */
-                        vt52mode = false;
-                        break;
-                    case '>': /*normal keypad*/
-                        if (debug > 0) {
-                            System.out.println("ESC >");
-                        }
-                        keypadmode = false;
-                        break;
-                    case '7': /*save cursor, attributes, margins */
-                        Sc = C;
-                        Sr = R;
-                        Sgl = gl;
-                        Sgr = gr;
-                        Sa = attributes;
-                        Sgx = new char[4];
-                        System.arraycopy(gx, 0, Sgx, 0, 4);
-                        Stm = getTopMargin();
-                        Sbm = getBottomMargin();
-                        if (debug > 1) {
-                            System.out.println("ESC 7");
-                        }
-                        break;
-                    case '8': /*restore cursor, attributes, margins */
-                        C = Sc;
-                        R = Sr;
-                        gl = Sgl;
-                        gr = Sgr;
-                        System.arraycopy(Sgx, 0, gx, 0, 4);
-                        setTopMargin(Stm);
-                        setBottomMargin(Sbm);
-                        attributes = Sa;
-                        if (debug > 1) {
-                            System.out.println("ESC 8");
-                        }
-                        break;
-                    case '(': /* Designate G0 Character set (ISO 2022) */
-                        term_state = TSTATE_SETG0;
-                        usedcharsets = true;
-                        break;
-                    case ')': /* Designate G1 character set (ISO 2022) */
-                        term_state = TSTATE_SETG1;
-                        usedcharsets = true;
-                        break;
-                    case '*': /* Designate G2 Character set (ISO 2022) */
-                        term_state = TSTATE_SETG2;
-                        usedcharsets = true;
-                        break;
-                    case '+': /* Designate G3 Character set (ISO 2022) */
-                        term_state = TSTATE_SETG3;
-                        usedcharsets = true;
-                        break;
-                    case '~': /* Locking Shift 1, right */
-                        gr = 1;
-                        usedcharsets = true;
-                        break;
-                    case 'n': /* Locking Shift 2 */
-                        gl = 2;
-                        usedcharsets = true;
-                        break;
-                    case '}': /* Locking Shift 2, right */
-                        gr = 2;
-                        usedcharsets = true;
-                        break;
-                    case 'o': /* Locking Shift 3 */
-                        gl = 3;
-                        usedcharsets = true;
-                        break;
-                    case '|': /* Locking Shift 3, right */
-                        gr = 3;
-                        usedcharsets = true;
-                        break;
-                    case 'Y': /* vt52 cursor address mode , next chars are x,y */
-                        term_state = TSTATE_VT52Y;
-                        break;
-                    default:
-                        System.out.println("ESC unknown letter: " + c + " (" + ((int) c) + ")");
-                        break;
+            case 'M': // RI
+                System.out.println("ESC M : R is " + R + ", tm is " + tm + ", bm is " + bm);
+                if (R > bm) // outside scrolling region
+                {
+                    break;
+                }
+                if (R > tm) { // just go up 1 line.
+                    R--;
+                } else { // scroll down
+                    insertLine(R, 1, SCROLL_DOWN);
+                }
+    /* else do nothing ; */
+                if (debug > 2) {
+                    System.out.println("ESC M ");
                 }
                 break;
-            case TSTATE_VT52X:
-                C = c - 37;
-                term_state = TSTATE_VT52Y;
+            case 'H':
+                if (debug > 1) {
+                    System.out.println("ESC H at " + C);
+                }
+    /* right border probably ...*/
+                if (C >= columns) {
+                    C = columns - 1;
+                }
+                Tabs[C] = 1;
                 break;
-            case TSTATE_VT52Y:
-                R = c - 37;
-                term_state = TSTATE_DATA;
+            case 'N': // SS2
+                onegl = 2;
                 break;
-            case TSTATE_SETG0:
-                if (c != '0' && c != 'A' && c != 'B' && c != '<') {
-                    System.out.println("ESC ( " + c + ": G0 char set?  (" + ((int) c) + ")");
-                } else {
-                    if (debug > 2) {
-                        System.out.println("ESC ( : G0 char set  (" + c + " " + ((int) c) + ")");
-                    }
-                    gx[0] = c;
+            case 'O': // SS3
+                onegl = 3;
+                break;
+            case '=':
+    /*application keypad*/
+                if (debug > 0) {
+                    System.out.println("ESC =");
                 }
-                term_state = TSTATE_DATA;
+                keypadmode = true;
                 break;
-            case TSTATE_SETG1:
-                if (c != '0' && c != 'A' && c != 'B' && c != '<') {
-                    System.out.println("ESC ) " + c + " (" + ((int) c) + ") :G1 char set?");
-                } else {
-                    if (debug > 2) {
-                        System.out.println("ESC ) :G1 char set  (" + c + " " + ((int) c) + ")");
-                    }
-                    gx[1] = c;
+            case '<': /* vt52 mode off */
+                vt52mode = false;
+                break;
+            case '>': /*normal keypad*/
+                if (debug > 0) {
+                    System.out.println("ESC >");
                 }
-                term_state = TSTATE_DATA;
+                keypadmode = false;
                 break;
-            case TSTATE_SETG2:
-                if (c != '0' && c != 'A' && c != 'B' && c != '<') {
-                    System.out.println("ESC*:G2 char set?  (" + ((int) c) + ")");
-                } else {
-                    if (debug > 2) {
-                        System.out.println("ESC*:G2 char set  (" + c + " " + ((int) c) + ")");
-                    }
-                    gx[2] = c;
+            case '7': /*save cursor, attributes, margins */
+                Sc = C;
+                Sr = R;
+                Sgl = gl;
+                Sgr = gr;
+                Sa = attributes;
+                Sgx = new char[4];
+                System.arraycopy(gx, 0, Sgx, 0, 4);
+                Stm = getTopMargin();
+                Sbm = getBottomMargin();
+                if (debug > 1) {
+                    System.out.println("ESC 7");
                 }
-                term_state = TSTATE_DATA;
                 break;
-            case TSTATE_SETG3:
-                if (c != '0' && c != 'A' && c != 'B' && c != '<') {
-                    System.out.println("ESC+:G3 char set?  (" + ((int) c) + ")");
-                } else {
-                    if (debug > 2) {
-                        System.out.println("ESC+:G3 char set  (" + c + " " + ((int) c) + ")");
+            case '8': /*restore cursor, attributes, margins */
+                C = Sc;
+                R = Sr;
+                gl = Sgl;
+                gr = Sgr;
+                System.arraycopy(Sgx, 0, gx, 0, 4);
+                setTopMargin(Stm);
+                setBottomMargin(Sbm);
+                attributes = Sa;
+                if (debug > 1) {
+                    System.out.println("ESC 8");
+                }
+                break;
+            case '(': /* Designate G0 Character set (ISO 2022) */
+                term_state = TSTATE_SETG0;
+                usedcharsets = true;
+                break;
+            case ')': /* Designate G1 character set (ISO 2022) */
+                term_state = TSTATE_SETG1;
+                usedcharsets = true;
+                break;
+            case '*': /* Designate G2 Character set (ISO 2022) */
+                term_state = TSTATE_SETG2;
+                usedcharsets = true;
+                break;
+            case '+': /* Designate G3 Character set (ISO 2022) */
+                term_state = TSTATE_SETG3;
+                usedcharsets = true;
+                break;
+            case '~': /* Locking Shift 1, right */
+                gr = 1;
+                usedcharsets = true;
+                break;
+            case 'n': /* Locking Shift 2 */
+                gl = 2;
+                usedcharsets = true;
+                break;
+            case '}': /* Locking Shift 2, right */
+                gr = 2;
+                usedcharsets = true;
+                break;
+            case 'o': /* Locking Shift 3 */
+                gl = 3;
+                usedcharsets = true;
+                break;
+            case '|': /* Locking Shift 3, right */
+                gr = 3;
+                usedcharsets = true;
+                break;
+            case 'Y': /* vt52 cursor address mode , next chars are x,y */
+                term_state = TSTATE_VT52Y;
+                break;
+            default:
+                System.out.println("ESC unknown letter: " + c + " (" + ((int) c) + ")");
+                break;
+        }
+    }
+
+    /**
+     * Handle the column of a VT52 cursor address.
+     */
+    private void parseVt52X(char c) {
+        C = c - 37;
+        term_state = TSTATE_VT52Y;
+    }
+
+    /**
+     * Handle the row of a VT52 cursor address.
+     */
+    private void parseVt52Y(char c) {
+        R = c - 37;
+        term_state = TSTATE_DATA;
+    }
+
+    /**
+     * Handle the character following ESC #.
+     */
+    private void parseEscSquare(char c, int rows, int columns) {
+        switch (c) {
+            case '8':
+                for (int i = 0; i < columns; i++) {
+                    for (int j = 0; j < rows; j++) {
+                        putChar(i, j, 'E', 0);
                     }
-                    gx[3] = c;
                 }
-                term_state = TSTATE_DATA;
                 break;
-            case TSTATE_ESCSQUARE:
-                switch (c) {
-                    case '8':
-                        for (int i = 0; i < columns; i++) {
-                            for (int j = 0; j < rows; j++) {
-                                putChar(i, j, 'E', 0);
-                            }
-                        }
-                        break;
-                    default:
-                        System.out.println("ESC # " + c + " not supported.");
-                        break;
+            default:
+                System.out.println("ESC # " + c + " not supported.");
+                break;
+        }
+        term_state = TSTATE_DATA;
+    }
+
+    /**
+     * Collect a device control string (ESC P).
+     */
+    private void parseDcs(char c) {
+        if (c == '\\' && dcs.charAt(dcs.length() - 1) == ESC) {
+            handle_dcs(dcs);
+            term_state = TSTATE_DATA;
+            return;
+        }
+        dcs = dcs + c;
+    }
+
+    /**
+     * Handle a DEC private mode sequence (ESC [ ?).
+     */
+    private void parseDceq(char c) {
+        term_state = TSTATE_DATA;
+        switch (c) {
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                DCEvars[DCEvar] = DCEvars[DCEvar] * 10 + ((int) c) - 48;
+                term_state = TSTATE_DCEQ;
+                break;
+            case ';':
+                DCEvar++;
+                DCEvars[DCEvar] = 0;
+                term_state = TSTATE_DCEQ;
+                break;
+            case 's': // XTERM_SAVE missing!
+                if (true || debug > 1) {
+                    System.out.println("ESC [ ? " + DCEvars[0] + " s unimplemented!");
                 }
-                term_state = TSTATE_DATA;
                 break;
-            case TSTATE_DCS:
-                if (c == '\\' && dcs.charAt(dcs.length() - 1) == ESC) {
-                    handle_dcs(dcs);
-                    term_state = TSTATE_DATA;
-                    break;
+            case 'r': // XTERM_RESTORE
+                if (true || debug > 1) {
+                    System.out.println("ESC [ ? " + DCEvars[0] + " r");
+                }
+    /* DEC Mode reset */
+                for (int i = 0; i <= DCEvar; i++) {
+                    switch (DCEvars[i]) {
+                        case 3: /* 80 columns*/
+                            setScreenSize(80, getRows(), true);
+                            break;
+                        case 4: /* scrolling mode, smooth */
+                            break;
+                        case 5: /* light background */
+                            break;
+                        case 6: /* DECOM (Origin Mode) move inside margins. */
+                            moveoutsidemargins = true;
+                            break;
+                        case 7: /* DECAWM: Autowrap Mode */
+                            wraparound = false;
+                            break;
+                        case 12:/* local echo off */
+                            break;
+                        case 9: 	/* X10 mouse */
+                        case 1000:	/* xterm style mouse report on */
+                        case 1001:
+                        case 1002:
+                        case 1003:
+                            mouserpt = DCEvars[i];
+                            break;
+                        default:
+                            System.out.println("ESC [ ? " + DCEvars[0] + " r, unimplemented!");
+                    }
                 }
-                dcs = dcs + c;
                 break;
+            case 'h': // DECSET
+                if (debug > 0) {
+                    System.out.println("ESC [ ? " + DCEvars[0] + " h");
+                }
+    /* DEC Mode set */
+                for (int i = 0; i <= DCEvar; i++) {
+                    switch (DCEvars[i]) {
+                        case 1:  /* Application cursor keys */
+                            KeyUp[0] = "\u001bOA";
+                            KeyDown[0] = "\u001bOB";
+                            KeyRight[0] = "\u001bOC";
+                            KeyLeft[0] = "\u001bOD";
+                            break;
+                        case 2: /* DECANM */
+                            vt52mode = false;
+                            break;
+                        case 3: /* 132 columns*/
+                            setScreenSize(132, getRows(), true);
+                            break;
+                        case 6: /* DECOM: move inside margins. */
+                            moveoutsidemargins = false;
+                            break;
+                        case 7: /* DECAWM: Autowrap Mode */
+                            wraparound = true;
+                            break;
+                        case 25: /* turn cursor on */
+                            showCursor(true);
+                            break;
+                        case 9: 	/* X10 mouse */
+                        case 1000:	/* xterm style mouse report on */
+                        case 1001:
+                        case 1002:
+                        case 1003:
+                            mouserpt = DCEvars[i];
+                            break;
 
-            case TSTATE_DCEQ:
-                term_state = TSTATE_DATA;
-                switch (c) {
-                    case '0':
-                    case '1':
-                    case '2':
-                    case '3':
-                    case '4':
-                    case '5':
-                    case '6':
-                    case '7':
-                    case '8':
-                    case '9':
-                        DCEvars[DCEvar] = DCEvars[DCEvar] * 10 + ((int) c) - 48;
-                        term_state = TSTATE_DCEQ;
-                        break;
-                    case ';':
-                        DCEvar++;
-                        DCEvars[DCEvar] = 0;
-                        term_state = TSTATE_DCEQ;
-                        break;
-                    case 's': // XTERM_SAVE missing!
-                        if (true || debug > 1) {
-                            System.out.println("ESC [ ? " + DCEvars[0] + " s unimplemented!");
-                        }
-                        break;
-                    case 'r': // XTERM_RESTORE
-                        if (true || debug > 1) {
-                            System.out.println("ESC [ ? " + DCEvars[0] + " r");
-                        }
-            /* DEC Mode reset */
-                        for (int i = 0; i <= DCEvar; i++) {
-                            switch (DCEvars[i]) {
-                                case 3: /* 80 columns*/
-                                    setScreenSize(80, getRows(), true);
-                                    break;
-                                case 4: /* scrolling mode, smooth */
-                                    break;
-                                case 5: /* light background */
-                                    break;
-                                case 6: /* DECOM (Origin Mode) move inside margins. */
-                                    moveoutsidemargins = true;
-                                    break;
-                                case 7: /* DECAWM: Autowrap Mode */
-                                    wraparound = false;
-                                    break;
-                                case 12:/* local echo off */
-                                    break;
-                                case 9: 	/* X10 mouse */
-                                case 1000:	/* xterm style mouse report on */
-                                case 1001:
-                                case 1002:
-                                case 1003:
-                                    mouserpt = DCEvars[i];
-                                    break;
-                                default:
-                                    System.out.println("ESC [ ? " + DCEvars[0] + " r, unimplemented!");
-                            }
-                        }
-                        break;
-                    case 'h': // DECSET
-                        if (debug > 0) {
-                            System.out.println("ESC [ ? " + DCEvars[0] + " h");
-                        }
-            /* DEC Mode set */
-                        for (int i = 0; i <= DCEvar; i++) {
-                            switch (DCEvars[i]) {
-                                case 1:  /* Application cursor keys */
-                                    KeyUp[0] = "\u001bOA";
-                                    KeyDown[0] = "\u001bOB";
-                                    KeyRight[0] = "\u001bOC";
-                                    KeyLeft[0] = "\u001bOD";
-                                    break;
-                                case 2: /* DECANM */
-                                    vt52mode = false;
-                                    break;
-                                case 3: /* 132 columns*/
-                                    setScreenSize(132, getRows(), true);
-                                    break;
-                                case 6: /* DECOM: move inside margins. */
-                                    moveoutsidemargins = false;
-                                    break;
-                                case 7: /* DECAWM: Autowrap Mode */
-                                    wraparound = true;
-                                    break;
-                                case 25: /* turn cursor on */
-                                    showCursor(true);
-                                    break;
-                                case 9: 	/* X10 mouse */
-                                case 1000:	/* xterm style mouse report on */
-                                case 1001:
-                                case 1002:
-                                case 1003:
-                                    mouserpt = DCEvars[i];
-                                    break;
-
-                  /* unimplemented stuff, fall through */
-                  /* 4  - scrolling mode, smooth */
-                  /* 5  - light background */
-                  /* 12 - local echo off */
-                  /* 18 - DECPFF - Printer Form Feed Mode -> On */
-                  /* 19 - DECPEX - Printer Extent Mode -> Screen */
-                                default:
-                                    System.out.println("ESC [ ? " + DCEvars[0] + " h, unsupported.");
-                                    break;
-                            }
-                        }
-                        break;
-                    case 'i': // DEC Printer Control, autoprint, echo screenchars to printer
-                        // This is different to CSI i!
-                        // Also: "Autoprint prints a final display line only when the
-                        // cursor is moved off the line by an autowrap or LF, FF, or
-                        // VT (otherwise do not print the line)."
-                        switch (DCEvars[0]) {
-                            case 1:
-                                if (debug > 1) {
-                                    System.out.println("CSI ? 1 i : Print line containing cursor");
-                                }
-                                break;
-                            case 4:
-                                if (debug > 1) {
-                                    System.out.println("CSI ? 4 i : Start passthrough printing");
-                                }
-                                break;
-                            case 5:
-                                if (debug > 1) {
-                                    System.out.println("CSI ? 4 i : Stop passthrough printing");
-                                }
-                                break;
+          /* unimplemented stuff, fall through */
+          /* 4  - scrolling mode, smooth */
+          /* 5  - light background */
+          /* 12 - local echo off */
+          /* 18 - DECPFF - Printer Form Feed Mode -> On */
+          /* 19 - DECPEX - Printer Extent Mode -> Screen */
+                        default:
+                            System.out.println("ESC [ ? " + DCEvars[0] + " h, unsupported.");
+                            break;
+                    }
+                }
+                break;
+            case 'i': // DEC Printer Control, autoprint, echo screenchars to printer
+                // This is different to CSI i!
+                // Also: "Autoprint prints a final display line only when the
+                // cursor is moved off the line by an autowrap or LF, FF, or
+                // VT (otherwise do not print the line)."
+                switch (DCEvars[0]) {
+                    case 1:
+                        if (debug > 1) {
+                            System.out.println("CSI ? 1 i : Print line containing cursor");
                         }
                         break;
-                    case 'l':    //DECRST
-            /* DEC Mode reset */
-                        if (debug > 0) {
-                            System.out.println("ESC [ ? " + DCEvars[0] + " l");
-                        }
-                        for (int i = 0; i <= DCEvar; i++) {
-                            switch (DCEvars[i]) {
-                                case 1:  /* Application cursor keys */
-                                    KeyUp[0] = "\u001b[A";
-                                    KeyDown[0] = "\u001b[B";
-                                    KeyRight[0] = "\u001b[C";
-                                    KeyLeft[0] = "\u001b[D";
-                                    break;
-                                case 2: /* DECANM */
-                                    vt52mode = true;
-                                    break;
-                                case 3: /* 80 columns*/
-                                    setScreenSize(80, getRows(), true);
-                                    break;
-                                case 6: /* DECOM: move outside margins. */
-                                    moveoutsidemargins = true;
-                                    break;
-                                case 7: /* DECAWM: Autowrap Mode OFF */
-                                    wraparound = false;
-                                    break;
-                                case 25: /* turn cursor off */
-                                    showCursor(false);
-                                    break;
-                  /* Unimplemented stuff: */
-                  /* 4  - scrolling mode, jump */
-                  /* 5  - dark background */
-                  /* 7  - DECAWM - no wrap around mode */
-                  /* 12 - local echo on */
-                  /* 18 - DECPFF - Printer Form Feed Mode -> Off*/
-                  /* 19 - DECPEX - Printer Extent Mode -> Scrolling Region */
-                                case 9: 	/* X10 mouse */
-                                case 1000:	/* xterm style mouse report OFF */
-                                case 1001:
-                                case 1002:
-                                case 1003:
-                                    mouserpt = 0;
-                                    break;
-                                default:
-                                    System.out.println("ESC [ ? " + DCEvars[0] + " l, unsupported.");
-                                    break;
-                            }
+                    case 4:
+                        if (debug > 1) {
+                            System.out.println("CSI ? 4 i : Start passthrough printing");
                         }
                         break;
-                    case 'n':
-                        if (debug > 0) {
-                            System.out.println("ESC [ ? " + DCEvars[0] + " n");
-                        }
-                        switch (DCEvars[0]) {
-                            case 15:
-                /* printer? no printer. */
-                                write(ESC + "[?13n", false);
-                                System.out.println("ESC[5n");
-                                break;
-                            default:
-                                System.out.println("ESC [ ? " + DCEvars[0] + " n, unsupported.");
-                                break;
+                    case 5:
+                        if (debug > 1) {
+                            System.out.println("CSI ? 4 i : Stop passthrough printing");
                         }
                         break;
-                    default:
-                        System.out.println("ESC [ ? " + DCEvars[0] + " " + c + ", unsupported.");
-                        break;
                 }
                 break;
-            case TSTATE_CSI_EX:
-                term_state = TSTATE_DATA;
-                switch (c) {
-                    case ESC:
-                        term_state = TSTATE_ESC;
-                        break;
-                    default:
-                        System.out.println("Unknown character ESC[! character is " + (int) c);
-                        break;
+            case 'l':    //DECRST
+    /* DEC Mode reset */
+                if (debug > 0) {
+                    System.out.println("ESC [ ? " + DCEvars[0] + " l");
                 }
-                break;
-            case TSTATE_CSI_TICKS:
-                term_state = TSTATE_DATA;
-                switch (c) {
-                    case 'p':
-                        System.out.println("Conformance level: " + DCEvars[0] + " (unsupported)," + DCEvars[1]);
-                        if (DCEvars[0] == 61) {
-                            output8bit = false;
+                for (int i = 0; i <= DCEvar; i++) {
+                    switch (DCEvars[i]) {
+                        case 1:  /* Application cursor keys */
+                            KeyUp[0] = "\u001b[A";
+                            KeyDown[0] = "\u001b[B";
+                            KeyRight[0] = "\u001b[C";
+                            KeyLeft[0] = "\u001b[D";
                             break;
-                        }
-                        output8bit = DCEvars[1] != 1;
+                        case 2: /* DECANM */
+                            vt52mode = true;
+                            break;
+                        case 3: /* 80 columns*/
+                            setScreenSize(80, getRows(), true);
+                            break;
+                        case 6: /* DECOM: move outside margins. */
+                            moveoutsidemargins = true;
+                            break;
+                        case 7: /* DECAWM: Autowrap Mode OFF */
+                            wraparound = false;
+                            break;
+                        case 25: /* turn cursor off */
+                            showCursor(false);
+                            break;
+          /* Unimplemented stuff: */
+          /* 4  - scrolling mode, jump */
+          /* 5  - dark background */
+          /* 7  - DECAWM - no wrap around mode */
+          /* 12 - local echo on */
+          /* 18 - DECPFF - Printer Form Feed Mode -> Off*/
+          /* 19 - DECPEX - Printer Extent Mode -> Scrolling Region */
+                        case 9: 	/* X10 mouse */
+                        case 1000:	/* xterm style mouse report OFF */
+                        case 1001:
+                        case 1002:
+                        case 1003:
+                            mouserpt = 0;
+                            break;
+                        default:
+                            System.out.println("ESC [ ? " + DCEvars[0] + " l, unsupported.");
+                            break;
+                    }
+                }
+                break;
+            case 'n':
+                if (debug > 0) {
+                    System.out.println("ESC [ ? " + DCEvars[0] + " n");
+                }
+                switch (DCEvars[0]) {
+                    case 15:
+        /* printer? no printer. */
+                        write(ESC + "[?13n", false);
+                        System.out.println("ESC[5n");
                         break;
                     default:
-                        System.out.println("Unknown ESC [...  \"" + c);
+                        System.out.println("ESC [ ? " + DCEvars[0] + " n, unsupported.");
                         break;
                 }
                 break;
-            case TSTATE_CSI_EQUAL:
-                term_state = TSTATE_DATA;
-                switch (c) {
-                    case '0':
-                    case '1':
-                    case '2':
-                    case '3':
-                    case '4':
-                    case '5':
-                    case '6':
-                    case '7':
-                    case '8':
-                    case '9':
-                        DCEvars[DCEvar] = DCEvars[DCEvar] * 10 + ((int) c) - 48;
-                        term_state = TSTATE_CSI_EQUAL;
-                        break;
-                    case ';':
-                        DCEvar++;
-                        DCEvars[DCEvar] = 0;
-                        term_state = TSTATE_CSI_EQUAL;
-                        break;
+            default:
+                System.out.println("ESC [ ? " + DCEvars[0] + " " + c + ", unsupported.");
+                break;
+        }
+    }
+
+    /**
+     * Handle the character following ESC [ !.
+     */
+    private void parseCsiEx(char c) {
+        term_state = TSTATE_DATA;
+        switch (c) {
+            case ESC:
+                term_state = TSTATE_ESC;
+                break;
+            default:
+                System.out.println("Unknown character ESC[! character is " + (int) c);
+                break;
+        }
+    }
+
+    /**
+     * Handle the character following ESC [ Pn &quot;.
+     */
+    private void parseCsiTicks(char c) {
+        term_state = TSTATE_DATA;
+        switch (c) {
+            case 'p':
+                System.out.println("Conformance level: " + DCEvars[0] + " (unsupported)," + DCEvars[1]);
+                if (DCEvars[0] == 61) {
+                    output8bit = false;
+                    break;
+                }
+                output8bit = DCEvars[1] != 1;
+                break;
+            default:
+                System.out.println("Unknown ESC [...  \"" + c);
+                break;
+        }
+    }
 
-                    case 'F': /* SCO ANSI foreground */ {
-                        int newcolor;
+    /**
+     * Handle a SCO ANSI sequence (ESC [ =).
+     */
+    private void parseCsiEqual(char c) {
+        term_state = TSTATE_DATA;
+        switch (c) {
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                DCEvars[DCEvar] = DCEvars[DCEvar] * 10 + ((int) c) - 48;
+                term_state = TSTATE_CSI_EQUAL;
+                break;
+            case ';':
+                DCEvar++;
+                DCEvars[DCEvar] = 0;
+                term_state = TSTATE_CSI_EQUAL;
+                break;
 
-                        System.out.println("ESC [ = " + DCEvars[0] + " F");
+            case 'F': /* SCO ANSI foreground */ {
+                int newcolor;
 
-                        attributes &= ~COLOR_FG;
-                        newcolor = ((DCEvars[0] & 1) << 2) |
-                                (DCEvars[0] & 2) |
-                                ((DCEvars[0] & 4) >> 2);
-                        attributes |= (newcolor + 1) << COLOR_FG_SHIFT;
+                System.out.println("ESC [ = " + DCEvars[0] + " F");
 
-                        break;
-                    }
-                    case 'G': /* SCO ANSI background */ {
-                        int newcolor;
+                attributes &= ~COLOR_FG;
+                newcolor = ((DCEvars[0] & 1) << 2) |
+                        (DCEvars[0] & 2) |
+                        ((DCEvars[0] & 4) >> 2);
+                attributes |= (newcolor + 1) << COLOR_FG_SHIFT;
 
-                        System.out.println("ESC [ = " + DCEvars[0] + " G");
+                break;
+            }
+            case 'G': /* SCO ANSI background */ {
+                int newcolor;
 
-                        attributes &= ~COLOR_BG;
-                        newcolor = ((DCEvars[0] & 1) << 2) |
-                                (DCEvars[0] & 2) |
-                                ((DCEvars[0] & 4) >> 2);
-                        attributes |= (newcolor + 1) << COLOR_BG_SHIFT;
-                        break;
-                    }
+                System.out.println("ESC [ = " + DCEvars[0] + " G");
 
-                    default:
-                        System.out.print("Unknown ESC [ = ");
-                        for (int i = 0; i <= DCEvar; i++) {
-                            System.out.print(DCEvars[i] + ",");
-                        }
-                        System.out.println("" + c);
-                        break;
-                }
+                attributes &= ~COLOR_BG;
+                newcolor = ((DCEvars[0] & 1) << 2) |
+                        (DCEvars[0] & 2) |
+                        ((DCEvars[0] & 4) >> 2);
+                attributes |= (newcolor + 1) << COLOR_BG_SHIFT;
                 break;
-            case TSTATE_CSI_DOLLAR:
-                term_state = TSTATE_DATA;
-                switch (c) {
-                    case '}':
-                        System.out.println("Active Status Display now " + DCEvars[0]);
-                        statusmode = DCEvars[0];
-                        break;
-            /* bad documentation?
-               case '-':
-               System.out.println("Set Status Display now "+DCEvars[0]);
-               break;
-            */
-                    case '~':
-                        System.out.println("Status Line mode now " + DCEvars[0]);
-                        break;
-                    default:
-                        System.out.println("UNKNOWN Status Display code " + c + ", with Pn=" + DCEvars[0]);
-                        break;
+            }
+
+            default:
+                System.out.print("Unknown ESC [ = ");
+                for (int i = 0; i <= DCEvar; i++) {
+                    System.out.print(DCEvars[i] + ",");
                 }
+                System.out.println("" + c);
                 break;
-            case TSTATE_CSI:
-                term_state = TSTATE_DATA;
-                switch (c) {
-                    case '"':
-                        term_state = TSTATE_CSI_TICKS;
-                        break;
-                    case '$':
-                        term_state = TSTATE_CSI_DOLLAR;
-                        break;
-                    case '=':
-                        term_state = TSTATE_CSI_EQUAL;
-                        break;
-                    case '!':
-                        term_state = TSTATE_CSI_EX;
-                        break;
-                    case '?':
-                        DCEvar = 0;
-                        DCEvars[0] = 0;
-                        term_state = TSTATE_DCEQ;
-                        break;
-                    case '0':
-                    case '1':
-                    case '2':
-                    case '3':
-                    case '4':
-                    case '5':
-                    case '6':
-                    case '7':
-                    case '8':
-                    case '9':
-                        DCEvars[DCEvar] = DCEvars[DCEvar] * 10 + ((int) c) - 48;
-                        term_state = TSTATE_CSI;
-                        break;
-                    case ';':
-                        DCEvar++;
-                        DCEvars[DCEvar] = 0;
-                        term_state = TSTATE_CSI;
-                        break;
-                    case 'c':/* send primary device attributes */
-            /* send (ESC[?61c) */
+        }
+    }
 
-                        String subcode = "";
-                        if ("vt320".equals(terminalID)) {
-                            subcode = "63;";
-                        }
-                        if ("vt220".equals(terminalID)) {
-                            subcode = "62;";
-                        }
-                        if ("vt100".equals(terminalID)) {
-                            subcode = "61;";
-                        }
-                        write(ESC + "[?" + subcode + "1;2c", false);
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " c");
-                        }
-                        break;
-                    case 'q':
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " q");
-                        }
-                        break;
-                    case 'g':
-            /* used for tabsets */
-                        switch (DCEvars[0]) {
-                            case 3:/* clear them */
-                                Tabs = new byte[getColumns()];
-                                break;
-                            case 0:
-                                Tabs[C] = 0;
-                                break;
-                        }
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " g");
-                        }
-                        break;
-                    case 'h':
-                        switch (DCEvars[0]) {
-                            case 4:
-                                insertmode = 1;
-                                break;
-                            case 20:
-                                System.out.println("Setting CRLF to TRUE");
-                                sendcrlf = true;
-                                break;
-                            default:
-                                System.out.println("unsupported: ESC [ " + DCEvars[0] + " h");
-                                break;
-                        }
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " h");
-                        }
-                        break;
-                    case 'i': // Printer Controller mode.
-                        // "Transparent printing sends all output, except the CSI 4 i
-                        //  termination string, to the printer and not the screen,
-                        //  uses an 8-bit channel if no parity so NUL and DEL will be
-                        //  seen by the printer and by the termination recognizer code,
-                        //  and all translation and character set selections are
-                        //  bypassed."
-                        switch (DCEvars[0]) {
-                            case 0:
-                                if (debug > 1) {
-                                    System.out.println("CSI 0 i:  Print Screen, not implemented.");
-                                }
-                                break;
-                            case 4:
-                                if (debug > 1) {
-                                    System.out.println("CSI 4 i:  Enable Transparent Printing, not implemented.");
-                                }
-                                break;
-                            case 5:
-                                if (debug > 1) {
-                                    System.out.println("CSI 4/5 i:  Disable Transparent Printing, not implemented.");
-                                }
-                                break;
-                            default:
-                                System.out.println("ESC [ " + DCEvars[0] + " i, unimplemented!");
-                        }
-                        break;
-                    case 'l':
-                        switch (DCEvars[0]) {
-                            case 4:
-                                insertmode = 0;
-                                break;
-                            case 20:
-                                System.out.println("Setting CRLF to FALSE");
-                                sendcrlf = false;
-                                break;
-                            default:
-                                System.out.println("ESC [ " + DCEvars[0] + " l, unimplemented!");
-                                break;
-                        }
-                        break;
-                    case 'A': // CUU
-                    {
-                        int limit;
-              /* FIXME: xterm only cares about 0 and topmargin */
-                        if (R > bm) {
-                            limit = bm + 1;
-                        } else if (R >= tm) {
-                            limit = tm;
-                        } else {
-                            limit = 0;
-                        }
-                        if (DCEvars[0] == 0) {
-                            R--;
-                        } else {
-                            R -= DCEvars[0];
-                        }
-                        if (R < limit) {
-                            R = limit;
-                        }
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " A");
-                        }
+    /**
+     * Handle the character following ESC [ Pn $.
+     */
+    private void parseCsiDollar(char c) {
+        term_state = TSTATE_DATA;
+        switch (c) {
+            case '}':
+                System.out.println("Active Status Display now " + DCEvars[0]);
+                statusmode = DCEvars[0];
+                break;
+    /* bad documentation?
+       case '-':
+       System.out.println("Set Status Display now "+DCEvars[0]);
+       break;
+    */
+            case '~':
+                System.out.println("Status Line mode now " + DCEvars[0]);
+                break;
+            default:
+                System.out.println("UNKNOWN Status Display code " + c + ", with Pn=" + DCEvars[0]);
+                break;
+        }
+    }
+
+    /**
+     * Handle a control sequence (ESC [).
+     */
+    private void parseCsi(char c, int rows, int columns, int tm, int bm) {
+        term_state = TSTATE_DATA;
+        switch (c) {
+            case '"':
+                term_state = TSTATE_CSI_TICKS;
+                break;
+            case '$':
+                term_state = TSTATE_CSI_DOLLAR;
+                break;
+            case '=':
+                term_state = TSTATE_CSI_EQUAL;
+                break;
+            case '!':
+                term_state = TSTATE_CSI_EX;
+                break;
+            case '?':
+                DCEvar = 0;
+                DCEvars[0] = 0;
+                term_state = TSTATE_DCEQ;
+                break;
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                DCEvars[DCEvar] = DCEvars[DCEvar] * 10 + ((int) c) - 48;
+                term_state = TSTATE_CSI;
+                break;
+            case ';':
+                DCEvar++;
+                DCEvars[DCEvar] = 0;
+                term_state = TSTATE_CSI;
+                break;
+            case 'c':/* send primary device attributes */
+    /* send (ESC[?61c) */
+
+                String subcode = "";
+                if ("vt320".equals(terminalID)) {
+                    subcode = "63;";
+                }
+                if ("vt220".equals(terminalID)) {
+                    subcode = "62;";
+                }
+                if ("vt100".equals(terminalID)) {
+                    subcode = "61;";
+                }
+                write(ESC + "[?" + subcode + "1;2c", false);
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " c");
+                }
+                break;
+            case 'q':
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " q");
+                }
+                break;
+            case 'g':
+    /* used for tabsets */
+                switch (DCEvars[0]) {
+                    case 3:/* clear them */
+                        Tabs = new byte[getColumns()];
                         break;
-                    }
-                    case 'B':    // CUD
-            /* cursor down n (1) times */
-                    {
-                        int limit;
-                        if (R < tm) {
-                            limit = tm - 1;
-                        } else if (R <= bm) {
-                            limit = bm;
-                        } else {
-                            limit = rows - 1;
-                        }
-                        if (DCEvars[0] == 0) {
-                            R++;
-                        } else {
-                            R += DCEvars[0];
-                        }
-                        if (R > limit) {
-                            R = limit;
-                        } else {
-                            if (debug > 2) {
-                                System.out.println("Not limited.");
-                            }
-                        }
-                        if (debug > 2) {
-                            System.out.println("to: " + R);
-                        }
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " B (at C=" + C + ")");
-                        }
+                    case 0:
+                        Tabs[C] = 0;
                         break;
-                    }
-                    case 'C':
-                        if (DCEvars[0] == 0) {
-                            C++;
-                        } else {
-                            C += DCEvars[0];
-                        }
-                        if (C > columns - 1) {
-                            C = columns - 1;
-                        }
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " C");
-                        }
+                }
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " g");
+                }
+                break;
+            case 'h':
+                switch (DCEvars[0]) {
+                    case 4:
+                        insertmode = 1;
                         break;
-                    case 'd': // CVA
-                        R = DCEvars[0];
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " d");
-                        }
+                    case 20:
+                        System.out.println("Setting CRLF to TRUE");
+                        sendcrlf = true;
                         break;
-                    case 'D':
-                        if (DCEvars[0] == 0) {
-                            C--;
-                        } else {
-                            C -= DCEvars[0];
-                        }
-                        if (C < 0) {
-                            C = 0;
-                        }
+                    default:
+                        System.out.println("unsupported: ESC [ " + DCEvars[0] + " h");
+                        break;
+                }
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " h");
+                }
+                break;
+            case 'i': // Printer Controller mode.
+                // "Transparent printing sends all output, except the CSI 4 i
+                //  termination string, to the printer and not the screen,
+                //  uses an 8-bit channel if no parity so NUL and DEL will be
+                //  seen by the printer and by the termination recognizer code,
+                //  and all translation and character set selections are
+                //  bypassed."
+                switch (DCEvars[0]) {
+                    case 0:
                         if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " D");
+                            System.out.println("CSI 0 i:  Print Screen, not implemented.");
                         }
                         break;
-                    case 'r': // DECSTBM
-                        if (DCEvar > 0)   //  Ray:  Any argument is optional
-                        {
-                            R = DCEvars[1] - 1;
-                            if (R < 0) {
-                                R = rows - 1;
-                            } else if (R >= rows) {
-                                R = rows - 1;
-                            }
-                        } else {
-                            R = rows - 1;
-                        }
-                        setBottomMargin(R);
-                        if (R >= DCEvars[0]) {
-                            R = DCEvars[0] - 1;
-                            if (R < 0) {
-                                R = 0;
-                            }
-                        }
-                        setTopMargin(R);
-                        _SetCursor(0, 0);
+                    case 4:
                         if (debug > 1) {
-                            System.out.println("ESC [" + DCEvars[0] + " ; " + DCEvars[1] + " r");
+                            System.out.println("CSI 4 i:  Enable Transparent Printing, not implemented.");
                         }
                         break;
-                    case 'G':  /* CUP  / cursor absolute column */
-                        C = DCEvars[0];
+                    case 5:
                         if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " G");
+                            System.out.println("CSI 4/5 i:  Disable Transparent Printing, not implemented.");
                         }
                         break;
-                    case 'H':  /* CUP  / cursor position */
-            /* gets 2 arguments */
-                        _SetCursor(DCEvars[0] - 1, DCEvars[1] - 1);
-                        if (debug > 2) {
-                            System.out.println("ESC [ " + DCEvars[0] + ";" + DCEvars[1] + " H, " +
-                                    "moveoutsidemargins " + moveoutsidemargins);
-                            System.out.println("	-> R now " + R + ", C now " + C);
-                        }
+                    default:
+                        System.out.println("ESC [ " + DCEvars[0] + " i, unimplemented!");
+                }
+                break;
+            case 'l':
+                switch (DCEvars[0]) {
+                    case 4:
+                        insertmode = 0;
                         break;
-                    case 'f':  /* move cursor 2 */
-            /* gets 2 arguments */
-                        R = DCEvars[0] - 1;
-                        C = DCEvars[1] - 1;
-                        if (C < 0) {
-                            C = 0;
-                        }
-                        if (R < 0) {
-                            R = 0;
-                        }
-                        if (debug > 2) {
-                            System.out.println("ESC [ " + DCEvars[0] + ";" + DCEvars[1] + " f");
-                        }
+                    case 20:
+                        System.out.println("Setting CRLF to FALSE");
+                        sendcrlf = false;
                         break;
-                    case 'S': /* ind aka 'scroll forward' */
-                        if (DCEvars[0] == 0) {
-                            insertLine(rows - 1, SCROLL_UP);
-                        } else {
-                            insertLine(rows - 1, DCEvars[0], SCROLL_UP);
-                        }
+                    default:
+                        System.out.println("ESC [ " + DCEvars[0] + " l, unimplemented!");
                         break;
-                    case 'L':
-            /* insert n lines */
-                        if (DCEvars[0] == 0) {
-                            insertLine(R, SCROLL_DOWN);
-                        } else {
-                            insertLine(R, DCEvars[0], SCROLL_DOWN);
-                        }
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + "" + (c) + " (at R " + R + ")");
+                }
+                break;
+            case 'A': // CUU
+            {
+                int limit;
+      /* FIXME: xterm only cares about 0 and topmargin */
+                if (R > bm) {
+                    limit = bm + 1;
+                } else if (R >= tm) {
+                    limit = tm;
+                } else {
+                    limit = 0;
+                }
+                if (DCEvars[0] == 0) {
+                    R--;
+                } else {
+                    R -= DCEvars[0];
+                }
+                if (R < limit) {
+                    R = limit;
+                }
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " A");
+                }
+                break;
+            }
+            case 'B':    // CUD
+    /* cursor down n (1) times */
+            {
+                int limit;
+                if (R < tm) {
+                    limit = tm - 1;
+                } else if (R <= bm) {
+                    limit = bm;
+                } else {
+                    limit = rows - 1;
+                }
+                if (DCEvars[0] == 0) {
+                    R++;
+                } else {
+                    R += DCEvars[0];
+                }
+                if (R > limit) {
+                    R = limit;
+                } else {
+                    if (debug > 2) {
+                        System.out.println("Not limited.");
+                    }
+                }
+                if (debug > 2) {
+                    System.out.println("to: " + R);
+                }
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " B (at C=" + C + ")");
+                }
+                break;
+            }
+            case 'C':
+                if (DCEvars[0] == 0) {
+                    C++;
+                } else {
+                    C += DCEvars[0];
+                }
+                if (C > columns - 1) {
+                    C = columns - 1;
+                }
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " C");
+                }
+                break;
+            case 'd': // CVA
+                R = DCEvars[0];
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " d");
+                }
+                break;
+            case 'D':
+                if (DCEvars[0] == 0) {
+                    C--;
+                } else {
+                    C -= DCEvars[0];
+                }
+                if (C < 0) {
+                    C = 0;
+                }
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " D");
+                }
+                break;
+            case 'r': // DECSTBM
+                if (DCEvar > 0)   //  Ray:  Any argument is optional
+                {
+                    R = DCEvars[1] - 1;
+                    if (R < 0) {
+                        R = rows - 1;
+                    } else if (R >= rows) {
+                        R = rows - 1;
+                    }
+                } else {
+                    R = rows - 1;
+                }
+                setBottomMargin(R);
+                if (R >= DCEvars[0]) {
+                    R = DCEvars[0] - 1;
+                    if (R < 0) {
+                        R = 0;
+                    }
+                }
+                setTopMargin(R);
+                _SetCursor(0, 0);
+                if (debug > 1) {
+                    System.out.println("ESC [" + DCEvars[0] + " ; " + DCEvars[1] + " r");
+                }
+                break;
+            case 'G':  /* CUP  / cursor absolute column */
+                C = DCEvars[0];
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " G");
+                }
+                break;
+            case 'H':  /* CUP  / cursor position */
+    /* gets 2 arguments */
+                _SetCursor(DCEvars[0] - 1, DCEvars[1] - 1);
+                if (debug > 2) {
+                    System.out.println("ESC [ " + DCEvars[0] + ";" + DCEvars[1] + " H, " +
+                            "moveoutsidemargins " + moveoutsidemargins);
+                    System.out.println("	-> R now " + R + ", C now " + C);
+                }
+                break;
+            case 'f':  /* move cursor 2 */
+    /* gets 2 arguments */
+                R = DCEvars[0] - 1;
+                C = DCEvars[1] - 1;
+                if (C < 0) {
+                    C = 0;
+                }
+                if (R < 0) {
+                    R = 0;
+                }
+                if (debug > 2) {
+                    System.out.println("ESC [ " + DCEvars[0] + ";" + DCEvars[1] + " f");
+                }
+                break;
+            case 'S': /* ind aka 'scroll forward' */
+                if (DCEvars[0] == 0) {
+                    insertLine(rows - 1, SCROLL_UP);
+                } else {
+                    insertLine(rows - 1, DCEvars[0], SCROLL_UP);
+                }
+                break;
+            case 'L':
+    /* insert n lines */
+                if (DCEvars[0] == 0) {
+                    insertLine(R, SCROLL_DOWN);
+                } else {
+                    insertLine(R, DCEvars[0], SCROLL_DOWN);
+                }
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + "" + (c) + " (at R " + R + ")");
+                }
+                break;
+            case 'T': /* 'ri' aka scroll backward */
+                if (DCEvars[0] == 0) {
+                    insertLine(0, SCROLL_DOWN);
+                } else {
+                    insertLine(0, DCEvars[0], SCROLL_DOWN);
+                }
+                break;
+            case 'M':
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + "" + (c) + " at R=" + R);
+                }
+                if (DCEvars[0] == 0) {
+                    deleteLine(R);
+                } else {
+                    for (int i = 0; i < DCEvars[0]; i++) {
+                        deleteLine(R);
+                    }
+                }
+                break;
+            case 'K':
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " K");
+                }
+    /* clear in line */
+                switch (DCEvars[0]) {
+                    case 6: /* 97801 uses ESC[6K for delete to end of line */
+                    case 0:/*clear to right*/
+                        if (C < columns - 1) {
+                            deleteArea(C, R, columns - C, 1, attributes);
                         }
                         break;
-                    case 'T': /* 'ri' aka scroll backward */
-                        if (DCEvars[0] == 0) {
-                            insertLine(0, SCROLL_DOWN);
-                        } else {
-                            insertLine(0, DCEvars[0], SCROLL_DOWN);
+                    case 1:/*clear to the left, including this */
+                        if (C > 0) {
+                            deleteArea(0, R, C + 1, 1, attributes);
                         }
                         break;
-                    case 'M':
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + "" + (c) + " at R=" + R);
-                        }
-                        if (DCEvars[0] == 0) {
-                            deleteLine(R);
-                        } else {
-                            for (int i = 0; i < DCEvars[0]; i++) {
-                                deleteLine(R);
-                            }
-                        }
+                    case 2:/*clear whole line */
+                        deleteArea(0, R, columns, 1, attributes);
                         break;
-                    case 'K':
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " K");
+                }
+                break;
+            case 'J':
+    /* clear below current line */
+                switch (DCEvars[0]) {
+                    case 0:
+                        if (R < rows - 1) {
+                            deleteArea(0, R + 1, columns, rows - R - 1, attributes);
                         }
-            /* clear in line */
-                        switch (DCEvars[0]) {
-                            case 6: /* 97801 uses ESC[6K for delete to end of line */
-                            case 0:/*clear to right*/
-                                if (C < columns - 1) {
-                                    deleteArea(C, R, columns - C, 1, attributes);
-                                }
-                                break;
-                            case 1:/*clear to the left, including this */
-                                if (C > 0) {
-                                    deleteArea(0, R, C + 1, 1, attributes);
-                                }
-                                break;
-                            case 2:/*clear whole line */
-                                deleteArea(0, R, columns, 1, attributes);
-                                break;
+                        if (C < columns - 1) {
+                            deleteArea(C, R, columns - C, 1, attributes);
                         }
                         break;
-                    case 'J':
-            /* clear below current line */
-                        switch (DCEvars[0]) {
-                            case 0:
-                                if (R < rows - 1) {
-                                    deleteArea(0, R + 1, columns, rows - R - 1, attributes);
-                                }
-                                if (C < columns - 1) {
-                                    deleteArea(C, R, columns - C, 1, attributes);
-                                }
-                                break;
-                            case 1:
-                                if (R > 0) {
-                                    deleteArea(0, 0, columns, R, attributes);
-                                }
-                                if (C > 0) {
-                                    deleteArea(0, R, C + 1, 1, attributes);// include up to and including current
-                                }
-                                break;
-                            case 2:
-                                deleteArea(0, 0, columns, rows, attributes);
-                                break;
+                    case 1:
+                        if (R > 0) {
+                            deleteArea(0, 0, columns, R, attributes);
                         }
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " J");
+                        if (C > 0) {
+                            deleteArea(0, R, C + 1, 1, attributes);// include up to and including current
                         }
                         break;
-                    case '@':
-                        if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " @");
-                        }
-                        for (int i = 0; i < DCEvars[0]; i++) {
-                            insertChar(C, R, ' ', attributes);
-                        }
+                    case 2:
+                        deleteArea(0, 0, columns, rows, attributes);
                         break;
-                    case 'X': {
-                        int toerase = DCEvars[0];
+                }
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " J");
+                }
+                break;
+            case '@':
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " @");
+                }
+                for (int i = 0; i < DCEvars[0]; i++) {
+                    insertChar(C, R, ' ', attributes);
+                }
+                break;
+            case 'X': {
+                int toerase = DCEvars[0];
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " X, C=" + C + ",R=" + R);
+                }
+                if (toerase == 0) {
+                    toerase = 1;
+                }
+                if (toerase + C > columns) {
+                    toerase = columns - C;
+                }
+                deleteArea(C, R, toerase, 1, attributes);
+                // does not change cursor position
+                break;
+            }
+            case 'P':
+                if (debug > 1) {
+                    System.out.println("ESC [ " + DCEvars[0] + " P, C=" + C + ",R=" + R);
+                }
+                if (DCEvars[0] == 0) {
+                    DCEvars[0] = 1;
+                }
+                for (int i = 0; i < DCEvars[0]; i++) {
+                    deleteChar(C, R);
+                }
+                break;
+            case 'n':
+                switch (DCEvars[0]) {
+                    case 5: /* malfunction? No malfunction. */
+                        writeSpecial(ESC + "[0n");
                         if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " X, C=" + C + ",R=" + R);
-                        }
-                        if (toerase == 0) {
-                            toerase = 1;
-                        }
-                        if (toerase + C > columns) {
-                            toerase = columns - C;
+                            System.out.println("ESC[5n");
                         }
-                        deleteArea(C, R, toerase, 1, attributes);
-                        // does not change cursor position
                         break;
-                    }
-                    case 'P':
+                    case 6:
+                        // DO NOT offset R and C by 1! (checked against /usr/X11R6/bin/resize
+                        // FIXME check again.
+                        // FIXME: but vttest thinks different???
+                        writeSpecial(ESC + "[" + R + ";" + C + "R");
                         if (debug > 1) {
-                            System.out.println("ESC [ " + DCEvars[0] + " P, C=" + C + ",R=" + R);
-                        }
-                        if (DCEvars[0] == 0) {
-                            DCEvars[0] = 1;
-                        }
-                        for (int i = 0; i < DCEvars[0]; i++) {
-                            deleteChar(C, R);
-                        }
-                        break;
-                    case 'n':
-                        switch (DCEvars[0]) {
-                            case 5: /* malfunction? No malfunction. */
-                                writeSpecial(ESC + "[0n");
-                                if (debug > 1) {
-                                    System.out.println("ESC[5n");
-                                }
-                                break;
-                            case 6:
-                                // DO NOT offset R and C by 1! (checked against /usr/X11R6/bin/resize
-                                // FIXME check again.
-                                // FIXME: but vttest thinks different???
-                                writeSpecial(ESC + "[" + R + ";" + C + "R");
-                                if (debug > 1) {
-                                    System.out.println("ESC[6n");
-                                }
-                                break;
-                            default:
-                                if (debug > 0) {
-                                    System.out.println("ESC [ " + DCEvars[0] + " n??");
-                                }
-                                break;
-                        }
-                        break;
-                    case 's':  /* DECSC - save cursor */
-                        Sc = C;
-                        Sr = R;
-                        Sa = attributes;
-                        if (debug > 3) {
-                            System.out.println("ESC[s");
-                        }
-                        break;
-                    case 'u': /* DECRC - restore cursor */
-                        C = Sc;
-                        R = Sr;
-                        attributes = Sa;
-                        if (debug > 3) {
-                            System.out.println("ESC[u");
-                        }
-                        break;
-                    case 'm':  /* attributes as color, bold , blink,*/
-                        if (debug > 3) {
-                            System.out.print("ESC [ ");
-                        }
-                        if (DCEvar == 0 && DCEvars[0] == 0) {
-                            attributes = 0;
-                        }
-                        for (int i = 0; i <= DCEvar; i++) {
-                            switch (DCEvars[i]) {
-                                case 0:
-                                    if (DCEvar > 0) {
-                                        if ("scoansi".equals(terminalID)) {
-                                            attributes &= COLOR; /* Keeps color. Strange but true. */
-                                        } else {
-                                            attributes = 0;
-                                        }
-                                    }
-                                    break;
-                                case 1:
-                                    attributes |= BOLD;
-                                    attributes &= ~LOW;
-                                    break;
-                                case 2:
-                  /* SCO color hack mode */
-                                    if ("scoansi".equals(terminalID) && ((DCEvar - i) >= 2)) {
-                                        int ncolor;
-                                        attributes &= ~(COLOR | BOLD);
-
-                                        ncolor = DCEvars[i + 1];
-                                        if ((ncolor & 8) == 8) {
-                                            attributes |= BOLD;
-                                        }
-                                        ncolor = ((ncolor & 1) << 2) | (ncolor & 2) | ((ncolor & 4) >> 2);
-                                        attributes |= ((ncolor) + 1) << COLOR_FG_SHIFT;
-                                        ncolor = DCEvars[i + 2];
-                                        ncolor = ((ncolor & 1) << 2) | (ncolor & 2) | ((ncolor & 4) >> 2);
-                                        attributes |= ((ncolor) + 1) << COLOR_BG_SHIFT;
-                                        i += 2;
-                                    } else {
-                                        attributes |= LOW;
-                                    }
-                                    break;
-                                case 4:
-                                    attributes |= UNDERLINE;
-                                    break;
-                                case 7:
-                                    attributes |= INVERT;
-                                    break;
-                                case 8:
-                                    attributes |= INVISIBLE;
-                                    break;
-                                case 5: /* blink on */
-                                    break;
-                  /* 10 - ANSI X3.64-1979, select primary font, don't display control
-                   *      chars, don't set bit 8 on output */
-                                case 10:
-                                    gl = 0;
-                                    usedcharsets = true;
-                                    break;
-                  /* 11 - ANSI X3.64-1979, select second alt. font, display control
-                   *      chars, set bit 8 on output */
-                                case 11: /* SMACS , as */
-                                case 12:
-                                    gl = 1;
-                                    usedcharsets = true;
-                                    break;
-                                case 21: /* normal intensity */
-                                    attributes &= ~(LOW | BOLD);
-                                    break;
-                                case 25: /* blinking off */
-                                    break;
-                                case 27:
-                                    attributes &= ~INVERT;
-                                    break;
-                                case 28:
-                                    attributes &= ~INVISIBLE;
-                                    break;
-                                case 24:
-                                    attributes &= ~UNDERLINE;
-                                    break;
-                                case 22:
-                                    attributes &= ~BOLD;
-                                    break;
-                                case 30:
-                                case 31:
-                                case 32:
-                                case 33:
-                                case 34:
-                                case 35:
-                                case 36:
-                                case 37:
-                                    attributes &= ~COLOR_FG;
-                                    attributes |= ((DCEvars[i] - 30) + 1) << COLOR_FG_SHIFT;
-                                    break;
-                                case 39:
-                                    attributes &= ~COLOR_FG;
-                                    break;
-                                case 40:
-                                case 41:
-                                case 42:
-                                case 43:
-                                case 44:
-                                case 45:
-                                case 46:
-                                case 47:
-                                    attributes &= ~COLOR_BG;
-                                    attributes |= ((DCEvars[i] - 40) + 1) << COLOR_BG_SHIFT;
-                                    break;
-                                case 49:
-                                    attributes &= ~COLOR_BG;
-                                    break;
-
-                                default:
-                                    System.out.println("ESC [ " + DCEvars[i] + " m unknown...");
-                                    break;
-                            }
-                            if (debug > 3) {
-                                System.out.print("" + DCEvars[i] + ";");
-                            }
-                        }
-                        if (debug > 3) {
-                            System.out.print(" (attributes = " + attributes + ")m \n");
+                            System.out.println("ESC[6n");
                         }
                         break;
                     default:
-                        System.out.println("ESC [ unknown letter:" + c + " (" + ((int) c) + ")");
+                        if (debug > 0) {
+                            System.out.println("ESC [ " + DCEvars[0] + " n??");
+                        }
                         break;
                 }
                 break;
+            case 's':  /* DECSC - save cursor */
+                Sc = C;
+                Sr = R;
+                Sa = attributes;
+                if (debug > 3) {
+                    System.out.println("ESC[s");
+                }
+                break;
+            case 'u': /* DECRC - restore cursor */
+                C = Sc;
+                R = Sr;
+                attributes = Sa;
+                if (debug > 3) {
+                    System.out.println("ESC[u");
+                }
+                break;
+            case 'm':  /* attributes as color, bold , blink,*/
+                parseSgr();
+                break;
             default:
-                term_state = TSTATE_DATA;
+                System.out.println("ESC [ unknown letter:" + c + " (" + ((int) c) + ")");
                 break;
         }
-        if (C > columns) {
-            C = columns;
+    }
+
+    /**
+     * Set the character attributes from the parameters of ESC [ Pn m.
+     */
+    private void parseSgr() {
+        if (debug > 3) {
+            System.out.print("ESC [ ");
         }
-        if (R > rows) {
-            R = rows;
+        if (DCEvar == 0 && DCEvars[0] == 0) {
+            attributes = 0;
         }
-        if (C < 0) {
-            C = 0;
+        for (int i = 0; i <= DCEvar; i++) {
+            switch (DCEvars[i]) {
+                case 0:
+                    if (DCEvar > 0) {
+                        if ("scoansi".equals(terminalID)) {
+                            attributes &= COLOR; /* Keeps color. Strange but true. */
+                        } else {
+                            attributes = 0;
+                        }
+                    }
+                    break;
+                case 1:
+                    attributes |= BOLD;
+                    attributes &= ~LOW;
+                    break;
+                case 2:
+  /* SCO color hack mode */
+                    if ("scoansi".equals(terminalID) && ((DCEvar - i) >= 2)) {
+                        int ncolor;
+                        attributes &= ~(COLOR | BOLD);
+
+                        ncolor = DCEvars[i + 1];
+                        if ((ncolor & 8) == 8) {
+                            attributes |= BOLD;
+                        }
+                        ncolor = ((ncolor & 1) << 2) | (ncolor & 2) | ((ncolor & 4) >> 2);
+                        attributes |= ((ncolor) + 1) << COLOR_FG_SHIFT;
+                        ncolor = DCEvars[i + 2];
+                        ncolor = ((ncolor & 1) << 2) | (ncolor & 2) | ((ncolor & 4) >> 2);
+                        attributes |= ((ncolor) + 1) << COLOR_BG_SHIFT;
+                        i += 2;
+                    } else {
+                        attributes |= LOW;
+                    }
+                    break;
+                case 4:
+                    attributes |= UNDERLINE;
+                    break;
+                case 7:
+                    attributes |= INVERT;
+                    break;
+                case 8:
+                    attributes |= INVISIBLE;
+                    break;
+                case 5: /* blink on */
+                    break;
+  /* 10 - ANSI X3.64-1979, select primary font, don't display control
+   *      chars, don't set bit 8 on output */
+                case 10:
+                    gl = 0;
+                    usedcharsets = true;
+                    break;
+  /* 11 - ANSI X3.64-1979, select second alt. font, display control
+   *      chars, set bit 8 on output */
+                case 11: /* SMACS , as */
+                case 12:
+                    gl = 1;
+                    usedcharsets = true;
+                    break;
+                case 21: /* normal intensity */
+                    attributes &= ~(LOW | BOLD);
+                    break;
+                case 25: /* blinking off */
+                    break;
+                case 27:
+                    attributes &= ~INVERT;
+                    break;
+                case 28:
+                    attributes &= ~INVISIBLE;
+                    break;
+                case 24:
+                    attributes &= ~UNDERLINE;
+                    break;
+                case 22:
+                    attributes &= ~BOLD;
+                    break;
+                case 30:
+                case 31:
+                case 32:
+                case 33:
+                case 34:
+                case 35:
+                case 36:
+                case 37:
+                    attributes &= ~COLOR_FG;
+                    attributes |= ((DCEvars[i] - 30) + 1) << COLOR_FG_SHIFT;
+                    break;
+                case 39:
+                    attributes &= ~COLOR_FG;
+                    break;
+                case 40:
+                case 41:
+                case 42:
+                case 43:
+                case 44:
+                case 45:
+                case 46:
+                case 47:
+                    attributes &= ~COLOR_BG;
+                    attributes |= ((DCEvars[i] - 40) + 1) << COLOR_BG_SHIFT;
+                    break;
+                case 49:
+                    attributes &= ~COLOR_BG;
+                    break;
+
+                default:
+                    System.out.println("ESC [ " + DCEvars[i] + " m unknown...");
+                    break;
+            }
+            if (debug > 3) {
+                System.out.print("" + DCEvars[i] + ";");
+            }
         }
-        if (R < 0) {
-            R = 0;
+        if (debug > 3) {
+            System.out.print(" (attributes = " + attributes + ")m \n");
         }
-        if (doshowcursor) {
-            setCursorPosition(C, R);
+    }
+
+    /**
+     * Designate a character set to one of G0 to G3.
+     *
+     * @param g the character set slot
+     * @param c the character set
+     */
+    private void parseSetG(int g, char c) {
+        if (c != '0' && c != 'A' && c != 'B' && c != '<') {
+            System.out.println("ESC " + "()*+".charAt(g) + " " + c + ": G" + g + " char set?  (" + ((int) c) + ")");
+        } else {
+            if (debug > 2) {
+                System.out.println("ESC " + "()*+".charAt(g) + " : G" + g + " char set  (" + c + " " + ((int) c) + ")");
+            }
+            gx[g] = c;
         }
-        markLine(R, 1);
+        term_state = TSTATE_DATA;
     }
 
     /* hard reset the terminal */
     public void reset() {
+        usedcharsets = false;
         gx[0] = 'B';
         gx[1] = '0';
         gx[2] = 'B';